@@ -0,0 +1,85 @@
+package com.neosemantix.ds.paxos.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.Metrics;
+import com.neosemantix.ds.paxos.Participant;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+
+/**
+ * Runs participants of one simulation in several JVMs, joined in an Akka
+ * cluster over Artery. Each JVM hosts some of the participants; they find each
+ * other through cluster membership (see Membership) instead of the static
+ * list PaxosMain keeps for a single ActorSystem.
+ *
+ * Usage: ClusterPaxosMain [--multi-paxos] <participant count> <port> <participant id>...
+ *
+ * The node on port 2551 is the seed node, start it first. For instance three
+ * participants on three JVMs of the same host:
+ *
+ * ClusterPaxosMain 3 2551 0
+ * ClusterPaxosMain 3 2552 1
+ * ClusterPaxosMain 3 2553 2
+ */
+public class ClusterPaxosMain {
+
+	/**
+	 * @param participantCount
+	 *            Participants in the whole cluster
+	 * @param port
+	 *            Artery port of this node
+	 * @param ids
+	 *            Participants hosted by this node
+	 * @param directory
+	 *            Filled in as participants of all nodes join
+	 * @return ActorSystem of this node
+	 */
+	public static ActorSystem start(int participantCount, int port, int[] ids, ClusterPeerDirectory directory) {
+		Config.getInstance().numParticipants = participantCount;
+		StringBuilder roles = new StringBuilder();
+		for (int id : ids) {
+			roles.append(roles.length() == 0 ? "" : ", ").append('"').append(Membership.participantName(id)).append('"');
+		}
+		ActorSystem system = ActorSystem.create("Paxos",
+				ConfigFactory.parseString("akka.remote.artery.canonical.port = " + port + "\n"
+						+ "akka.cluster.roles = [" + roles + "]").withFallback(ConfigFactory.load("cluster")));
+		PaxosMain.usePeerDirectory(directory);
+		Metrics.getInstance().start(Config.getInstance());
+		system.actorOf(Membership.props(directory), "membership");
+		Cluster.lookup().get(system).registerOnMemberUp(() -> {
+			for (int id : ids) {
+				system.actorOf(Participant.props(participantCount, id, Membership.participantName(id)),
+						Membership.participantName(id));
+			}
+		});
+		return system;
+	}
+
+	public static void main(String[] args) {
+		args = Config.applyArgs(args);
+		int a = 0;
+		if (args.length > 0 && args[0].equals("--multi-paxos")) {
+			Config.getInstance().multiPaxos = true;
+			a++;
+		}
+		if (args.length - a < 3) {
+			System.err.println("Usage: ClusterPaxosMain [--multi-paxos] [--setting=value...] <participant count> <port> <participant id>...");
+			System.exit(1);
+		}
+		int participantCount = Integer.parseInt(args[a++]);
+		int port = Integer.parseInt(args[a++]);
+		List<Integer> ids = new ArrayList<Integer>();
+		while (a < args.length) {
+			ids.add(Integer.parseInt(args[a++]));
+		}
+		start(participantCount, port, ids.stream().mapToInt(Integer::intValue).toArray(),
+				new ClusterPeerDirectory(participantCount));
+	}
+
+}
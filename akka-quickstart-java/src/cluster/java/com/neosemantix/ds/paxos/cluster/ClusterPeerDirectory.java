@@ -0,0 +1,79 @@
+package com.neosemantix.ds.paxos.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.neosemantix.ds.paxos.PeerDirectory;
+
+import akka.actor.ActorRef;
+
+/**
+ * Participants spread over the cluster, filled in by Membership as members
+ * come up and leave. Participants read it concurrently with those updates, so
+ * readers always get an immutable snapshot.
+ */
+public class ClusterPeerDirectory implements PeerDirectory {
+
+	private final AtomicReferenceArray<ActorRef> byId;
+	private volatile List<ActorRef> known;
+	private volatile Map<ActorRef, Integer> ids;
+
+	public ClusterPeerDirectory(int participantCount) {
+		byId = new AtomicReferenceArray<ActorRef>(participantCount);
+		known = Collections.emptyList();
+		ids = Collections.emptyMap();
+	}
+
+	synchronized void up(int id, ActorRef ref) {
+		byId.set(id, ref);
+		rebuild();
+	}
+
+	synchronized void down(int id) {
+		byId.set(id, null);
+		rebuild();
+	}
+
+	private void rebuild() {
+		List<ActorRef> ps = new ArrayList<ActorRef>(byId.length());
+		Map<ActorRef, Integer> m = new HashMap<ActorRef, Integer>();
+		for (int i = 0; i < byId.length(); i++) {
+			ActorRef ref = byId.get(i);
+			if (ref != null) {
+				ps.add(ref);
+				m.put(ref, i);
+			}
+		}
+		ids = Collections.unmodifiableMap(m);
+		known = Collections.unmodifiableList(ps);
+	}
+
+	public List<ActorRef> participants() {
+		return known;
+	}
+
+	public ActorRef participant(int id) {
+		return id >= 0 && id < byId.length() ? byId.get(id) : null;
+	}
+
+	public int idOf(ActorRef ref) {
+		Integer id = ids.get(ref);
+		return id != null ? id : -1;
+	}
+
+	public int participantCount() {
+		return byId.length();
+	}
+
+	/**
+	 * @return boolean True when every participant is known.
+	 */
+	public boolean isComplete() {
+		return known.size() == byId.length();
+	}
+
+}
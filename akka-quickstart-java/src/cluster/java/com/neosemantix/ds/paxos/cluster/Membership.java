@@ -0,0 +1,127 @@
+package com.neosemantix.ds.paxos.cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorIdentity;
+import akka.actor.Address;
+import akka.actor.Identify;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.ClusterEvent;
+import akka.cluster.Member;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+/**
+ * Discovers participants through cluster membership. Every node announces the
+ * participants it hosts as roles "participant-<id>". When a member comes up,
+ * the participants behind its roles are looked up with Identify and entered
+ * into the directory; when it is removed they are taken out again.
+ */
+public class Membership extends AbstractActor {
+
+	static final String ROLE_PREFIX = "participant-";
+
+	private static final Duration IDENTIFY_RETRY = Duration.ofMillis(100);
+
+	public static String participantName(int id) {
+		return ROLE_PREFIX + id;
+	}
+
+	public static Props props(ClusterPeerDirectory directory) {
+		return Props.create(Membership.class, () -> new Membership(directory));
+	}
+
+	/**
+	 * Sent to self when a participant was not started yet on its member.
+	 */
+	private static final class Reidentify {
+
+		private final Address address;
+		private final int id;
+
+		private Reidentify(Address a, int i) {
+			address = a;
+			id = i;
+		}
+
+	}
+
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	private final Cluster cluster = Cluster.lookup().get(getContext().getSystem());
+	private final ClusterPeerDirectory directory;
+
+	// participant id -> address of the member hosting it, while it is up
+	private final Address[] hosts;
+
+	Membership(ClusterPeerDirectory d) {
+		directory = d;
+		hosts = new Address[d.participantCount()];
+	}
+
+	@Override
+	public void preStart() {
+		cluster.subscribe(getSelf(), ClusterEvent.initialStateAsEvents(), ClusterEvent.MemberUp.class,
+				ClusterEvent.MemberRemoved.class);
+	}
+
+	@Override
+	public void postStop() {
+		cluster.unsubscribe(getSelf());
+	}
+
+	private static List<Integer> participantIds(Member m) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (String role : m.getRoles()) {
+			if (role.startsWith(ROLE_PREFIX)) {
+				ids.add(Integer.parseInt(role.substring(ROLE_PREFIX.length())));
+			}
+		}
+		return ids;
+	}
+
+	private void identify(Address address, int id) {
+		getContext().actorSelection(address + "/user/" + participantName(id)).tell(new Identify(id), getSelf());
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder().match(ClusterEvent.MemberUp.class, up -> {
+			for (int id : participantIds(up.member())) {
+				if (id >= 0 && id < hosts.length) {
+					hosts[id] = up.member().address();
+					identify(hosts[id], id);
+				} else {
+					log.warning("Member {} hosts unknown participant {}", up.member().address(), id);
+				}
+			}
+		}).match(ClusterEvent.MemberRemoved.class, removed -> {
+			for (int id : participantIds(removed.member())) {
+				if (id >= 0 && id < hosts.length) {
+					hosts[id] = null;
+					directory.down(id);
+					log.info("Participant {} left with {}", id, removed.member().address());
+				}
+			}
+		}).match(ActorIdentity.class, identity -> {
+			int id = (Integer) identity.correlationId();
+			if (identity.getActorRef().isPresent()) {
+				directory.up(id, identity.getActorRef().get());
+				log.info("Participant {} joined, {} of {} known", id, directory.participants().size(),
+						hosts.length);
+			} else if (hosts[id] != null) {
+				// member is up but has not started the participant yet
+				getContext().getSystem().scheduler().scheduleOnce(IDENTIFY_RETRY, getSelf(),
+						new Reidentify(hosts[id], id), getContext().dispatcher(), getSelf());
+			}
+		}).match(Reidentify.class, r -> {
+			if (r.address.equals(hosts[r.id])) {
+				identify(r.address, r.id);
+			}
+		}).build();
+	}
+
+}
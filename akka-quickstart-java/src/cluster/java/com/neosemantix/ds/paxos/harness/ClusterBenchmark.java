@@ -0,0 +1,212 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.Protocol;
+import com.neosemantix.ds.paxos.cluster.ClusterPaxosMain;
+import com.neosemantix.ds.paxos.cluster.ClusterPeerDirectory;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Latency and throughput of the Multi-Paxos replicated log with every
+ * participant in its own JVM, talking over Artery TCP on the loopback
+ * interface. Participant 0, the leader, and the client run in this JVM; the
+ * other participants are started as child processes whose output goes to
+ * logs/cluster-<id>.log.
+ *
+ * Usage: ClusterBenchmark [participants] [latency samples] [throughput entries]
+ *
+ * Defaults are 5 participants, 10,000 sequential proposals for the latency
+ * percentiles and 1,000,000 pipelined ones for throughput.
+ *
+ * It lives with the cluster sources it needs rather than with the other
+ * benchmarks under src/jmh, so it takes nothing from them.
+ */
+public class ClusterBenchmark {
+
+	private static final int SEED_PORT = 2551;
+
+	/**
+	 * Closed loop client keeping a single command outstanding, recording the
+	 * commit latency of each.
+	 */
+	static class SequentialClient extends AbstractActor {
+
+		static Props props(ActorRef leader, long[] latencies, CompletableFuture<long[]> done) {
+			return Props.create(SequentialClient.class, () -> new SequentialClient(leader, latencies, done));
+		}
+
+		private final ActorRef leader;
+		private final long[] latencies;
+		private final CompletableFuture<long[]> done;
+		private int sent;
+		private long sentAt;
+
+		SequentialClient(ActorRef l, long[] lat, CompletableFuture<long[]> d) {
+			leader = l;
+			latencies = lat;
+			done = d;
+		}
+
+		@Override
+		public void preStart() {
+			leader.tell(new Protocol.SubscribeCommits(), getSelf());
+			sendNext();
+		}
+
+		private void sendNext() {
+			sentAt = System.nanoTime();
+			leader.tell(new Protocol.Propose(sent), getSelf());
+			sent++;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(Protocol.CommitIndex.class, ci -> {
+				if (ci.commandsCommitted < sent) {
+					return;
+				}
+				latencies[sent - 1] = System.nanoTime() - sentAt;
+				if (sent == latencies.length) {
+					done.complete(latencies);
+					getContext().stop(getSelf());
+				} else {
+					sendNext();
+				}
+			}).build();
+		}
+
+	}
+
+	/**
+	 * Open loop client keeping up to maxOutstanding commands in flight.
+	 */
+	static class PipelinedClient extends AbstractActor {
+
+		static Props props(ActorRef leader, long entries, int maxOutstanding, CompletableFuture<Long> done) {
+			return Props.create(PipelinedClient.class, () -> new PipelinedClient(leader, entries, maxOutstanding, done));
+		}
+
+		private final ActorRef leader;
+		private final long entries;
+		private final int maxOutstanding;
+		private final CompletableFuture<Long> done;
+		private long sent;
+		private long committed;
+
+		PipelinedClient(ActorRef l, long e, int mo, CompletableFuture<Long> d) {
+			leader = l;
+			entries = e;
+			maxOutstanding = mo;
+			done = d;
+		}
+
+		@Override
+		public void preStart() {
+			leader.tell(new Protocol.SubscribeCommits(), getSelf());
+			sendMore();
+		}
+
+		private void sendMore() {
+			while (sent < entries && sent - committed < maxOutstanding) {
+				leader.tell(new Protocol.Propose(sent), getSelf());
+				sent++;
+			}
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(Protocol.CommitIndex.class, ci -> {
+				committed = ci.commandsCommitted;
+				if (committed >= entries) {
+					done.complete(committed);
+					getContext().stop(getSelf());
+				} else {
+					sendMore();
+				}
+			}).build();
+		}
+
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		int rank = (int) Math.ceil(p / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+
+	private static Process startNode(int participants, int id) throws Exception {
+		List<String> cmd = new ArrayList<String>(Arrays.asList(
+				new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp",
+				System.getProperty("java.class.path"), ClusterPaxosMain.class.getName(), "--multi-paxos",
+				String.valueOf(participants), String.valueOf(SEED_PORT + id), String.valueOf(id)));
+		File log = new File("logs", "cluster-" + id + ".log");
+		log.getParentFile().mkdirs();
+		return new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(log).start();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int participants = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int samples = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		long entries = args.length > 2 ? Long.parseLong(args[2]) : 1000000;
+
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.multiPaxosLeader = 0;
+
+		ClusterPeerDirectory directory = new ClusterPeerDirectory(participants);
+		ActorSystem system = ClusterPaxosMain.start(participants, SEED_PORT, new int[] { 0 }, directory);
+		List<Process> nodes = new ArrayList<Process>();
+		try {
+			for (int id = 1; id < participants; id++) {
+				nodes.add(startNode(participants, id));
+			}
+			long deadline = System.currentTimeMillis() + 60000;
+			while (!directory.isComplete()) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IllegalStateException(
+							"Only " + directory.participants().size() + " of " + participants + " participants joined");
+				}
+				Thread.sleep(100);
+			}
+			ActorRef leader = directory.participant(0);
+
+			CompletableFuture<long[]> latencies = new CompletableFuture<long[]>();
+			system.actorOf(SequentialClient.props(leader, new long[samples], latencies));
+			long[] sorted = latencies.get().clone();
+			Arrays.sort(sorted);
+			System.out.println(String.format(
+					"Commit latency over %d proposals, %d participants: p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+					samples, participants, percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6,
+					percentile(sorted, 99.9) / 1e6, sorted[sorted.length - 1] / 1e6));
+
+			// the leader keeps counting commands from the latency phase
+			CompletableFuture<Long> done = new CompletableFuture<Long>();
+			int window = cfg.pipelineWindow;
+			long start = System.nanoTime();
+			system.actorOf(PipelinedClient.props(leader, entries + samples,
+					Math.max(window * 4, window * cfg.batchMaxSize), done));
+			long committed = done.get() - samples;
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("Committed %d entries with %d participants in %.3f s: %.0f commits/sec",
+					committed, participants, seconds, committed / seconds));
+		} finally {
+			for (Process p : nodes) {
+				p.destroy();
+			}
+			system.terminate();
+			Await.ready(system.whenTerminated(), Duration.Inf());
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+package com.neosemantix.ds.paxos.bench;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.LatencyDistribution;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Single decree time-to-consensus, messages per decision and decisions per
+ * second over participant count, Config.waitBeforeNextRequest and the prepare
+ * response delay distribution. Each invocation is one simulation in a fresh
+ * actor system, from starting the participants until one of them has heard
+ * Accepted from a majority.
+ *
+ * Invocation n of a trial runs with Config.randomSeed = seed + n, so the
+ * delays and backoffs drawn are the same from one build to the next. Akka
+ * still interleaves messages as threads get scheduled; compare medians over
+ * several iterations rather than single runs.
+ *
+ * Build with the jmh profile, then run this class. It takes the usual JMH
+ * options, e.g. -p participants=5,11 -f 3, and writes results to
+ * consensus-benchmark.json unless told otherwise with -rf and -rff. Besides
+ * the time per simulation, the JSON has secondary results "decisions" and
+ * "messages"; main prints messages per decision computed from them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(1)
+public class ConsensusBenchmark {
+
+	@Param({ "5", "11", "25" })
+	public int participants;
+
+	@Param({ "25", "100" })
+	public long waitBeforeNextRequest;
+
+	@Param({ "uniform:10:100", "pareto:10:1.5" })
+	public String prepareDelay;
+
+	@Param({ "true" })
+	public boolean leaderElection;
+
+	@Param({ "42" })
+	public long seed;
+
+	/**
+	 * Give up on a simulation after this many seconds, counted as a failed
+	 * decision rather than failing the whole trial.
+	 */
+	@Param({ "30" })
+	public long timeoutSeconds;
+
+	/**
+	 * Totals over an iteration, JMH reports them as secondary results.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Counters {
+
+		public long decisions;
+		public long messages;
+		public long timeouts;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			decisions = 0;
+			messages = 0;
+			timeouts = 0;
+		}
+
+	}
+
+	private long invocations;
+	private ActorSystem system;
+	private CompletableFuture<Long> done;
+
+	@Setup(Level.Trial)
+	public void configure() {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.numParticipants = participants;
+		cfg.waitBeforeNextRequest = waitBeforeNextRequest;
+		cfg.prepareResponseDelay = LatencyDistribution.parse(prepareDelay);
+		cfg.leaderElection = leaderElection;
+		invocations = 0;
+	}
+
+	@Setup(Level.Invocation)
+	public void startSystem() {
+		Config.getInstance().randomSeed = seed + invocations++;
+		done = new CompletableFuture<Long>();
+		CompletableFuture<Long> d = done;
+		PaxosMain.onConsensus(() -> d.complete(PaxosMain.messagesSent()));
+		PaxosMain.resetMessagesSent();
+		system = ActorSystem.create("ConsensusBenchmark",
+				ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+	}
+
+	@TearDown(Level.Invocation)
+	public void stopSystem() throws Exception {
+		system.terminate();
+		Await.ready(system.whenTerminated(), Duration.Inf());
+		PaxosMain.onConsensus(() -> {
+		});
+	}
+
+	@Benchmark
+	public void consensus(Counters counters) throws Exception {
+		PaxosMain.startParticipants(system, participants);
+		try {
+			counters.messages += done.get(timeoutSeconds, TimeUnit.SECONDS);
+			counters.decisions++;
+		} catch (TimeoutException e) {
+			counters.timeouts++;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		OptionsBuilder opts = new OptionsBuilder();
+		opts.parent(cmd).include(ConsensusBenchmark.class.getSimpleName());
+		if (!cmd.getResultFormat().hasValue()) {
+			opts.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmd.getResult().hasValue()) {
+			opts.result("consensus-benchmark.json");
+		}
+		Collection<RunResult> results = new Runner(opts.build()).run();
+
+		System.out.println();
+		System.out.println(String.format("%-60s %14s %14s %18s", "parameters", "ms/decision", "decisions/s",
+				"messages/decision"));
+		for (RunResult r : results) {
+			Result<?> time = r.getPrimaryResult();
+			Result<?> decisions = r.getSecondaryResults().get("decisions");
+			Result<?> messages = r.getSecondaryResults().get("messages");
+			double perDecision = decisions.getScore() > 0 ? messages.getScore() / decisions.getScore() : Double.NaN;
+			StringBuilder params = new StringBuilder();
+			for (String key : r.getParams().getParamsKeys()) {
+				params.append(params.length() == 0 ? "" : " ").append(key).append('=')
+						.append(r.getParams().getParam(key));
+			}
+			System.out.println(String.format("%-60s %14.1f %14.2f %18.1f", params, time.getScore(),
+					1000 / time.getScore(), perDecision));
+		}
+	}
+
+}
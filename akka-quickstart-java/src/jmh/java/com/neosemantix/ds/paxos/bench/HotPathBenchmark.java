@@ -0,0 +1,81 @@
+package com.neosemantix.ds.paxos.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.HotPath;
+
+/**
+ * Time and garbage of a participant handling steady state messages, see
+ * HotPath. Run with the GC profiler (main adds it, or -prof gc) and look at
+ * gc.alloc.rate.norm, bytes allocated per operation; all scenarios should be
+ * at about 0 B/op.
+ *
+ * Build with the jmh profile, then run this class or org.openjdk.jmh.Main.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathBenchmark {
+
+	@Param({ "5", "51" })
+	public int participants;
+
+	private HotPath path;
+
+	@Setup
+	public void setup() {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.acceptorStore = "memory";
+		path = new HotPath(participants);
+	}
+
+	@Benchmark
+	public long heartbeat() {
+		path.heartbeat();
+		return path.sent();
+	}
+
+	@Benchmark
+	public long retransmittedAccept() {
+		path.retransmittedAccept();
+		return path.sent();
+	}
+
+	@Benchmark
+	public long outdatedPrepare() {
+		path.outdatedPrepare();
+		return path.sent();
+	}
+
+	@Benchmark
+	public long lateResponses() {
+		path.lateResponses();
+		return path.sent();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(HotPathBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.neosemantix.ds.paxos.harness;
+
+/**
+ * Shows how batching client commands into a single accept round affects
+ * throughput. For each maximum batch size the same number of commands is
+ * pushed through the replicated log; batch size 1 is the unbatched baseline.
+ *
+ * Usage: BatchingBenchmark [commands] [participants] [pipeline window]
+ */
+public class BatchingBenchmark {
+
+	private static final int[] BATCH_SIZES = { 1, 4, 16, 64, 256, 1024 };
+
+	public static void main(String[] args) throws Exception {
+		long commands = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int participants = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int window = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+		// warm up the JIT so that the first configuration is not penalized
+		MultiPaxosBenchmark.run(commands / 10, participants, window, 16);
+
+		System.out.println(String.format("%-12s %-12s %-14s %-14s %-10s", "batch size", "slots", "commits/sec",
+				"slots/sec", "cmds/slot"));
+		for (int batchSize : BATCH_SIZES) {
+			MultiPaxosBenchmark.Result r = MultiPaxosBenchmark.run(commands, participants, window, batchSize);
+			System.out.println(String.format("%-12d %-12d %-14.0f %-14.0f %-10.1f", batchSize, r.slots,
+					r.commandsPerSecond(), r.slotsPerSecond(), (double) r.commands / r.slots));
+		}
+	}
+
+}
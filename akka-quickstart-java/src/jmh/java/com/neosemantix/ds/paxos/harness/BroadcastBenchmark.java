@@ -0,0 +1,152 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.KeyValueStore;
+import com.neosemantix.ds.paxos.LatencyHistogram;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.neosemantix.ds.paxos.StateMachineClient;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * What broadcasting through a RelayTree does to the Multi-Paxos leader with
+ * many participants: every accept request and heartbeat goes either straight
+ * to all others (fan-out 0) or to the leader's children in the tree, which
+ * pass it on and send the accept responses of their subtree back as one, see
+ * AcceptAggregation. Puts keep a fixed number of operations outstanding.
+ *
+ * The leader runs alone on a pinned dispatcher, so the CPU time of that
+ * thread is the leader's own; it is given per put, along with throughput, put
+ * latency and the messages all participants sent per put.
+ *
+ * Usage: BroadcastBenchmark [settings] [seconds] [outstanding operations] [participants] [fan-out...]
+ *
+ * Defaults are 5 seconds with 256 outstanding, 101 and 501 participants, and
+ * fan-outs 0, 4, 8 and 16.
+ */
+public class BroadcastBenchmark {
+
+	private static final int[] PARTICIPANTS = { 101, 501 };
+
+	private static final int[] FANOUTS = { 0, 4, 8, 16 };
+
+	private static final String PINNED = "paxos.dispatchers.pinned";
+
+	static class Result {
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong failed = new AtomicLong();
+		long completed;
+		long leaderCpuNanos;
+		long messages;
+
+	}
+
+	/**
+	 * @return long CPU time of the threads of the pinned dispatcher, which
+	 *         only the leader uses
+	 */
+	private static long leaderCpuNanos() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for (ThreadInfo t : threads.getThreadInfo(threads.getAllThreadIds())) {
+			if (t != null && t.getThreadName().contains(PINNED)) {
+				total += Math.max(0, threads.getThreadCpuTime(t.getThreadId()));
+			}
+		}
+		return total;
+	}
+
+	static Result run(int participants, int fanout, int seconds, int outstanding) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.numParticipants = participants;
+		cfg.broadcastFanout = fanout;
+		ActorSystem system = ActorSystem.create("PaxosBenchmark",
+				ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+		try {
+			List<ActorRef> ps = PaxosMain.startParticipants(system, participants);
+			StateMachineClient client = new StateMachineClient(system, ps.get(cfg.multiPaxosLeader));
+			Result result = new Result();
+			Semaphore window = new Semaphore(outstanding);
+
+			// warm up
+			for (int i = 0; i < 20000; i++) {
+				window.acquire();
+				client.submit(KeyValueStore.put(i % 1000, i)).whenComplete((r, e) -> window.release());
+			}
+			window.acquire(outstanding);
+			window.release(outstanding);
+
+			PaxosMain.resetMessagesSent();
+			long cpuBefore = leaderCpuNanos();
+			long durationNanos = seconds * 1_000_000_000L;
+			long start = System.nanoTime();
+			for (int i = 0;; i++) {
+				window.acquire();
+				long sent = System.nanoTime();
+				if (sent - start >= durationNanos) {
+					window.release();
+					break;
+				}
+				client.submit(KeyValueStore.put(i % 1000, i)).whenComplete((r, e) -> {
+					if (e != null) {
+						result.failed.incrementAndGet();
+					} else {
+						result.latency.record(System.nanoTime() - sent);
+					}
+					window.release();
+				});
+			}
+			window.acquire(outstanding);
+			result.leaderCpuNanos = leaderCpuNanos() - cpuBefore;
+			result.messages = PaxosMain.messagesSent();
+			result.completed = result.latency.count();
+			client.close();
+			return result;
+		} finally {
+			system.terminate();
+			Await.ready(system.whenTerminated(), Duration.Inf());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.acceptorStore = "memory";
+		cfg.stateMachine = "kv";
+		cfg.leaderDispatcher = PINNED;
+		args = Config.applyArgs(args);
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int outstanding = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		int[] participantCounts = args.length > 2 ? new int[] { Integer.parseInt(args[2]) } : PARTICIPANTS;
+		int[] fanouts = args.length > 3
+				? Arrays.stream(Arrays.copyOfRange(args, 3, args.length)).mapToInt(Integer::parseInt).toArray()
+				: FANOUTS;
+
+		System.out.println(String.format("%-12s %7s %10s %10s %10s %14s %9s %7s", "participants", "fan-out",
+				"ops/s", "p50 ms", "p99 ms", "leader us/op", "msgs/op", "failed"));
+		for (int participants : participantCounts) {
+			for (int fanout : fanouts) {
+				Result r = run(participants, fanout, seconds, outstanding);
+				long ops = Math.max(1, r.completed);
+				System.out.println(String.format("%-12d %7d %10.0f %10.3f %10.3f %14.2f %9.1f %7d", participants,
+						fanout, (double) r.completed / seconds, r.latency.percentile(50) / 1e6,
+						r.latency.percentile(99) / 1e6, r.leaderCpuNanos / 1e3 / ops, (double) r.messages / ops,
+						r.failed.get()));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.neosemantix.ds.paxos.Protocol;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Commit latency of the Multi-Paxos replicated log with participants on each
+ * of the dispatchers configured under paxos.dispatchers in application.conf,
+ * alone or with the leader on a different one than the others. A client keeps
+ * a fixed number of commands outstanding and records when each gets
+ * committed; the first tenth of the commands is taken as warm up.
+ *
+ * Usage: DispatcherBenchmark [commands per run] [outstanding commands] [participant counts]
+ *
+ * Defaults are 20,000 commands, 16 outstanding, and 5,11,51 participants.
+ */
+public class DispatcherBenchmark {
+
+	private static final String DEFAULT = "akka.actor.default-dispatcher";
+
+	/**
+	 * Name, dispatcher of the participants, dispatcher of the leader.
+	 */
+	private static final String[][] SETUPS = { { "default", DEFAULT, "" },
+			{ "fork-join", "paxos.dispatchers.fork-join", "" }, { "pinned", "paxos.dispatchers.pinned", "" },
+			{ "affinity", "paxos.dispatchers.affinity", "" },
+			{ "pinned, leader fork-join", "paxos.dispatchers.pinned", "paxos.dispatchers.fork-join" },
+			{ "affinity, leader fork-join", "paxos.dispatchers.affinity", "paxos.dispatchers.fork-join" } };
+
+	/**
+	 * Keeps 'window' commands outstanding. The leader commits commands in the
+	 * order it receives them, so the n-th committed command is the n-th sent.
+	 */
+	static class LatencyClient extends AbstractActor {
+
+		static Props props(ActorRef leader, int window, long[] latencies, CompletableFuture<long[]> done) {
+			return Props.create(LatencyClient.class, () -> new LatencyClient(leader, window, latencies, done));
+		}
+
+		private final ActorRef leader;
+		private final int window;
+		private final long[] sentAt;
+		private final long[] latencies;
+		private final CompletableFuture<long[]> done;
+		private int sent;
+		private int committed;
+
+		LatencyClient(ActorRef l, int w, long[] lat, CompletableFuture<long[]> d) {
+			leader = l;
+			window = w;
+			sentAt = new long[lat.length];
+			latencies = lat;
+			done = d;
+		}
+
+		@Override
+		public void preStart() {
+			leader.tell(new Protocol.SubscribeCommits(), getSelf());
+			sendMore();
+		}
+
+		private void sendMore() {
+			while (sent < sentAt.length && sent - committed < window) {
+				sentAt[sent] = System.nanoTime();
+				leader.tell(new Protocol.Propose(sent), getSelf());
+				sent++;
+			}
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(Protocol.CommitIndex.class, ci -> {
+				long now = System.nanoTime();
+				int upTo = (int) Math.min(ci.commandsCommitted, sent);
+				while (committed < upTo) {
+					latencies[committed] = now - sentAt[committed];
+					committed++;
+				}
+				if (committed == latencies.length) {
+					done.complete(latencies);
+					getContext().stop(getSelf());
+				} else {
+					sendMore();
+				}
+			}).build();
+		}
+
+	}
+
+	/**
+	 * @return long[] Commit latencies in nanoseconds after warm up, sorted
+	 */
+	static long[] run(int participants, int commands, int window) throws Exception {
+		// per message debug logging would dominate the measurement
+		ActorSystem system = ActorSystem.create("PaxosBenchmark",
+				ConfigFactory.parseString("akka.loglevel = INFO").withFallback(ConfigFactory.load()));
+		try {
+			List<ActorRef> ps = PaxosMain.startParticipants(system, participants);
+			CompletableFuture<long[]> done = new CompletableFuture<long[]>();
+			system.actorOf(LatencyClient.props(ps.get(Config.getInstance().multiPaxosLeader), window,
+					new long[commands], done));
+			long[] latencies = done.get();
+			long[] measured = Arrays.copyOfRange(latencies, commands / 10, commands);
+			Arrays.sort(measured);
+			return measured;
+		} finally {
+			system.terminate();
+			Await.ready(system.whenTerminated(), Duration.Inf());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.acceptorStore = "memory";
+		args = Config.applyArgs(args);
+		int commands = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int window = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		String[] counts = (args.length > 2 ? args[2] : "5,11,51").split(",");
+
+		System.out.println(String.format("%-28s %12s %10s %10s %10s", "dispatcher", "participants", "p50 ms",
+				"p99 ms", "p99.9 ms"));
+		for (String count : counts) {
+			int participants = Integer.parseInt(count.trim());
+			cfg.numParticipants = participants;
+			for (String[] setup : SETUPS) {
+				cfg.participantDispatcher = setup[1];
+				cfg.leaderDispatcher = setup[2];
+				long[] sorted = run(participants, commands, window);
+				System.out.println(String.format("%-28s %12d %10.3f %10.3f %10.3f", setup[0], participants,
+						NackRetryBenchmark.percentile(sorted, 50) / 1e6,
+						NackRetryBenchmark.percentile(sorted, 99) / 1e6,
+						NackRetryBenchmark.percentile(sorted, 99.9) / 1e6));
+			}
+		}
+		cfg.participantDispatcher = DEFAULT;
+		cfg.leaderDispatcher = "";
+	}
+
+}
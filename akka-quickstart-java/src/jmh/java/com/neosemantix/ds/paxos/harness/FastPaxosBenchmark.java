@@ -0,0 +1,109 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.DiscreteEventSimulation;
+import com.neosemantix.ds.paxos.FaultProfile;
+import com.neosemantix.ds.paxos.LatencyDistribution;
+
+/**
+ * Single decree consensus on a client's value, classic Paxos against Fast
+ * Paxos (Config.clientValues, Config.fastPaxos), as more and more decisions
+ * get a second client proposing a different value at the same time.
+ *
+ * Scenarios run in a DiscreteEventSimulation. Clients send their values to
+ * every participant at CLIENT_MILLIS, by then the proposers have gone through
+ * phase 1: a classic proposer waits for the value and runs phase 2 with it,
+ * in a fast round acceptors accept it straight away. Latency is from the
+ * clients sending to the first proposer learning the decision, messages are
+ * those sent until then, clients' included. Responses to prepare requests go
+ * out without the configured artificial delay, link latency is that of
+ * DEFAULT_FAULTS unless --faults is given.
+ *
+ * Usage: FastPaxosBenchmark [settings] [scenarios] [participants] [conflict rate...]
+ *
+ * Defaults are 1000 scenarios of 5 participants and the conflict rates below.
+ */
+public class FastPaxosBenchmark {
+
+	private static final String DEFAULT_FAULTS = "latency=exponential:20";
+
+	private static final long CLIENT_MILLIS = 5000;
+
+	private static final double[] CONFLICT_RATES = { 0, 0.1, 0.25, 0.5, 1 };
+
+	/**
+	 * @return long[] Latencies in virtual milliseconds followed by messages,
+	 *         of the scenarios which decided, each half sorted
+	 */
+	static long[][] run(int scenarios, int participants, double conflictRate) {
+		Random conflicts = new Random(42);
+		long[] millis = new long[scenarios];
+		long[] messages = new long[scenarios];
+		int decided = 0;
+		for (int i = 0; i < scenarios; i++) {
+			DiscreteEventSimulation sim = new DiscreteEventSimulation(i + 1, participants, null);
+			sim.propose(CLIENT_MILLIS, 1, -1);
+			if (conflicts.nextDouble() < conflictRate) {
+				sim.propose(CLIENT_MILLIS, 2, -1);
+			}
+			DiscreteEventSimulation.Outcome o = sim.run(CLIENT_MILLIS + 60000);
+			if (o.violation != null) {
+				throw new IllegalStateException("Seed " + o.seed + ": " + o.violation);
+			}
+			if (o.isDecided()) {
+				millis[decided] = o.decidedAtMillis - CLIENT_MILLIS;
+				messages[decided++] = o.messagesToDecide;
+			}
+		}
+		long[][] sorted = { Arrays.copyOf(millis, decided), Arrays.copyOf(messages, decided) };
+		Arrays.sort(sorted[0]);
+		Arrays.sort(sorted[1]);
+		return sorted;
+	}
+
+	public static void main(String[] args) {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.acceptorStore = "memory";
+		cfg.prepareResponseDelay = LatencyDistribution.parse("none");
+		cfg.faults = FaultProfile.parse(DEFAULT_FAULTS);
+		args = Config.applyArgs(args);
+		int scenarios = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int participants = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		List<Double> rates = new ArrayList<Double>();
+		if (args.length > 2) {
+			for (int i = 2; i < args.length; i++) {
+				rates.add(Double.parseDouble(args[i]));
+			}
+		} else {
+			for (double r : CONFLICT_RATES) {
+				rates.add(r);
+			}
+		}
+
+		System.out.println(participants + " participants, faults " + cfg.faults);
+		System.out.println(String.format("%8s | %8s %8s %8s %6s | %8s %8s %8s %6s", "conflict", "classic",
+				"p50 ms", "p99 ms", "msgs", "fast", "p50 ms", "p99 ms", "msgs"));
+		for (double rate : rates) {
+			cfg.fastPaxos = false;
+			cfg.clientValues = true;
+			long[][] classic = run(scenarios, participants, rate);
+			cfg.fastPaxos = true;
+			long[][] fast = run(scenarios, participants, rate);
+			System.out.println(String.format("%7.0f%% | %7.1f%% %8d %8d %6d | %7.1f%% %8d %8d %6d", 100 * rate,
+					100.0 * classic[0].length / scenarios, NackRetryBenchmark.percentile(classic[0], 50),
+					NackRetryBenchmark.percentile(classic[0], 99), NackRetryBenchmark.percentile(classic[1], 50),
+					100.0 * fast[0].length / scenarios, NackRetryBenchmark.percentile(fast[0], 50),
+					NackRetryBenchmark.percentile(fast[0], 99), NackRetryBenchmark.percentile(fast[1], 50)));
+		}
+		cfg.fastPaxos = false;
+		cfg.clientValues = false;
+		cfg.faults = FaultProfile.NONE;
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.DiscreteEventSimulation;
+import com.neosemantix.ds.paxos.FaultProfile;
+
+/**
+ * Single decree consensus latency and throughput under network faults, each
+ * fault profile against the fault free network. Scenarios run in a
+ * DiscreteEventSimulation, so results are in virtual time and the same seeds
+ * give the same numbers on every machine; throughput is decisions per virtual
+ * minute of one consensus instance after another.
+ *
+ * Usage: FaultInjectionBenchmark [settings] [scenarios per profile] [participants] [time limit seconds] [fault profile...]
+ *
+ * Defaults are 1000 scenarios of 5 participants, 60 virtual seconds each, and
+ * the profiles below; see FaultProfile.parse for how to write others. The
+ * fault free network is always run first as the baseline.
+ */
+public class FaultInjectionBenchmark {
+
+	private static final String[] PROFILES = {
+			// loss
+			"drop=0.01", "drop=0.05", "drop=0.2",
+			// duplication and reordering
+			"dup=0.1", "latency=uniform:1:200",
+			// one slow participant
+			"link.0.*=fixed:300,link.*.0=fixed:300",
+			// partitions which heal: a minority cut off, no majority anywhere for
+			// 2 seconds, a rolling one
+			"partition=0-3000/0.1", "partition=0-2000/0.1,partition=0-2000/2.3",
+			"partition=0-600/0.1,partition=600-1200/2.3,partition=1200-1800/4.0",
+			// a bit of everything
+			"drop=0.05,dup=0.05,latency=exponential:20" };
+
+	static class Summary {
+
+		final String profile;
+		final int runs;
+		final int decided;
+		final int allLearned;
+		final long p50Millis;
+		final long p99Millis;
+		final double meanMillis;
+		final long medianMessages;
+
+		Summary(String p, int r, int d, int al, long p50, long p99, double mean, long msgs) {
+			profile = p;
+			runs = r;
+			decided = d;
+			allLearned = al;
+			p50Millis = p50;
+			p99Millis = p99;
+			meanMillis = mean;
+			medianMessages = msgs;
+		}
+
+		double decisionsPerMinute() {
+			return meanMillis > 0 ? 60000 / meanMillis : 0;
+		}
+
+	}
+
+	static Summary run(String profile, int scenarios, int participants, long limitMillis) {
+		Config.getInstance().faults = FaultProfile.parse(profile);
+		long[] millis = new long[scenarios];
+		long[] messages = new long[scenarios];
+		int decided = 0;
+		int allLearned = 0;
+		double total = 0;
+		for (int i = 0; i < scenarios; i++) {
+			DiscreteEventSimulation.Outcome o = new DiscreteEventSimulation(i + 1, participants, null)
+					.run(limitMillis);
+			if (o.violation != null) {
+				throw new IllegalStateException("Seed " + o.seed + " under " + profile + ": " + o.violation);
+			}
+			if (o.isDecided()) {
+				millis[decided] = o.decidedAtMillis;
+				messages[decided] = o.messagesToDecide;
+				total += o.decidedAtMillis;
+				decided++;
+			}
+			if (o.allLearnedAtMillis >= 0) {
+				allLearned++;
+			}
+		}
+		long[] sortedMillis = Arrays.copyOf(millis, decided);
+		long[] sortedMessages = Arrays.copyOf(messages, decided);
+		Arrays.sort(sortedMillis);
+		Arrays.sort(sortedMessages);
+		return new Summary(profile, scenarios, decided, allLearned,
+				decided > 0 ? NackRetryBenchmark.percentile(sortedMillis, 50) : -1,
+				decided > 0 ? NackRetryBenchmark.percentile(sortedMillis, 99) : -1,
+				decided > 0 ? total / decided : -1,
+				decided > 0 ? NackRetryBenchmark.percentile(sortedMessages, 50) : -1);
+	}
+
+	public static void main(String[] args) {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.acceptorStore = "memory";
+		args = Config.applyArgs(args);
+		int scenarios = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int participants = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		long limitMillis = (args.length > 2 ? Long.parseLong(args[2]) : 60) * 1000;
+		List<String> profiles = new ArrayList<String>();
+		profiles.add("none");
+		profiles.addAll(Arrays.asList(args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : PROFILES));
+
+		System.out.println(String.format("%-68s %9s %9s %9s %9s %7s %8s %6s", "profile", "decided", "learned",
+				"p50 ms", "p99 ms", "p50 x", "dec/min", "msgs"));
+		Summary baseline = null;
+		for (String profile : profiles) {
+			Summary s = run(profile, scenarios, participants, limitMillis);
+			if (baseline == null) {
+				baseline = s;
+			}
+			System.out.println(String.format("%-68s %8.1f%% %8.1f%% %9d %9d %7.2f %8.1f %6d", s.profile,
+					100.0 * s.decided / s.runs, 100.0 * s.allLearned / s.runs, s.p50Millis, s.p99Millis,
+					(double) s.p50Millis / baseline.p50Millis, s.decisionsPerMinute(), s.medianMessages));
+		}
+		cfg.faults = FaultProfile.NONE;
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.KeyValueStore;
+import com.neosemantix.ds.paxos.LatencyHistogram;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.neosemantix.ds.paxos.StateMachineClient;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * How the Paxos groups of GroupHost scale with their number. Three nodes run
+ * each group, Multi-Paxos with the key-value state machine, and group g is led
+ * by node g mod 3. The KEYS keys are sharded over the groups, key k lives in
+ * group k mod groups, and each group's store is sized for its share. Puts to
+ * random keys keep a fixed number of operations outstanding, each sent to the
+ * node which leads the key's group.
+ *
+ * For each group count: how long until every group took its first command
+ * (ready), the heap the hosts hold once ready, throughput and put latency,
+ * and per put the protocol messages the groups sent as well as the envelopes,
+ * the GroupBatches which carried them between nodes. Each node has one Akka
+ * timer whatever the number of groups.
+ *
+ * Usage: GroupBenchmark [settings] [seconds] [outstanding operations] [groups...]
+ *
+ * Defaults are 5 seconds with 256 outstanding for 1, 10, 100, 1,000 and
+ * 10,000 groups.
+ */
+public class GroupBenchmark {
+
+	private static final int NODES = 3;
+
+	private static final int[] GROUPS = { 1, 10, 100, 1000, 10000 };
+
+	private static final int KEYS = 100000;
+
+	static class Result {
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong failed = new AtomicLong();
+		long readyMillis;
+		long heapBytes;
+		long completed;
+		long messages;
+		long envelopes;
+
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	static Result run(int groups, int seconds, int outstanding) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.stateMachine = "kv:" + Math.max(8, KEYS / groups);
+		long heapBefore = usedHeap();
+		ActorSystem system = ActorSystem.create("PaxosBenchmark",
+				ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+		try {
+			Result result = new Result();
+			long start = System.nanoTime();
+			List<ActorRef> hosts = PaxosMain.startGroupHosts(system, NODES, groups);
+			List<StateMachineClient> clients = new ArrayList<StateMachineClient>();
+			for (ActorRef host : hosts) {
+				clients.add(new StateMachineClient(system, host));
+			}
+			// ready once every group decided a command
+			CompletableFuture<?>[] first = new CompletableFuture<?>[groups];
+			for (int g = 0; g < groups; g++) {
+				first[g] = leaderClient(clients, g).submit(g, KeyValueStore.put(0, g));
+			}
+			CompletableFuture.allOf(first).get();
+			result.readyMillis = (System.nanoTime() - start) / 1_000_000;
+			result.heapBytes = usedHeap() - heapBefore;
+
+			Random random = new Random(cfg.randomSeed);
+			Semaphore window = new Semaphore(outstanding);
+			// warm up
+			for (int i = 0; i < 20000; i++) {
+				window.acquire();
+				int key = random.nextInt(KEYS);
+				leaderClient(clients, key % groups).submit(key % groups, KeyValueStore.put(key, i))
+						.whenComplete((r, e) -> window.release());
+			}
+			window.acquire(outstanding);
+			window.release(outstanding);
+
+			PaxosMain.resetMessagesSent();
+			long envelopesBefore = PaxosMain.envelopesSent();
+			long durationNanos = seconds * 1_000_000_000L;
+			long begin = System.nanoTime();
+			for (int i = 0;; i++) {
+				window.acquire();
+				long sent = System.nanoTime();
+				if (sent - begin >= durationNanos) {
+					window.release();
+					break;
+				}
+				int key = random.nextInt(KEYS);
+				int g = key % groups;
+				leaderClient(clients, g).submit(g, KeyValueStore.put(key, i)).whenComplete((r, e) -> {
+					if (e != null) {
+						result.failed.incrementAndGet();
+					} else {
+						result.latency.record(System.nanoTime() - sent);
+					}
+					window.release();
+				});
+			}
+			window.acquire(outstanding);
+			result.completed = result.latency.count();
+			result.messages = PaxosMain.messagesSent();
+			result.envelopes = PaxosMain.envelopesSent() - envelopesBefore;
+			for (StateMachineClient c : clients) {
+				c.close();
+			}
+			return result;
+		} finally {
+			system.terminate();
+			Await.ready(system.whenTerminated(), Duration.Inf());
+		}
+	}
+
+	private static StateMachineClient leaderClient(List<StateMachineClient> clients, int group) {
+		return clients.get((Config.getInstance().multiPaxosLeader + group) % NODES);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.acceptorStore = "memory";
+		cfg.numParticipants = NODES;
+		args = Config.applyArgs(args);
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int outstanding = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		int[] groupCounts = args.length > 2
+				? Arrays.stream(Arrays.copyOfRange(args, 2, args.length)).mapToInt(Integer::parseInt).toArray()
+				: GROUPS;
+
+		System.out.println(String.format("%-8s %9s %9s %10s %10s %10s %9s %9s %7s", "groups", "ready ms",
+				"heap MB", "ops/s", "p50 ms", "p99 ms", "msgs/op", "envs/op", "failed"));
+		for (int groups : groupCounts) {
+			Result r = run(groups, seconds, outstanding);
+			System.out.println(String.format("%-8d %9d %9.1f %10.0f %10.3f %10.3f %9.2f %9.2f %7d", groups,
+					r.readyMillis, r.heapBytes / 1e6, (double) r.completed / seconds,
+					r.latency.percentile(50) / 1e6, r.latency.percentile(99) / 1e6,
+					(double) r.messages / Math.max(1, r.completed), (double) r.envelopes / Math.max(1, r.completed),
+					r.failed.get()));
+		}
+	}
+
+}
@@ -0,0 +1,202 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.KeyValueStore;
+import com.neosemantix.ds.paxos.LatencyHistogram;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.neosemantix.ds.paxos.StateMachineClient;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * YCSB style load on the replicated KeyValueStore (Config.stateMachine "kv")
+ * under Akka. The load phase puts every record once; the run phase then reads
+ * and updates records picked by a scrambled Zipfian distribution, so a few keys
+ * are hot and hot keys are spread over the key space, with a fixed number of
+ * operations outstanding. The workloads are those of YCSB: A is half reads and
+ * half updates, B 95% reads, C reads only.
+ *
+ * Every workload runs twice, with reads as queries (ReadIndex, they wait for
+ * the next decided slot but add nothing to the log) and with reads as get
+ * commands through the log like updates.
+ *
+ * Usage: KeyValueBenchmark [settings] [participants] [records] [operations] [outstanding operations] [workload...]
+ *
+ * Defaults are 5 participants, 10,000 records, 100,000 operations with 64
+ * outstanding, and workloads A, B and C.
+ */
+public class KeyValueBenchmark {
+
+	private static final String[] WORKLOADS = { "A", "B", "C" };
+
+	/**
+	 * Zipfian over 0 .. n-1 with the YCSB constant 0.99 (Gray et al., Quickly
+	 * Generating Billion-Record Synthetic Databases), item i then scrambled by a
+	 * hash so the popular keys are not neighbors.
+	 */
+	static class ScrambledZipfian {
+
+		private static final double THETA = 0.99;
+
+		private final int items;
+		private final double alpha;
+		private final double zetan;
+		private final double eta;
+		private final Random random;
+
+		ScrambledZipfian(int n, Random r) {
+			items = n;
+			random = r;
+			double zeta2 = zeta(2);
+			zetan = zeta(n);
+			alpha = 1 / (1 - THETA);
+			eta = (1 - Math.pow(2.0 / n, 1 - THETA)) / (1 - zeta2 / zetan);
+		}
+
+		private static double zeta(int n) {
+			double sum = 0;
+			for (int i = 1; i <= n; i++) {
+				sum += 1 / Math.pow(i, THETA);
+			}
+			return sum;
+		}
+
+		int next() {
+			double u = random.nextDouble();
+			double uz = u * zetan;
+			long item;
+			if (uz < 1) {
+				item = 0;
+			} else if (uz < 1 + Math.pow(0.5, THETA)) {
+				item = 1;
+			} else {
+				item = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+			}
+			// FNV-1a of the item
+			long h = 0xCBF29CE484222325L;
+			for (int i = 0; i < 8; i++) {
+				h ^= (item >>> (i * 8)) & 0xFF;
+				h *= 0x100000001B3L;
+			}
+			return (int) ((h & Long.MAX_VALUE) % items);
+		}
+
+	}
+
+	static class Result {
+
+		double opsPerSecond;
+		final LatencyHistogram reads = new LatencyHistogram();
+		final LatencyHistogram updates = new LatencyHistogram();
+		final AtomicLong failed = new AtomicLong();
+
+	}
+
+	private static double readShare(String workload) {
+		switch (workload.toUpperCase()) {
+		case "A":
+			return 0.5;
+		case "B":
+			return 0.95;
+		case "C":
+			return 1;
+		default:
+			throw new IllegalArgumentException("Unknown workload: " + workload);
+		}
+	}
+
+	static Result run(int participants, int records, int operations, int outstanding, String workload,
+			boolean readIndex) throws Exception {
+		ActorSystem system = ActorSystem.create("PaxosBenchmark",
+				ConfigFactory.parseString("akka.loglevel = INFO").withFallback(ConfigFactory.load()));
+		try {
+			List<ActorRef> ps = PaxosMain.startParticipants(system, participants);
+			StateMachineClient client = new StateMachineClient(system,
+					ps.get(Config.getInstance().multiPaxosLeader));
+			Semaphore window = new Semaphore(outstanding);
+			for (int key = 0; key < records; key++) {
+				window.acquire();
+				client.submit(KeyValueStore.put(key, key)).whenComplete((r, e) -> window.release());
+			}
+			window.acquire(outstanding);
+			window.release(outstanding);
+
+			double reads = readShare(workload);
+			Random random = new Random(1);
+			ScrambledZipfian keys = new ScrambledZipfian(records, random);
+			Result result = new Result();
+			long start = System.nanoTime();
+			for (int i = 0; i < operations; i++) {
+				window.acquire();
+				int key = keys.next();
+				boolean read = random.nextDouble() < reads;
+				long sent = System.nanoTime();
+				CompletableFuture<Long> f;
+				if (!read) {
+					f = client.submit(KeyValueStore.put(key, i));
+				} else if (readIndex) {
+					f = client.read(KeyValueStore.get(key));
+				} else {
+					f = client.submit(KeyValueStore.get(key));
+				}
+				LatencyHistogram h = read ? result.reads : result.updates;
+				f.whenComplete((r, e) -> {
+					if (e != null) {
+						result.failed.incrementAndGet();
+					} else {
+						h.record(System.nanoTime() - sent);
+					}
+					window.release();
+				});
+			}
+			window.acquire(outstanding);
+			result.opsPerSecond = operations / ((System.nanoTime() - start) / 1e9);
+			client.close();
+			return result;
+		} finally {
+			system.terminate();
+			Await.ready(system.whenTerminated(), Duration.Inf());
+		}
+	}
+
+	private static String millis(LatencyHistogram h, double p) {
+		return h.count() > 0 ? String.format("%.3f", h.percentile(p) / 1e6) : "-";
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.acceptorStore = "memory";
+		cfg.stateMachine = "kv";
+		args = Config.applyArgs(args);
+		int participants = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int records = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		int outstanding = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		String[] workloads = args.length > 4 ? Arrays.copyOfRange(args, 4, args.length) : WORKLOADS;
+		cfg.numParticipants = participants;
+
+		System.out.println(String.format("%-9s %-10s %10s %12s %12s %12s %12s %7s", "workload", "reads",
+				"ops/s", "read p50 ms", "read p99 ms", "upd p50 ms", "upd p99 ms", "failed"));
+		for (String workload : workloads) {
+			for (boolean readIndex : new boolean[] { true, false }) {
+				Result r = run(participants, records, operations, outstanding, workload, readIndex);
+				System.out.println(String.format("%-9s %-10s %10.0f %12s %12s %12s %12s %7d", workload,
+						readIndex ? "read-index" : "log", r.opsPerSecond, millis(r.reads, 50), millis(r.reads, 99),
+						millis(r.updates, 50), millis(r.updates, 99), r.failed.get()));
+			}
+		}
+	}
+
+}
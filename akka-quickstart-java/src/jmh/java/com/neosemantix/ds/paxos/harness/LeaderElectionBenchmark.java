@@ -0,0 +1,107 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.LatencyDistribution;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Compares single decree time-to-consensus and number of messages exchanged
+ * with and without a distinguished proposer, for growing numbers of
+ * participants. Without leader election every participant keeps circulating
+ * prepare requests and they preempt each other.
+ *
+ * Usage: LeaderElectionBenchmark [runs per configuration] [timeout seconds] [prepare delay spec]
+ *
+ * The prepare delay is given as a LatencyDistribution spec, by default
+ * uniform:10:100 so that a run takes well under a second when it goes well.
+ */
+public class LeaderElectionBenchmark {
+
+	private static final int[] PARTICIPANTS = { 5, 11, 25, 51, 101 };
+
+	static class Outcome {
+
+		final long millis;
+		final long messages;
+
+		Outcome(long ms, long msgs) {
+			millis = ms;
+			messages = msgs;
+		}
+
+	}
+
+	/**
+	 * @return Outcome or null when consensus was not reached in time
+	 */
+	static Outcome runOnce(int participants, boolean election, long timeoutSeconds) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.numParticipants = participants;
+		cfg.leaderElection = election;
+
+		CompletableFuture<Long> done = new CompletableFuture<Long>();
+		PaxosMain.onConsensus(() -> done.complete(PaxosMain.messagesSent()));
+		PaxosMain.resetMessagesSent();
+		ActorSystem system = ActorSystem.create("ElectionBenchmark",
+				ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+		try {
+			long start = System.nanoTime();
+			PaxosMain.startParticipants(system, participants);
+			long messages = done.get(timeoutSeconds, TimeUnit.SECONDS);
+			return new Outcome(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), messages);
+		} catch (TimeoutException e) {
+			return null;
+		} finally {
+			system.terminate();
+			Await.ready(system.whenTerminated(), Duration.Inf());
+		}
+	}
+
+	private static long median(long[] values, int count) {
+		if (count == 0) {
+			return -1;
+		}
+		long[] sorted = Arrays.copyOf(values, count);
+		Arrays.sort(sorted);
+		return sorted[count / 2];
+	}
+
+	public static void main(String[] args) throws Exception {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		long timeoutSeconds = args.length > 1 ? Long.parseLong(args[1]) : 30;
+		String delay = args.length > 2 ? args[2] : "uniform:10:100";
+		Config.getInstance().prepareResponseDelay = LatencyDistribution.parse(delay);
+
+		System.out.println(String.format("%-14s %-10s %-18s %-18s %-10s", "participants", "election",
+				"median ms", "median messages", "timeouts"));
+		for (int n : PARTICIPANTS) {
+			for (boolean election : new boolean[] { false, true }) {
+				long[] millis = new long[runs];
+				long[] messages = new long[runs];
+				int ok = 0;
+				for (int r = 0; r < runs; r++) {
+					Outcome o = runOnce(n, election, timeoutSeconds);
+					if (o != null) {
+						millis[ok] = o.millis;
+						messages[ok] = o.messages;
+						ok++;
+					}
+				}
+				System.out.println(String.format("%-14d %-10s %-18d %-18d %-10d", n, election, median(millis, ok),
+						median(messages, ok), runs - ok));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.Metrics;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.neosemantix.ds.paxos.Protocol;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Throughput benchmark of the Multi-Paxos replicated log. A client pushes
+ * commands to the leader, keeping a bounded number of them outstanding, until
+ * the requested number of commands are committed.
+ *
+ * Usage: MultiPaxosBenchmark [settings] [entries] [participants] [pipeline window] [max batch size] [acceptor store]
+ *
+ * Defaults are 1,000,000 entries, 5 participants, window of 256 slots, no
+ * batching, i.e. one command per slot, and acceptor state kept in memory. With
+ * "wal" as acceptor store the write-ahead logs go to a temporary directory.
+ */
+public class MultiPaxosBenchmark {
+
+	static class Client extends AbstractActor {
+
+		static Props props(ActorRef leader, long entries, int maxOutstanding, CompletableFuture<Long> done,
+				CompletableFuture<Long> slots) {
+			return Props.create(Client.class, () -> new Client(leader, entries, maxOutstanding, done, slots));
+		}
+
+		private final ActorRef leader;
+		private final long entries;
+		private final int maxOutstanding;
+		private final CompletableFuture<Long> done;
+		private final CompletableFuture<Long> slots;
+		private long sent;
+		private long committed;
+
+		Client(ActorRef l, long e, int mo, CompletableFuture<Long> d, CompletableFuture<Long> s) {
+			leader = l;
+			entries = e;
+			maxOutstanding = mo;
+			done = d;
+			slots = s;
+		}
+
+		@Override
+		public void preStart() {
+			leader.tell(new Protocol.SubscribeCommits(), getSelf());
+			sendMore();
+		}
+
+		private void sendMore() {
+			while (sent < entries && sent - committed < maxOutstanding) {
+				leader.tell(new Protocol.Propose(sent), getSelf());
+				sent++;
+			}
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(Protocol.CommitIndex.class, ci -> {
+				committed = ci.commandsCommitted;
+				if (committed >= entries) {
+					slots.complete(ci.index + 1);
+					done.complete(committed);
+					getContext().stop(getSelf());
+				} else {
+					sendMore();
+				}
+			}).build();
+		}
+
+	}
+
+	/**
+	 * Result of a single run.
+	 */
+	public static class Result {
+
+		public final long commands;
+		public final long slots;
+		public final double seconds;
+
+		Result(long c, long sl, double sec) {
+			commands = c;
+			slots = sl;
+			seconds = sec;
+		}
+
+		public double commandsPerSecond() {
+			return commands / seconds;
+		}
+
+		public double slotsPerSecond() {
+			return slots / seconds;
+		}
+
+	}
+
+	/**
+	 * Starts a fresh actor system with the given number of participants and
+	 * measures how long it takes to commit the given number of commands.
+	 */
+	public static Result run(long entries, int participants, int window, int maxBatchSize) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.numParticipants = participants;
+		cfg.pipelineWindow = window;
+		cfg.batchMaxSize = maxBatchSize;
+
+		// per message debug logging would dominate the measurement
+		ActorSystem system = ActorSystem.create("PaxosBenchmark",
+				ConfigFactory.parseString("akka.loglevel = INFO").withFallback(ConfigFactory.load()));
+		try {
+			List<ActorRef> ps = PaxosMain.startParticipants(system, participants);
+			CompletableFuture<Long> done = new CompletableFuture<Long>();
+			ActorRef leader = ps.get(cfg.multiPaxosLeader);
+			CompletableFuture<Long> slots = new CompletableFuture<Long>();
+			long start = System.nanoTime();
+			system.actorOf(Client.props(leader, entries, Math.max(window * 4, window * maxBatchSize), done, slots));
+			long committed = done.get();
+			long elapsedNanos = System.nanoTime() - start;
+			return new Result(committed, slots.get(), elapsedNanos / 1e9);
+		} finally {
+			system.terminate();
+			Await.ready(system.whenTerminated(), Duration.Inf());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		args = Config.applyArgs(args);
+		long entries = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int participants = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int window = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+		int maxBatchSize = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+		if (args.length > 4) {
+			Config cfg = Config.getInstance();
+			cfg.acceptorStore = args[4];
+			cfg.walDirectory = Files.createTempDirectory("paxos-wal").toString();
+		}
+
+		Result r = run(entries, participants, window, maxBatchSize);
+		System.out.println(String.format(
+				"Committed %d entries in %d slots with %d participants, window %d in %.3f s: %.0f commits/sec",
+				r.commands, r.slots, participants, window, r.seconds, r.commandsPerSecond()));
+		if (Metrics.getInstance().isEnabled()) {
+			System.out.println(Metrics.getInstance().report());
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.Arrays;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.LatencyDistribution;
+
+/**
+ * Time-to-consensus percentiles of contended single decree rounds, with
+ * rejected rounds retried on Nack (jittered exponential backoff) versus left
+ * to the next Tick. Leader election is off so that all participants propose
+ * and keep preempting each other.
+ *
+ * Usage: NackRetryBenchmark [runs] [participants] [timeout seconds] [prepare delay spec]
+ *
+ * The prepare delay defaults to the one of Config, uniform:100:1000, where
+ * rounds take long enough to overlap and collide.
+ */
+public class NackRetryBenchmark {
+
+	/**
+	 * @param sorted
+	 *            Values in ascending order
+	 * @param p
+	 *            Percentile between 0 and 100
+	 * @return long Nearest-rank percentile, -1 if there are no values
+	 */
+	static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return -1;
+		}
+		int rank = (int) Math.ceil(p / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+
+	public static void main(String[] args) throws Exception {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int participants = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		long timeoutSeconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+		String delay = args.length > 3 ? args[3] : "uniform:100:1000";
+		Config cfg = Config.getInstance();
+		cfg.prepareResponseDelay = LatencyDistribution.parse(delay);
+
+		System.out.println(String.format("%-10s %-10s %-10s %-10s %-10s %-10s %-10s", "retry", "p50 ms", "p90 ms",
+				"p99 ms", "max ms", "messages", "timeouts"));
+		for (boolean retry : new boolean[] { false, true }) {
+			cfg.nackRetry = retry;
+			long[] millis = new long[runs];
+			long[] messages = new long[runs];
+			int ok = 0;
+			for (int r = 0; r < runs; r++) {
+				LeaderElectionBenchmark.Outcome o = LeaderElectionBenchmark.runOnce(participants, false,
+						timeoutSeconds);
+				if (o != null) {
+					millis[ok] = o.millis;
+					messages[ok] = o.messages;
+					ok++;
+				}
+			}
+			long[] sorted = Arrays.copyOf(millis, ok);
+			Arrays.sort(sorted);
+			long[] sortedMessages = Arrays.copyOf(messages, ok);
+			Arrays.sort(sortedMessages);
+			System.out.println(String.format("%-10s %-10d %-10d %-10d %-10d %-10d %-10d", retry,
+					percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+					percentile(sorted, 100), percentile(sortedMessages, 50), runs - ok));
+		}
+	}
+
+}
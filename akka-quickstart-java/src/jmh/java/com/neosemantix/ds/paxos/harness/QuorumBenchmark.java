@@ -0,0 +1,97 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.DiscreteEventSimulation;
+import com.neosemantix.ds.paxos.FaultProfile;
+import com.neosemantix.ds.paxos.QuorumSystem;
+
+/**
+ * Quorum systems side by side: how many acceptors each phase waits for, how
+ * many failures each phase survives, and what that does to latency.
+ *
+ * Single decree consensus runs both phases for every value, so it is run in a
+ * DiscreteEventSimulation (virtual time, same numbers on every machine) to see
+ * what a larger phase 1 quorum costs. The Multi-Paxos replicated log runs
+ * phase 1 once and phase 2 for every slot, so its commit latency under Akka
+ * shows what a smaller phase 2 quorum gains; the leader still sends every
+ * accept request to all acceptors, it just waits for fewer of them.
+ *
+ * Link latency decides how much waiting for fewer acceptors helps, so unless
+ * --faults is given every message between participants gets the latency of
+ * DEFAULT_FAULTS. Under Akka that latency goes through the scheduler, whose
+ * tick (akka.scheduler.tick-duration) rounds it up.
+ *
+ * Usage: QuorumBenchmark [settings] [participants] [scenarios] [commands] [outstanding commands] [quorum system...]
+ *
+ * Defaults are 10 participants, 200 single decree scenarios, 2,000 commands
+ * with 16 outstanding, and the quorum systems below; see QuorumSystem.parse
+ * for how to write others.
+ */
+public class QuorumBenchmark {
+
+	private static final String DEFAULT_FAULTS = "latency=exponential:20";
+
+	private static final String[] QUORUMS = { "majority", "flexible:8:3", "flexible:9:2", "grid:2:5",
+			"weighted:2.2.2.1.1.1.1.1.1.1" };
+
+	/**
+	 * @return long[] Virtual milliseconds until the first proposer learned its
+	 *         value got chosen, of the runs which decided, sorted
+	 */
+	static long[] singleDecree(int participants, int scenarios) {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		long[] millis = new long[scenarios];
+		int decided = 0;
+		for (int i = 0; i < scenarios; i++) {
+			DiscreteEventSimulation.Outcome o = new DiscreteEventSimulation(i + 1, participants, null).run(60000);
+			if (o.violation != null) {
+				throw new IllegalStateException("Seed " + o.seed + " under " + cfg.quorum + ": " + o.violation);
+			}
+			if (o.isDecided()) {
+				millis[decided++] = o.decidedAtMillis;
+			}
+		}
+		long[] sorted = Arrays.copyOf(millis, decided);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.acceptorStore = "memory";
+		cfg.faults = FaultProfile.parse(DEFAULT_FAULTS);
+		args = Config.applyArgs(args);
+		int participants = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int scenarios = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int commands = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int window = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+		List<String> quorums = new ArrayList<String>(
+				Arrays.asList(args.length > 4 ? Arrays.copyOfRange(args, 4, args.length) : QUORUMS));
+
+		System.out.println(participants + " participants, faults " + cfg.faults);
+		System.out.println(String.format("%-32s %5s %5s %5s %5s | %14s %14s | %12s %12s", "quorum system", "q1",
+				"q2", "f1", "f2", "decree p50 ms", "decree p99 ms", "log p50 ms", "log p99 ms"));
+		String quorum = cfg.quorum;
+		for (String spec : quorums) {
+			QuorumSystem q = QuorumSystem.parse(spec, participants);
+			cfg.quorum = spec;
+			long[] decree = singleDecree(participants, scenarios);
+			cfg.multiPaxos = true;
+			cfg.numParticipants = participants;
+			long[] log = DispatcherBenchmark.run(participants, commands, window);
+			System.out.println(String.format("%-32s %5d %5d %5d %5d | %14d %14d | %12.3f %12.3f", q,
+					q.smallestPhase1Quorum(), q.smallestPhase2Quorum(), q.phase1FailuresTolerated(),
+					q.phase2FailuresTolerated(), decree.length > 0 ? NackRetryBenchmark.percentile(decree, 50) : -1,
+					decree.length > 0 ? NackRetryBenchmark.percentile(decree, 99) : -1,
+					NackRetryBenchmark.percentile(log, 50) / 1e6, NackRetryBenchmark.percentile(log, 99) / 1e6));
+		}
+		cfg.quorum = quorum;
+		cfg.faults = FaultProfile.NONE;
+	}
+
+}
@@ -0,0 +1,170 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.KeyValueStore;
+import com.neosemantix.ds.paxos.LatencyHistogram;
+import com.neosemantix.ds.paxos.PaxosMain;
+import com.neosemantix.ds.paxos.StateMachineClient;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Grows the acceptors of the replicated log from 3 to 7 under load, see
+ * Membership. All participants run from the start, those beyond the initial
+ * members only learn. Puts keep a fixed number of operations outstanding for
+ * the whole run, which is cut into three equal phases: 3 members, then 5 after
+ * the first change, then 7 after the second one.
+ *
+ * For each phase: throughput, put latency and the longest stall, the longest
+ * time in which no put completed. The same load on a static membership of 3
+ * and of 7 gives the phases something to compare with; how long the changes
+ * took to get decided follows the table.
+ *
+ * Usage: ReconfigurationBenchmark [settings] [seconds] [outstanding operations]
+ *
+ * Defaults are 9 seconds with 64 outstanding.
+ */
+public class ReconfigurationBenchmark {
+
+	private static final int PARTICIPANTS = 7;
+
+	private static final int[][] CHANGES = { { 0, 1, 2, 3, 4 }, { 0, 1, 2, 3, 4, 5, 6 } };
+
+	private static final int BUCKET_MILLIS = 10;
+
+	static class Phase {
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		long completed;
+		long stallMillis;
+
+	}
+
+	static class Result {
+
+		final Phase[] phases = new Phase[CHANGES.length + 1];
+		final AtomicLong failed = new AtomicLong();
+		final long[] changeMillis = new long[CHANGES.length];
+		final long[] changeSlots = new long[CHANGES.length];
+
+	}
+
+	static Result run(int initialMembers, boolean reconfigure, int seconds, int outstanding) throws Exception {
+		Config.getInstance().initialMembers = initialMembers;
+		ActorSystem system = ActorSystem.create("PaxosBenchmark",
+				ConfigFactory.parseString("akka.loglevel = INFO").withFallback(ConfigFactory.load()));
+		try {
+			List<ActorRef> ps = PaxosMain.startParticipants(system, PARTICIPANTS);
+			StateMachineClient client = new StateMachineClient(system, ps.get(Config.getInstance().multiPaxosLeader));
+			Result result = new Result();
+			for (int i = 0; i < result.phases.length; i++) {
+				result.phases[i] = new Phase();
+			}
+			long durationNanos = seconds * 1_000_000_000L;
+			long phaseNanos = durationNanos / result.phases.length;
+			AtomicLongArray buckets = new AtomicLongArray((int) (durationNanos / 1_000_000 / BUCKET_MILLIS) + 1);
+			Semaphore window = new Semaphore(outstanding);
+
+			// warm up on the initial members
+			for (int i = 0; i < 20000; i++) {
+				window.acquire();
+				client.submit(KeyValueStore.put(i % 1000, i)).whenComplete((r, e) -> window.release());
+			}
+			window.acquire(outstanding);
+			window.release(outstanding);
+
+			long start = System.nanoTime();
+			int changes = 0;
+			for (int i = 0;; i++) {
+				window.acquire();
+				long sent = System.nanoTime();
+				if (sent - start >= durationNanos) {
+					window.release();
+					break;
+				}
+				int phase = (int) ((sent - start) / phaseNanos);
+				if (reconfigure && changes < phase) {
+					int c = changes++;
+					client.reconfigure(CHANGES[c]).whenComplete((slot, e) -> {
+						result.changeMillis[c] = (System.nanoTime() - sent) / 1_000_000;
+						result.changeSlots[c] = e == null ? slot : -1;
+					});
+				}
+				Phase p = result.phases[phase];
+				client.submit(KeyValueStore.put(i % 1000, i)).whenComplete((r, e) -> {
+					long now = System.nanoTime();
+					if (e != null) {
+						result.failed.incrementAndGet();
+					} else {
+						p.latency.record(now - sent);
+						int b = (int) ((now - start) / 1_000_000 / BUCKET_MILLIS);
+						if (b < buckets.length()) {
+							buckets.incrementAndGet(b);
+						}
+					}
+					window.release();
+				});
+			}
+			window.acquire(outstanding);
+			client.close();
+
+			int bucketsPerPhase = (int) (phaseNanos / 1_000_000 / BUCKET_MILLIS);
+			for (int i = 0; i < result.phases.length; i++) {
+				Phase p = result.phases[i];
+				long stall = 0;
+				for (int b = i * bucketsPerPhase; b < (i + 1) * bucketsPerPhase; b++) {
+					long n = buckets.get(b);
+					p.completed += n;
+					stall = n == 0 ? stall + BUCKET_MILLIS : 0;
+					p.stallMillis = Math.max(p.stallMillis, stall);
+				}
+			}
+			return result;
+		} finally {
+			system.terminate();
+			Await.ready(system.whenTerminated(), Duration.Inf());
+		}
+	}
+
+	private static void print(String name, Result r, int seconds) {
+		double phaseSeconds = (double) seconds / r.phases.length;
+		for (int i = 0; i < r.phases.length; i++) {
+			Phase p = r.phases[i];
+			System.out.println(String.format("%-14s %6d %10.0f %10.3f %10.3f %10d %7d", name, i + 1,
+					p.completed / phaseSeconds, p.latency.percentile(50) / 1e6, p.latency.percentile(99) / 1e6,
+					p.stallMillis, i == 0 ? r.failed.get() : 0));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.acceptorStore = "memory";
+		cfg.stateMachine = "kv";
+		args = Config.applyArgs(args);
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+		int outstanding = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		cfg.numParticipants = PARTICIPANTS;
+
+		System.out.println(String.format("%-14s %6s %10s %10s %10s %10s %7s", "members", "phase", "ops/s",
+				"p50 ms", "p99 ms", "stall ms", "failed"));
+		print("3", run(3, false, seconds, outstanding), seconds);
+		print("7", run(0, false, seconds, outstanding), seconds);
+		Result grown = run(3, true, seconds, outstanding);
+		print("3 -> 5 -> 7", grown, seconds);
+		for (int i = 0; i < CHANGES.length; i++) {
+			System.out.println(String.format("change to %d members decided in %d ms, effective from slot %d",
+					CHANGES[i].length, grown.changeMillis[i], grown.changeSlots[i]));
+		}
+	}
+
+}
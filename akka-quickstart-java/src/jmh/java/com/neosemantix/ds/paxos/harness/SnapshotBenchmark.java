@@ -0,0 +1,132 @@
+package com.neosemantix.ds.paxos.harness;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import com.neosemantix.ds.paxos.Config;
+import com.neosemantix.ds.paxos.DiscreteEventSimulation;
+import com.neosemantix.ds.paxos.FaultProfile;
+import com.neosemantix.ds.paxos.KeyValueStore;
+
+/**
+ * What a participant which missed the history of the replicated log costs to
+ * bring back, as that history grows while the state stays the same size:
+ * commands put values under a fixed set of keys of the KeyValueStore.
+ *
+ * Catch-up: in a DiscreteEventSimulation the last participant is partitioned
+ * away while the history is written, then a trickle of commands follows the
+ * heal. Catch-up is the virtual time from the heal until its commit index
+ * reaches that of a participant which was never cut off; it gets there
+ * through a SnapshotTransfer of the leader's state machine, the log holds
+ * only the slots since the last compaction (retained).
+ *
+ * Restart: the same history with the "wal" store and no partition, then all
+ * participants are started again on their stores. Restart is the wall clock
+ * time they take to recover: the latest store snapshot with the state machine
+ * in it, and the segments written since.
+ *
+ * Usage: SnapshotBenchmark [settings] [keys] [history...]
+ *
+ * Defaults are 10,000 keys and histories of 20,000, 200,000 and 1,000,000
+ * commands, written at COMMANDS_PER_MILLI.
+ */
+public class SnapshotBenchmark {
+
+	private static final int PARTICIPANTS = 5;
+
+	private static final int LAGGING = PARTICIPANTS - 1;
+
+	private static final int COMMANDS_PER_MILLI = 20;
+
+	private static final int TRICKLE_COMMANDS = 2000;
+
+	private static final int[] HISTORIES = { 20000, 200000, 1000000 };
+
+	static class Result {
+
+		long slots;
+		int retained;
+		long catchUpMillis = -1;
+		double restartMillis;
+
+	}
+
+	private static void propose(DiscreteEventSimulation sim, int keys, int history, long fromMillis) {
+		int leader = Config.getInstance().multiPaxosLeader;
+		for (int i = 0; i < history; i++) {
+			sim.propose(fromMillis + i / COMMANDS_PER_MILLI, KeyValueStore.put(i % keys, i), leader);
+		}
+	}
+
+	static void catchUp(int keys, int history, Result result) {
+		Config cfg = Config.getInstance();
+		cfg.acceptorStore = "memory";
+		long healAt = history / COMMANDS_PER_MILLI + 1000;
+		cfg.faults = FaultProfile.parse("partition=0-" + healAt + "/" + LAGGING);
+		DiscreteEventSimulation sim = new DiscreteEventSimulation(1, PARTICIPANTS, null);
+		propose(sim, keys, history, 0);
+		// accept requests after the heal tell the participant how far behind it is
+		propose(sim, keys, TRICKLE_COMMANDS, healAt);
+		sim.run(healAt);
+		result.slots = sim.commitIndex(0) + 1;
+		result.retained = sim.retainedSlots(0);
+		for (long t = healAt + 1; t < healAt + 60000; t++) {
+			sim.run(t);
+			if (sim.commitIndex(LAGGING) >= 0 && sim.commitIndex(LAGGING) >= sim.commitIndex(1)) {
+				result.catchUpMillis = t - healAt;
+				break;
+			}
+		}
+	}
+
+	static void restart(int keys, int history, Result result) throws IOException {
+		Config cfg = Config.getInstance();
+		cfg.acceptorStore = "wal";
+		cfg.faults = FaultProfile.NONE;
+		Path dir = Files.createTempDirectory("snapshot-benchmark");
+		cfg.walDirectory = dir.toString();
+		try {
+			DiscreteEventSimulation sim = new DiscreteEventSimulation(1, PARTICIPANTS, null);
+			propose(sim, keys, history, 0);
+			sim.run(history / COMMANDS_PER_MILLI + 1000);
+			long start = System.nanoTime();
+			new DiscreteEventSimulation(2, PARTICIPANTS, null);
+			result.restartMillis = (System.nanoTime() - start) / 1e6;
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.stateMachine = "kv";
+		cfg.catchUpLagSlots = 100;
+		cfg.walSnapshotInterval = 20000;
+		cfg.walSegmentBytes = 1 << 22;
+		args = Config.applyArgs(args);
+		int keys = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int[] histories = args.length > 1
+				? Arrays.stream(Arrays.copyOfRange(args, 1, args.length)).mapToInt(Integer::parseInt).toArray()
+				: HISTORIES;
+
+		System.out.println(String.format("%-10s %8s %9s %13s %12s", "commands", "slots", "retained",
+				"catch-up ms", "restart ms"));
+		// the first restart pays for class loading and the JIT
+		restart(keys, histories[0], new Result());
+		for (int history : histories) {
+			Result r = new Result();
+			catchUp(keys, history, r);
+			restart(keys, history, r);
+			System.out.println(String.format("%-10d %8d %9d %13s %12.1f", history, r.slots, r.retained,
+					r.catchUpMillis >= 0 ? Long.toString(r.catchUpMillis) : "-", r.restartMillis));
+		}
+	}
+
+}
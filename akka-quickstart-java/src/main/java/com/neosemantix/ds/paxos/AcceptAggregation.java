@@ -0,0 +1,175 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * The way back of accept requests the leader broadcast through a RelayTree.
+ * Instead of every acceptor answering the leader, each participant answers
+ * its parent in the tree for its whole subtree: once its own accept and the
+ * SlotAcceptResponses of all its children are in, it sends one
+ * SlotAcceptResponses with every acceptor among them. The leader then gets
+ * fanout messages per slot, whatever the number of participants.
+ *
+ * A participant does not wait for its children forever: after timeoutMillis
+ * for each level of its subtree, or twice as long as its subtree took lately
+ * if that is longer, it answers with what it has, and no longer waits for the
+ * children which did not make it until they answer again. Their answers, like
+ * anything else which comes too late, go on to the leader straight away.
+ * Late answers count towards how long the subtree takes too, so busy
+ * participants do not keep answering twice; lost ones do not.
+ */
+class AcceptAggregation {
+
+	private final Participant participant;
+	private final int id;
+	private final int participants;
+	private final int fanout;
+	private final long timeoutMillis;
+
+	// by slot, one round of a slot at a time
+	private final HashMap<Long, Pending> pending;
+
+	// children which did not answer in time, not waited for
+	private final BitSet slow;
+
+	// how long our subtree took to answer, moving average
+	private double tookMillis;
+
+	// slot -> when we started waiting, of those we answered without waiting
+	// for everybody, for as long as we would wait now
+	private final HashMap<Long, Long> expired;
+
+	private static final class Pending {
+
+		private final long ballot;
+		private final Object parent;
+		private final BitSet acceptors;
+		private final BitSet awaited;
+		private final long since;
+		private final long due;
+
+		private Pending(long b, Object p, BitSet a, BitSet w, long s, long d) {
+			ballot = b;
+			parent = p;
+			acceptors = a;
+			awaited = w;
+			since = s;
+			due = d;
+		}
+
+	}
+
+	AcceptAggregation(Participant p, int i, int pc, int f, long timeout) {
+		participant = p;
+		id = i;
+		participants = pc;
+		fanout = f;
+		timeoutMillis = timeout;
+		pending = new HashMap<Long, Pending>();
+		slow = new BitSet(pc);
+		expired = new HashMap<Long, Long>();
+	}
+
+	/**
+	 * We handled an accept request which came through the relay.
+	 *
+	 * @param accepted
+	 *            Whether we accepted it or sent a Nack
+	 */
+	void relayed(Protocol.Relay r, long ballot, long slot, boolean accepted, long now) {
+		int position = RelayTree.positionOf(id, r.root, r.rotation, participants);
+		Object parent = participant.endpoint(
+				RelayTree.idAt((position - 1) / fanout, r.root, r.rotation, participants));
+		if (parent == null) {
+			parent = participant.endpoint(r.root);
+		}
+		BitSet acceptors = new BitSet(participants);
+		if (accepted) {
+			acceptors.set(id);
+		}
+		BitSet awaited = new BitSet(participants);
+		int first = RelayTree.firstChild(position, fanout);
+		for (int c = first; c < first + fanout && c < participants; c++) {
+			int child = RelayTree.idAt(c, r.root, r.rotation, participants);
+			if (!slow.get(child) && participant.endpoint(child) != null) {
+				awaited.set(child);
+			}
+		}
+		if (awaited.isEmpty()) {
+			answer(parent, ballot, slot, acceptors);
+			return;
+		}
+		long wait = Math.max(RelayTree.levelsBelow(position, fanout, participants) * timeoutMillis,
+				(long) (2 * tookMillis));
+		pending.put(slot, new Pending(ballot, parent, acceptors, awaited, now, now + wait));
+		participant.scheduleRelayFlush(timeoutMillis);
+	}
+
+	/**
+	 * A child answered for its subtree.
+	 */
+	void received(Protocol.SlotAcceptResponses resps, long now) {
+		slow.clear(resps.from);
+		Pending p = pending.get(resps.slot);
+		if (p == null || p.ballot != resps.ballot) {
+			Long since = expired.remove(resps.slot);
+			if (since != null) {
+				took(now - since);
+			}
+			// too late, or for a round we know nothing of
+			Object leader = participant.endpoint(Ballot.participant(resps.ballot));
+			if (leader != null) {
+				participant.send(leader, new Protocol.SlotAcceptResponses(resps.ballot, resps.slot, id,
+						resps.acceptors));
+			}
+			return;
+		}
+		p.acceptors.or(BitSet.valueOf(resps.acceptors));
+		p.awaited.clear(resps.from);
+		if (p.awaited.isEmpty()) {
+			pending.remove(resps.slot);
+			took(now - p.since);
+			answer(p.parent, p.ballot, resps.slot, p.acceptors);
+		}
+	}
+
+	/**
+	 * Answers for the slots whose children took too long.
+	 *
+	 * @return boolean True if some are still waiting
+	 */
+	boolean flush(long now) {
+		Iterator<HashMap.Entry<Long, Pending>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			HashMap.Entry<Long, Pending> e = it.next();
+			Pending p = e.getValue();
+			if (p.due <= now) {
+				it.remove();
+				slow.or(p.awaited);
+				expired.put(e.getKey(), p.since);
+				answer(p.parent, p.ballot, e.getKey(), p.acceptors);
+			}
+		}
+		Iterator<Long> since = expired.values().iterator();
+		while (since.hasNext()) {
+			if (now - since.next() > 2 * tookMillis + timeoutMillis) {
+				since.remove();
+			}
+		}
+		return !pending.isEmpty() || !expired.isEmpty();
+	}
+
+	private void took(long millis) {
+		tookMillis += (millis - tookMillis) / 8;
+	}
+
+	private void answer(Object parent, long ballot, long slot, BitSet acceptors) {
+		if (parent != null) {
+			// after our own accept is synced, see Participant.send
+			participant.send(parent, new Protocol.SlotAcceptResponses(ballot, slot, id, acceptors.toLongArray()));
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.neosemantix.ds.paxos;
+
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+
+/**
+ * Storage of acceptor state: promises made and proposals accepted, for the
+ * single decree rounds as well as for the Multi-Paxos replicated log. Paxos is
+ * only safe if an acceptor never forgets what it promised or accepted, so a
+ * participant must not let a response leave before the state change behind it
+ * is stored.
+ *
+ * Writes are buffered; sync() makes everything written so far durable. A
+ * participant collects the responses of several requests and syncs once for
+ * all of them (group commit).
+ *
+ * Recovery and snapshots use the same StateVisitor: recover() replays the
+ * stored state into a visitor, snapshot() asks the participant to write its
+ * current state into one. Once the replicated log is compacted, a snapshot
+ * holds the state machine in place of the applied slots.
+ */
+public interface AcceptorStore {
+
+	/**
+	 * Receives acceptor state, either replayed from storage or written out as
+	 * a snapshot. Calls come in the order in which the state changed, so later
+	 * calls override earlier ones.
+	 */
+	interface StateVisitor {
+
+		void promised(long pn);
+
+		void accepted(long pn, long value);
+
+		void logPromised(long pn);
+
+		void logAccepted(long slot, long pn, long[] batch);
+
+		/**
+		 * The state machine after applying every slot up to 'slot', which
+		 * hold 'commands' client commands; the state follows in
+		 * logSnapshotData calls. Only snapshots have it.
+		 */
+		void logSnapshot(long slot, long commands);
+
+		void logSnapshotData(long[] part);
+
+		/**
+		 * The calls which follow are about the given group, in a store which
+		 * several groups share; see WalAcceptorStore.group.
+		 */
+		default void group(int g) {
+		}
+
+	}
+
+	void promised(long pn);
+
+	void accepted(long pn, long value);
+
+	void logPromised(long pn);
+
+	void logAccepted(long slot, long pn, long[] batch);
+
+	/**
+	 * @return boolean True if there are writes which are not yet durable.
+	 */
+	boolean needsSync();
+
+	/**
+	 * Make all writes so far durable.
+	 */
+	void sync();
+
+	/**
+	 * Replays stored state, if any, into the visitor.
+	 */
+	void recover(StateVisitor visitor);
+
+	/**
+	 * @return boolean True when enough has been written since the last snapshot
+	 *         that replaying it on recovery would be slow.
+	 */
+	boolean snapshotDue();
+
+	/**
+	 * @param source
+	 *            Writes the complete current state into the visitor given to it
+	 */
+	void snapshot(Consumer<StateVisitor> source);
+
+	void close();
+
+	/**
+	 * @param cfg
+	 * @param participantName
+	 * @return AcceptorStore as configured by Config.acceptorStore
+	 */
+	static AcceptorStore create(Config cfg, String participantName) {
+		switch (cfg.acceptorStore) {
+		case "memory":
+			return new InMemoryAcceptorStore();
+		case "wal":
+			return new WalAcceptorStore(Paths.get(cfg.walDirectory, participantName),
+					cfg.walSegmentBytes, cfg.walSnapshotInterval);
+		default:
+			throw new IllegalArgumentException("Unknown acceptor store: " + cfg.acceptorStore);
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.neosemantix.ds.paxos;
+
+/**
+ * Ballots, a.k.a. proposal numbers, packed into a primitive long: the round
+ * counter in the high bits and the id of the proposing participant in the low
+ * 16 bits. Two participants can never come up with the same ballot, and plain
+ * long comparison orders ballots by round first and participant id second,
+ * without allocating anything.
+ */
+public final class Ballot {
+
+	/**
+	 * No ballot promised or accepted yet; lower than every real ballot.
+	 */
+	public static final long NONE = -1;
+
+	private static final int ID_BITS = 16;
+
+	private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+	public static final int MAX_PARTICIPANT_ID = (int) ID_MASK;
+
+	private Ballot() {
+	}
+
+	public static long of(long round, int participantId) {
+		if (participantId < 0 || participantId > MAX_PARTICIPANT_ID) {
+			throw new IllegalArgumentException("Participant id out of range: " + participantId);
+		}
+		if (round < 0 || round > (Long.MAX_VALUE >>> ID_BITS)) {
+			throw new IllegalArgumentException("Round out of range: " + round);
+		}
+		return (round << ID_BITS) | participantId;
+	}
+
+	public static long round(long ballot) {
+		return ballot == NONE ? 0 : ballot >>> ID_BITS;
+	}
+
+	public static int participant(long ballot) {
+		return (int) (ballot & ID_MASK);
+	}
+
+	/**
+	 * @param highestSeen
+	 *            Highest ballot the participant knows of, NONE if none
+	 * @param participantId
+	 * @return long The smallest ballot of the participant which is higher than
+	 *         highestSeen
+	 */
+	public static long next(long highestSeen, int participantId) {
+		return of(round(highestSeen) + 1, participantId);
+	}
+
+	public static String toString(long ballot) {
+		return ballot == NONE ? "none" : round(ballot) + "." + participant(ballot);
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.neosemantix.ds.paxos;
+
+/**
+ * Proposer side batching of client commands. Each accept round fans out to
+ * all other participants, so the more commands one round carries the cheaper
+ * each command gets. A batch is cut when it reaches the current target size
+ * or when its oldest command has lingered long enough, and never holds more
+ * than the configured maximum.
+ *
+ * The target size adapts to the load. When more commands are waiting than the
+ * target at the time a batch is cut (the pipeline was full and commands piled
+ * up) the target doubles. When a batch had to be cut by the linger time before
+ * reaching the target, the target halves. So a lightly loaded proposer sends
+ * every command right away and a busy one sends few large batches.
+ */
+class CommandBatcher {
+
+	static final long[] EMPTY_BATCH = new long[0];
+
+	private final LongQueue pending;
+	// arrival time of each pending command, in the same order
+	private final LongQueue arrivals;
+	private final int maxBatchSize;
+	private final long lingerNanos;
+	private int targetBatchSize;
+
+	// arrival time of the oldest command waiting
+	private long oldestPendingSince;
+
+	CommandBatcher(int maxSize, long lingerMillis) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1: " + maxSize);
+		}
+		pending = new LongQueue();
+		arrivals = new LongQueue();
+		maxBatchSize = maxSize;
+		lingerNanos = lingerMillis * 1000000L;
+		targetBatchSize = 1;
+	}
+
+	void add(long command, long now) {
+		if (pending.isEmpty()) {
+			oldestPendingSince = now;
+		}
+		pending.add(command);
+		arrivals.add(now);
+	}
+
+	boolean isEmpty() {
+		return pending.isEmpty();
+	}
+
+	int pendingCount() {
+		return pending.size();
+	}
+
+	int targetBatchSize() {
+		return targetBatchSize;
+	}
+
+	/**
+	 * @return long Arrival time of the oldest command waiting, meaningless
+	 *         when none is
+	 */
+	long oldestPendingSince() {
+		return oldestPendingSince;
+	}
+
+	/**
+	 * @param now
+	 * @return boolean True when a batch should be cut right away.
+	 */
+	boolean ready(long now) {
+		return !pending.isEmpty() && (pending.size() >= targetBatchSize || now - oldestPendingSince >= lingerNanos);
+	}
+
+	/**
+	 * @param now
+	 * @return long Nanoseconds until the oldest waiting command has lingered
+	 *         enough; 0 if nothing is waiting.
+	 */
+	long remainingLinger(long now) {
+		if (pending.isEmpty()) {
+			return 0;
+		}
+		return Math.max(0, lingerNanos - (now - oldestPendingSince));
+	}
+
+	long[] nextBatch() {
+		int available = pending.size();
+		if (available > targetBatchSize) {
+			targetBatchSize = Math.min(maxBatchSize, targetBatchSize * 2);
+		} else if (available < targetBatchSize) {
+			targetBatchSize = Math.max(1, targetBatchSize / 2);
+		}
+		int n = Math.min(available, maxBatchSize);
+		if (n == 0) {
+			return EMPTY_BATCH;
+		}
+		long[] batch = new long[n];
+		for (int i = 0; i < n; i++) {
+			batch[i] = pending.poll();
+			arrivals.poll();
+		}
+		if (!pending.isEmpty()) {
+			// the next batch lingers from the arrival of the oldest command left
+			oldestPendingSince = arrivals.peek();
+		}
+		return batch;
+	}
+
+}
@@ -1,5 +1,16 @@
 package com.neosemantix.ds.paxos;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueType;
+
 /**
  * This class defines configuration items like number of participants to be
  * considered in a single consensus simulation. It also has another parameter
@@ -8,13 +19,31 @@ package com.neosemantix.ds.paxos;
  * particular simulation exercise, or a set of simulations; should be defined
  * in this class.
  * 
- * The class implements Singleton design pattern.
+ * The class implements Singleton design pattern. The instance takes every
+ * value from the settings under "paxos" in application.conf, the only place
+ * defaults are defined; system properties like -Dpaxos.num-participants=5
+ * override them (see ConfigFactory.load). Programs which take arguments let
+ * settings like --num-participants=5 override all of these, see applyArgs.
  * 
  * @author umeshpatil
  */
 public class Config {
 
-	public int numParticipants = 11;
+	public int numParticipants;
+
+	/**
+	 * Independent Paxos groups, one per shard. With more than 1 every node is
+	 * a GroupHost running its participant of each group; in Multi-Paxos mode
+	 * the log of group g is led by participant (multiPaxosLeader + g) modulo
+	 * numParticipants, so the leaders are spread over the nodes.
+	 */
+	public int groups;
+
+	/**
+	 * Resolution of the timers of a GroupHost, the groups' timers all run on
+	 * a single tick of this many milliseconds.
+	 */
+	public long groupTickMillis;
 	
 	/**
 	 * When it is less than 0, say -1, a participant will issue only one Prepare Request. 
@@ -22,22 +51,388 @@ public class Config {
 	 * Request after 5 seconds. In other words, this value represents time a participant
 	 * would wait in milliseconds before the next Prepare Request is to be issued.
 	 */
-	public long waitBeforeNextRequest = 25;
+	public long waitBeforeNextRequest;
+
+	/**
+	 * Artificial delay a participant adds before responding to a Prepare
+	 * Request.
+	 */
+	public LatencyDistribution prepareResponseDelay;
+
+	/**
+	 * One way delay of every message between participants when they run in a
+	 * DiscreteEventSimulation, on top of prepareResponseDelay. Under Akka the
+	 * actual network or mailbox decides.
+	 */
+	public LatencyDistribution simulatedLinkDelay;
+
+	/**
+	 * Loss, duplication, extra latency and partitions injected into messages
+	 * among participants, see FaultProfile.parse for the specification.
+	 */
+	public FaultProfile faults;
+
+	/**
+	 * Which sets of acceptors make a quorum in phase 1 and phase 2, see
+	 * QuorumSystem.parse for the specification. Every participant count
+	 * supports "majority"; the others name participants or sizes and so have
+	 * to match numParticipants.
+	 */
+	public String quorum;
+
+	/**
+	 * Participants a broadcast goes to from each one in its RelayTree. With 0,
+	 * or if every other participant fits in, the broadcasting participant
+	 * sends it to each of them itself.
+	 */
+	public int broadcastFanout;
+
+	/**
+	 * How long a participant in the RelayTree waits for each level of its
+	 * subtree to answer a relayed accept request before it answers its parent
+	 * with the acceptors it has.
+	 */
+	public long relayTimeoutMillis;
+
+	/**
+	 * When true, participants elect a distinguished proposer and only that
+	 * one circulates prepare requests; otherwise every participant proposes.
+	 */
+	public boolean leaderElection;
+
+	/**
+	 * Seed of the random numbers participants draw, for delays, backoffs and
+	 * their first tick. Participant i uses randomSeed + i. When 0, every
+	 * participant seeds itself anew, so runs cannot be repeated. Even seeded,
+	 * the order in which Akka delivers messages may differ from run to run.
+	 */
+	public long randomSeed;
+
+	/**
+	 * Interval in milliseconds at which the leader sends heartbeats and
+	 * followers check whether the leader's lease has expired.
+	 */
+	public long heartbeatIntervalMillis;
+
+	/**
+	 * How long a heartbeat keeps others from claiming leadership.
+	 */
+	public long leaderLeaseMillis;
+
+	/**
+	 * Once the lease has expired, a participant waits a random time up to this
+	 * many milliseconds before claiming leadership.
+	 */
+	public long electionBackoffMillis;
+
+	/**
+	 * When true, a proposer whose round is rejected with a Nack retries after
+	 * a jittered exponential backoff, starting at retryBackoffBaseMillis or two
+	 * round trips, whichever is longer, and capped at retryBackoffMaxMillis.
+	 * When false it waits for its next Tick, as if the rejection had not been
+	 * heard.
+	 */
+	public boolean nackRetry;
+
+	public long retryBackoffBaseMillis;
+
+	public long retryBackoffMaxMillis;
+
+	/**
+	 * When true, single decree proposers propose the first value a client
+	 * sends them (Protocol.Propose) instead of making one up; after phase 1
+	 * they wait for it.
+	 */
+	public boolean clientValues;
+
+	/**
+	 * Fast Paxos for single decree consensus, implies clientValues. When phase
+	 * 1 leaves the proposer free to pick any value, it sends AcceptAny and
+	 * acceptors accept the value clients send them directly, one message delay
+	 * less than through the proposer. A value is chosen once a fast quorum of
+	 * acceptors accepted it; if clients collided and no value can get there
+	 * any more, the proposer falls back to a classic round.
+	 */
+	public boolean fastPaxos;
+
+	/**
+	 * Acceptors of a fast quorum, 0 for the smallest which is safe with the
+	 * quorum system, see QuorumSystem.fastQuorumSize.
+	 */
+	public int fastQuorumSize;
+
+	/**
+	 * When true, participants build a slot indexed replicated log (Multi-Paxos)
+	 * out of values proposed by clients, instead of starting single decree
+	 * rounds by themselves.
+	 */
+	public boolean multiPaxos;
+
+	/**
+	 * What the Multi-Paxos log replicates, see StateMachine.parse.
+	 */
+	public String stateMachine;
+
+	/**
+	 * Once this many slots got applied since the log was last compacted, the
+	 * applied ones are dropped; the state machine holds what they did. 0 keeps
+	 * the whole log.
+	 */
+	public long compactionIntervalSlots;
+
+	/**
+	 * A follower whose commit index trails the leader's by more than this
+	 * many slots asks the leader for a snapshot of its state machine.
+	 */
+	public long catchUpLagSlots;
+
+	/**
+	 * Longs of a state machine snapshot sent in one SnapshotChunk.
+	 */
+	public int snapshotChunkLongs;
+
+	/**
+	 * SnapshotChunks a transfer has in flight before the receiver
+	 * acknowledges them.
+	 */
+	public int snapshotWindowChunks;
+
+	/**
+	 * Index of the participant which acts as the stable leader of the
+	 * replicated log.
+	 */
+	public int multiPaxosLeader;
+
+	/**
+	 * Maximum number of slots the leader keeps in flight, i.e. accept requests
+	 * issued but not yet accepted by a quorum.
+	 */
+	public int pipelineWindow;
+
+	/**
+	 * Participants 0 to initialMembers - 1 are the acceptors of the replicated
+	 * log at first, 0 for all of them. The others learn the log and can be
+	 * made members later, see Membership.
+	 */
+	public int initialMembers;
+
+	/**
+	 * Upper bound of client commands the leader puts in a single slot. 1
+	 * disables batching.
+	 */
+	public int batchMaxSize;
+
+	/**
+	 * How long, in milliseconds, a client command may wait for its batch to
+	 * fill up before the batch goes out anyway.
+	 */
+	public long batchLingerMillis;
+
+	/**
+	 * Where participants keep their acceptor state: "memory" keeps it on the
+	 * heap only, it is lost when a participant restarts; "wal" writes it to a
+	 * write-ahead log under walDirectory, one sub directory per participant.
+	 */
+	public String acceptorStore;
+
+	public String walDirectory;
+
+	/**
+	 * Size of each memory-mapped WAL segment file in bytes.
+	 */
+	public int walSegmentBytes;
+
+	/**
+	 * Number of WAL records after which acceptor state is snapshotted and
+	 * older segments are dropped.
+	 */
+	public long walSnapshotInterval;
+
+	/**
+	 * Akka dispatcher participants run on, e.g. one of those configured under
+	 * "paxos.dispatchers" in application.conf.
+	 */
+	public String participantDispatcher;
+
+	/**
+	 * Dispatcher of the Multi-Paxos leader, which does the proposer's work
+	 * while the others mostly accept and learn. Empty for
+	 * participantDispatcher.
+	 */
+	public String leaderDispatcher;
+
+	/**
+	 * When true, participants started from now on record latencies, message
+	 * counts and mailbox depths, see Metrics.
+	 */
+	public boolean metricsEnabled;
+
+	/**
+	 * How often, in milliseconds, Metrics prints a summary while enabled; 0
+	 * for never, JMX only.
+	 */
+	public long metricsReportIntervalMillis;
+
+	/**
+	 * Path of the settings in Typesafe configuration.
+	 */
+	public static final String ROOT = "paxos";
 
 	private Config() {
 	}
 	
-	private static Config cfg;
+	private static volatile Config cfg;
 
 	public static Config getInstance() {
-		if (cfg == null) {
-			synchronized (PaxosMain.class) {
-				if (cfg == null) {
-					cfg = new Config();
+		Config c = cfg;
+		if (c == null) {
+			synchronized (Config.class) {
+				c = cfg;
+				if (c == null) {
+					c = new Config();
+					c.apply(ConfigFactory.load(), true);
+					cfg = c;
 				}
 			}
 		}
-		return cfg;
+		return c;
+	}
+
+	/**
+	 * Takes settings like --num-participants=5 or --prepare-response-delay=fixed:0
+	 * off the command line and applies them to the instance; their names are
+	 * those under "paxos" in application.conf.
+	 * 
+	 * @param args
+	 * @return String[] The remaining arguments, in their order
+	 */
+	public static String[] applyArgs(String[] args) {
+		Map<String, Object> settings = new LinkedHashMap<String, Object>();
+		List<String> rest = new ArrayList<String>();
+		for (String a : args) {
+			int eq = a.indexOf('=');
+			if (a.startsWith("--") && eq > 2) {
+				settings.put(ROOT + "." + a.substring(2, eq), a.substring(eq + 1));
+			} else {
+				rest.add(a);
+			}
+		}
+		if (!settings.isEmpty()) {
+			getInstance().apply(ConfigFactory.parseMap(settings, "command line"));
+		}
+		return rest.toArray(new String[rest.size()]);
+	}
+
+	/**
+	 * Overrides fields with the settings under "paxos" in the given
+	 * configuration; fields without a setting keep their value.
+	 * 
+	 * @param c
+	 * @return Config this
+	 * @throws ConfigException
+	 *             when a setting is unknown or of the wrong type
+	 */
+	public Config apply(com.typesafe.config.Config c) {
+		return apply(c, false);
+	}
+
+	/**
+	 * @param c
+	 * @param complete
+	 *            true when c has to define every setting, as application.conf
+	 *            does for the initial values
+	 * @return Config this
+	 */
+	private Config apply(com.typesafe.config.Config c, boolean complete) {
+		if (!c.hasPath(ROOT)) {
+			if (complete) {
+				throw new ConfigException.Missing(ROOT);
+			}
+			return this;
+		}
+		com.typesafe.config.Config p = c.getConfig(ROOT);
+		Set<String> known = new HashSet<String>();
+		numParticipants = intOf(p, "num-participants", numParticipants, known);
+		groups = intOf(p, "groups", groups, known);
+		groupTickMillis = longOf(p, "group-tick-millis", groupTickMillis, known);
+		waitBeforeNextRequest = longOf(p, "wait-before-next-request", waitBeforeNextRequest, known);
+		if (has(p, "prepare-response-delay", known)) {
+			prepareResponseDelay = LatencyDistribution.parse(p.getString("prepare-response-delay"));
+		}
+		if (has(p, "simulated-link-delay", known)) {
+			simulatedLinkDelay = LatencyDistribution.parse(p.getString("simulated-link-delay"));
+		}
+		if (has(p, "faults", known)) {
+			faults = FaultProfile.parse(p.getString("faults"));
+		}
+		quorum = stringOf(p, "quorum", quorum, known);
+		broadcastFanout = intOf(p, "broadcast-fanout", broadcastFanout, known);
+		relayTimeoutMillis = longOf(p, "relay-timeout-millis", relayTimeoutMillis, known);
+		leaderElection = booleanOf(p, "leader-election", leaderElection, known);
+		randomSeed = longOf(p, "random-seed", randomSeed, known);
+		heartbeatIntervalMillis = longOf(p, "heartbeat-interval-millis", heartbeatIntervalMillis, known);
+		leaderLeaseMillis = longOf(p, "leader-lease-millis", leaderLeaseMillis, known);
+		electionBackoffMillis = longOf(p, "election-backoff-millis", electionBackoffMillis, known);
+		nackRetry = booleanOf(p, "nack-retry", nackRetry, known);
+		retryBackoffBaseMillis = longOf(p, "retry-backoff-base-millis", retryBackoffBaseMillis, known);
+		retryBackoffMaxMillis = longOf(p, "retry-backoff-max-millis", retryBackoffMaxMillis, known);
+		clientValues = booleanOf(p, "client-values", clientValues, known);
+		fastPaxos = booleanOf(p, "fast-paxos", fastPaxos, known);
+		fastQuorumSize = intOf(p, "fast-quorum-size", fastQuorumSize, known);
+		multiPaxos = booleanOf(p, "multi-paxos", multiPaxos, known);
+		stateMachine = stringOf(p, "state-machine", stateMachine, known);
+		compactionIntervalSlots = longOf(p, "compaction-interval-slots", compactionIntervalSlots, known);
+		catchUpLagSlots = longOf(p, "catch-up-lag-slots", catchUpLagSlots, known);
+		snapshotChunkLongs = intOf(p, "snapshot-chunk-longs", snapshotChunkLongs, known);
+		snapshotWindowChunks = intOf(p, "snapshot-window-chunks", snapshotWindowChunks, known);
+		multiPaxosLeader = intOf(p, "multi-paxos-leader", multiPaxosLeader, known);
+		pipelineWindow = intOf(p, "pipeline-window", pipelineWindow, known);
+		initialMembers = intOf(p, "initial-members", initialMembers, known);
+		batchMaxSize = intOf(p, "batch-max-size", batchMaxSize, known);
+		batchLingerMillis = longOf(p, "batch-linger-millis", batchLingerMillis, known);
+		acceptorStore = stringOf(p, "acceptor-store", acceptorStore, known);
+		walDirectory = stringOf(p, "wal-directory", walDirectory, known);
+		walSegmentBytes = intOf(p, "wal-segment-bytes", walSegmentBytes, known);
+		walSnapshotInterval = longOf(p, "wal-snapshot-interval", walSnapshotInterval, known);
+		participantDispatcher = stringOf(p, "participant-dispatcher", participantDispatcher, known);
+		leaderDispatcher = stringOf(p, "leader-dispatcher", leaderDispatcher, known);
+		metricsEnabled = booleanOf(p, "metrics-enabled", metricsEnabled, known);
+		metricsReportIntervalMillis = longOf(p, "metrics-report-interval-millis", metricsReportIntervalMillis, known);
+		for (String key : p.root().keySet()) {
+			// sub sections, like dispatcher definitions, are left to their users
+			if (!known.contains(key) && p.root().get(key).valueType() != ConfigValueType.OBJECT) {
+				throw new ConfigException.BadPath(ROOT + "." + key, "unknown setting");
+			}
+		}
+		if (complete) {
+			for (String key : known) {
+				if (!p.hasPath(key)) {
+					throw new ConfigException.Missing(ROOT + "." + key);
+				}
+			}
+		}
+		return this;
+	}
+
+	private static boolean has(com.typesafe.config.Config p, String key, Set<String> known) {
+		known.add(key);
+		return p.hasPath(key);
+	}
+
+	private static int intOf(com.typesafe.config.Config p, String key, int current, Set<String> known) {
+		return has(p, key, known) ? p.getInt(key) : current;
+	}
+
+	private static long longOf(com.typesafe.config.Config p, String key, long current, Set<String> known) {
+		return has(p, key, known) ? p.getLong(key) : current;
+	}
+
+	private static boolean booleanOf(com.typesafe.config.Config p, String key, boolean current, Set<String> known) {
+		return has(p, key, known) ? p.getBoolean(key) : current;
+	}
+
+	private static String stringOf(com.typesafe.config.Config p, String key, String current, Set<String> known) {
+		return has(p, key, known) ? p.getString(key) : current;
 	}
 
 }
@@ -0,0 +1,436 @@
+package com.neosemantix.ds.paxos;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import akka.event.LoggingAdapter;
+import akka.event.NoLogging;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+/**
+ * Runs one single decree consensus with all participants in a single thread
+ * and in virtual time. Every message, delayed response and timer becomes an
+ * event in a queue ordered by virtual time; the simulation takes the earliest
+ * event, advances the clock to it and hands the message to the participant.
+ * Waiting costs nothing, so a run which takes seconds under Akka takes about a
+ * millisecond here.
+ *
+ * All randomness comes from the seed: participants draw from generators seeded
+ * from it, links draw their delays (Config.simulatedLinkDelay) and faults
+ * (Config.faults) from another, and events due at the same time are taken in
+ * the order they were scheduled. So a seed identifies a schedule; running it
+ * again replays every event in the same order at the same virtual time. The
+ * trace hash summarizes that schedule, a replay has to come up with the same
+ * one.
+ *
+ * The run stops when every participant has learned the chosen value or the
+ * time limit has passed. Along the way it checks that proposers and learners
+ * all agree on a single value. In Multi-Paxos mode proposals are commands for
+ * the replicated log and a run goes on until the time limit; it can be
+ * continued with a later one.
+ */
+public class DiscreteEventSimulation {
+
+	private static Config cfg = Config.getInstance();
+
+	/**
+	 * Result of a run.
+	 */
+	public static class Outcome {
+
+		public final long seed;
+
+		/**
+		 * Virtual milliseconds until the first proposer learned its value got
+		 * chosen, -1 if none did.
+		 */
+		public final long decidedAtMillis;
+
+		/**
+		 * Virtual milliseconds until everybody learned the value, -1 if not
+		 * everybody did within the time limit.
+		 */
+		public final long allLearnedAtMillis;
+
+		public final int value;
+		public final long messages;
+
+		/**
+		 * Messages sent until the first proposer learned its value got chosen.
+		 */
+		public final long messagesToDecide;
+		public final long events;
+		public final long traceHash;
+
+		/**
+		 * Description of the broken safety property, null if none was.
+		 */
+		public final String violation;
+
+		Outcome(long s, long decided, long allLearned, int v, long msgs, long toDecide, long evts, long hash,
+				String viol) {
+			seed = s;
+			decidedAtMillis = decided;
+			allLearnedAtMillis = allLearned;
+			value = v;
+			messages = msgs;
+			messagesToDecide = toDecide;
+			events = evts;
+			traceHash = hash;
+			violation = viol;
+		}
+
+		public boolean isDecided() {
+			return decidedAtMillis >= 0;
+		}
+
+	}
+
+	/**
+	 * A message due for a node at some virtual time. Timer events carry the
+	 * timer which scheduled them, they are dropped if that timer got replaced
+	 * in the meantime.
+	 */
+	private static final class Event implements Comparable<Event> {
+
+		private final long time;
+		private final long seq;
+		private final Node to;
+		private final Node from;
+		private final Object msg;
+		private final Timer timer;
+
+		private Event(long t, long s, Node dest, Node src, Object m, Timer tm) {
+			time = t;
+			seq = s;
+			to = dest;
+			from = src;
+			msg = m;
+			timer = tm;
+		}
+
+		public int compareTo(Event o) {
+			if (time != o.time) {
+				return time < o.time ? -1 : 1;
+			}
+			return Long.compare(seq, o.seq);
+		}
+
+	}
+
+	private static final class Timer {
+
+		private final Object key;
+		private final Object msg;
+		private final long intervalNanos;
+
+		private Timer(Object k, Object m, long interval) {
+			key = k;
+			msg = m;
+			intervalNanos = interval;
+		}
+
+	}
+
+	private final long seed;
+	private final Random linkRandom;
+	private final PriorityQueue<Event> queue;
+	private final List<Node> nodes;
+	private final PrintStream trace;
+
+	// virtual time in nanoseconds
+	private long now;
+	private long seq;
+	private long messages;
+	private long events;
+	private long traceHash;
+
+	private long decidedAt;
+	private long messagesToDecide;
+	private int decidedValue;
+	private String violation;
+
+	/**
+	 * @param s
+	 *            Seed of the run
+	 * @param participantCount
+	 * @param t
+	 *            Where to print every event as it is processed, null for no
+	 *            trace
+	 */
+	public DiscreteEventSimulation(long s, int participantCount, PrintStream t) {
+		seed = s;
+		trace = t;
+		Random master = new Random(s);
+		linkRandom = new Random(master.nextLong());
+		queue = new PriorityQueue<Event>();
+		nodes = new ArrayList<Node>(participantCount);
+		decidedAt = -1;
+		for (int i = 0; i < participantCount; i++) {
+			nodes.add(new Node(i, "Participant_" + i));
+		}
+		List<Node> all = Collections.unmodifiableList(nodes);
+		for (Node n : nodes) {
+			n.start(participantCount, all, new Random(master.nextLong()));
+		}
+	}
+
+	/**
+	 * A client proposes a value, see Config.clientValues. Clients are not
+	 * participants: the proposal is not lost or duplicated, but gets the
+	 * latency of a link into the participant (Config.faults) like any message.
+	 *
+	 * @param atMillis
+	 *            Virtual time the client sends the proposal
+	 * @param to
+	 *            Participant it goes to, -1 for all of them
+	 */
+	public void propose(long atMillis, long value, int to) {
+		Protocol.Propose prop = new Protocol.Propose(value);
+		for (Node n : nodes) {
+			if (to < 0 || n.id == to) {
+				messages++;
+				long latency = cfg.faults.latencyMillis(-1, n.id, linkRandom, cfg.simulatedLinkDelay);
+				schedule((atMillis + latency) * 1000000L, n, null, prop, null);
+			}
+		}
+	}
+
+	/**
+	 * Each participant gets a value of its own from a client, 10 plus its id,
+	 * so proposers compete with different values (Config.clientValues) and a
+	 * disagreement among them shows.
+	 */
+	public void proposeDistinctValues(long atMillis) {
+		for (Node n : nodes) {
+			propose(atMillis, 10 + n.id, n.id);
+		}
+	}
+
+	/**
+	 * @param timeLimitMillis
+	 *            Virtual time after which the run is given up
+	 * @return Outcome
+	 */
+	public Outcome run(long timeLimitMillis) {
+		long limit = timeLimitMillis * 1000000L;
+		long allLearnedAt = -1;
+		while (!queue.isEmpty() && violation == null) {
+			if (queue.peek().time > limit) {
+				// left for a later run
+				break;
+			}
+			Event e = queue.poll();
+			now = e.time;
+			if (e.timer != null) {
+				if (e.to.timers.get(e.timer.key) != e.timer) {
+					// cancelled or replaced
+					continue;
+				}
+				if (e.timer.intervalNanos > 0) {
+					schedule(now + e.timer.intervalNanos, e.to, e.to, e.timer.msg, e.timer);
+				} else {
+					e.to.timers.remove(e.timer.key);
+				}
+			}
+			deliver(e);
+			if (allLearned()) {
+				allLearnedAt = now / 1000000L;
+				break;
+			}
+		}
+		return new Outcome(seed, decidedAt, allLearnedAt, decidedValue, messages, messagesToDecide, events, traceHash,
+				violation);
+	}
+
+	/**
+	 * @return long Commit index of the participant's replicated log
+	 */
+	public long commitIndex(int participant) {
+		return nodes.get(participant).participant.replicatedLog().commitIndex();
+	}
+
+	/**
+	 * @return long Commands in the committed slots of the participant's
+	 *         replicated log
+	 */
+	public long commandsCommitted(int participant) {
+		return nodes.get(participant).participant.replicatedLog().commandsCommitted();
+	}
+
+	/**
+	 * @return int Slots the participant's replicated log holds in memory
+	 */
+	public int retainedSlots(int participant) {
+		return nodes.get(participant).participant.replicatedLog().retainedSlots();
+	}
+
+	private void deliver(Event e) {
+		events++;
+		traceHash = 31 * (31 * (31 * (31 * traceHash + e.time) + e.to.id) + (e.from != null ? e.from.id : -1))
+				+ e.msg.getClass().getName().hashCode();
+		if (trace != null) {
+			trace.println(String.format("%d.%06d %s <- %s: %s", e.time / 1000000L, e.time % 1000000L, e.to,
+					e.from, e.msg));
+		}
+		e.to.sender = e.from;
+		if (e.to.behavior.isDefinedAt(e.msg)) {
+			e.to.behavior.apply(e.msg);
+		}
+		e.to.sender = null;
+		checkAgreement(e.to);
+	}
+
+	private void checkAgreement(Node n) {
+		Learner l = n.participant.learner();
+		if (l.isDecided() && decidedAt >= 0 && l.decidedValue() != decidedValue) {
+			violation = n + " learned " + l.decidedValue() + " but " + decidedValue + " was chosen";
+		}
+	}
+
+	private boolean allLearned() {
+		for (Node n : nodes) {
+			if (!n.participant.learner().isDecided()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void schedule(long time, Node to, Node from, Object msg, Timer timer) {
+		queue.add(new Event(time, seq++, to, from, msg, timer));
+	}
+
+	/**
+	 * Puts a message on the link, which may lose, duplicate or delay it as
+	 * Config.faults says. The message leaves after 'departNanos'.
+	 */
+	private void transmit(Node from, Node to, Object msg, long departNanos) {
+		FaultProfile faults = cfg.faults;
+		long departs = now + departNanos;
+		int copies = faults.copies(from.id, to.id, departs / 1000000L, linkRandom);
+		for (int c = 0; c < copies; c++) {
+			long latency = faults.latencyMillis(from.id, to.id, linkRandom, cfg.simulatedLinkDelay);
+			schedule(departs + latency * 1000000L, to, from, msg, null);
+		}
+	}
+
+	/**
+	 * A participant together with its view of the simulated world.
+	 */
+	private final class Node implements Environment {
+
+		private final int id;
+		private final String name;
+		private final Map<Object, Timer> timers;
+		private List<Node> all;
+		private Participant participant;
+		private PartialFunction<Object, BoxedUnit> behavior;
+		private Node sender;
+
+		private Node(int i, String n) {
+			id = i;
+			name = n;
+			timers = new HashMap<Object, Timer>();
+		}
+
+		private void start(int participantCount, List<Node> a, Random random) {
+			all = a;
+			participant = new Participant(participantCount, id, name, this, random);
+			behavior = participant.createReceive().onMessage();
+			participant.preStart();
+		}
+
+		public String toString() {
+			return name;
+		}
+
+		public long currentTimeMillis() {
+			return now / 1000000L;
+		}
+
+		public long nanoTime() {
+			return now;
+		}
+
+		public Object self() {
+			return this;
+		}
+
+		public Object sender() {
+			return sender;
+		}
+
+		public List<?> participants() {
+			return all;
+		}
+
+		public Object participant(int i) {
+			return i >= 0 && i < all.size() ? all.get(i) : null;
+		}
+
+		public void send(Object to, Object msg) {
+			messages++;
+			transmit(this, (Node) to, msg, 0);
+		}
+
+		public void sendLater(Object to, Object msg, long delayMillis) {
+			messages++;
+			transmit(this, (Node) to, msg, delayMillis * 1000000L);
+		}
+
+		public void forward(Object to, Object msg) {
+			schedule(now + cfg.simulatedLinkDelay.nextDelayMillis(linkRandom) * 1000000L, (Node) to, sender, msg,
+					null);
+		}
+
+		public void tellSelf(Object msg) {
+			schedule(now, this, this, msg, null);
+		}
+
+		public void startSingleTimer(Object key, Object msg, Duration delay) {
+			Timer t = new Timer(key, msg, 0);
+			timers.put(key, t);
+			schedule(now + delay.toNanos(), this, this, msg, t);
+		}
+
+		public void startPeriodicTimer(Object key, Object msg, Duration interval) {
+			Timer t = new Timer(key, msg, interval.toNanos());
+			timers.put(key, t);
+			schedule(now + interval.toNanos(), this, this, msg, t);
+		}
+
+		public boolean isTimerActive(Object key) {
+			return timers.containsKey(key);
+		}
+
+		public String nameOf(Object endpoint) {
+			return String.valueOf(endpoint);
+		}
+
+		public LoggingAdapter log() {
+			return NoLogging.getInstance();
+		}
+
+		public void consensusReached(long ballot, int value, String report) {
+			if (decidedAt < 0) {
+				decidedAt = now / 1000000L;
+				messagesToDecide = messages;
+				decidedValue = value;
+			} else if (value != decidedValue) {
+				violation = this + " got " + value + " chosen under ballot " + Ballot.toString(ballot) + " but "
+						+ decidedValue + " was chosen before";
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.neosemantix.ds.paxos;
+
+import java.time.Duration;
+import java.util.List;
+
+import akka.event.LoggingAdapter;
+
+/**
+ * Everything a Participant gets from the world it runs in: a clock, timers and
+ * a way to reach other participants and clients. ParticipantActor provides it
+ * on top of Akka, DiscreteEventSimulation on top of virtual time and a
+ * simulated network, so the very same protocol logic runs in both.
+ *
+ * Endpoints are opaque to participants. They are ActorRefs under Akka and
+ * simulated nodes in a simulation; participants only pass them back to the
+ * environment and compare them with equals.
+ */
+interface Environment {
+
+	long currentTimeMillis();
+
+	long nanoTime();
+
+	/**
+	 * @return Object Endpoint of the participant itself
+	 */
+	Object self();
+
+	/**
+	 * @return Object Endpoint which sent the message being processed
+	 */
+	Object sender();
+
+	/**
+	 * @return List<?> Endpoints of all participants known so far, including
+	 *         self
+	 */
+	List<?> participants();
+
+	/**
+	 * @param id
+	 * @return Object Endpoint of the participant with the given id, null if it
+	 *         is not known (yet)
+	 */
+	Object participant(int id);
+
+	/**
+	 * Sends msg with self as sender, counted as a message exchanged.
+	 */
+	void send(Object to, Object msg);
+
+	/**
+	 * Like send, but msg is handed to the network only after the delay.
+	 */
+	void sendLater(Object to, Object msg, long delayMillis);
+
+	/**
+	 * Passes the message being processed on, keeping its original sender.
+	 */
+	void forward(Object to, Object msg);
+
+	/**
+	 * Puts msg at the back of our own queue, it is not counted as a message
+	 * exchanged.
+	 */
+	void tellSelf(Object msg);
+
+	/**
+	 * Delivers msg to self once the delay has passed. Starting a timer with the
+	 * key of an active one replaces it.
+	 */
+	void startSingleTimer(Object key, Object msg, Duration delay);
+
+	void startPeriodicTimer(Object key, Object msg, Duration interval);
+
+	boolean isTimerActive(Object key);
+
+	/**
+	 * @param endpoint
+	 * @return String Name to show in logs
+	 */
+	String nameOf(Object endpoint);
+
+	LoggingAdapter log();
+
+	/**
+	 * Called by the proposer whose value got accepted by a quorum.
+	 *
+	 * @param ballot
+	 * @param value
+	 * @param report
+	 *            Human readable account of the round
+	 */
+	void consensusReached(long ballot, int value, String report);
+
+}
@@ -0,0 +1,205 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * What the network between participants does to their messages: extra
+ * latency, overall or on chosen links, loss, duplication and partitions which
+ * start and heal at given times. Different latencies per message reorder
+ * them. Both ParticipantActor and DiscreteEventSimulation put every message
+ * among participants through the profile in Config.faults; messages to self
+ * and to clients are left alone.
+ *
+ * Like LatencyDistribution, a profile holds no mutable state, the caller
+ * passes in its random number generator. Times are milliseconds since the
+ * participants were started.
+ */
+public class FaultProfile {
+
+	public static final FaultProfile NONE = new FaultProfile(null, Collections.<LinkLatency>emptyList(), 0, 0,
+			Collections.<Partition>emptyList(), "none");
+
+	/**
+	 * Latency of the links matching from and to, -1 matching any participant.
+	 */
+	static final class LinkLatency {
+
+		private final int from;
+		private final int to;
+		private final LatencyDistribution latency;
+
+		LinkLatency(int f, int t, LatencyDistribution l) {
+			from = f;
+			to = t;
+			latency = l;
+		}
+
+		private boolean matches(int f, int t) {
+			return (from < 0 || from == f) && (to < 0 || to == t);
+		}
+
+	}
+
+	/**
+	 * From startMillis until endMillis the participants in 'side' can not
+	 * exchange messages with the others. Messages within either side still
+	 * go through.
+	 */
+	static final class Partition {
+
+		private final long startMillis;
+		private final long endMillis;
+		private final boolean[] side;
+
+		Partition(long start, long end, int[] ids) {
+			startMillis = start;
+			endMillis = end;
+			int max = 0;
+			for (int id : ids) {
+				max = Math.max(max, id);
+			}
+			side = new boolean[max + 1];
+			for (int id : ids) {
+				side[id] = true;
+			}
+		}
+
+		private boolean inSide(int id) {
+			return id < side.length && side[id];
+		}
+
+		private boolean separates(int from, int to, long atMillis) {
+			return atMillis >= startMillis && atMillis < endMillis && inSide(from) != inSide(to);
+		}
+
+	}
+
+	private final LatencyDistribution latency;
+	private final List<LinkLatency> links;
+	private final double dropRate;
+	private final double duplicateRate;
+	private final List<Partition> partitions;
+	private final String spec;
+
+	FaultProfile(LatencyDistribution l, List<LinkLatency> lks, double drop, double dup, List<Partition> ps, String s) {
+		if (drop < 0 || drop > 1 || dup < 0 || dup > 1) {
+			throw new IllegalArgumentException("Rates must be between 0 and 1: " + s);
+		}
+		latency = l;
+		links = lks;
+		dropRate = drop;
+		duplicateRate = dup;
+		partitions = ps;
+		spec = s;
+	}
+
+	/**
+	 * Parses comma separated faults, e.g.
+	 * "drop=0.05,dup=0.01,latency=uniform:1:50,link.0.*=fixed:300,partition=1000-4000/0.1":
+	 * - drop=rate: share of messages lost
+	 * - dup=rate: share of messages delivered twice
+	 * - latency=LatencyDistribution spec: latency of every message, in the
+	 *   simulation in place of Config.simulatedLinkDelay
+	 * - link.from.to=LatencyDistribution spec: replaces latency on the
+	 *   matching links, * for any participant; the first matching link wins
+	 * - partition=start-end/id.id...: participants listed are cut off from the
+	 *   others between start and end milliseconds, may be repeated
+	 * "none" or an empty spec is the fault free network.
+	 *
+	 * @param s
+	 * @return FaultProfile
+	 */
+	public static FaultProfile parse(String s) {
+		String trimmed = s.trim();
+		if (trimmed.isEmpty() || trimmed.equals("none")) {
+			return NONE;
+		}
+		LatencyDistribution latency = null;
+		List<LinkLatency> links = new ArrayList<LinkLatency>();
+		double drop = 0;
+		double dup = 0;
+		List<Partition> partitions = new ArrayList<Partition>();
+		try {
+			for (String fault : trimmed.split(",")) {
+				String[] kv = fault.trim().split("=", 2);
+				String key = kv[0];
+				String value = kv[1];
+				if (key.equals("drop")) {
+					drop = Double.parseDouble(value);
+				} else if (key.equals("dup")) {
+					dup = Double.parseDouble(value);
+				} else if (key.equals("latency")) {
+					latency = LatencyDistribution.parse(value);
+				} else if (key.startsWith("link.")) {
+					String[] ends = key.substring("link.".length()).split("\\.");
+					links.add(new LinkLatency(participantOrAny(ends[0]), participantOrAny(ends[1]),
+							LatencyDistribution.parse(value)));
+				} else if (key.equals("partition")) {
+					String[] when = value.split("/", 2);
+					String[] range = when[0].split("-");
+					String[] ids = when[1].split("\\.");
+					int[] side = new int[ids.length];
+					for (int i = 0; i < ids.length; i++) {
+						side[i] = Integer.parseInt(ids[i]);
+					}
+					partitions.add(new Partition(Long.parseLong(range[0]), Long.parseLong(range[1]), side));
+				} else {
+					throw new IllegalArgumentException("Unknown fault " + key + " in " + s);
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed fault profile: " + s, e);
+		}
+		return new FaultProfile(latency, links, drop, dup, partitions, trimmed);
+	}
+
+	private static int participantOrAny(String s) {
+		return s.equals("*") ? -1 : Integer.parseInt(s);
+	}
+
+	public boolean isNone() {
+		return this == NONE;
+	}
+
+	/**
+	 * @return int How many copies of a message sent now from 'from' to 'to'
+	 *         arrive: 0 when it is lost or the two are partitioned, 2 when it
+	 *         gets duplicated, 1 otherwise.
+	 */
+	public int copies(int from, int to, long atMillis, Random random) {
+		for (Partition p : partitions) {
+			if (p.separates(from, to, atMillis)) {
+				return 0;
+			}
+		}
+		if (dropRate > 0 && random.nextDouble() < dropRate) {
+			return 0;
+		}
+		if (duplicateRate > 0 && random.nextDouble() < duplicateRate) {
+			return 2;
+		}
+		return 1;
+	}
+
+	/**
+	 * @return long Latency of one copy of a message on the link, in
+	 *         milliseconds; 'base' applies where the profile sets none.
+	 */
+	public long latencyMillis(int from, int to, Random random, LatencyDistribution base) {
+		for (LinkLatency l : links) {
+			if (l.matches(from, to)) {
+				return l.latency.nextDelayMillis(random);
+			}
+		}
+		LatencyDistribution d = latency != null ? latency : base;
+		return d != null ? d.nextDelayMillis(random) : 0;
+	}
+
+	public String toString() {
+		return spec;
+	}
+
+}
@@ -0,0 +1,448 @@
+package com.neosemantix.ds.paxos;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+/**
+ * Runs this node's participant of many independent Paxos groups (shards) in
+ * one actor, each with its own Environment, instead of one actor per
+ * participant and group. The groups share what scales with their number:
+ *
+ * - Network: what the groups send to the same node while the host handles one
+ * message goes out as one GroupBatch, sent by the host; the receiving host
+ * hands each message to its group. A batch of accept requests for many groups
+ * thus comes back as one batch of responses. Messages from outside, clients
+ * or forwards that have to keep their sender, come in a GroupMessage.
+ *
+ * - Timers: one Akka timer per node ticks GroupTimers, see there; heartbeats
+ * and ticks of all groups fire on the same host tick and share the batches.
+ *
+ * - Store: with the "wal" store all groups write to one WalAcceptorStore. A
+ * group syncs by telling itself SyncStore like a participant in its own actor
+ * does; the host delivers what groups tell themselves once the mailbox is
+ * worked off, so the first sync makes the writes of every group durable and
+ * the others find nothing left to do.
+ *
+ * Endpoints of the groups' participants are GroupEndpoints: the node, which
+ * PaxosMain's peer directory resolves like a participant, and the group.
+ * Config.faults does not apply to the batches.
+ */
+class GroupHost extends AbstractActorWithTimers {
+
+	private static Config cfg = Config.getInstance();
+
+	private static Metrics metrics = Metrics.getInstance();
+
+	private static final LongAdder batchesSent = new LongAdder();
+
+	private static final Object HOST_TICK_KEY = "HostTickKey";
+
+	private static final class HostTick {
+	}
+
+	private static final HostTick HOST_TICK = new HostTick();
+
+	private static final class Flush {
+	}
+
+	private static final Flush FLUSH = new Flush();
+
+	private final LoggingAdapter msgLog = Logging.getLogger(getContext().getSystem(), this);
+	private final int id;
+	private final String name;
+	private final int groupCount;
+	private final GroupEndpoint[][] endpoints;
+	private final Participant[] participants;
+	private final PartialFunction<Object, BoxedUnit>[] receives;
+	private final WalAcceptorStore wal;
+	private final GroupTimers timers;
+	private final boolean[] decided;
+
+	// messages groups tell themselves, delivered after the current one
+	private final LongQueue selfGroups;
+	private final ArrayDeque<Object> selfMessages;
+
+	// per node: what the groups sent it since the last flush
+	private Outbox[] outboxes;
+	private boolean flushPending;
+
+	// the message being handled: its group's sender and Akka's sender
+	private Object sender;
+	private ActorRef akkaSender;
+
+	/**
+	 * Participant of a group on a node, as groups see each other.
+	 */
+	static final class GroupEndpoint {
+
+		final int node;
+		final int group;
+
+		private GroupEndpoint(int n, int g) {
+			node = n;
+			group = g;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof GroupEndpoint)) {
+				return false;
+			}
+			GroupEndpoint e = (GroupEndpoint) o;
+			return node == e.node && group == e.group;
+		}
+
+		public int hashCode() {
+			return node * 31 + group;
+		}
+
+		public String toString() {
+			return "Participant_" + node + "/" + group;
+		}
+
+	}
+
+	private static final class Outbox {
+
+		private int[] groups = new int[64];
+		private Object[] messages = new Object[64];
+		private int size;
+
+		private void add(int group, Object msg) {
+			if (size == groups.length) {
+				groups = Arrays.copyOf(groups, size * 2);
+				messages = Arrays.copyOf(messages, size * 2);
+			}
+			groups[size] = group;
+			messages[size++] = msg;
+		}
+
+		private Protocol.GroupBatch drain() {
+			Protocol.GroupBatch batch = new Protocol.GroupBatch(Arrays.copyOf(groups, size),
+					Arrays.copyOf(messages, size));
+			Arrays.fill(messages, 0, size, null);
+			size = 0;
+			return batch;
+		}
+
+	}
+
+	static Props props(int pCount, int id, int groups) {
+		Participant.checkConfig(pCount);
+		return Props.create(GroupHost.class, () -> new GroupHost(pCount, id, groups))
+				.withDispatcher(cfg.participantDispatcher);
+	}
+
+	/**
+	 * @return long GroupBatches sent by all hosts of this JVM
+	 */
+	static long batchesSent() {
+		return batchesSent.sum();
+	}
+
+	GroupHost(int pc, int i, int groups) {
+		id = i;
+		name = "Participant_" + i;
+		groupCount = groups;
+		endpoints = new GroupEndpoint[groups][pc];
+		for (int g = 0; g < groups; g++) {
+			for (int n = 0; n < pc; n++) {
+				endpoints[g][n] = new GroupEndpoint(n, g);
+			}
+		}
+		timers = new GroupTimers(groups);
+		selfGroups = new LongQueue();
+		selfMessages = new ArrayDeque<Object>();
+		outboxes = new Outbox[pc];
+		decided = new boolean[groups];
+		wal = cfg.acceptorStore.equals("wal")
+				? new WalAcceptorStore(Paths.get(cfg.walDirectory, name), cfg.walSegmentBytes, cfg.walSnapshotInterval)
+				: null;
+		participants = new Participant[groups];
+		receives = newReceives(groups);
+		for (int g = 0; g < groups; g++) {
+			Random random = cfg.randomSeed == 0 ? new Random() : new Random(cfg.randomSeed + (long) g * pc + i);
+			Participant p;
+			if (wal != null) {
+				Participant[] self = participants;
+				int group = g;
+				AcceptorStore store = wal.group(visitor -> self[group].writeAcceptorState(visitor));
+				p = new Participant(pc, i, name + "/" + g, new GroupEnvironment(g), random, store,
+						(cfg.multiPaxosLeader + g) % pc);
+			} else {
+				p = new Participant(pc, i, name + "/" + g, new GroupEnvironment(g), random,
+						new InMemoryAcceptorStore(), (cfg.multiPaxosLeader + g) % pc);
+			}
+			participants[g] = p;
+			receives[g] = p.createReceive().onMessage();
+		}
+	}
+
+	// an array rather than a list: looked up for every message of every group
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static PartialFunction<Object, BoxedUnit>[] newReceives(int groups) {
+		return new PartialFunction[groups];
+	}
+
+	@Override
+	public void preStart() {
+		long start = System.currentTimeMillis();
+		if (wal != null) {
+			AcceptorStore.StateVisitor[] visitors = new AcceptorStore.StateVisitor[groupCount];
+			for (int g = 0; g < groupCount; g++) {
+				visitors[g] = participants[g].recoveryVisitor();
+			}
+			wal.recover(visitors);
+		}
+		for (Participant p : participants) {
+			p.preStart();
+		}
+		msgLog.info("{} started {} groups in {} ms", name, groupCount, System.currentTimeMillis() - start);
+		getTimers().startPeriodicTimer(HOST_TICK_KEY, HOST_TICK, Duration.ofMillis(cfg.groupTickMillis));
+	}
+
+	@Override
+	public void postStop() {
+		for (Participant p : participants) {
+			p.postStop();
+		}
+	}
+
+	@Override
+	public void preRestart(Throwable reason, Optional<Object> message) {
+		msgLog.error(reason, "Restarting due to [{}] when processing [{}]", reason.getMessage(),
+				message.isPresent() ? message.get() : "");
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder().match(Protocol.GroupBatch.class, batch -> {
+			akkaSender = getSender();
+			int node = PaxosMain.getParticipantId(akkaSender);
+			for (int i = 0; i < batch.messages.length; i++) {
+				deliver(batch.groups[i], batch.messages[i], endpoints[batch.groups[i]][node]);
+			}
+			afterMessage();
+		}).match(Protocol.GroupMessage.class, gm -> {
+			akkaSender = getSender();
+			int node = PaxosMain.getParticipantId(akkaSender);
+			deliver(gm.group, gm.message, node >= 0 ? endpoints[gm.group][node] : akkaSender);
+			afterMessage();
+		}).match(HostTick.class, tick -> {
+			akkaSender = getSelf();
+			timers.fire(System.nanoTime(), (msg, g) -> deliver(g, msg, endpoints[g][id]));
+			afterMessage();
+		}).match(Flush.class, flush -> {
+			flushPending = false;
+			flush();
+		}).build();
+	}
+
+	private void deliver(int group, Object msg, Object from) {
+		if (group < 0 || group >= groupCount) {
+			msgLog.warning("{} has no group {}, dropped {}", name, group, msg);
+			return;
+		}
+		sender = from;
+		metrics.received(msg);
+		PartialFunction<Object, BoxedUnit> receive = receives[group];
+		if (receive.isDefinedAt(msg)) {
+			receive.apply(msg);
+		}
+	}
+
+	/**
+	 * What the groups told themselves and sent other nodes waits for Flush,
+	 * which lines up behind the messages already in the mailbox, as a
+	 * participant's messages to itself do in its own actor: under load one
+	 * batch carries the responses to all of them, one sync of the store
+	 * covers their writes.
+	 */
+	private void afterMessage() {
+		if (flushPending || selfMessages.isEmpty() && !outboxesUsed()) {
+			return;
+		}
+		flushPending = true;
+		getSelf().tell(FLUSH, getSelf());
+	}
+
+	private boolean outboxesUsed() {
+		for (Outbox o : outboxes) {
+			if (o != null && o.size > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void flush() {
+		akkaSender = getSelf();
+		while (!selfMessages.isEmpty()) {
+			int g = (int) selfGroups.poll();
+			deliver(g, selfMessages.poll(), endpoints[g][id]);
+		}
+		for (int n = 0; n < outboxes.length; n++) {
+			Outbox o = outboxes[n];
+			if (o != null && o.size > 0) {
+				ActorRef to = PaxosMain.getParticipant(n);
+				Protocol.GroupBatch batch = o.drain();
+				if (to != null) {
+					to.tell(batch, getSelf());
+					batchesSent.increment();
+				}
+			}
+		}
+	}
+
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * One group's view of the host.
+	 */
+	private final class GroupEnvironment implements Environment {
+
+		private final int group;
+		private final List<GroupEndpoint> members;
+
+		private GroupEnvironment(int g) {
+			group = g;
+			members = new AbstractList<GroupEndpoint>() {
+
+				public GroupEndpoint get(int n) {
+					return endpoints[group][n];
+				}
+
+				public int size() {
+					return Math.min(endpoints[group].length, PaxosMain.getParticipants().size());
+				}
+
+			};
+		}
+
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+
+		public Object self() {
+			return endpoints[group][id];
+		}
+
+		public Object sender() {
+			return sender;
+		}
+
+		public List<?> participants() {
+			return members;
+		}
+
+		public Object participant(int n) {
+			return n >= 0 && n < endpoints[group].length && PaxosMain.getParticipant(n) != null
+					? endpoints[group][n]
+					: null;
+		}
+
+		public void send(Object to, Object msg) {
+			if (to instanceof GroupEndpoint) {
+				GroupEndpoint e = (GroupEndpoint) to;
+				if (e.node == id) {
+					tellSelf(msg);
+				} else {
+					if (outboxes[e.node] == null) {
+						outboxes[e.node] = new Outbox();
+					}
+					outboxes[e.node].add(e.group, msg);
+				}
+			} else {
+				((ActorRef) to).tell(msg, getSelf());
+			}
+			PaxosMain.messagesSent(1);
+			metrics.sent(msg);
+		}
+
+		public void sendLater(Object to, Object msg, long delayMillis) {
+			ActorRef ref;
+			Object wrapped;
+			if (to instanceof GroupEndpoint) {
+				ref = PaxosMain.getParticipant(((GroupEndpoint) to).node);
+				wrapped = new Protocol.GroupMessage(((GroupEndpoint) to).group, msg);
+			} else {
+				ref = (ActorRef) to;
+				wrapped = msg;
+			}
+			if (ref != null) {
+				getContext().getSystem().scheduler().scheduleOnce(Duration.ofMillis(delayMillis), ref, wrapped,
+						getContext().dispatcher(), getSelf());
+			}
+			PaxosMain.messagesSent(1);
+			metrics.sent(msg);
+		}
+
+		public void forward(Object to, Object msg) {
+			if (to instanceof GroupEndpoint) {
+				GroupEndpoint e = (GroupEndpoint) to;
+				ActorRef ref = PaxosMain.getParticipant(e.node);
+				if (ref != null) {
+					// on its own, a batch would make us the sender
+					ref.tell(new Protocol.GroupMessage(e.group, msg), akkaSender);
+				}
+			} else {
+				((ActorRef) to).tell(msg, akkaSender);
+			}
+		}
+
+		public void tellSelf(Object msg) {
+			selfGroups.add(group);
+			selfMessages.add(msg);
+		}
+
+		public void startSingleTimer(Object key, Object msg, Duration delay) {
+			timers.startSingle(group, key, msg, System.nanoTime(), delay.toNanos());
+		}
+
+		public void startPeriodicTimer(Object key, Object msg, Duration interval) {
+			timers.startPeriodic(group, key, msg, System.nanoTime(), interval.toNanos());
+		}
+
+		public boolean isTimerActive(Object key) {
+			return timers.isActive(group, key);
+		}
+
+		public String nameOf(Object endpoint) {
+			return endpoint instanceof GroupEndpoint ? endpoint.toString() : ((ActorRef) endpoint).path().name();
+		}
+
+		public LoggingAdapter log() {
+			return msgLog;
+		}
+
+		public void consensusReached(long ballot, int value, String report) {
+			if (!decided[group]) {
+				decided[group] = true;
+				msgLog.info("Group {}: {}", group, report);
+				PaxosMain.consensusReached();
+			}
+		}
+
+	}
+
+}
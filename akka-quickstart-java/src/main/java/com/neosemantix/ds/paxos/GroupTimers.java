@@ -0,0 +1,141 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The timers of all the Paxos groups of a GroupHost, kept in one queue which
+ * the host looks at on a single periodic tick. 10,000 groups with a few timers
+ * each are then one Akka timer on the node, not tens of thousands.
+ *
+ * Timers have the semantics of Akka's: each has a key within its group, and
+ * starting one with the key of an active timer replaces it. Periodic timers
+ * fire at multiples of their interval rather than an interval after they were
+ * started, so the same periodic timer of every group, the election tick for
+ * one, fires on the same host tick and what the groups send on it leaves in
+ * the same batches.
+ *
+ * Times are in nanoseconds of whatever clock the host passes in.
+ */
+class GroupTimers {
+
+	private final PriorityQueue<Timer> queue;
+
+	// group -> key -> active timer, for groups which ever started one
+	private final HashMap<Object, Timer>[] active;
+
+	private long started;
+
+	private static final class Timer implements Comparable<Timer> {
+
+		private final int group;
+		private final Object key;
+		private final Object msg;
+		private final long interval;
+		private final long order;
+		private long due;
+		private boolean cancelled;
+
+		private Timer(int g, Object k, Object m, long i, long o) {
+			group = g;
+			key = k;
+			msg = m;
+			interval = i;
+			order = o;
+		}
+
+		public int compareTo(Timer other) {
+			if (due != other.due) {
+				return Long.compare(due, other.due);
+			}
+			// same due time: in the order they were started
+			return Long.compare(order, other.order);
+		}
+
+	}
+
+	GroupTimers(int groups) {
+		queue = new PriorityQueue<Timer>();
+		active = newActive(groups);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static HashMap<Object, Timer>[] newActive(int groups) {
+		return new HashMap[groups];
+	}
+
+	void startSingle(int group, Object key, Object msg, long now, long delay) {
+		Timer t = new Timer(group, key, msg, 0, started++);
+		t.due = now + delay;
+		start(t);
+	}
+
+	void startPeriodic(int group, Object key, Object msg, long now, long interval) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Interval must be positive: " + interval);
+		}
+		Timer t = new Timer(group, key, msg, interval, started++);
+		t.due = (now / interval + 1) * interval;
+		start(t);
+	}
+
+	private void start(Timer t) {
+		if (active[t.group] == null) {
+			active[t.group] = new HashMap<Object, Timer>(4);
+		}
+		Timer replaced = active[t.group].put(t.key, t);
+		if (replaced != null) {
+			// left in the queue, skipped when it comes up
+			replaced.cancelled = true;
+		}
+		queue.add(t);
+	}
+
+	boolean isActive(int group, Object key) {
+		return active[group] != null && active[group].containsKey(key);
+	}
+
+	void cancel(int group, Object key) {
+		Timer t = active[group] == null ? null : active[group].remove(key);
+		if (t != null) {
+			t.cancelled = true;
+		}
+	}
+
+	/**
+	 * Fires every timer due by 'now', earliest first; a periodic timer which
+	 * fell behind fires once and then at its next multiple after 'now'.
+	 *
+	 * @param fire
+	 *            Gets the message and the group of each timer
+	 * @return int Timers fired
+	 */
+	int fire(long now, ObjIntConsumer<Object> fire) {
+		int fired = 0;
+		while (!queue.isEmpty() && queue.peek().due <= now) {
+			Timer t = queue.poll();
+			if (t.cancelled) {
+				continue;
+			}
+			if (t.interval > 0) {
+				t.due = (now / t.interval + 1) * t.interval;
+				queue.add(t);
+			} else {
+				active[t.group].remove(t.key);
+			}
+			fire.accept(t.msg, t.group);
+			fired++;
+		}
+		return fired;
+	}
+
+	/**
+	 * @return int Timers waiting in the queue, those replaced or cancelled
+	 *         included until they come up
+	 */
+	int size() {
+		return queue.size();
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.function.Consumer;
+
+/**
+ * Acceptor state lives only on the heap of the participant, as it always did
+ * in this simulation. Nothing is written, nothing is ever recovered and no
+ * response waits for a sync. Good for simulations where participants do not
+ * restart.
+ */
+class InMemoryAcceptorStore implements AcceptorStore {
+
+	public void promised(long pn) {
+	}
+
+	public void accepted(long pn, long value) {
+	}
+
+	public void logPromised(long pn) {
+	}
+
+	public void logAccepted(long slot, long pn, long[] batch) {
+	}
+
+	public boolean needsSync() {
+		return false;
+	}
+
+	public void sync() {
+	}
+
+	public void recover(StateVisitor visitor) {
+	}
+
+	public boolean snapshotDue() {
+		return false;
+	}
+
+	public void snapshot(Consumer<StateVisitor> source) {
+	}
+
+	public void close() {
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.Arrays;
+
+/**
+ * Key value map as a StateMachine, int keys to int values. A command is a
+ * single long: the operation in the top 2 bits, the key in the next 30 and the
+ * value in the low 32, see put, get and delete. Results are the value, or the
+ * previous one for put and delete, and NOT_FOUND if there is none.
+ *
+ * Entries live in two int arrays with open addressing and linear probing, no
+ * boxed keys, values or entry objects; applying a command allocates nothing
+ * unless the table grows. Deletion shifts the following entries of the probe
+ * sequence back instead of leaving tombstones, so lookups never get slower
+ * with churn. A snapshot holds one long per entry, key and value packed like
+ * in a put.
+ */
+public final class KeyValueStore implements StateMachine {
+
+	public static final long NOT_FOUND = Long.MIN_VALUE;
+
+	public static final int MAX_KEY = (1 << 30) - 1;
+
+	private static final int GET = 0;
+	private static final int PUT = 1;
+	private static final int DELETE = 2;
+
+	// keys are never negative
+	private static final int FREE = -1;
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	public KeyValueStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expected
+	 *            Entries the table holds without growing
+	 */
+	public KeyValueStore(int expected) {
+		if (expected < 0) {
+			throw new IllegalArgumentException("Capacity must not be negative: " + expected);
+		}
+		allocate(Integer.highestOneBit(Math.max(8, expected * 2 - 1)) << 1);
+	}
+
+	public static long put(int key, int value) {
+		return encode(PUT, key) | (value & 0xFFFFFFFFL);
+	}
+
+	public static long get(int key) {
+		return encode(GET, key);
+	}
+
+	public static long delete(int key) {
+		return encode(DELETE, key);
+	}
+
+	private static long encode(int op, int key) {
+		if (key < 0 || key > MAX_KEY) {
+			throw new IllegalArgumentException("Key out of range: " + key);
+		}
+		return (long) op << 62 | (long) key << 32;
+	}
+
+	/**
+	 * @return boolean True if the command only reads, so it may be run as a
+	 *         query instead of going through the log
+	 */
+	public static boolean isRead(long command) {
+		return (int) (command >>> 62) == GET;
+	}
+
+	public long apply(long command) {
+		int key = (int) (command >>> 32) & MAX_KEY;
+		switch ((int) (command >>> 62)) {
+		case GET:
+			return lookup(key);
+		case PUT:
+			return store(key, (int) command);
+		case DELETE:
+			return remove(key);
+		default:
+			return NOT_FOUND;
+		}
+	}
+
+	/**
+	 * Same as apply for get commands, NOT_FOUND for anything else.
+	 */
+	public long query(long query) {
+		return isRead(query) ? lookup((int) (query >>> 32) & MAX_KEY) : NOT_FOUND;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long[] snapshot() {
+		long[] entries = new long[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != FREE) {
+				entries[n++] = (long) keys[i] << 32 | (values[i] & 0xFFFFFFFFL);
+			}
+		}
+		return entries;
+	}
+
+	public void reset() {
+		Arrays.fill(keys, FREE);
+		size = 0;
+	}
+
+	public void load(long[] part) {
+		for (long entry : part) {
+			store((int) (entry >>> 32), (int) entry);
+		}
+	}
+
+	private static int hash(int key) {
+		// Fibonacci hashing spreads sequential keys over the table
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private long lookup(int key) {
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			} else if (keys[i] == FREE) {
+				return NOT_FOUND;
+			}
+		}
+	}
+
+	private long store(int key, int value) {
+		int i = hash(key) & mask;
+		for (; keys[i] != FREE; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				long previous = values[i];
+				values[i] = value;
+				return previous;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size > resizeAt) {
+			allocate(keys.length * 2);
+		}
+		return NOT_FOUND;
+	}
+
+	private long remove(int key) {
+		int i = hash(key) & mask;
+		for (; keys[i] != key; i = (i + 1) & mask) {
+			if (keys[i] == FREE) {
+				return NOT_FOUND;
+			}
+		}
+		long previous = values[i];
+		// move back every entry which would not be found past the hole
+		int hole = i;
+		for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+			int home = hash(keys[j]) & mask;
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = FREE;
+		size--;
+		return previous;
+	}
+
+	private void allocate(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+		mask = capacity - 1;
+		// at most half full keeps probe sequences short
+		resizeAt = capacity / 2;
+		size = 0;
+		if (oldKeys != null) {
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != FREE) {
+					store(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+	}
+
+	public String toString() {
+		return "kv";
+	}
+
+}
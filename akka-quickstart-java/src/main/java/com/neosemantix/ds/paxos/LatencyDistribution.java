@@ -0,0 +1,193 @@
+package com.neosemantix.ds.paxos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Source of artificial delays, in milliseconds, which participants add before
+ * they respond. Participants in real life are autonomous processes with their
+ * own latencies; the shape of that latency matters as much as its mean, so a
+ * few well known distributions are provided.
+ *
+ * Implementations hold no mutable state; the same instance is shared by all
+ * participants and each participant passes in its own random number generator.
+ */
+public interface LatencyDistribution {
+
+	long nextDelayMillis(Random random);
+
+	/**
+	 * Parses specifications like:
+	 * - none
+	 * - fixed:200
+	 * - uniform:100:1000
+	 * - exponential:300 (mean)
+	 * - pareto:100:1.5 (scale, shape)
+	 * - trace:/path/to/file (one delay in milliseconds per line)
+	 *
+	 * @param spec
+	 * @return LatencyDistribution
+	 */
+	static LatencyDistribution parse(String spec) {
+		String[] parts = spec.trim().split(":", 2);
+		String kind = parts[0].toLowerCase();
+		String[] args = parts.length > 1 ? parts[1].split(":") : new String[0];
+		try {
+			switch (kind) {
+			case "none":
+				return new Fixed(0);
+			case "fixed":
+				return new Fixed(Long.parseLong(args[0]));
+			case "uniform":
+				return new Uniform(Long.parseLong(args[0]), Long.parseLong(args[1]));
+			case "exponential":
+				return new Exponential(Double.parseDouble(args[0]));
+			case "pareto":
+				return new Pareto(Double.parseDouble(args[0]), Double.parseDouble(args[1]));
+			case "trace":
+				return TraceDriven.fromFile(parts[1]);
+			default:
+				throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed latency distribution: " + spec, e);
+		}
+	}
+
+	public static class Fixed implements LatencyDistribution {
+
+		private final long delay;
+
+		public Fixed(long d) {
+			delay = d;
+		}
+
+		public long nextDelayMillis(Random random) {
+			return delay;
+		}
+
+		public String toString() {
+			return "fixed:" + delay;
+		}
+
+	}
+
+	/**
+	 * Uniformly distributed between min and max, both inclusive.
+	 */
+	public static class Uniform implements LatencyDistribution {
+
+		private final long min;
+		private final long max;
+
+		public Uniform(long mn, long mx) {
+			if (mn < 0 || mx < mn) {
+				throw new IllegalArgumentException("Invalid uniform range [" + mn + ", " + mx + "]");
+			}
+			min = mn;
+			max = mx;
+		}
+
+		public long nextDelayMillis(Random random) {
+			return min + (long) (random.nextDouble() * (max - min + 1));
+		}
+
+		public String toString() {
+			return "uniform:" + min + ":" + max;
+		}
+
+	}
+
+	/**
+	 * Memoryless delays; most are short but there is a tail.
+	 */
+	public static class Exponential implements LatencyDistribution {
+
+		private final double mean;
+
+		public Exponential(double m) {
+			if (m < 0) {
+				throw new IllegalArgumentException("Negative mean " + m);
+			}
+			mean = m;
+		}
+
+		public long nextDelayMillis(Random random) {
+			return Math.round(-mean * Math.log(1 - random.nextDouble()));
+		}
+
+		public String toString() {
+			return "exponential:" + mean;
+		}
+
+	}
+
+	/**
+	 * Heavy tailed delays: at least 'scale' milliseconds, the smaller the
+	 * shape the heavier the tail. Models the occasional very slow participant.
+	 */
+	public static class Pareto implements LatencyDistribution {
+
+		private final double scale;
+		private final double shape;
+
+		public Pareto(double sc, double sh) {
+			if (sc < 0 || sh <= 0) {
+				throw new IllegalArgumentException("Invalid pareto scale " + sc + " shape " + sh);
+			}
+			scale = sc;
+			shape = sh;
+		}
+
+		public long nextDelayMillis(Random random) {
+			return Math.round(scale / Math.pow(1 - random.nextDouble(), 1 / shape));
+		}
+
+		public String toString() {
+			return "pareto:" + scale + ":" + shape;
+		}
+
+	}
+
+	/**
+	 * Delays sampled from latencies observed in a real deployment. Each call
+	 * picks one of the recorded samples at random, so the empirical distribution
+	 * is reproduced without keeping a shared replay position.
+	 */
+	public static class TraceDriven implements LatencyDistribution {
+
+		private final long[] samples;
+
+		public TraceDriven(long[] s) {
+			if (s.length == 0) {
+				throw new IllegalArgumentException("Empty latency trace");
+			}
+			samples = s.clone();
+		}
+
+		public static TraceDriven fromFile(String path) {
+			try {
+				List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+				long[] s = lines.stream().map(String::trim).filter(l -> !l.isEmpty() && !l.startsWith("#"))
+						.mapToLong(Long::parseLong).toArray();
+				return new TraceDriven(s);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Can not read latency trace " + path, e);
+			}
+		}
+
+		public long nextDelayMillis(Random random) {
+			return samples[random.nextInt(samples.length)];
+		}
+
+		public String toString() {
+			return "trace:" + samples.length + " samples";
+		}
+
+	}
+
+}
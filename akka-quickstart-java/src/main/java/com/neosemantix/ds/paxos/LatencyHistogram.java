@@ -0,0 +1,108 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of non-negative values, typically nanoseconds, in the
+ * manner of HdrHistogram. Values below 128 get a bucket each; above that every
+ * power of two is split into 64 buckets, so a recorded value is off by less
+ * than 1/64 (1.6%) of itself. That covers the whole range of long in 3712
+ * buckets, no upfront bounds needed.
+ *
+ * Recording is a single atomic increment, participants on different threads
+ * may record into the same histogram. Reading while others record gives a
+ * view which may miss the latest values but is otherwise consistent.
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR = 128;
+	private static final int SUB_BITS = 6;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int BUCKETS = LINEAR + (62 - SUB_BITS) * SUB;
+
+	private final AtomicLongArray counts;
+
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+	}
+
+	static int indexOf(long value) {
+		if (value < LINEAR) {
+			return value < 0 ? 0 : (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return LINEAR + (shift - 1) * SUB + (int) (value >>> shift) - SUB;
+	}
+
+	/**
+	 * @return long Highest value which falls into the bucket
+	 */
+	static long highestValueOf(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int i = index - LINEAR;
+		int shift = i / SUB + 1;
+		long lowest = (long) (i % SUB + SUB) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public void record(long value) {
+		counts.incrementAndGet(indexOf(value));
+	}
+
+	public long count() {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			n += counts.get(i);
+		}
+		return n;
+	}
+
+	/**
+	 * @param p
+	 *            Percentile, e.g. 99.9
+	 * @return long Value at or below which p percent of the recorded values
+	 *         are, -1 if nothing got recorded
+	 */
+	public long percentile(double p) {
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) {
+			return -1;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return highestValueOf(i);
+			}
+		}
+		return max();
+	}
+
+	/**
+	 * @return long Highest value recorded, as precise as the buckets are; -1
+	 *         if nothing got recorded
+	 */
+	public long max() {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (counts.get(i) > 0) {
+				return highestValueOf(i);
+			}
+		}
+		return -1;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+	}
+
+}
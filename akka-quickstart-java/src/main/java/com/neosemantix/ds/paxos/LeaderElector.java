@@ -0,0 +1,105 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.Random;
+
+/**
+ * Picks one distinguished proposer among the participants so that proposers
+ * do not keep preempting each other with ever higher proposal numbers.
+ *
+ * The leader broadcasts heartbeats carrying its term. Every heartbeat grants
+ * the leader a lease: while the lease has not expired nobody else tries to
+ * lead. When the lease runs out, a participant waits for a randomized backoff
+ * and, if still no heartbeat has arrived, claims leadership with the next
+ * term. Backoffs make it unlikely that two participants claim together; if
+ * they do, the claim with the higher (term, participant id) wins since
+ * everybody, including the other claimant, gives way to it.
+ *
+ * Leadership only decides who proposes. Safety still comes from Paxos, so two
+ * participants briefly believing they lead costs some rounds, not correctness.
+ */
+class LeaderElector {
+
+	static final int NO_LEADER = -1;
+
+	private static final long NO_CANDIDACY = -1;
+
+	private final int selfId;
+	private final long leaseMillis;
+	private final long maxBackoffMillis;
+	private final Random random;
+
+	private int term;
+	private int leaderId;
+	private long leaseExpiresAt;
+	private long candidacyAt;
+
+	LeaderElector(int id, long lease, long maxBackoff, Random r) {
+		selfId = id;
+		leaseMillis = lease;
+		maxBackoffMillis = maxBackoff;
+		random = r;
+		leaderId = NO_LEADER;
+		candidacyAt = NO_CANDIDACY;
+	}
+
+	boolean isLeader() {
+		return leaderId == selfId;
+	}
+
+	int leaderId() {
+		return leaderId;
+	}
+
+	int term() {
+		return term;
+	}
+
+	/**
+	 * Called periodically, at the heartbeat interval.
+	 *
+	 * @param now
+	 * @return boolean True if this participant has just become the leader.
+	 */
+	boolean onTick(long now) {
+		if (isLeader() || now < leaseExpiresAt) {
+			return false;
+		}
+		if (candidacyAt == NO_CANDIDACY) {
+			// lease expired, give others a random head start before claiming
+			candidacyAt = now + (maxBackoffMillis > 0 ? (long) (random.nextDouble() * maxBackoffMillis) : 0);
+			if (candidacyAt > now) {
+				return false;
+			}
+		}
+		if (now >= candidacyAt) {
+			term++;
+			leaderId = selfId;
+			candidacyAt = NO_CANDIDACY;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param t
+	 *            Term of the sender
+	 * @param from
+	 *            Participant id of the sender
+	 * @param now
+	 * @return boolean True if this participant was leading and has to step
+	 *         down.
+	 */
+	boolean onHeartbeat(int t, int from, long now) {
+		if (t > term || (t == term && from >= leaderId)) {
+			boolean steppingDown = isLeader() && from != selfId;
+			term = t;
+			leaderId = from;
+			leaseExpiresAt = now + leaseMillis;
+			candidacyAt = NO_CANDIDACY;
+			return steppingDown;
+		}
+		// stale heartbeat of a deposed leader, it will learn from ours
+		return false;
+	}
+
+}
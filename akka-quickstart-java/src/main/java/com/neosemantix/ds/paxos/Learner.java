@@ -0,0 +1,163 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.BitSet;
+
+/**
+ * Learner role. A value is chosen once a phase 2 quorum of acceptors accepted
+ * it under the same ballot, see QuorumSystem; the learner counts the Accepted notifications which
+ * acceptors stream to it and recognizes that moment, so a decision waits for
+ * the median acceptor instead of the slowest one.
+ *
+ * The proposer of a ballot is its distinguished learner: acceptors notify only
+ * that one, and once it has learned the value it broadcasts a compact Decided
+ * message to everybody else. That costs one extra message per participant
+ * instead of every acceptor notifying every learner.
+ *
+ * In a Fast Paxos round acceptors accept whatever value a client sent them
+ * first, so the learner counts votes per value and needs a fast quorum for
+ * one of them. Once so many acceptors voted otherwise that no value can get
+ * there any more, the round has collided.
+ */
+class Learner {
+
+	private final int id;
+	private final QuorumSystem quorums;
+	private final BitSet acceptors;
+
+	// ballot of our own round whose Accepted notifications are counted
+	private long expectedBallot;
+
+	// acceptors a value needs in a fast round, 0 in a classic one, and the
+	// votes so far: values[i] got votes[i]
+	private int fastQuorum;
+	private final int[] values;
+	private final int[] votes;
+	private int distinct;
+
+	private long decidedBallot;
+	private int decidedValue;
+
+	Learner(int i, QuorumSystem q) {
+		id = i;
+		quorums = q;
+		acceptors = new BitSet(q.participantCount());
+		values = new int[q.participantCount()];
+		votes = new int[q.participantCount()];
+		expectedBallot = Ballot.NONE;
+		decidedBallot = Ballot.NONE;
+	}
+
+	/**
+	 * Start counting for a new round; our own acceptor has accepted already.
+	 */
+	void expect(long ballot) {
+		expectedBallot = ballot;
+		fastQuorum = 0;
+		acceptors.clear();
+		acceptors.set(id);
+	}
+
+	/**
+	 * Start counting for a fast round; our own acceptor votes like any other,
+	 * once a client's value reaches it.
+	 */
+	void expectFast(long ballot, int quorum) {
+		expectedBallot = ballot;
+		fastQuorum = quorum;
+		distinct = 0;
+		acceptors.clear();
+	}
+
+	/**
+	 * @param acc
+	 * @return boolean True if this notification completed the quorum, the
+	 *         value is decided now.
+	 */
+	boolean accepted(Protocol.Accepted acc) {
+		if (isDecided() || acc.ballot != expectedBallot || acceptors.get(acc.acceptorId)) {
+			// late, stale or duplicate
+			return false;
+		}
+		acceptors.set(acc.acceptorId);
+		if (fastQuorum > 0) {
+			if (vote(acc.value) >= fastQuorum) {
+				return learn(acc.ballot, acc.value);
+			}
+		} else if (quorums.isPhase2Quorum(acceptors)) {
+			return learn(acc.ballot, acc.value);
+		}
+		return false;
+	}
+
+	private int vote(int value) {
+		for (int i = 0; i < distinct; i++) {
+			if (values[i] == value) {
+				return ++votes[i];
+			}
+		}
+		values[distinct] = value;
+		votes[distinct] = 1;
+		return votes[distinct++];
+	}
+
+	/**
+	 * @return int Index of the value with the most votes in the fast round,
+	 *         -1 if there are none
+	 */
+	private int leading() {
+		int best = -1;
+		for (int i = 0; i < distinct; i++) {
+			if (best < 0 || votes[i] > votes[best]) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return boolean True if the fast round got votes for different values
+	 *         and not even the leading one can reach a fast quorum with the
+	 *         acceptors which have not voted yet.
+	 */
+	boolean collided() {
+		if (fastQuorum == 0 || isDecided() || distinct < 2) {
+			return false;
+		}
+		int notVoted = quorums.participantCount() - acceptors.cardinality();
+		return votes[leading()] + notVoted < fastQuorum;
+	}
+
+	/**
+	 * @return int Value with the most votes in the fast round,
+	 *         Participant.PROPOSAL_VALUE_NOT_APPLICABLE if none got any
+	 */
+	int mostVoted() {
+		int best = leading();
+		return best >= 0 ? values[best] : Participant.PROPOSAL_VALUE_NOT_APPLICABLE;
+	}
+
+	/**
+	 * @return boolean True if the decision was not known before.
+	 */
+	boolean learn(long ballot, int value) {
+		if (isDecided()) {
+			return false;
+		}
+		decidedBallot = ballot;
+		decidedValue = value;
+		return true;
+	}
+
+	boolean isDecided() {
+		return decidedBallot != Ballot.NONE;
+	}
+
+	long decidedBallot() {
+		return decidedBallot;
+	}
+
+	int decidedValue() {
+		return decidedValue;
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Growable FIFO ring buffer of primitive longs. Used to queue client values
+ * without boxing each one of them.
+ */
+class LongQueue {
+
+	private long[] elements;
+	private int head;
+	private int size;
+
+	LongQueue() {
+		this(64);
+	}
+
+	LongQueue(int initialCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+		elements = new long[capacity];
+	}
+
+	void add(long v) {
+		if (size == elements.length) {
+			grow();
+		}
+		elements[(head + size) & (elements.length - 1)] = v;
+		size++;
+	}
+
+	long poll() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		long v = elements[head];
+		head = (head + 1) & (elements.length - 1);
+		size--;
+		return v;
+	}
+
+	long peek() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return elements[head];
+	}
+
+	void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void grow() {
+		long[] bigger = new long[elements.length * 2];
+		for (int i = 0; i < size; i++) {
+			bigger[i] = elements[(head + i) & (elements.length - 1)];
+		}
+		elements = bigger;
+		head = 0;
+	}
+
+}
@@ -0,0 +1,245 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Which participants are acceptors of the replicated log, slot by slot. The
+ * membership changes through the log itself: a change is a command like any
+ * other, see change, and once it is decided in slot c the new members make the
+ * quorums from slot c + alpha on. Alpha is the leader's pipeline window, so
+ * every slot proposed before c got decided is still under the old members and
+ * no slot is ever proposed without knowing whose quorum it needs; this is
+ * the alpha of Lamport's reconfigurable state machines.
+ *
+ * Participants outside the membership keep accepting and learning whatever
+ * the leader sends them, their votes just do not count. A participant added
+ * by a change is therefore usually up to date already; if not, it catches up
+ * like any lagging one, with a snapshot.
+ *
+ * A change command has all of its top 16 bits set and the new members as a
+ * bit mask in the low 48, so ids go up to MAX_PARTICIPANTS - 1. Results of a
+ * change are the slot from which it applies.
+ *
+ * The configurations are part of the state machine's snapshot, in front of
+ * the state machine's own longs: their count, then the first slot and the
+ * member mask of each.
+ */
+public final class Membership {
+
+	public static final int MAX_PARTICIPANTS = 48;
+
+	private static final long TAG = 0xFFFFL << 48;
+
+	private static final long MEMBERS = (1L << 48) - 1;
+
+	private final String quorumSpec;
+	private final int participantCount;
+	private final int alpha;
+
+	// in the order they take effect, the first one from slot 0
+	private final ArrayList<Configuration> configurations;
+
+	private static final class Configuration {
+
+		private final long fromSlot;
+		private final long members;
+		private final QuorumSystem quorums;
+
+		private Configuration(long s, long m, QuorumSystem q) {
+			fromSlot = s;
+			members = m;
+			quorums = q;
+		}
+
+	}
+
+	/**
+	 * @param spec
+	 *            Quorum system of every configuration, see QuorumSystem.parse
+	 * @param pc
+	 *            Participant count
+	 * @param initial
+	 *            Participants 0 to initial - 1 are the first members, 0 for all
+	 *            of them
+	 * @param a
+	 *            Slots between the decision of a change and its first slot
+	 */
+	Membership(String spec, int pc, int initial, int a) {
+		if (initial < 0 || initial > pc) {
+			throw new IllegalArgumentException("Initial members out of range: " + initial + " of " + pc);
+		}
+		quorumSpec = spec;
+		participantCount = pc;
+		alpha = a;
+		configurations = new ArrayList<Configuration>();
+		long members = initial == 0 || initial == pc ? all(pc) : all(initial);
+		configurations.add(new Configuration(0, members, quorums(members)));
+	}
+
+	/**
+	 * @return long The command which makes the given participants the members
+	 */
+	public static long change(int... ids) {
+		if (ids.length == 0) {
+			throw new IllegalArgumentException("A membership needs at least one member");
+		}
+		long members = 0;
+		for (int id : ids) {
+			if (id < 0 || id >= MAX_PARTICIPANTS) {
+				throw new IllegalArgumentException("Participant id out of range: " + id);
+			}
+			members |= 1L << id;
+		}
+		return TAG | members;
+	}
+
+	public static boolean isChange(long command) {
+		return (command & TAG) == TAG;
+	}
+
+	private static long all(int count) {
+		return count >= 64 ? -1L : (1L << count) - 1;
+	}
+
+	private QuorumSystem quorums(long members) {
+		if (members == all(participantCount)) {
+			// everybody, no ids to map
+			return QuorumSystem.parse(quorumSpec, participantCount);
+		}
+		BitSet ids = BitSet.valueOf(new long[] { members });
+		return new QuorumSystem.Members(QuorumSystem.parse(quorumSpec, ids.cardinality()), ids);
+	}
+
+	/**
+	 * Checks a change before it goes into the log; one that got in is
+	 * applied whatever it says.
+	 *
+	 * @param leaderId
+	 *            The log leader, which has to stay a member
+	 * @throws IllegalArgumentException
+	 *             If the change leaves out the leader, names participants
+	 *             which do not exist or does not fit the quorum system
+	 */
+	void validate(long command, int leaderId) {
+		long members = command & MEMBERS;
+		if ((members & ~all(participantCount)) != 0) {
+			throw new IllegalArgumentException("Members " + BitSet.valueOf(new long[] { members })
+					+ " beyond the " + participantCount + " participants");
+		}
+		if ((members & 1L << leaderId) == 0) {
+			throw new IllegalArgumentException("Members " + BitSet.valueOf(new long[] { members })
+					+ " without the leader " + leaderId);
+		}
+		quorums(members);
+	}
+
+	/**
+	 * @return QuorumSystem Whose acceptors decide the slot
+	 */
+	QuorumSystem at(long slot) {
+		for (int i = configurations.size() - 1;; i--) {
+			Configuration c = configurations.get(i);
+			if (c.fromSlot <= slot) {
+				return c.quorums;
+			}
+		}
+	}
+
+	/**
+	 * Phase 1 from fromSlot on covers every slot after it, so its promises
+	 * have to make a quorum under each configuration which applies to one of
+	 * them.
+	 */
+	boolean isPhase1Quorum(BitSet promised, long fromSlot) {
+		for (int i = configurations.size() - 1; i >= 0; i--) {
+			Configuration c = configurations.get(i);
+			if (!c.quorums.isPhase1Quorum(promised)) {
+				return false;
+			}
+			if (c.fromSlot <= fromSlot) {
+				return true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A change got decided in the slot.
+	 *
+	 * @return long The slot from which the new members apply
+	 */
+	long decided(long slot, long command) {
+		long from = slot + alpha;
+		long members = command & MEMBERS;
+		QuorumSystem q;
+		try {
+			q = quorums(members);
+		} catch (IllegalArgumentException e) {
+			// validated on the way in, can only be a change from a participant
+			// with another quorum spec; keeping the current members is safe
+			return ReplicatedLog.NO_SLOT;
+		}
+		// nothing before the slot is proposed any more
+		while (configurations.size() > 1 && configurations.get(1).fromSlot <= slot) {
+			configurations.remove(0);
+		}
+		configurations.add(new Configuration(from, members, q));
+		return from;
+	}
+
+	/**
+	 * @return BitSet Members from the given slot on
+	 */
+	BitSet members(long slot) {
+		for (int i = configurations.size() - 1;; i--) {
+			Configuration c = configurations.get(i);
+			if (c.fromSlot <= slot) {
+				return BitSet.valueOf(new long[] { c.members });
+			}
+		}
+	}
+
+	/**
+	 * @return long[] The configurations, see the format above
+	 */
+	long[] snapshot() {
+		long[] header = new long[1 + 2 * configurations.size()];
+		header[0] = configurations.size();
+		for (int i = 0; i < configurations.size(); i++) {
+			header[1 + 2 * i] = configurations.get(i).fromSlot;
+			header[2 + 2 * i] = configurations.get(i).members;
+		}
+		return header;
+	}
+
+	/**
+	 * @return int Longs of the snapshot header which starts with 'first'
+	 */
+	static int headerLength(long first) {
+		return 1 + 2 * (int) first;
+	}
+
+	/**
+	 * Replaces the configurations with those of a snapshot header.
+	 */
+	void restore(long[] header) {
+		configurations.clear();
+		for (int i = 0; i < header[0]; i++) {
+			long members = header[2 + 2 * i];
+			configurations.add(new Configuration(header[1 + 2 * i], members, quorums(members)));
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Configuration c : configurations) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(BitSet.valueOf(new long[] { c.members })).append(" from slot ").append(c.fromSlot);
+		}
+		return sb.toString();
+	}
+
+}
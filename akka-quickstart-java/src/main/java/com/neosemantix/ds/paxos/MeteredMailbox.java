@@ -0,0 +1,82 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import scala.Option;
+
+/**
+ * Unbounded mailbox which keeps count of the messages waiting in it, so
+ * Metrics can tell how far a participant is behind. Akka's own unbounded
+ * mailbox can only tell by walking its queue. Participants get it while
+ * Config.metricsEnabled is set, see "paxos.metered-mailbox" in
+ * application.conf.
+ */
+public class MeteredMailbox implements MailboxType, ProducesMessageQueue<MeteredMailbox.Queue> {
+
+	public MeteredMailbox(ActorSystem.Settings settings, com.typesafe.config.Config config) {
+	}
+
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+		Queue q = new Queue();
+		if (owner.isDefined()) {
+			Metrics.getInstance().mailbox(owner.get().path().name(), q);
+		}
+		return q;
+	}
+
+	static class Queue implements MessageQueue {
+
+		private final ConcurrentLinkedQueue<Envelope> queue = new ConcurrentLinkedQueue<Envelope>();
+		private final AtomicInteger depth = new AtomicInteger();
+		private volatile int maxDepth;
+
+		public void enqueue(ActorRef receiver, Envelope handle) {
+			queue.offer(handle);
+			int d = depth.incrementAndGet();
+			if (d > maxDepth) {
+				// racy, an occasional lower maximum is good enough
+				maxDepth = d;
+			}
+		}
+
+		public Envelope dequeue() {
+			Envelope e = queue.poll();
+			if (e != null) {
+				depth.decrementAndGet();
+			}
+			return e;
+		}
+
+		public int numberOfMessages() {
+			return depth.get();
+		}
+
+		public boolean hasMessages() {
+			return !queue.isEmpty();
+		}
+
+		public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+			Envelope e;
+			while ((e = dequeue()) != null) {
+				deadLetters.enqueue(owner, e);
+			}
+		}
+
+		int maxDepth() {
+			return maxDepth;
+		}
+
+		void resetMaxDepth() {
+			maxDepth = depth.get();
+		}
+
+	}
+
+}
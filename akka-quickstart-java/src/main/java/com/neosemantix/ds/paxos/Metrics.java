@@ -0,0 +1,317 @@
+package com.neosemantix.ds.paxos;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation of the participants of this JVM: latency histograms of the
+ * prepare phase, the accept phase and end-to-end, messages sent and received
+ * per type, mailbox depths, and counts of rounds, rejections and preemptions.
+ *
+ * End-to-end is, for single decree, from the first prepare request of a
+ * proposer until its value is chosen, retries included; for Multi-Paxos, from
+ * the arrival of the oldest command of a batch at the leader until its slot
+ * is committed. Phases are timed with the participants' clock, so in a
+ * DiscreteEventSimulation they are in virtual time.
+ *
+ * Off unless Config.metricsEnabled is set when participants start. While off
+ * every recording method returns after reading one volatile field, and
+ * participants keep Akka's own mailbox. While on, the figures are in JMX as
+ * com.neosemantix.ds.paxos:type=Metrics and, if
+ * Config.metricsReportIntervalMillis is positive, printed that often.
+ */
+public class Metrics implements MetricsMXBean {
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	private volatile boolean enabled;
+
+	private final LatencyHistogram preparePhase = new LatencyHistogram();
+	private final LatencyHistogram acceptPhase = new LatencyHistogram();
+	private final LatencyHistogram endToEnd = new LatencyHistogram();
+
+	private final ConcurrentHashMap<Class<?>, LongAdder> sent = new ConcurrentHashMap<Class<?>, LongAdder>();
+	private final ConcurrentHashMap<Class<?>, LongAdder> received = new ConcurrentHashMap<Class<?>, LongAdder>();
+	private final Map<String, MeteredMailbox.Queue> mailboxes = new ConcurrentSkipListMap<String, MeteredMailbox.Queue>();
+
+	private final LongAdder rounds = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final LongAdder preemptions = new LongAdder();
+
+	private boolean registered;
+	private ScheduledExecutorService reporter;
+
+	private Metrics() {
+	}
+
+	/**
+	 * Turns metrics on or off as Config says. When on, registers the MXBean
+	 * and starts the reporter unless that is done already.
+	 *
+	 * @param cfg
+	 */
+	public synchronized void start(Config cfg) {
+		enabled = cfg.metricsEnabled;
+		if (!enabled) {
+			return;
+		}
+		if (!registered) {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(this, new ObjectName("com.neosemantix.ds.paxos:type=Metrics"));
+				registered = true;
+			} catch (JMException e) {
+				throw new IllegalStateException("Cannot register metrics with JMX", e);
+			}
+		}
+		if (reporter == null && cfg.metricsReportIntervalMillis > 0) {
+			reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "paxos-metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			});
+			PrintStream out = System.out;
+			long interval = cfg.metricsReportIntervalMillis;
+			reporter.scheduleAtFixedRate(new Runnable() {
+
+				private long lastRounds;
+				private long lastRejections;
+				private long lastPreemptions;
+
+				public void run() {
+					long r = rounds.sum();
+					long rj = rejections.sum();
+					long p = preemptions.sum();
+					double seconds = interval / 1000.0;
+					out.println(String.format("%s | %.1f rounds/s, %.1f rejections/s, %.1f preemptions/s", report(),
+							(r - lastRounds) / seconds, (rj - lastRejections) / seconds,
+							(p - lastPreemptions) / seconds));
+					lastRounds = r;
+					lastRejections = rj;
+					lastPreemptions = p;
+				}
+
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Turns metrics off and stops the reporter; the figures stay.
+	 */
+	public synchronized void stop() {
+		enabled = false;
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	void prepared(long nanos) {
+		if (enabled) {
+			preparePhase.record(nanos);
+		}
+	}
+
+	void accepted(long nanos) {
+		if (enabled) {
+			acceptPhase.record(nanos);
+		}
+	}
+
+	void decided(long nanos) {
+		if (enabled) {
+			endToEnd.record(nanos);
+		}
+	}
+
+	void roundStarted() {
+		if (enabled) {
+			rounds.increment();
+		}
+	}
+
+	void rejected() {
+		if (enabled) {
+			rejections.increment();
+		}
+	}
+
+	void preempted() {
+		if (enabled) {
+			preemptions.increment();
+		}
+	}
+
+	void sent(Object msg) {
+		if (enabled) {
+			count(sent, msg);
+		}
+	}
+
+	void received(Object msg) {
+		if (enabled) {
+			count(received, msg);
+		}
+	}
+
+	private static void count(ConcurrentHashMap<Class<?>, LongAdder> counters, Object msg) {
+		LongAdder c = counters.get(msg.getClass());
+		if (c == null) {
+			c = counters.computeIfAbsent(msg.getClass(), k -> new LongAdder());
+		}
+		c.increment();
+	}
+
+	void mailbox(String participant, MeteredMailbox.Queue q) {
+		mailboxes.put(participant, q);
+	}
+
+	public LatencyHistogram preparePhase() {
+		return preparePhase;
+	}
+
+	public LatencyHistogram acceptPhase() {
+		return acceptPhase;
+	}
+
+	public LatencyHistogram endToEnd() {
+		return endToEnd;
+	}
+
+	private static Map<String, Long> summaryMicros(LatencyHistogram h) {
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		m.put("count", h.count());
+		m.put("p50", micros(h.percentile(50)));
+		m.put("p99", micros(h.percentile(99)));
+		m.put("p99.9", micros(h.percentile(99.9)));
+		m.put("max", micros(h.max()));
+		return m;
+	}
+
+	private static long micros(long nanos) {
+		return nanos < 0 ? nanos : nanos / 1000;
+	}
+
+	public Map<String, Long> getPreparePhaseMicros() {
+		return summaryMicros(preparePhase);
+	}
+
+	public Map<String, Long> getAcceptPhaseMicros() {
+		return summaryMicros(acceptPhase);
+	}
+
+	public Map<String, Long> getEndToEndMicros() {
+		return summaryMicros(endToEnd);
+	}
+
+	private static Map<String, Long> byType(ConcurrentHashMap<Class<?>, LongAdder> counters) {
+		Map<String, Long> m = new TreeMap<String, Long>();
+		for (Map.Entry<Class<?>, LongAdder> e : counters.entrySet()) {
+			m.put(e.getKey().getSimpleName(), e.getValue().sum());
+		}
+		return m;
+	}
+
+	public Map<String, Long> getMessagesSent() {
+		return byType(sent);
+	}
+
+	public Map<String, Long> getMessagesReceived() {
+		return byType(received);
+	}
+
+	public Map<String, Integer> getMailboxDepths() {
+		Map<String, Integer> m = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, MeteredMailbox.Queue> e : mailboxes.entrySet()) {
+			m.put(e.getKey(), e.getValue().numberOfMessages());
+		}
+		return m;
+	}
+
+	public Map<String, Integer> getMaxMailboxDepths() {
+		Map<String, Integer> m = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, MeteredMailbox.Queue> e : mailboxes.entrySet()) {
+			m.put(e.getKey(), e.getValue().maxDepth());
+		}
+		return m;
+	}
+
+	public long getRoundsStarted() {
+		return rounds.sum();
+	}
+
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	public long getPreemptions() {
+		return preemptions.sum();
+	}
+
+	public void reset() {
+		preparePhase.reset();
+		acceptPhase.reset();
+		endToEnd.reset();
+		sent.clear();
+		received.clear();
+		for (MeteredMailbox.Queue q : mailboxes.values()) {
+			q.resetMaxDepth();
+		}
+		rounds.reset();
+		rejections.reset();
+		preemptions.reset();
+	}
+
+	private static String summary(String name, LatencyHistogram h) {
+		return String.format("%s p50 %.3f ms, p99 %.3f ms, max %.3f ms", name, h.percentile(50) / 1e6,
+				h.percentile(99) / 1e6, h.max() / 1e6);
+	}
+
+	/**
+	 * @return String One line summary of latencies, message counts and the
+	 *         deepest mailbox
+	 */
+	public String report() {
+		String deepest = "";
+		int depth = -1;
+		for (Map.Entry<String, Integer> e : getMaxMailboxDepths().entrySet()) {
+			if (e.getValue() > depth) {
+				deepest = e.getKey();
+				depth = e.getValue();
+			}
+		}
+		long s = 0;
+		for (long n : getMessagesSent().values()) {
+			s += n;
+		}
+		long r = 0;
+		for (long n : getMessagesReceived().values()) {
+			r += n;
+		}
+		return String.format("%s | %s | %s | %d messages sent, %d received%s", summary("prepare", preparePhase),
+				summary("accept", acceptPhase), summary("end-to-end", endToEnd), s, r,
+				depth >= 0 ? ", deepest mailbox " + deepest + " " + depth : "");
+	}
+
+}
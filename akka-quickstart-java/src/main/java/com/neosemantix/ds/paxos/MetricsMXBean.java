@@ -0,0 +1,56 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.Map;
+
+/**
+ * What Metrics shows through JMX, as com.neosemantix.ds.paxos:type=Metrics.
+ * Latencies are summarized as count, p50, p99, p99.9 and max in microseconds.
+ */
+public interface MetricsMXBean {
+
+	boolean isEnabled();
+
+	Map<String, Long> getPreparePhaseMicros();
+
+	Map<String, Long> getAcceptPhaseMicros();
+
+	Map<String, Long> getEndToEndMicros();
+
+	/**
+	 * @return Map<String, Long> Messages sent by participants per message type
+	 */
+	Map<String, Long> getMessagesSent();
+
+	Map<String, Long> getMessagesReceived();
+
+	/**
+	 * @return Map<String, Integer> Messages waiting per participant, while
+	 *         participants have a MeteredMailbox
+	 */
+	Map<String, Integer> getMailboxDepths();
+
+	/**
+	 * @return Map<String, Integer> Most messages waiting per participant since
+	 *         the last reset
+	 */
+	Map<String, Integer> getMaxMailboxDepths();
+
+	/**
+	 * @return long Prepare phases started, single decree rounds as well as
+	 *         Multi-Paxos phase 1
+	 */
+	long getRoundsStarted();
+
+	/**
+	 * @return long Nacks received by proposers
+	 */
+	long getRejections();
+
+	/**
+	 * @return long Rounds or leaderships given up because of a higher ballot
+	 */
+	long getPreemptions();
+
+	void reset();
+
+}
@@ -0,0 +1,104 @@
+package com.neosemantix.ds.paxos;
+
+/**
+ * Acceptor side of Multi-Paxos. A single promise covers all slots from the
+ * requested slot onwards, accepted values are recorded in the replicated log.
+ * This state is independent of the single decree RespondedProposal kept by the
+ * Participant.
+ *
+ * Slots the log compacted are decided; promises report how far that goes,
+ * accept requests for them are acknowledged without storing anything.
+ */
+class MultiPaxosAcceptor {
+
+	private final int id;
+	private final ReplicatedLog log;
+	private final AcceptorStore store;
+
+	// highest ballot promised for the replicated log
+	private long promisedBallot;
+
+	MultiPaxosAcceptor(int id, ReplicatedLog log, AcceptorStore store) {
+		this.id = id;
+		this.log = log;
+		this.store = store;
+		promisedBallot = Ballot.NONE;
+	}
+
+	void recoverPromise(long ballot) {
+		promisedBallot = Math.max(promisedBallot, ballot);
+	}
+
+	void recoverAccept(long slot, long ballot, long[] batch) {
+		recoverPromise(ballot);
+		log.accept(slot, ballot, batch);
+	}
+
+	long promisedBallot() {
+		return promisedBallot;
+	}
+
+	/**
+	 * @param req
+	 * @return Protocol.SlotPrepareResponse or null when the request is ignored
+	 *         because a higher ballot was promised already.
+	 */
+	Protocol.SlotPrepareResponse respond(Protocol.SlotPrepareRequest req) {
+		if (req.ballot <= promisedBallot) {
+			return null;
+		}
+		promisedBallot = req.ballot;
+		store.logPromised(req.ballot);
+		long from = Math.max(log.snapshotSlot() + 1, req.fromSlot);
+		int count = 0;
+		for (long s = from; s <= log.highestSlot(); s++) {
+			if (log.acceptedBallot(s) != Ballot.NONE) {
+				count++;
+			}
+		}
+		long[] slots = new long[count];
+		long[] ballots = new long[count];
+		long[][] batches = new long[count][];
+		int i = 0;
+		for (long s = from; s <= log.highestSlot(); s++) {
+			long ballot = log.acceptedBallot(s);
+			if (ballot != Ballot.NONE) {
+				slots[i] = s;
+				ballots[i] = ballot;
+				batches[i] = log.batch(s);
+				i++;
+			}
+		}
+		return new Protocol.SlotPrepareResponse(req.ballot, id, log.snapshotSlot(), slots, ballots, batches);
+	}
+
+	/**
+	 * @param req
+	 * @return Protocol.SlotAcceptResponse or null when the participant has
+	 *         promised a higher ballot in the meantime.
+	 */
+	Protocol.SlotAcceptResponse respond(Protocol.BatchAcceptRequest req) {
+		if (!accept(req.ballot, req.slot, req.commands)) {
+			return null;
+		}
+		log.learnCommit(req.commitIndex, req.ballot);
+		return new Protocol.SlotAcceptResponse(req.ballot, req.slot, id);
+	}
+
+	/**
+	 * Also used by the leader to accept its own proposals without sending a
+	 * message to itself.
+	 */
+	boolean accept(long ballot, long slot, long[] batch) {
+		if (ballot < promisedBallot) {
+			return false;
+		}
+		promisedBallot = ballot;
+		if (slot > log.snapshotSlot()) {
+			log.accept(slot, ballot, batch);
+			store.logAccepted(slot, ballot, batch);
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,482 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Leader side of Multi-Paxos. The leader runs phase 1 (SlotPrepareRequest)
+ * once for all slots beyond its commit index. As long as it is not preempted,
+ * every later slot needs only phase 2, one SlotAcceptRequest fan-out.
+ *
+ * Accept requests are pipelined: up to 'window' slots can be in flight at the
+ * same time. So throughput is bounded by the window size and not by the round
+ * trip time of a single slot. In-flight slots are tracked in a ring of the
+ * acceptors which accepted them, indexed by slot modulo window; the window
+ * never spans more than 'window' undecided slots so two in-flight slots never
+ * share a ring position. Phase 1 and each slot are complete once their
+ * acceptors, the leader's own included, make a quorum of the QuorumSystem of
+ * the members, see Membership: a slot needs one under the members it falls
+ * to, phase 1 one under every membership from its first slot on.
+ *
+ * The value of each slot is a batch of client commands cut by the
+ * CommandBatcher, so one accept fan-out carries many commands.
+ *
+ * For Metrics each in-flight slot also remembers when its accept request went
+ * out and when the oldest command of its batch arrived.
+ *
+ * Accept requests are not sent again on their own: straight to every acceptor
+ * a lost one costs one response. Through a RelayTree it costs a subtree, so
+ * there the participant has reissueStale send those of slots in flight for
+ * too long again.
+ *
+ * The participant hears about every batch cut from the batcher and every
+ * advance of the commit index, that is how the ReplicatedStateMachine answers
+ * its clients. Queries of the state machine need a slot decided after they
+ * arrived; if no command is coming, confirmLeadership sends an empty batch.
+ *
+ * An acceptor may have compacted slots beyond our commit index. Their values
+ * are decided but we do not know them, and the acceptor no longer does
+ * either, so we can not lead from there: phase 1 gives up, the participant
+ * fetches that acceptor's snapshot and phase 1 starts over once it is
+ * installed.
+ *
+ * When a membership change gets decided, phase 1 did not ask the new members.
+ * The leader stops proposing and runs phase 1 again, without giving up what
+ * waits in the batcher; slots in flight are recovered by it with the batches
+ * they already had. That is done before the change applies: the window never
+ * reaches alpha slots past the commit index.
+ */
+class MultiPaxosProposer {
+
+	private static Metrics metrics = Metrics.getInstance();
+
+	private final Participant leader;
+	private final int leaderId;
+	private final MultiPaxosAcceptor localAcceptor;
+	private final ReplicatedLog log;
+	private final Membership membership;
+	private final int window;
+	private final BitSet[] acceptedBy;
+	private final boolean[] chosen;
+	private final BitSet promised;
+	private final long[] acceptIssuedAt;
+	private final long[] batchArrivedAt;
+	private final long[] issuedAt;
+	// how long slots took to get chosen, moving average
+	private long decidedNanos;
+
+	private final CommandBatcher batcher;
+	private final ArrayDeque<long[]> recovered;
+	private final List<Object> subscribers;
+
+	private long ballot;
+	private long highestCompetingBallot;
+	private boolean preparing;
+	private boolean leading;
+	private boolean confirming;
+	private long fromSlot;
+	private long nextSlot;
+	private long phase1StartedAt;
+
+	// highest compacted slot reported in promises, and by whom
+	private long snapshotSlot;
+	private int snapshotHolder;
+
+	// slot -> accepted entry with the highest ballot reported in promises
+	private TreeMap<Long, RecoveredEntry> recoveredEntries;
+
+	private static class RecoveredEntry {
+
+		private final long ballot;
+		private final long[] batch;
+
+		private RecoveredEntry(long bl, long[] b) {
+			ballot = bl;
+			batch = b;
+		}
+
+	}
+
+	MultiPaxosProposer(Participant p, int id, MultiPaxosAcceptor acceptor, ReplicatedLog rl, Membership m, int w,
+			CommandBatcher b) {
+		leader = p;
+		leaderId = id;
+		ballot = Ballot.NONE;
+		highestCompetingBallot = Ballot.NONE;
+		localAcceptor = acceptor;
+		log = rl;
+		membership = m;
+		window = w;
+		promised = new BitSet(Membership.MAX_PARTICIPANTS);
+		acceptedBy = new BitSet[w];
+		for (int i = 0; i < w; i++) {
+			acceptedBy[i] = new BitSet(Membership.MAX_PARTICIPANTS);
+		}
+		chosen = new boolean[w];
+		acceptIssuedAt = new long[w];
+		batchArrivedAt = new long[w];
+		issuedAt = new long[w];
+		batcher = b;
+		recovered = new ArrayDeque<long[]>();
+		subscribers = new ArrayList<Object>();
+	}
+
+	void subscribe(Object subscriber) {
+		subscribers.add(subscriber);
+	}
+
+	boolean isLeading() {
+		return leading;
+	}
+
+	void propose(long command) {
+		batcher.add(command, leader.nanoTime());
+		if (leading) {
+			pump();
+		} else if (!preparing) {
+			startPhase1();
+		}
+		// else phase 1 in progress, command goes out once it completes
+	}
+
+	long nextSlot() {
+		return nextSlot;
+	}
+
+	/**
+	 * Makes sure another slot gets proposed, even if there is no command for
+	 * it; phase 1 is run first if we do not lead.
+	 */
+	void confirmLeadership() {
+		confirming = true;
+		if (leading) {
+			pump();
+		} else if (!preparing) {
+			startPhase1();
+		}
+	}
+
+	/**
+	 * Same as confirmLeadership, but leaves it to the caller to pump.
+	 */
+	void requestConfirmation() {
+		confirming = true;
+	}
+
+	private void startPhase1() {
+		preparing = true;
+		promised.clear();
+		promised.set(leaderId);
+		phase1StartedAt = leader.nanoTime();
+		metrics.roundStarted();
+		long highest = Math.max(highestCompetingBallot, localAcceptor.promisedBallot());
+		ballot = Ballot.next(Math.max(ballot, highest), leaderId);
+		fromSlot = log.commitIndex() + 1;
+		snapshotSlot = ReplicatedLog.NO_SLOT;
+		recoveredEntries = new TreeMap<Long, RecoveredEntry>();
+		Protocol.SlotPrepareRequest prepReq = new Protocol.SlotPrepareRequest(ballot, fromSlot);
+		// our own promise
+		merge(localAcceptor.respond(prepReq));
+		leader.issueRequests(prepReq);
+		if (membership.isPhase1Quorum(promised, fromSlot)) {
+			becomeLeader();
+		}
+	}
+
+	void trackPromise(Protocol.SlotPrepareResponse resp) {
+		if (!preparing || resp.ballot != ballot) {
+			// stale promise of an earlier phase 1
+			return;
+		}
+		if (promised.get(resp.acceptorId)) {
+			// duplicate
+			return;
+		}
+		promised.set(resp.acceptorId);
+		merge(resp);
+		if (membership.isPhase1Quorum(promised, fromSlot)) {
+			becomeLeader();
+		}
+	}
+
+	private void merge(Protocol.SlotPrepareResponse resp) {
+		if (resp == null) {
+			return;
+		}
+		if (resp.snapshotSlot > snapshotSlot) {
+			snapshotSlot = resp.snapshotSlot;
+			snapshotHolder = resp.acceptorId;
+		}
+		for (int i = 0; i < resp.acceptedSlots.length; i++) {
+			RecoveredEntry known = recoveredEntries.get(resp.acceptedSlots[i]);
+			if (known == null || known.ballot < resp.acceptedBallots[i]) {
+				recoveredEntries.put(resp.acceptedSlots[i],
+						new RecoveredEntry(resp.acceptedBallots[i], resp.acceptedBatches[i]));
+			}
+		}
+	}
+
+	private void becomeLeader() {
+		preparing = false;
+		if (snapshotSlot > log.commitIndex()) {
+			recoveredEntries = null;
+			leader.multiPaxosBehind(snapshotHolder);
+			return;
+		}
+		leading = true;
+		metrics.prepared(leader.nanoTime() - phase1StartedAt);
+		nextSlot = fromSlot;
+		if (!recoveredEntries.isEmpty()) {
+			// batches possibly chosen under earlier leaders have to be proposed again
+			// in their own slots, gaps are filled with empty batches (no-ops)
+			long last = recoveredEntries.lastKey();
+			for (long s = fromSlot; s <= last; s++) {
+				RecoveredEntry entry = recoveredEntries.get(s);
+				recovered.add(entry != null ? entry.batch : CommandBatcher.EMPTY_BATCH);
+			}
+		}
+		recoveredEntries = null;
+		leader.multiPaxosLeaderElected(ballot);
+		pump();
+	}
+
+	/**
+	 * Issue accept requests for batches as long as the pipeline window has
+	 * room. If commands are waiting for their batch to fill up, the participant
+	 * is asked to call back once the linger time is over.
+	 */
+	void pump() {
+		if (!leading) {
+			return;
+		}
+		long now = leader.nanoTime();
+		while (leading && nextSlot - log.commitIndex() - 1 < window
+				&& (!recovered.isEmpty() || batcher.ready(now) || confirming)) {
+			boolean fresh = recovered.isEmpty();
+			long arrived = fresh && !batcher.isEmpty() ? batcher.oldestPendingSince() : now;
+			long[] batch = fresh ? (batcher.isEmpty() ? CommandBatcher.EMPTY_BATCH : batcher.nextBatch())
+					: recovered.poll();
+			long slot = nextSlot++;
+			confirming = false;
+			if (fresh) {
+				leader.batchProposed(slot, batch.length);
+			}
+			acceptedBy[(int) (slot % window)].clear();
+			acceptedBy[(int) (slot % window)].set(leaderId);
+			chosen[(int) (slot % window)] = false;
+			acceptIssuedAt[(int) (slot % window)] = now;
+			issuedAt[(int) (slot % window)] = now;
+			batchArrivedAt[(int) (slot % window)] = arrived;
+			localAcceptor.accept(ballot, slot, batch);
+			leader.issueRequests(new Protocol.BatchAcceptRequest(ballot, slot, batch, log.commitIndex()));
+			if (membership.at(slot).isPhase2Quorum(acceptedBy[(int) (slot % window)])) {
+				chosen[(int) (slot % window)] = true;
+				advanceCommitIndex();
+			}
+		}
+		if (leading && nextSlot - log.commitIndex() - 1 < window && !batcher.isEmpty()) {
+			leader.scheduleBatchLinger(batcher.remainingLinger(now));
+		}
+		// else window is full, next accepted slot pumps again
+	}
+
+	long ballot() {
+		return ballot;
+	}
+
+	void trackAcceptResponse(Protocol.SlotAcceptResponse resp) {
+		int i = acceptedIndex(resp.ballot, resp.slot);
+		if (i < 0 || acceptedBy[i].get(resp.acceptorId)) {
+			// a duplicate
+			return;
+		}
+		acceptedBy[i].set(resp.acceptorId);
+		accepted(i, resp.slot);
+	}
+
+	/**
+	 * The acceptors of a subtree of the RelayTree, see AcceptAggregation.
+	 */
+	void trackAcceptResponses(Protocol.SlotAcceptResponses resps) {
+		int i = acceptedIndex(resps.ballot, resps.slot);
+		if (i < 0) {
+			return;
+		}
+		acceptedBy[i].or(BitSet.valueOf(resps.acceptors));
+		accepted(i, resps.slot);
+	}
+
+	/**
+	 * @return int Window index of the slot, -1 if a response for it has
+	 *         nothing left to do
+	 */
+	private int acceptedIndex(long respBallot, long slot) {
+		if (!leading || respBallot != ballot) {
+			return -1;
+		}
+		if (slot <= log.commitIndex() || slot >= nextSlot) {
+			// late response for an already decided slot
+			return -1;
+		}
+		int i = (int) (slot % window);
+		return chosen[i] ? -1 : i;
+	}
+
+	private void accepted(int i, long slot) {
+		if (membership.at(slot).isPhase2Quorum(acceptedBy[i])) {
+			chosen[i] = true;
+			decidedNanos += (leader.nanoTime() - issuedAt[i] - decidedNanos) / 8;
+			if (metrics.isEnabled()) {
+				metrics.accepted(leader.nanoTime() - acceptIssuedAt[i]);
+			}
+			if (advanceCommitIndex()) {
+				pump();
+			}
+		}
+	}
+
+	/**
+	 * Slots can get chosen out of order; the commit index only moves over the
+	 * contiguous prefix of chosen slots.
+	 *
+	 * @return boolean True when the commit index moved, so the window has room
+	 */
+	private boolean advanceCommitIndex() {
+		long before = log.commitIndex();
+		long ci = before;
+		while (ci + 1 < nextSlot && chosen[(int) ((ci + 1) % window)]) {
+			ci++;
+		}
+		if (ci > before && metrics.isEnabled()) {
+			long now = leader.nanoTime();
+			for (long s = before + 1; s <= ci; s++) {
+				metrics.decided(now - batchArrivedAt[(int) (s % window)]);
+			}
+		}
+		if (ci > before) {
+			log.commitUpTo(ci);
+			leader.logCommitted();
+			if (!subscribers.isEmpty()) {
+				Protocol.CommitIndex notification = new Protocol.CommitIndex(ci, log.commandsCommitted());
+				for (Object s : subscribers) {
+					// goes out only once our own accepts are durable
+					leader.send(s, notification);
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A SlotPrepareRequest with a higher ballot from another participant got
+	 * promised by our own acceptor; we are not the leader any more.
+	 */
+	void preempted() {
+		if (leading || preparing) {
+			metrics.preempted();
+			leading = false;
+			preparing = false;
+			confirming = false;
+			recovered.clear();
+			leader.multiPaxosLeadershipLost();
+		}
+	}
+
+	/**
+	 * An acceptor rejected one of our requests since it promised a higher
+	 * ballot.
+	 * 
+	 * @param nack
+	 * @return boolean True if we were preempted by it, false if the Nack is
+	 *         about an earlier ballot or the acceptor promised ours.
+	 */
+	boolean rejected(Protocol.Nack nack) {
+		highestCompetingBallot = Math.max(highestCompetingBallot, nack.competingBallot);
+		if (nack.rejectedBallot != ballot || !(leading || preparing)) {
+			return false;
+		}
+		if (nack.competingBallot == ballot) {
+			// our prepare request came after one of our accept requests, it
+			// took a longer way; the acceptor is ours already
+			return false;
+		}
+		preempted();
+		return true;
+	}
+
+	/**
+	 * A membership change got applied. Proposing stops right away, the state
+	 * machine is in the middle of applying; the participant calls
+	 * prepareMembers next.
+	 *
+	 * @return boolean True if phase 1 has to be run again
+	 */
+	boolean reconfigured() {
+		if (!leading && !preparing) {
+			return false;
+		}
+		leading = false;
+		preparing = false;
+		recovered.clear();
+		return true;
+	}
+
+	/**
+	 * Phase 1 again after a membership change, with a new ballot which the
+	 * new members promise as well.
+	 */
+	void prepareMembers() {
+		if (!leading && !preparing) {
+			startPhase1();
+		}
+	}
+
+	/**
+	 * The snapshot fetched when phase 1 found us behind is installed; phase 1
+	 * is run again if anything waits for it.
+	 */
+	void snapshotInstalled() {
+		if (!leading && !preparing && (!batcher.isEmpty() || confirming)) {
+			startPhase1();
+		}
+	}
+
+	/**
+	 * Issues the accept requests of the slots which are not chosen after
+	 * the given time again, with the batch the local acceptor holds for them.
+	 * If slots took longer lately, four times as long as that: slots which
+	 * are only slow because everybody is busy must not make them busier.
+	 *
+	 * @return boolean True if slots are in flight
+	 */
+	boolean reissueStale(long afterNanos) {
+		if (!leading) {
+			return false;
+		}
+		long now = leader.nanoTime();
+		long after = Math.max(afterNanos, 4 * decidedNanos);
+		for (long slot = log.commitIndex() + 1; slot < nextSlot; slot++) {
+			int i = (int) (slot % window);
+			if (!chosen[i] && now - issuedAt[i] >= after) {
+				issuedAt[i] = now;
+				leader.issueRequests(new Protocol.BatchAcceptRequest(ballot, slot, log.batch(slot), log.commitIndex()));
+			}
+		}
+		return nextSlot - 1 > log.commitIndex();
+	}
+
+	/**
+	 * Called after the backoff following a rejection. Phase 1 is run again if
+	 * commands are waiting; otherwise the next proposed command starts it.
+	 */
+	void retry() {
+		if (!leading && !preparing && !batcher.isEmpty()) {
+			startPhase1();
+		}
+	}
+
+}
@@ -1,26 +1,31 @@
 package com.neosemantix.ds.paxos;
 
 import java.time.Duration;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 import java.util.Random;
 
 import com.neosemantix.ds.paxos.Protocol.PrepareResponseState;
 
-import akka.actor.AbstractActorWithTimers;
-import akka.actor.ActorRef;
+import akka.actor.AbstractActor.Receive;
 import akka.actor.Props;
-import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.japi.pf.ReceiveBuilder;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 /**
  * Main class which encapsulates behavior of a participant in this consensus
  * algorithm. It models a participant's behavior for various messages received
- * from other participants. It is an Akka actor with a timer to create starting
- * request to start consensus building. In the constructor of this class a timer
- * is started which will create the first tick at a randomly chosen interval.
+ * from other participants. It uses a timer to create starting request to start
+ * consensus building. In the constructor of this class a timer is started which
+ * will create the first tick at a randomly chosen interval.
+ * 
+ * A participant reaches the outside world only through its Environment: it
+ * runs as an Akka actor in ParticipantActor and in virtual time in
+ * DiscreteEventSimulation.
  * 
  * Internally it tracks state about requests send and what responses have
  * arrived for those requests as well as how it responded to requests of other
@@ -28,53 +33,141 @@ import akka.event.LoggingAdapter;
  * 
  * @author umeshpatil
  */
-public class Participant extends AbstractActorWithTimers {
+public class Participant {
 	
 	// *************************************************************************
 	// Static definitions and methods
 	// *************************************************************************
 
-	public static int NO_PROPOSAL_ACCEPTED_YET = -1;
 	public static int PROPOSAL_VALUE_NOT_APPLICABLE = -1;
 	
 	private static Config cfg = Config.getInstance();
+
+	private static Metrics metrics = Metrics.getInstance();
 	
 	private static Object TICK_KEY = "TickKey";
 
+	// Messages to self carry no state, one instance of each is shared by all
+	// participants.
+
 	private static final class FirstTick {
 	}
 
 	private static final class Tick {
 	}
 
-	static public Props props(int pCount, String name) {
-		return Props.create(Participant.class, () -> new Participant(pCount, name));
+	private static final Tick TICK = new Tick();
+
+	private static Object BATCH_LINGER_KEY = "BatchLingerKey";
+
+	private static final class BatchLinger {
 	}
-	
-	private static Map<ActorRef, String> actorRefToNameMap = new HashMap<ActorRef, String>();
-	
+
+	private static final BatchLinger BATCH_LINGER = new BatchLinger();
+
+	private static final class SyncStore {
+	}
+
+	private static final SyncStore SYNC_STORE = new SyncStore();
+
+	private static Object ELECTION_TICK_KEY = "ElectionTickKey";
+
+	private static final class ElectionTick {
+	}
+
+	private static final ElectionTick ELECTION_TICK = new ElectionTick();
+
+	private static Object RETRY_KEY = "RetryKey";
+
+	private static final class Retry {
+	}
+
+	private static final Retry RETRY = new Retry();
+
+	private static Object LOG_RETRY_KEY = "LogRetryKey";
+
+	private static final class LogRetry {
+	}
+
+	private static final LogRetry LOG_RETRY = new LogRetry();
+
+	private static Object RELAY_FLUSH_KEY = "RelayFlushKey";
+
+	private static final class RelayFlush {
+	}
+
+	private static final RelayFlush RELAY_FLUSH = new RelayFlush();
+
+	private static final class PrepareMembers {
+	}
+
+	private static final PrepareMembers PREPARE_MEMBERS = new PrepareMembers();
+
+	static public Props props(int pCount, int id, String name) {
+		checkConfig(pCount);
+		Props props = Props.create(ParticipantActor.class, () -> new ParticipantActor(pCount, id, name))
+				.withDispatcher(dispatcherOf(id));
+		return cfg.metricsEnabled ? props.withMailbox("paxos.metered-mailbox") : props;
+	}
+
+	/**
+	 * A spec which does not fit the participants fails here, before any
+	 * participant starts.
+	 */
+	static void checkConfig(int pCount) {
+		QuorumSystem q = QuorumSystem.parse(cfg.quorum, pCount);
+		if (cfg.fastPaxos) {
+			QuorumSystem.fastQuorumSize(q, cfg.fastQuorumSize);
+		}
+		StateMachine.parse(cfg.stateMachine);
+		new Membership(cfg.quorum, pCount, cfg.initialMembers, cfg.pipelineWindow);
+		if (cfg.broadcastFanout < 0) {
+			throw new IllegalArgumentException("Broadcast fan-out must not be negative: " + cfg.broadcastFanout);
+		}
+		if (cfg.relayTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("Relay timeout must be positive: " + cfg.relayTimeoutMillis);
+		}
+	}
+
+	static String dispatcherOf(int id) {
+		if (cfg.multiPaxos && id == cfg.multiPaxosLeader && !cfg.leaderDispatcher.isEmpty()) {
+			return cfg.leaderDispatcher;
+		}
+		return cfg.participantDispatcher;
+	}
+
 	// *************************************************************************
 	// ProposalNumberGenerator
 	// *************************************************************************
 
 	/**
-	 * Simple proposal generator, it gives next number to whatever highest proposL
-	 * numbers this participant has encountered.
+	 * Simple proposal generator, it gives next ballot to whatever highest ballot
+	 * this participant has encountered, either as an acceptor or through
+	 * rejections of its own prepare requests.
 	 * 
-	 * Each participant has it's own copy, meaning each participants proposals start
-	 * from 1. Many proposals from different participants would have the same number.
+	 * Each participant has it's own copy. The participant id is part of every
+	 * ballot, so proposals from different participants never have the same
+	 * number.
 	 */
 	private static class ProposalNumberGenerator {
 
 		private RespondedProposal respondedProposals;
+		private int participantId;
+		private long highestRejectedBy;
 
-		private ProposalNumberGenerator(RespondedProposal respProp) {
+		private ProposalNumberGenerator(RespondedProposal respProp, int id) {
 			respondedProposals = respProp;
+			participantId = id;
+			highestRejectedBy = Ballot.NONE;
+		}
+
+		private long getNextProposalNumber() {
+			long b = Math.max(respondedProposals.propNumOfLastPrepReqResd, respondedProposals.acceptedProposalNumber);
+			return Ballot.next(Math.max(b, highestRejectedBy), participantId);
 		}
 
-		private int getNextProposalNumber() {
-			int pn = Math.max(respondedProposals.propNumOfLastPrepReqResd, respondedProposals.acceptedProposalNumber);
-			return pn + 1;
+		private void observe(long ballot) {
+			highestRejectedBy = Math.max(highestRejectedBy, ballot);
 		}
 
 	}
@@ -90,31 +183,68 @@ public class Participant extends AbstractActorWithTimers {
 
 		private Participant proposer;
 		private long birthdate;
-		private int participantCount;
+		private QuorumSystem quorums;
 		private ProposalNumberGenerator propNumGenarator;
 		private boolean acceptReqSent;
+		private boolean aborted;
 		private int proposalValue;
-		private int proposalNumber;
-		private int highestProposalNumAmongResponsesReceived;
-		private int preparResponsesReceived;
-		private int acceptResponsesReceived;
+		private long proposalNumber;
+		private long highestAcceptedProposalNumAmongResponses;
+		// values reported accepted under that ballot by the promises so far:
+		// reportedValues[i] by reportedVotes[i] acceptors. More than one only
+		// when it was a fast round.
+		private int[] reportedValues;
+		private int[] reportedVotes;
+		private int reported;
+		// acceptors which promised the current round, 'self' included
+		private BitSet promised;
+		// phase 1 is done and left us free to pick a value, but no client has
+		// sent one yet
+		private boolean awaitingValue;
+		// the current round is a fast one, or the last one collided
+		private boolean fast;
+		private boolean collided;
 		private int prepareRequestsIssuedSoFar;
 		private long whenLastPrepareRequestIssued;
+
+		// participant's nanoTime when the first round and the current phases began
+		private long firstPrepareStarted;
+		private long prepareStarted;
+		private long acceptStarted;
 		
-		private CirculatedProposal(ProposalNumberGenerator propNumGen, int pc, Participant p, long bd) {
+		private CirculatedProposal(ProposalNumberGenerator propNumGen, QuorumSystem q, Participant p, long bd) {
 			propNumGenarator = propNumGen;
-			participantCount = pc;
+			quorums = q;
+			promised = new BitSet(q.participantCount());
+			reportedValues = new int[q.participantCount()];
+			reportedVotes = new int[q.participantCount()];
 			proposer = p;
 			birthdate = bd;
+			firstPrepareStarted = -1;
 		}
 
-		private int circulateNewPrepareProposal(Participant issuer) {
+		private long circulateNewPrepareProposal(Participant issuer) {
 			// push this new proposal numbers to all participants
-			preparResponsesReceived = 0;
-			highestProposalNumAmongResponsesReceived = 0;
-			proposalValue = 0;
+			promised.clear();
 			proposalNumber = propNumGenarator.getNextProposalNumber();
 			acceptReqSent = false; // reset
+			aborted = false;
+			awaitingValue = false;
+			fast = false;
+			prepareStarted = issuer.env.nanoTime();
+			if (firstPrepareStarted < 0) {
+				firstPrepareStarted = prepareStarted;
+			}
+			metrics.roundStarted();
+			// 'self' counts towards the quorum, so it has to promise as well and
+			// whatever it accepted earlier competes with what the others report
+			issuer.promiseOwnProposal(proposalNumber);
+			promised.set(issuer.id);
+			highestAcceptedProposalNumAmongResponses = Ballot.NONE;
+			reported = 0;
+			if (issuer.propResponded.acceptedProposalNumber != Ballot.NONE) {
+				report(issuer.propResponded.acceptedProposalNumber, issuer.propResponded.acceptedProposalValue);
+			}
 			Protocol.PrepareRequest prepReq = new Protocol.PrepareRequest(proposalNumber);
 			whenLastPrepareRequestIssued = issuer.issueRequests(prepReq);
 			prepareRequestsIssuedSoFar++;
@@ -125,33 +255,96 @@ public class Participant extends AbstractActorWithTimers {
 			return whenLastPrepareRequestIssued;
 		}
 
+		/**
+		 * Counts a value an acceptor reports to have accepted. Only those of
+		 * the highest ballot matter; the value may have been chosen under it,
+		 * so we have to stick to it.
+		 */
+		private void report(long ballot, int value) {
+			if (ballot < highestAcceptedProposalNumAmongResponses) {
+				return;
+			}
+			if (ballot > highestAcceptedProposalNumAmongResponses) {
+				highestAcceptedProposalNumAmongResponses = ballot;
+				reported = 0;
+			}
+			for (int i = 0; i < reported; i++) {
+				if (reportedValues[i] == value) {
+					reportedVotes[i]++;
+					return;
+				}
+			}
+			reportedValues[reported] = value;
+			reportedVotes[reported++] = 1;
+		}
+
+		/**
+		 * A classic ballot has a single value. In a fast ballot acceptors may
+		 * have accepted different ones; if one of them got chosen, more of our
+		 * phase 1 quorum accepted it than any other (see
+		 * QuorumSystem.fastQuorumSize), and if none did, any is fine.
+		 * 
+		 * @return int Value of the highest ballot reported, 0 if none was
+		 */
+		private int reportedValue() {
+			int best = -1;
+			for (int i = 0; i < reported; i++) {
+				if (best < 0 || reportedVotes[i] > reportedVotes[best]) {
+					best = i;
+				}
+			}
+			return best >= 0 ? reportedValues[best] : 0;
+		}
+
+		/**
+		 * @return boolean True while the round waits for a client's value,
+		 *         there is no point in restarting it before one arrives. Once
+		 *         one has, a round which still does not decide may have been
+		 *         superseded and gets restarted like any other.
+		 */
+		private boolean awaitsClient() {
+			return !aborted && proposer.clientValue == PROPOSAL_VALUE_NOT_APPLICABLE && (awaitingValue || fast);
+		}
+
 		private int prepReqIssuedSoFar() {
 			return this.prepareRequestsIssuedSoFar;
 		}
 
-		private synchronized void trackPrepareResponse(Protocol.PrepareResponse pr) {
+		/**
+		 * @param pr
+		 * @return boolean True when this response completed the phase 1
+		 *         quorum and the accept request went out.
+		 */
+		private boolean trackPrepareResponse(Protocol.PrepareResponse pr) {
+			if (aborted || pr.getLastPreparedRequestProposalNo() != proposalNumber) {
+				// response to an abandoned or earlier round
+				return false;
+			}
 			if (pr.getState() != PrepareResponseState.REJECTED) {
-				preparResponsesReceived++;
-				int highestPropNo = pr.getLastPreparedRequestProposalNo();
-				if (highestProposalNumAmongResponsesReceived < highestPropNo) {
-					highestProposalNumAmongResponsesReceived = highestPropNo;
+				// a duplicated response counts once
+				if (!promised.get(pr.getAcceptorId())) {
+					promised.set(pr.getAcceptorId());
 					if (pr.getState() == PrepareResponseState.ACCEPTED) {
-						proposalValue = pr.getLastAcceptedProposalValue();
+						report(pr.getLastAcceptedProposal(), pr.getLastAcceptedProposalValue());
 					}
 				}
-				if (majority(preparResponsesReceived)) {
-					// we got majorities responding to the prepare proposal
+				if (quorums.isPhase1Quorum(promised)) {
+					// we got a quorum responding to the prepare proposal
 					// circulate the accept proposal now
 					if (!acceptReqSent) {
 						// we have not issued accept request so far
+						acceptStarted = proposer.env.nanoTime();
+						metrics.prepared(acceptStarted - prepareStarted);
+						proposalValue = reportedValue();
 						circulateAcceptProposal(proposer);
 						acceptReqSent = true; // no more additional
+						return true;
 					}
 					// else already accept request is in circulation...
-					// What happens is we get responses from majority participants for prepare
+					// What happens is we get responses from quorum participants for prepare
 					// request and this this participant starts issuing the accept request. 
 					// However, responses for the earlier prepare request still keeps on 
-					// coming from participants beyond the majority. At that point we do not 
+					// coming from participants beyond the quorum. At that point we do not 
 					// want to issue additional acceptance request since one is already in 
 					// circulation for this prepare request. Point is we do not for the accept
 					// request to get responses to prepare request from all participants. 
@@ -160,76 +353,120 @@ public class Participant extends AbstractActorWithTimers {
 				}
 				// else will have to wait for more responses
 			}
+			return false;
 		}
 
 		/**
-		 * For 0 and 1 participant count, it is always majority. These are just
-		 * pathological corner cases. For participant count 2, majority is attained any
-		 * time a participant hears from the other.
+		 * Somebody promised a higher ballot than the one of our current round,
+		 * so the round cannot succeed any more; the next one has to go past
+		 * the competing ballot.
 		 * 
-		 * For odd count of participants, say 3, 3 / 2 = 1 (integer division); getting
-		 * response from one single participant is enough since the 'self' is already
-		 * counted. For 5, 5 / 2 = 2; receiving from 2 other plus 'self' is the
-		 * majority.
-		 * 
-		 * For even count, say 4, 4 / 2 = 2; getting responses from 2 other participants
-		 * is enough because 'self' takes it over the half count.
-		 * 
-		 * @param arg
-		 * @return boolean
+		 * @param nack
+		 * @return boolean True if the current round got abandoned because of it,
+		 *         false if the Nack is about an earlier round.
 		 */
-		private boolean majority(int arg) {
-			boolean result = false;
-			switch (participantCount) {
-			case 0:
-			case 1:
-				result = true;
-				break;
-			case 2:
-				if (arg == 1)
-					result = true;
-				break;
-			default:
-				if (arg >= (participantCount / 2)) {
-					result = true;
-				}
+		private boolean abort(Protocol.Nack nack) {
+			propNumGenarator.observe(nack.competingBallot);
+			if (aborted || nack.rejectedBallot != proposalNumber) {
+				return false;
 			}
-			return result;
+			aborted = true;
+			return true;
 		}
 
 		private void circulateAcceptProposal(Participant issuer) {
 			if (proposalValue == 0) {
-				proposalValue = 5;
-			} else {
-				proposalValue += 5;
+				// free to propose any value
+				if (cfg.fastPaxos && !collided) {
+					circulateAcceptAny(issuer);
+					return;
+				}
+				if (collided) {
+					// nobody reported the collided votes, one of them is as good
+					// as a client's
+					proposalValue = issuer.learner.mostVoted();
+				}
+				if (proposalValue <= 0) {
+					proposalValue = issuer.clientValues() ? issuer.clientValue : 5;
+				}
+				if (proposalValue <= 0) {
+					awaitingValue = true;
+					return;
+				}
 			}
+			collided = false;
+			if (!issuer.accept(proposalNumber, proposalValue)) {
+				// 'self' promised a higher ballot in the meantime
+				issuer.env.tellSelf(new Protocol.Nack(proposalNumber, issuer.propResponded.propNumOfLastPrepReqResd,
+						false));
+				return;
+			}
+			issuer.learner.expect(proposalNumber);
 			Protocol.AcceptRequest acptReq = new Protocol.AcceptRequest(proposalNumber,
 					proposalValue);
-			acceptResponsesReceived = 0;
 			// push it to all participants
 			issuer.issueRequests(acptReq);
 		}
 
-		private synchronized void trackAcceptResponse() {
-			acceptResponsesReceived++;
-			// when acceptResponsesReceived == number of participants; consensus is reached
-			// participantCount - 1 because we skip message to self
-			if (acceptResponsesReceived == (participantCount - 1)) {
-				String line = "==========================================================";
-				outToAllLoggers(line);
-				outToAllLoggers("Consensus reached in " + (System.currentTimeMillis() - birthdate)
-						+ " milliseonds for proposal from " + proposer 
-						+ " Proposal number: " + proposalNumber
-						+ " Proposal value: " + proposalValue
-						+ " highestProposalNumAmongResponsesReceived: " + highestProposalNumAmongResponsesReceived);
-				outToAllLoggers(line);
-				PaxosMain.consensusReached();
+		/**
+		 * Fast round: acceptors, 'self' included, accept the value clients
+		 * send them without going through us.
+		 */
+		private void circulateAcceptAny(Participant issuer) {
+			fast = true;
+			issuer.learner.expectFast(proposalNumber, issuer.fastQuorum);
+			issuer.issueRequests(new Protocol.AcceptAny(proposalNumber));
+			if (!issuer.acceptAny(proposalNumber)) {
+				// 'self' promised a higher ballot in the meantime
+				issuer.env.tellSelf(new Protocol.Nack(proposalNumber, issuer.propResponded.propNumOfLastPrepReqResd,
+						false));
 			}
 		}
 
-		private void outToAllLoggers(String msg) {
-			System.out.println(msg);
-			proposer.msgLog.info(msg);
+		/**
+		 * A client's value arrived; the round goes on if it was waiting for
+		 * one.
+		 */
+		private void clientValueArrived(Participant issuer) {
+			if (awaitingValue && !aborted) {
+				awaitingValue = false;
+				proposalValue = issuer.clientValue;
+				circulateAcceptProposal(issuer);
+			}
+		}
+
+		/**
+		 * We are the learner of our own proposals. Once a quorum has accepted,
+		 * the value is chosen and everybody else gets told.
+		 */
+		private void trackAccepted(Protocol.Accepted acc, Learner learner) {
+			if (aborted) {
+				return;
+			}
+			if (learner.accepted(acc)) {
+				// in a fast round it is the clients' value, not ours
+				proposalValue = learner.decidedValue();
+				long now = proposer.env.nanoTime();
+				metrics.accepted(now - acceptStarted);
+				metrics.decided(now - firstPrepareStarted);
+				proposer.issueRequests(new Protocol.Decided(proposalNumber, proposalValue));
+				proposer.env.consensusReached(proposalNumber, proposalValue, "Consensus reached in "
+						+ (proposer.env.currentTimeMillis() - birthdate)
+						+ " milliseconds for proposal from " + proposer 
+						+ " Proposal number: " + Ballot.toString(proposalNumber)
+						+ " Proposal value: " + proposalValue
+						+ " highestAcceptedProposalNumAmongResponses: "
+						+ Ballot.toString(highestAcceptedProposalNumAmongResponses));
+			} else if (learner.collided()) {
+				// the fast round cannot choose a value any more, a classic round
+				// finds out whether one got chosen after all
+				metrics.preempted();
+				aborted = true;
+				collided = true;
+				if (proposer.mayPropose()) {
+					circulateNewPrepareProposal(proposer);
+				}
+			}
 		}
 
 	}
@@ -244,16 +481,21 @@ public class Participant extends AbstractActorWithTimers {
 	private static class RespondedProposal {
 
 		// Proposal number of last prepared request responded
-		private int propNumOfLastPrepReqResd;
+		private long propNumOfLastPrepReqResd;
 
 		// accepted proposals
-		private int acceptedProposalNumber;
+		private long acceptedProposalNumber;
 		private int acceptedProposalValue;
 
+		// fast round in which a client's value may be accepted, not durable: a
+		// restarted acceptor waits for the next one
+		private long anyBallot;
+
 		private RespondedProposal() {
-			acceptedProposalNumber = NO_PROPOSAL_ACCEPTED_YET;
+			anyBallot = Ballot.NONE;
+			acceptedProposalNumber = Ballot.NONE;
 			acceptedProposalValue = PROPOSAL_VALUE_NOT_APPLICABLE;
-			propNumOfLastPrepReqResd = NO_PROPOSAL_ACCEPTED_YET;
+			propNumOfLastPrepReqResd = Ballot.NONE;
 		}
 
 	}
@@ -262,12 +504,66 @@ public class Participant extends AbstractActorWithTimers {
 	// Class level variables
 	// *************************************************************************
 
-	private LoggingAdapter msgLog = Logging.getLogger(getContext().getSystem(), this);
+	private Environment env;
+	private LoggingAdapter msgLog;
 	
+	private int id;
 	private String name;
+	private int logLeader;
+	private int participantCount;
+	private QuorumSystem quorums;
 	private CirculatedProposal propCirculated;
 	private RespondedProposal propResponded;
 	private Random random;
+	private LeaderElector elector;
+	private Learner learner;
+	private RetryBackoff backoff;
+	private RetryBackoff logBackoff;
+
+	// Durable home of the acceptor state; responses wait in 'deferred' until
+	// the state change behind them is synced.
+	private AcceptorStore store;
+	private List<DeferredSend> deferred;
+	private boolean syncScheduled;
+
+	// Multi-Paxos replicated log state, it lives alongside the single decree
+	// state above. Proposer is created only on the leader.
+	private ReplicatedLog replicatedLog;
+	private MultiPaxosAcceptor logAcceptor;
+	private MultiPaxosProposer logProposer;
+	private ReplicatedStateMachine stateMachine;
+	private Membership membership;
+	private SnapshotTransfer snapshots;
+
+	// Messages are immutable, so the last one of each kind is sent again as
+	// long as its content would be the same, e.g. to retransmitted requests.
+	private Protocol.Accepted lastAccepted;
+	private Protocol.Nack lastNack;
+	private Protocol.Heartbeat lastHeartbeat;
+
+	// Everybody else, for broadcasts straight to all of them; rebuilt when
+	// the environment hands out another list.
+	private Object[] peers;
+	private List<?> peersFrom;
+	private int peersFromSize;
+
+	// Broadcasts through the RelayTree, null if they go straight to everybody;
+	// while a relayed message is handled, the Relay and the root it came from.
+	// Accept responses for our subtree go back up through the aggregation.
+	private RelayTree relays;
+	private Protocol.Relay relaying;
+	private Object relayRoot;
+	private AcceptAggregation aggregation;
+	// after which the log leader sends accept requests through it again
+	private long reissueNanos;
+
+	// createReceive's behavior, for the message inside a Relay
+	private PartialFunction<Object, BoxedUnit> behavior;
+
+	// Single decree value sent by clients, the first one wins; see
+	// Config.clientValues. A fast round needs fastQuorum acceptors for it.
+	private int clientValue = PROPOSAL_VALUE_NOT_APPLICABLE;
+	private int fastQuorum;
 	
 	// *************************************************************************
 	// Constructor
@@ -276,153 +572,839 @@ public class Participant extends AbstractActorWithTimers {
 	/**
 	 * @param pc
 	 *            Participant count
+	 * @param i
+	 *            Index of this participant among all participants
+	 * @param e
+	 *            What the participant runs in
+	 * @param r
+	 *            Source of all random numbers it draws
+	 */
+	Participant(int pc, int i, String n, Environment e, Random r) {
+		this(pc, i, n, e, r, AcceptorStore.create(cfg, n), cfg.multiPaxosLeader);
+	}
+
+	/**
+	 * @param s
+	 *            Where the acceptor state goes
+	 * @param leader
+	 *            Id of the participant which leads the replicated log
 	 */
-	public Participant(int pc, String n) {
+	Participant(int pc, int i, String n, Environment e, Random r, AcceptorStore s, int leader) {
+		env = e;
+		msgLog = e.log();
 		propResponded = new RespondedProposal();
-		propCirculated = new CirculatedProposal(new ProposalNumberGenerator(propResponded), pc, this,
-				System.currentTimeMillis());
-		random = new Random();
-		getTimers().startSingleTimer(TICK_KEY, new FirstTick(), Duration.ofMillis(((1 + random.nextInt(9)) * 100)));
+		quorums = QuorumSystem.parse(cfg.quorum, pc);
+		propCirculated = new CirculatedProposal(new ProposalNumberGenerator(propResponded, i), quorums, this,
+				env.currentTimeMillis());
+		store = s;
+		logLeader = leader;
+		deferred = new ArrayList<DeferredSend>();
+		replicatedLog = new ReplicatedLog();
+		logAcceptor = new MultiPaxosAcceptor(i, replicatedLog, store);
+		membership = new Membership(cfg.quorum, pc, cfg.initialMembers, cfg.pipelineWindow);
+		stateMachine = new ReplicatedStateMachine(this, replicatedLog, StateMachine.parse(cfg.stateMachine),
+				membership, cfg.compactionIntervalSlots);
+		snapshots = new SnapshotTransfer(this, cfg.stateMachine, cfg.snapshotChunkLongs, cfg.snapshotWindowChunks);
+		random = r;
+		elector = new LeaderElector(i, cfg.leaderLeaseMillis, cfg.electionBackoffMillis, random);
+		learner = new Learner(i, quorums);
+		if (cfg.fastPaxos) {
+			fastQuorum = QuorumSystem.fastQuorumSize(quorums, cfg.fastQuorumSize);
+		}
+		backoff = new RetryBackoff(cfg.retryBackoffBaseMillis, cfg.retryBackoffMaxMillis, random);
+		logBackoff = new RetryBackoff(cfg.retryBackoffBaseMillis, cfg.retryBackoffMaxMillis, random);
+		if (!cfg.multiPaxos) {
+			// in Multi-Paxos mode client proposals drive the rounds
+			env.startSingleTimer(TICK_KEY, new FirstTick(), Duration.ofMillis(((1 + random.nextInt(9)) * 100)));
+			if (cfg.leaderElection) {
+				env.startPeriodicTimer(ELECTION_TICK_KEY, ELECTION_TICK,
+						Duration.ofMillis(cfg.heartbeatIntervalMillis));
+			}
+		}
+		this.id = i;
 		this.name = n;
-		actorRefToNameMap.put(getSelf(), name);
-		msgLog.debug("Created " + this);
+		this.participantCount = pc;
+		if (cfg.broadcastFanout > 0 && pc - 1 > cfg.broadcastFanout) {
+			relays = new RelayTree(pc, cfg.broadcastFanout, cfg.leaderLeaseMillis, env.currentTimeMillis());
+			aggregation = new AcceptAggregation(this, i, pc, cfg.broadcastFanout, cfg.relayTimeoutMillis);
+			reissueNanos = (RelayTree.levelsBelow(0, cfg.broadcastFanout, pc) + 1) * cfg.relayTimeoutMillis
+					* 1_000_000L;
+		}
+		msgLog.debug("Created {}", this);
 	}
 
-	@Override
-	public void preStart() {
-		msgLog.debug("Starting " + this);
+	/**
+	 * Recovers acceptor state, before the first message is processed.
+	 */
+	void preStart() {
+		msgLog.debug("Starting {}", this);
+		long start = env.currentTimeMillis();
+		store.recover(recoveryVisitor());
+		if (propResponded.propNumOfLastPrepReqResd != Ballot.NONE || replicatedLog.highestSlot() >= 0) {
+			msgLog.info("{} recovered acceptor state in {} ms: promised {}, log up to slot {}", this,
+					env.currentTimeMillis() - start, Ballot.toString(propResponded.propNumOfLastPrepReqResd),
+					replicatedLog.highestSlot());
+		}
 	}
 
-	@Override
-	public void preRestart(Throwable reason, Optional<Object> message) {
-		msgLog.error(reason, "Restarting due to [{}] when processing [{}]", reason.getMessage(),
-				message.isPresent() ? message.get() : "");
+	/**
+	 * @return AcceptorStore.StateVisitor Puts stored state back in place
+	 */
+	AcceptorStore.StateVisitor recoveryVisitor() {
+		return new AcceptorStore.StateVisitor() {
+
+			public void promised(long pn) {
+				propResponded.propNumOfLastPrepReqResd = pn;
+			}
+
+			public void accepted(long pn, long value) {
+				propResponded.acceptedProposalNumber = pn;
+				propResponded.acceptedProposalValue = (int) value;
+			}
+
+			public void logPromised(long pn) {
+				logAcceptor.recoverPromise(pn);
+			}
+
+			public void logAccepted(long slot, long pn, long[] batch) {
+				logAcceptor.recoverAccept(slot, pn, batch);
+			}
+
+			public void logSnapshot(long slot, long commands) {
+				replicatedLog.installSnapshot(slot, commands);
+				stateMachine.restore(slot, commands);
+			}
+
+			public void logSnapshotData(long[] part) {
+				stateMachine.restoreData(part);
+			}
+
+		};
 	}
 
-	public String toString() {
-		return name;
+	void postStop() {
+		store.close();
 	}
 
-	private long prepReqResponseDelay() {
-		int i = random.nextInt(11);
-		if (i == 0) {
-			i++;
+	/**
+	 * Writes complete acceptor state, used for snapshots of the store. Applied
+	 * slots go in as the state machine, only those after them one by one.
+	 */
+	void writeAcceptorState(AcceptorStore.StateVisitor visitor) {
+		if (propResponded.propNumOfLastPrepReqResd != Ballot.NONE) {
+			visitor.promised(propResponded.propNumOfLastPrepReqResd);
+		}
+		if (propResponded.acceptedProposalNumber != Ballot.NONE) {
+			visitor.accepted(propResponded.acceptedProposalNumber, propResponded.acceptedProposalValue);
+		}
+		if (logAcceptor.promisedBallot() != Ballot.NONE) {
+			visitor.logPromised(logAcceptor.promisedBallot());
+		}
+		long applied = stateMachine.applied();
+		if (applied != ReplicatedLog.NO_SLOT) {
+			visitor.logSnapshot(applied, stateMachine.appliedCommands());
+			long[] state = stateMachine.snapshot();
+			for (int from = 0; from < state.length; from += cfg.snapshotChunkLongs) {
+				visitor.logSnapshotData(
+						Arrays.copyOfRange(state, from, Math.min(state.length, from + cfg.snapshotChunkLongs)));
+			}
+		}
+		for (long s = applied + 1; s <= replicatedLog.highestSlot(); s++) {
+			long ballot = replicatedLog.acceptedBallot(s);
+			if (ballot != Ballot.NONE) {
+				visitor.logAccepted(s, ballot, replicatedLog.batch(s));
+			}
 		}
-		return i * 100;
+	}
+
+	public String toString() {
+		return name;
 	}
 
 	private Protocol.PrepareResponse respond(Protocol.PrepareRequest prepReq) {
 		Protocol.PrepareResponse response = new Protocol.PrepareResponse();
-		if (propResponded.propNumOfLastPrepReqResd < prepReq.proposalNumber) {
-			if (propResponded.propNumOfLastPrepReqResd == NO_PROPOSAL_ACCEPTED_YET) {
+		if (propResponded.propNumOfLastPrepReqResd < prepReq.ballot) {
+			if (propResponded.propNumOfLastPrepReqResd == Ballot.NONE) {
 				response.setState(PrepareResponseState.NONE_PROMISED_OR_ACCEPTED);
-			} else if (propResponded.propNumOfLastPrepReqResd > NO_PROPOSAL_ACCEPTED_YET) {
+			} else if (propResponded.propNumOfLastPrepReqResd > Ballot.NONE) {
 				response.setState(PrepareResponseState.PROMISED_NONE_ACCEPTED);
 			}
-			propResponded.propNumOfLastPrepReqResd = prepReq.proposalNumber;
-			response.setLastPreparedRequestProposalNo(prepReq.proposalNumber);
+			propResponded.propNumOfLastPrepReqResd = prepReq.ballot;
+			store.promised(prepReq.ballot);
+			response.setAcceptorId(id);
+			response.setLastPreparedRequestProposalNo(prepReq.ballot);
+			if (propResponded.acceptedProposalNumber != Ballot.NONE) {
+				response.setLastAcceptedProposal(propResponded.acceptedProposalNumber);
+				response.setLastAcceptedProposalValue(propResponded.acceptedProposalValue);
+			}
 		}
 		// else we ignore, already set to REJECTED
+		return response;
+	}
 
-		// artificial delay
-		Object globalC = PaxosMain.getGlocalCommon();
-		synchronized (globalC) {
-			try {
-				globalC.wait(prepReqResponseDelay());
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+	private void promiseOwnProposal(long ballot) {
+		if (propResponded.propNumOfLastPrepReqResd < ballot) {
+			propResponded.propNumOfLastPrepReqResd = ballot;
+			store.promised(ballot);
 		}
+	}
 
-		return response;
+	/**
+	 * Accepts the value unless a higher ballot was promised or accepted
+	 * already. Accepting promises the ballot too, durably: a lower one must
+	 * not replace the value later.
+	 */
+	private boolean accept(long ballot, int value) {
+		if (ballot < propResponded.propNumOfLastPrepReqResd || ballot < propResponded.acceptedProposalNumber) {
+			return false;
+		}
+		promiseOwnProposal(ballot);
+		propResponded.acceptedProposalNumber = ballot;
+		propResponded.acceptedProposalValue = value;
+		store.accepted(ballot, value);
+		return true;
+	}
+
+	private boolean clientValues() {
+		return cfg.clientValues || cfg.fastPaxos;
+	}
+
+	private void clientProposed(int value) {
+		if (clientValue != PROPOSAL_VALUE_NOT_APPLICABLE) {
+			return;
+		}
+		clientValue = value;
+		if (cfg.fastPaxos) {
+			acceptClientValue();
+		}
+		propCirculated.clientValueArrived(this);
+	}
+
+	/**
+	 * The coordinator of a fast round lets acceptors pick the value; from now
+	 * on a client's value is accepted as soon as there is one.
+	 */
+	private boolean acceptAny(long ballot) {
+		if (ballot < propResponded.propNumOfLastPrepReqResd || ballot < propResponded.acceptedProposalNumber) {
+			return false;
+		}
+		promiseOwnProposal(ballot);
+		propResponded.anyBallot = ballot;
+		acceptClientValue();
+		return true;
+	}
+
+	/**
+	 * Accepts the client's value in the current fast round, at most once, and
+	 * notifies the coordinator of the round.
+	 */
+	private void acceptClientValue() {
+		long ballot = propResponded.anyBallot;
+		if (ballot == Ballot.NONE || clientValue == PROPOSAL_VALUE_NOT_APPLICABLE
+				|| propResponded.acceptedProposalNumber >= ballot || !accept(ballot, clientValue)) {
+			return;
+		}
+		Protocol.Accepted acc = new Protocol.Accepted(ballot, clientValue, id);
+		int coordinator = Ballot.participant(ballot);
+		if (coordinator == id) {
+			propCirculated.trackAccepted(acc, learner);
+		} else {
+			send(env.participant(coordinator), acc);
+		}
 	}
 
-	private Protocol.AcceptResponse respond(Protocol.AcceptRequest accpReq, ActorRef proposer) {
-		Protocol.AcceptResponse resp = null;
-		if (accpReq.proposalNumber >= propResponded.propNumOfLastPrepReqResd) {
-			resp = new Protocol.AcceptResponse();
-			propResponded.acceptedProposalNumber = accpReq.proposalNumber;
-			propResponded.acceptedProposalValue = accpReq.proposalValue;
+	/**
+	 * Sends the response after an artificial delay drawn from the configured
+	 * distribution. The delay is a scheduled send rather than a sleep, so the
+	 * participant keeps processing other messages and no dispatcher thread is
+	 * held while the response is pending.
+	 */
+	private void respondWithDelay(Object to, Object resp) {
+		if (store.needsSync()) {
+			defer(new DeferredSend(to, resp, true));
+			return;
+		}
+		long delay = cfg.prepareResponseDelay.nextDelayMillis(random);
+		if (delay > 0) {
+			env.sendLater(to, resp, delay);
+		} else {
+			env.send(to, resp);
+		}
+	}
+
+	private Protocol.Accepted respond(Protocol.AcceptRequest accpReq, Object proposer) {
+		Protocol.Accepted resp = null;
+		if (accept(accpReq.ballot, accpReq.proposalValue)) {
+			resp = lastAccepted;
+			if (resp == null || resp.ballot != accpReq.ballot || resp.value != accpReq.proposalValue) {
+				resp = lastAccepted = new Protocol.Accepted(accpReq.ballot, accpReq.proposalValue, id);
+			}
 			// propResponded.proposer = proposer;
 		}
-		// else it has responded to another Prepare Request which has number
-		// higher than this Accept Request proposal number.
+		// else it has responded to another Prepare Request, or accepted
+		// another Accept Request, which has number higher than this Accept
+		// Request proposal number.
 		return resp;
 	}
 
+	private Protocol.Nack nack(long rejected, long competing, boolean replicatedLog) {
+		Protocol.Nack n = lastNack;
+		if (n == null || n.rejectedBallot != rejected || n.competingBallot != competing
+				|| n.replicatedLog != replicatedLog) {
+			n = lastNack = new Protocol.Nack(rejected, competing, replicatedLog);
+		}
+		return n;
+	}
+
 	/**
 	 * @param req
 	 * @return long Timestamp when issuing of requests to all participants is complete
 	 */
-	private synchronized long issueRequests(Protocol.Request req) {
-		List<ActorRef> participants = PaxosMain.getParticipants();
-		if (participants != null && !participants.isEmpty()) {
-			for (ActorRef p : participants) {
-				if (p.compareTo(getSelf()) != 0) {
-					p.tell(req, getSelf());
+	long issueRequests(Protocol.Request req) {
+		if (store.needsSync()) {
+			defer(new DeferredSend(null, req, false));
+		} else {
+			broadcast(req);
+		}
+		return env.currentTimeMillis();
+	}
+
+	/**
+	 * To every other participant, straight or through the RelayTree.
+	 */
+	private void broadcast(Object msg) {
+		if (relays != null) {
+			relay(new Protocol.Relay(id, relays.nextRotation(id, env.currentTimeMillis()), msg));
+			scheduleRelayFlush(cfg.relayTimeoutMillis);
+			return;
+		}
+		Object[] ps = peers();
+		for (int i = 0; i < ps.length; i++) {
+			env.send(ps[i], msg);
+		}
+	}
+
+	private Object[] peers() {
+		List<?> participants = env.participants();
+		if (participants == null) {
+			return new Object[0];
+		}
+		if (peers == null || participants != peersFrom || participants.size() != peersFromSize) {
+			Object self = env.self();
+			List<Object> others = new ArrayList<Object>(participants.size());
+			for (int i = 0; i < participants.size(); i++) {
+				Object p = participants.get(i);
+				if (!p.equals(self)) {
+					others.add(p);
 				}
-				// else skip messages to self
 			}
+			peers = others.toArray();
+			peersFrom = participants;
+			peersFromSize = participants.size();
+		}
+		return peers;
+	}
+
+	/**
+	 * Passes a relayed broadcast on to our children in its tree; those which
+	 * are not known (yet) lose their subtree this time.
+	 */
+	private void relay(Protocol.Relay r) {
+		int fanout = cfg.broadcastFanout;
+		int first = RelayTree.firstChild(RelayTree.positionOf(id, r.root, r.rotation, participantCount), fanout);
+		for (int c = first; c < first + fanout && c < participantCount; c++) {
+			Object child = env.participant(RelayTree.idAt(c, r.root, r.rotation, participantCount));
+			if (child != null) {
+				env.send(child, r);
+			}
+		}
+	}
+
+	private void heardFrom(int acceptor) {
+		if (relays != null) {
+			relays.heardFrom(acceptor);
+		}
+	}
+
+	/**
+	 * @return Object Where to send to the participant, null if not known
+	 */
+	Object endpoint(int participant) {
+		return env.participant(participant);
+	}
+
+	/**
+	 * Gives the AcceptAggregation a chance to answer for slow subtrees, and
+	 * the log leader one to send stale accept requests again.
+	 */
+	void scheduleRelayFlush(long millis) {
+		if (!env.isTimerActive(RELAY_FLUSH_KEY)) {
+			env.startSingleTimer(RELAY_FLUSH_KEY, RELAY_FLUSH, Duration.ofMillis(millis));
+		}
+	}
+
+	/**
+	 * @return Object Who sent the message at hand; for a relayed broadcast the
+	 *         participant which broadcast it, not the one which passed it on
+	 */
+	private Object sender() {
+		return relayRoot != null ? relayRoot : env.sender();
+	}
+
+	/**
+	 * Sends the message as soon as the acceptor state it depends on is
+	 * durable.
+	 */
+	void send(Object to, Object msg) {
+		if (store.needsSync()) {
+			defer(new DeferredSend(to, msg, false));
+		} else {
+			env.send(to, msg);
+		}
+	}
+
+	/**
+	 * A message waiting for the store to sync; 'to' is null for a broadcast.
+	 */
+	private static final class DeferredSend {
+
+		private final Object to;
+		private final Object msg;
+		private final boolean delayed;
+
+		private DeferredSend(Object t, Object m, boolean d) {
+			to = t;
+			msg = m;
+			delayed = d;
+		}
+
+	}
+
+	/**
+	 * The sync is not done right away. SyncStore goes to the back of the
+	 * mailbox, so requests which are already queued get processed first and
+	 * their writes share the same sync (group commit).
+	 */
+	private void defer(DeferredSend ds) {
+		deferred.add(ds);
+		if (!syncScheduled) {
+			syncScheduled = true;
+			env.tellSelf(SYNC_STORE);
+		}
+	}
+
+	private void syncStore() {
+		syncScheduled = false;
+		store.sync();
+		for (DeferredSend ds : deferred) {
+			if (ds.to == null) {
+				broadcast((Protocol.Request) ds.msg);
+			} else if (ds.delayed) {
+				respondWithDelay(ds.to, ds.msg);
+			} else {
+				env.send(ds.to, ds.msg);
+			}
+		}
+		deferred.clear();
+		if (store.snapshotDue()) {
+			store.snapshot(this::writeAcceptorState);
 		}
-		return System.currentTimeMillis();
 	}
 	
-	private String getName(ActorRef arf) {
-		String name = actorRefToNameMap.get(arf);
-		if (name == null) {
-			msgLog.error("Could not fine name for: " + arf);
-			name = arf.toString();
+	/**
+	 * With leader election only the distinguished proposer starts rounds,
+	 * otherwise every participant does. Nobody does once the value is learned.
+	 */
+	private boolean mayPropose() {
+		return !learner.isDecided() && (!cfg.leaderElection || elector.isLeader());
+	}
+
+	private void issueHeartbeat() {
+		Protocol.Heartbeat hb = lastHeartbeat;
+		if (hb == null || hb.term != elector.term()) {
+			hb = lastHeartbeat = new Protocol.Heartbeat(elector.term(), id);
 		}
-		return name;
+		broadcast(hb);
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see akka.actor.AbstractActor#createReceive()
+	private boolean isLogLeader() {
+		return id == logLeader;
+	}
+
+	private MultiPaxosProposer logProposer() {
+		if (logProposer == null) {
+			logProposer = new MultiPaxosProposer(this, id, logAcceptor, replicatedLog, membership,
+					cfg.pipelineWindow, new CommandBatcher(cfg.batchMaxSize, cfg.batchLingerMillis));
+		}
+		return logProposer;
+	}
+
+	void multiPaxosLeaderElected(long ballot) {
+		logBackoff.reset();
+		stateMachine.leaderElected(logProposer.nextSlot());
+		msgLog.info("{} leads the replicated log with ballot {} from slot {}", this, Ballot.toString(ballot),
+				replicatedLog.commitIndex() + 1);
+	}
+
+	void multiPaxosLeadershipLost() {
+		stateMachine.leadershipLost();
+	}
+
+	void batchProposed(long slot, int commands) {
+		stateMachine.batchProposed(slot, commands);
+	}
+
+	void logCommitted() {
+		stateMachine.applyCommitted();
+	}
+
+	/**
+	 * A membership change got applied, effective from the given slot. The
+	 * leader runs phase 1 again once the state machine is done applying.
 	 */
-	@Override
-	public Receive createReceive() {
-		return receiveBuilder().match(Protocol.PrepareRequest.class, prepReq -> {
-			msgLog.debug("       Received " + prepReq + " by " + this + " from " + getName(getSender()));
-			Protocol.PrepareResponse resp = respond(prepReq);
-			if (resp != null) {
-				getSender().tell(resp, getSelf());
+	void membershipChanged(long fromSlot) {
+		msgLog.info("{} has members {} from slot {}", this, membership.members(fromSlot), fromSlot);
+		if (logProposer != null && logProposer.reconfigured()) {
+			env.tellSelf(PREPARE_MEMBERS);
+		}
+	}
+
+	/**
+	 * Accepts a command for the log unless it is a membership change which
+	 * can not be applied.
+	 */
+	private boolean isValidCommand(long command) {
+		if (Membership.isChange(command)) {
+			try {
+				membership.validate(command, id);
+			} catch (IllegalArgumentException e) {
+				msgLog.warning("{} rejects membership change: {}", this, e.getMessage());
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Phase 1 found slots beyond our commit index compacted by the acceptor,
+	 * its snapshot has what was decided there.
+	 */
+	void multiPaxosBehind(int acceptorId) {
+		Object holder = env.participant(acceptorId);
+		msgLog.info("{} is behind the snapshot of participant {} at commit index {}", this, acceptorId,
+				replicatedLog.commitIndex());
+		if (holder != null) {
+			snapshots.request(holder);
+		}
+	}
+
+	/**
+	 * A snapshot transfer is complete, the state machine replaces ours unless
+	 * we got past it in the meantime.
+	 */
+	void snapshotReceived(long slot, long commands, ReplicatedStateMachine.Loader loaded) {
+		if (slot <= stateMachine.applied()) {
+			return;
+		}
+		replicatedLog.installSnapshot(slot, commands);
+		stateMachine.install(loaded, slot, commands);
+		msgLog.info("{} installed a snapshot up to slot {}", this, slot);
+		if (logProposer != null) {
+			logProposer.snapshotInstalled();
+		}
+	}
+
+	/**
+	 * Commands are waiting for their batch to fill up; make sure the proposer
+	 * gets a chance to send them once they have lingered long enough.
+	 */
+	void scheduleBatchLinger(long nanos) {
+		if (!env.isTimerActive(BATCH_LINGER_KEY)) {
+			env.startSingleTimer(BATCH_LINGER_KEY, BATCH_LINGER, Duration.ofNanos(nanos));
+		}
+	}
+
+	private void forwardToLogLeader(Object msg) {
+		Object leader = env.participant(logLeader);
+		if (leader != null) {
+			env.forward(leader, msg);
+		} else {
+			msgLog.warning("{} dropped {}, log leader {} is not known yet", this, msg, logLeader);
+		}
+	}
+
+	long nanoTime() {
+		return env.nanoTime();
+	}
+
+	/**
+	 * @return Learner What this participant learned about the chosen value
+	 */
+	Learner learner() {
+		return learner;
+	}
+
+	ReplicatedLog replicatedLog() {
+		return replicatedLog;
+	}
+
+	private String getName(Object endpoint) {
+		return env.nameOf(endpoint);
+	}
+
+	/**
+	 * @return Receive Behavior for every message a participant may get, from
+	 *         others or its own timers
+	 */
+	Receive createReceive() {
+		Receive receive = ReceiveBuilder.create().match(Protocol.PrepareRequest.class, prepReq -> {
+			if (msgLog.isDebugEnabled()) {
+				msgLog.debug("       Received {} by {} from {}", prepReq, this, getName(sender()));
+			}
+			if (propResponded.propNumOfLastPrepReqResd < prepReq.ballot) {
+				respondWithDelay(sender(), respond(prepReq));
+			} else if (prepReq.ballot == propResponded.anyBallot) {
+				// overtaken by the AcceptAny of the same round, phase 1 is over
+			} else {
+				respondWithDelay(sender(),
+						nack(prepReq.ballot, propResponded.propNumOfLastPrepReqResd, false));
 			}
-			// else we do nothing
 		}).match(Protocol.AcceptRequest.class, accpReq -> {
-			msgLog.debug("       Received " + accpReq + " by " + this + " from " + getName(getSender()));
-			Protocol.AcceptResponse resp = respond(accpReq, getSender());
+			if (msgLog.isDebugEnabled()) {
+				msgLog.debug("       Received {} by {} from {}", accpReq, this, getName(sender()));
+			}
+			Protocol.Accepted resp = respond(accpReq, sender());
 			if (resp != null) {
-				getSender().tell(resp, getSelf());
+				send(sender(), resp);
+			} else {
+				send(sender(), nack(accpReq.ballot, propResponded.propNumOfLastPrepReqResd, false));
 			}
-			// else we do nothing
 		}).match(Protocol.PrepareResponse.class, prepResp -> {
-			msgLog.debug(">->->- Received " + prepResp + " by " + this + " from " + getName(getSender()));
-			propCirculated.trackPrepareResponse(prepResp);
-		}).match(Protocol.AcceptResponse.class, accpResp -> {
-			msgLog.debug(">>->>- Received " + accpResp + " by " + this + " from " + getName(getSender()));
-			propCirculated.trackAcceptResponse();
+			if (msgLog.isDebugEnabled()) {
+				msgLog.debug(">->->- Received {} by {} from {}", prepResp, this, getName(sender()));
+			}
+			heardFrom(prepResp.getAcceptorId());
+			if (propCirculated.trackPrepareResponse(prepResp)) {
+				backoff.reset();
+			}
+		}).match(Protocol.Accepted.class, acc -> {
+			if (msgLog.isDebugEnabled()) {
+				msgLog.debug(">>->>- Received {} by {} from {}", acc, this, getName(sender()));
+			}
+			heardFrom(acc.acceptorId);
+			propCirculated.trackAccepted(acc, learner);
+		}).match(Protocol.Decided.class, dec -> {
+			if (msgLog.isDebugEnabled()) {
+				msgLog.debug("====== Received {} by {} from {}", dec, this, getName(sender()));
+			}
+			if (learner.learn(dec.ballot, dec.value)) {
+				msgLog.info("{} learned value {} chosen under ballot {}", this, dec.value, Ballot.toString(dec.ballot));
+			}
+		}).match(Protocol.Nack.class, nack -> {
+			if (msgLog.isDebugEnabled()) {
+				msgLog.debug("<-<-<- Received {} by {} from {}", nack, this, getName(sender()));
+			}
+			metrics.rejected();
+			if (nack.replicatedLog) {
+				if (logProposer != null && logProposer.rejected(nack) && cfg.nackRetry) {
+					env.startSingleTimer(LOG_RETRY_KEY, LOG_RETRY,
+							Duration.ofMillis(logBackoff.nextDelayMillis(0)));
+				}
+			} else if (propCirculated.abort(nack)) {
+				metrics.preempted();
+				if (cfg.nackRetry) {
+					env.startSingleTimer(RETRY_KEY, RETRY, Duration.ofMillis(
+							backoff.nextDelayMillis(env.currentTimeMillis() - propCirculated.lastPrepareRequest())));
+				}
+			}
+			// else Tick will start the next round
+		}).match(Retry.class, message -> {
+			if (mayPropose()) {
+				msgLog.debug("Retrying rejected proposal ({}) by {}", backoff.attempts(), this);
+				propCirculated.circulateNewPrepareProposal(this);
+			}
+		}).match(LogRetry.class, message -> {
+			if (logProposer != null) {
+				logProposer.retry();
+			}
+		}).match(PrepareMembers.class, message -> {
+			if (logProposer != null) {
+				logProposer.prepareMembers();
+			}
 		}).match(FirstTick.class, message -> {
-			msgLog.debug("Circulating prepare request by " + this);
-			// do something useful here
-			propCirculated.circulateNewPrepareProposal(this);
-			getTimers().startPeriodicTimer(TICK_KEY, new Tick(), Duration.ofSeconds(1));
+			if (mayPropose()) {
+				msgLog.debug("Circulating prepare request by {}", this);
+				// do something useful here
+				propCirculated.circulateNewPrepareProposal(this);
+			}
+			// else the distinguished proposer will do it
+			env.startPeriodicTimer(TICK_KEY, TICK, Duration.ofSeconds(1));
 		}).match(Tick.class, message -> {
 			long lastReq = propCirculated.lastPrepareRequest();
 			long howMuchToWait = cfg.waitBeforeNextRequest;
-			if (howMuchToWait > 0 && (lastReq < System.currentTimeMillis() - howMuchToWait)) {
+			if (cfg.nackRetry && howMuchToWait > 0) {
+				// rejected rounds are retried on Nack, here we only restart a round
+				// which neither went through nor got rejected, its messages got lost
+				howMuchToWait = Math.max(howMuchToWait, cfg.retryBackoffMaxMillis);
+			}
+			if (mayPropose() && howMuchToWait > 0 && (lastReq < env.currentTimeMillis() - howMuchToWait)
+					&& !env.isTimerActive(RETRY_KEY) && !propCirculated.awaitsClient()) {
 				// Last prepare request by this Participant was way back,
 				// consensus should have been established by now. So try new proposal afresh.
-				msgLog.debug(
-						"Circulating new prepare request (" + propCirculated.prepReqIssuedSoFar() + ") by " + this);
+				msgLog.debug("Circulating new prepare request ({}) by {}", propCirculated.prepReqIssuedSoFar(), this);
 				// do something useful here - hold on for now from initiating multiple proposals
 				// by the same participant
 				propCirculated.circulateNewPrepareProposal(this);
 			}
 			// else we need to give time for current requests to make progress
+		}).match(ElectionTick.class, message -> {
+			if (elector.isLeader()) {
+				issueHeartbeat();
+			} else if (elector.onTick(env.currentTimeMillis())) {
+				msgLog.info("{} is the distinguished proposer for term {}", this, elector.term());
+				issueHeartbeat();
+				if (mayPropose()) {
+					propCirculated.circulateNewPrepareProposal(this);
+				}
+			}
+		}).match(Protocol.Heartbeat.class, hb -> {
+			if (elector.onHeartbeat(hb.term, hb.leaderId, env.currentTimeMillis())) {
+				msgLog.info("{} steps down, participant {} leads term {}", this, hb.leaderId, hb.term);
+			}
+		}).match(Protocol.AcceptAny.class, any -> {
+			if (msgLog.isDebugEnabled()) {
+				msgLog.debug("       Received {} by {} from {}", any, this, getName(sender()));
+			}
+			if (!acceptAny(any.ballot)) {
+				send(sender(), nack(any.ballot, propResponded.propNumOfLastPrepReqResd, false));
+			}
+		}).match(Protocol.Propose.class, prop -> {
+			if (!cfg.multiPaxos && clientValues()) {
+				clientProposed((int) prop.value);
+			} else if (isLogLeader()) {
+				if (isValidCommand(prop.value)) {
+					stateMachine.submitted(null, 0);
+					logProposer().propose(prop.value);
+				}
+			} else {
+				forwardToLogLeader(prop);
+			}
+		}).match(Protocol.Submit.class, sub -> {
+			if (isLogLeader() && !isValidCommand(sub.command)) {
+				send(sender(), new Protocol.Reply(sub.requestId, 0, false));
+			} else if (isLogLeader()) {
+				stateMachine.submitted(sender(), sub.requestId);
+				logProposer().propose(sub.command);
+			} else {
+				forwardToLogLeader(sub);
+			}
+		}).match(Protocol.Read.class, read -> {
+			if (isLogLeader()) {
+				stateMachine.read(sender(), read.requestId, read.query, logProposer());
+			} else {
+				forwardToLogLeader(read);
+			}
+		}).match(Protocol.SubscribeCommits.class, sub -> {
+			if (isLogLeader()) {
+				logProposer().subscribe(sender());
+			} else {
+				forwardToLogLeader(sub);
+			}
+		}).match(Protocol.SlotPrepareRequest.class, prepReq -> {
+			Protocol.SlotPrepareResponse resp = logAcceptor.respond(prepReq);
+			if (resp != null) {
+				if (logProposer != null && prepReq.ballot > logProposer.ballot()) {
+					logProposer.preempted();
+				}
+				send(sender(), resp);
+			} else {
+				send(sender(), nack(prepReq.ballot, logAcceptor.promisedBallot(), true));
+			}
+		}).match(Protocol.SlotPrepareResponse.class, prepResp -> {
+			heardFrom(prepResp.acceptorId);
+			if (logProposer != null) {
+				logProposer.trackPromise(prepResp);
+			}
+		}).match(Protocol.BatchAcceptRequest.class, accpReq -> {
+			Protocol.SlotAcceptResponse resp = logAcceptor.respond(accpReq);
+			if (resp != null) {
+				if (logProposer != null && accpReq.ballot > logProposer.ballot()) {
+					logProposer.preempted();
+				}
+				if (relaying != null && aggregation != null) {
+					aggregation.relayed(relaying, accpReq.ballot, accpReq.slot, true, env.currentTimeMillis());
+				} else {
+					send(sender(), resp);
+				}
+				// the leader's commit index came along
+				stateMachine.applyCommitted();
+				if (accpReq.commitIndex - replicatedLog.commitIndex() > cfg.catchUpLagSlots) {
+					// missed slots will not come again, the leader may have
+					// compacted them already
+					snapshots.request(sender());
+				}
+			} else {
+				send(sender(), nack(accpReq.ballot, logAcceptor.promisedBallot(), true));
+				if (relaying != null && aggregation != null) {
+					// our subtree may still have accepted
+					aggregation.relayed(relaying, accpReq.ballot, accpReq.slot, false, env.currentTimeMillis());
+				}
+			}
+		}).match(Protocol.SlotAcceptResponse.class, accpResp -> {
+			heardFrom(accpResp.acceptorId);
+			if (logProposer != null) {
+				logProposer.trackAcceptResponse(accpResp);
+			}
+		}).match(Protocol.SlotAcceptResponses.class, accpResps -> {
+			if (Ballot.participant(accpResps.ballot) == id) {
+				if (relays != null) {
+					relays.heardFrom(accpResps.acceptors);
+				}
+				if (logProposer != null) {
+					logProposer.trackAcceptResponses(accpResps);
+				}
+			} else if (aggregation != null) {
+				aggregation.received(accpResps, env.currentTimeMillis());
+			}
+		}).match(RelayFlush.class, message -> {
+			if (aggregation == null) {
+				return;
+			}
+			boolean waiting = aggregation.flush(env.currentTimeMillis());
+			if (logProposer != null && logProposer.reissueStale(reissueNanos)) {
+				waiting = true;
+			}
+			if (waiting) {
+				scheduleRelayFlush(cfg.relayTimeoutMillis);
+			}
+		}).match(Protocol.SnapshotRequest.class, req -> {
+			snapshots.requested(sender(), req.transferId, stateMachine.applied(),
+					stateMachine.appliedCommands(), stateMachine.snapshot());
+		}).match(Protocol.SnapshotChunk.class, chunk -> {
+			snapshots.received(sender(), chunk);
+		}).match(Protocol.SnapshotAck.class, ack -> {
+			snapshots.acked(sender(), ack);
+		}).match(SyncStore.class, message -> {
+			syncStore();
+		}).match(BatchLinger.class, message -> {
+			if (logProposer != null) {
+				logProposer.pump();
+			}
+		}).match(Protocol.Relay.class, r -> {
+			relay(r);
+			relayRoot = env.participant(r.root);
+			try {
+				if (relayRoot != null && behavior.isDefinedAt(r.message)) {
+					relaying = r;
+					behavior.apply(r.message);
+				}
+			} finally {
+				relaying = null;
+				relayRoot = null;
+			}
 		}).build();
+		behavior = receive.onMessage();
+		return receive;
 	}
 
 }
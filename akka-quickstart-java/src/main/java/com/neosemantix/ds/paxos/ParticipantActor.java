@@ -0,0 +1,181 @@
+package com.neosemantix.ds.paxos;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+/**
+ * Runs a Participant as an Akka actor. Messages of the mailbox go to the
+ * participant's receive, its sends become tells and its timers Akka timers.
+ */
+class ParticipantActor extends AbstractActorWithTimers {
+
+	private static Config cfg = Config.getInstance();
+
+	private static Metrics metrics = Metrics.getInstance();
+
+	private final LoggingAdapter msgLog = Logging.getLogger(getContext().getSystem(), this);
+	private final int id;
+	private final Random random;
+	private final long startedAt;
+	private final Participant participant;
+
+	ParticipantActor(int pc, int i, String n) {
+		id = i;
+		random = cfg.randomSeed == 0 ? new Random() : new Random(cfg.randomSeed + i);
+		startedAt = System.currentTimeMillis();
+		participant = new Participant(pc, i, n, new AkkaEnvironment(), random);
+	}
+
+	@Override
+	public void preStart() {
+		participant.preStart();
+	}
+
+	@Override
+	public void postStop() {
+		participant.postStop();
+	}
+
+	@Override
+	public void preRestart(Throwable reason, Optional<Object> message) {
+		msgLog.error(reason, "Restarting due to [{}] when processing [{}]", reason.getMessage(),
+				message.isPresent() ? message.get() : "");
+	}
+
+	@Override
+	public Receive createReceive() {
+		return participant.createReceive();
+	}
+
+	@Override
+	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg) {
+		metrics.received(msg);
+		super.aroundReceive(receive, msg);
+	}
+
+	public String toString() {
+		return participant.toString();
+	}
+
+	/**
+	 * Participant's view of this actor.
+	 */
+	private final class AkkaEnvironment implements Environment {
+
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+
+		public Object self() {
+			return getSelf();
+		}
+
+		public Object sender() {
+			return getSender();
+		}
+
+		public List<?> participants() {
+			return PaxosMain.getParticipants();
+		}
+
+		public Object participant(int id) {
+			return PaxosMain.getParticipant(id);
+		}
+
+		public void send(Object to, Object msg) {
+			transmit((ActorRef) to, msg, 0);
+			PaxosMain.messagesSent(1);
+			metrics.sent(msg);
+		}
+
+		public void sendLater(Object to, Object msg, long delayMillis) {
+			transmit((ActorRef) to, msg, delayMillis);
+			PaxosMain.messagesSent(1);
+			metrics.sent(msg);
+		}
+
+		/**
+		 * Messages to other participants go through Config.faults, which may
+		 * lose, duplicate or delay them further.
+		 */
+		private void transmit(ActorRef to, Object msg, long delayMillis) {
+			FaultProfile faults = cfg.faults;
+			int toId = faults.isNone() ? -1 : PaxosMain.getParticipantId(to);
+			if (toId < 0) {
+				tellAfter(to, msg, delayMillis);
+				return;
+			}
+			long departs = System.currentTimeMillis() - startedAt + delayMillis;
+			int copies = faults.copies(id, toId, departs, random);
+			for (int c = 0; c < copies; c++) {
+				tellAfter(to, msg, delayMillis + faults.latencyMillis(id, toId, random, null));
+			}
+		}
+
+		private void tellAfter(ActorRef to, Object msg, long delayMillis) {
+			if (delayMillis > 0) {
+				getContext().getSystem().scheduler().scheduleOnce(Duration.ofMillis(delayMillis), to, msg,
+						getContext().dispatcher(), getSelf());
+			} else {
+				to.tell(msg, getSelf());
+			}
+		}
+
+		public void forward(Object to, Object msg) {
+			((ActorRef) to).forward(msg, getContext());
+		}
+
+		public void tellSelf(Object msg) {
+			getSelf().tell(msg, getSelf());
+		}
+
+		public void startSingleTimer(Object key, Object msg, Duration delay) {
+			getTimers().startSingleTimer(key, msg, delay);
+		}
+
+		public void startPeriodicTimer(Object key, Object msg, Duration interval) {
+			getTimers().startPeriodicTimer(key, msg, interval);
+		}
+
+		public boolean isTimerActive(Object key) {
+			return getTimers().isTimerActive(key);
+		}
+
+		public String nameOf(Object endpoint) {
+			// participants are named after themselves, see PaxosMain.startParticipants
+			return ((ActorRef) endpoint).path().name();
+		}
+
+		public LoggingAdapter log() {
+			return msgLog;
+		}
+
+		public void consensusReached(long ballot, int value, String report) {
+			String line = "==========================================================";
+			outToAllLoggers(line);
+			outToAllLoggers(report);
+			outToAllLoggers(line);
+			PaxosMain.consensusReached();
+		}
+
+		private void outToAllLoggers(String msg) {
+			System.out.println(msg);
+			msgLog.info(msg);
+		}
+
+	}
+
+}
@@ -1,7 +1,10 @@
 package com.neosemantix.ds.paxos;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
@@ -16,9 +19,11 @@ import akka.actor.ActorSystem;
  * 			learns about the final value which majority of Acceptors accept.)
  * 
  * In the current implementation, we are not going with any fixed subset of
- * distinguished Proposer or Learners. All are Proposers and Acceptors.
- * In other words, each Participant can propose and we need half of the 
- * participants - acceptors - to accept at least one proposal.
+ * distinguished Proposer or Learners. All are Proposers, Acceptors and
+ * Learners. In other words, each Participant can propose and we need half of
+ * the participants - acceptors - to accept at least one proposal. The
+ * proposer learns that from the Accepted notifications of the acceptors and
+ * tells everybody else with a Decided message.
  * 
  * @author umeshpatil
  *
@@ -26,37 +31,150 @@ import akka.actor.ActorSystem;
 public class PaxosMain {
 	
 	
-	private static List<ActorRef> participants;
+	// participants start on their dispatchers before the directory with their
+	// refs is published, volatile so they all see it once it is
+	private static volatile PeerDirectory peers = new PeerDirectory.Local(new ArrayList<ActorRef>());
 	
+	private static LongAdder messagesSent = new LongAdder();
 	
-	private static Object gc;
+	private static Runnable onConsensus = () -> {
+	};
 	
 
 	/**
 	 * 
-	 * @param args Right now command line arguments are ignored since inputs
-	 * 				are sourced from Config class.
+	 * @param args Settings like --num-participants=5 which override those of
+	 * 				Config, see Config.applyArgs.
 	 */
 	public static void main(String[] args) {
-		gc = new Object();
+		Config.applyArgs(args);
 		Config cfg = Config.getInstance();
 		final ActorSystem system = ActorSystem.create("Paxos");
-		participants = new ArrayList<ActorRef>();
-		for (int i=0; i< cfg.numParticipants; i++) {
-			participants.add(system.actorOf(Participant.props(cfg.numParticipants, "Participant_" + i)));
+		// once consensus is reached, let the learners hear about it and shut down
+		Runnable shutdown = () -> system.scheduler().scheduleOnce(Duration.ofSeconds(1), system::terminate,
+				system.dispatcher());
+		if (cfg.groups > 1) {
+			// a host reports each group's first consensus, rarely more than
+			// one host reports the same group
+			AtomicInteger reports = new AtomicInteger();
+			onConsensus(() -> {
+				if (reports.incrementAndGet() == cfg.groups) {
+					shutdown.run();
+				}
+			});
+			startGroupHosts(system, cfg.numParticipants, cfg.groups);
+		} else {
+			onConsensus(shutdown);
+			startParticipants(system, cfg.numParticipants);
 		}
 	}
-	
-	public static Object getGlocalCommon() {
-		return gc;
+
+	/**
+	 * Creates participants in the given actor system. Also used by benchmarks
+	 * which need to tune the actor system before participants get going.
+	 * 
+	 * @param system
+	 * @param count
+	 * @return List<ActorRef> Participants created
+	 */
+	public static List<ActorRef> startParticipants(ActorSystem system, int count) {
+		Metrics.getInstance().start(Config.getInstance());
+		List<ActorRef> ps = new ArrayList<ActorRef>();
+		for (int i=0; i< count; i++) {
+			ps.add(system.actorOf(Participant.props(count, i, "Participant_" + i), "Participant_" + i));
+		}
+		usePeerDirectory(new PeerDirectory.Local(ps));
+		return ps;
+	}
+
+	/**
+	 * Creates one GroupHost per node instead of one participant, each running
+	 * the node's participant of every group. Hosts take the participants'
+	 * names and places in the peer directory.
+	 * 
+	 * @param system
+	 * @param count
+	 * @param groups
+	 * @return List<ActorRef> Hosts created
+	 */
+	public static List<ActorRef> startGroupHosts(ActorSystem system, int count, int groups) {
+		Metrics.getInstance().start(Config.getInstance());
+		List<ActorRef> hosts = new ArrayList<ActorRef>();
+		for (int i = 0; i < count; i++) {
+			hosts.add(system.actorOf(GroupHost.props(count, i, groups), "Participant_" + i));
+		}
+		usePeerDirectory(new PeerDirectory.Local(hosts));
+		return hosts;
+	}
+
+	/**
+	 * Participants running in several JVMs discover each other through their
+	 * own directory instead of the one startParticipants builds. The directory
+	 * is published to participants already running, it must be safe to read
+	 * from several threads at once.
+	 * 
+	 * @param directory
+	 */
+	public static void usePeerDirectory(PeerDirectory directory) {
+		peers = directory;
 	}
 	
 	public static List<ActorRef> getParticipants() {
-		return participants;
+		return peers.participants();
+	}
+
+	/**
+	 * @param id
+	 * @return ActorRef null when the participant is not known (yet)
+	 */
+	public static ActorRef getParticipant(int id) {
+		return peers.participant(id);
+	}
+
+	/**
+	 * @param ref
+	 * @return int Id of the participant, -1 if ref is not a known participant
+	 */
+	public static int getParticipantId(ActorRef ref) {
+		return peers.idOf(ref);
+	}
+	
+	/**
+	 * Called when a proposer has learned that its value is chosen. The
+	 * simulation started by main ends shortly after; benchmarks which run
+	 * many simulations in one process hook in here.
+	 * 
+	 * @param r
+	 */
+	public static void onConsensus(Runnable r) {
+		onConsensus = r;
 	}
 	
 	public static void consensusReached() {
-		System.exit(0);
+		onConsensus.run();
+	}
+	
+	static void messagesSent(int count) {
+		messagesSent.add(count);
+	}
+	
+	/**
+	 * @return long Messages sent among participants so far
+	 */
+	public static long messagesSent() {
+		return messagesSent.sum();
+	}
+	
+	/**
+	 * @return long Envelopes group hosts sent each other, every one carrying
+	 * 				a batch of the messages counted by messagesSent
+	 */
+	public static long envelopesSent() {
+		return GroupHost.batchesSent();
+	}
+	
+	public static void resetMessagesSent() {
+		messagesSent.reset();
 	}
 
 }
@@ -0,0 +1,74 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import akka.actor.ActorRef;
+
+/**
+ * How participants find each other. In a single ActorSystem all participants
+ * are created up front and the directory never changes. When participants run
+ * in several JVMs, the directory is filled in as cluster members come up, so
+ * early on it may know only some of them.
+ *
+ * Participants read the directory on every message they send, concurrently
+ * with each other, so implementations hand out immutable snapshots and never
+ * lock on reads.
+ */
+public interface PeerDirectory {
+
+	/**
+	 * @return List<ActorRef> Participants known so far, including the caller
+	 */
+	List<ActorRef> participants();
+
+	/**
+	 * @param id
+	 * @return ActorRef Participant with the given id, null if not known yet
+	 */
+	ActorRef participant(int id);
+
+	/**
+	 * @param ref
+	 * @return int Id of the participant, -1 if ref is not a participant known
+	 *         so far, e.g. a client
+	 */
+	int idOf(ActorRef ref);
+
+	/**
+	 * Participants of a single ActorSystem, indexed by their id. Built once
+	 * when they are created and never changed.
+	 */
+	class Local implements PeerDirectory {
+
+		private final List<ActorRef> participants;
+		private final Map<ActorRef, Integer> ids;
+
+		public Local(List<ActorRef> ps) {
+			participants = Collections.unmodifiableList(new ArrayList<ActorRef>(ps));
+			Map<ActorRef, Integer> m = new HashMap<ActorRef, Integer>();
+			for (int i = 0; i < ps.size(); i++) {
+				m.put(ps.get(i), i);
+			}
+			ids = Collections.unmodifiableMap(m);
+		}
+
+		public List<ActorRef> participants() {
+			return participants;
+		}
+
+		public ActorRef participant(int id) {
+			return id >= 0 && id < participants.size() ? participants.get(id) : null;
+		}
+
+		public int idOf(ActorRef ref) {
+			Integer id = ids.get(ref);
+			return id != null ? id : -1;
+		}
+
+	}
+
+}
@@ -1,5 +1,8 @@
 package com.neosemantix.ds.paxos;
 
+import java.io.Serializable;
+import java.util.BitSet;
+
 /**
  * Basic communication protocol followed by participants of this simulation.
  * It defines various request and response objects used by participants to
@@ -10,23 +13,30 @@ package com.neosemantix.ds.paxos;
  */
 public class Protocol {
 	
-	public static class Request {
+	public static class Request implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 		
-		public final int proposalNumber;
+		/**
+		 * Proposal number, see Ballot for how it is composed.
+		 */
+		public final long ballot;
 		
-		public Request(int pn) {
-			proposalNumber = pn;
+		public Request(long b) {
+			ballot = b;
 		}
 		
 		public String toString()  {
-			return " PN=" + this.proposalNumber;
+			return " B=" + Ballot.toString(this.ballot);
 		}
 	}
 	
 	public static class PrepareRequest extends Request {
+
+		private static final long serialVersionUID = 1L;
 		
-		public PrepareRequest(int pn) {
-			super(pn);
+		public PrepareRequest(long b) {
+			super(b);
 		}
 		
 		public String toString() {
@@ -48,9 +58,8 @@ public class Protocol {
 	public enum PrepareResponseState {
 		
 		/**
-		 * When a participant is going to reject a prepare request.
-		 * Actually we never send that as a response, so it is only
-		 * hypothetical state; the default state Prepare Response is.
+		 * When a participant is going to reject a prepare request. It is only
+		 * the default state of a Prepare Response; rejections are sent as Nack.
 		 */
 		REJECTED,
 		
@@ -84,18 +93,21 @@ public class Protocol {
 		ACCEPTED;
 	}
 	
-	public static class PrepareResponse {
+	public static class PrepareResponse implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 		
 		private PrepareResponseState state;
-		private int lastPreparedRequestProposalNo;
-		private int lastAcceptedProposal;
+		private long lastPreparedRequestProposalNo;
+		private long lastAcceptedProposal;
 		private int lastAcceptedProposalValue;
+		private int acceptorId;
 		
 		public PrepareResponse() {
 			state = PrepareResponseState.REJECTED;
-			lastAcceptedProposal = Participant.NO_PROPOSAL_ACCEPTED_YET;
+			lastAcceptedProposal = Ballot.NONE;
 			lastAcceptedProposalValue = Participant.PROPOSAL_VALUE_NOT_APPLICABLE;
-			lastPreparedRequestProposalNo = Participant.NO_PROPOSAL_ACCEPTED_YET;
+			lastPreparedRequestProposalNo = Ballot.NONE;
 		}
 
 		public PrepareResponseState getState() {
@@ -106,7 +118,19 @@ public class Protocol {
 			this.state = state;
 		}
 
-		public int getLastPreparedRequestProposalNo() {
+		/**
+		 * @return int Id of the participant which responded, proposers need
+		 *         it to tell whether the responses make a quorum
+		 */
+		public int getAcceptorId() {
+			return acceptorId;
+		}
+
+		public void setAcceptorId(int acceptorId) {
+			this.acceptorId = acceptorId;
+		}
+
+		public long getLastPreparedRequestProposalNo() {
 			if (state == PrepareResponseState.PROMISED_NONE_ACCEPTED || state == PrepareResponseState.ACCEPTED) {
 				return lastPreparedRequestProposalNo;
 			} else {
@@ -114,7 +138,7 @@ public class Protocol {
 			}
 		}
 
-		public void setLastPreparedRequestProposalNo(int lastPreparedRequestProposalNo) {
+		public void setLastPreparedRequestProposalNo(long lastPreparedRequestProposalNo) {
 			if (state == PrepareResponseState.REJECTED || 
 					state == PrepareResponseState.NONE_PROMISED_OR_ACCEPTED || 
 							state == PrepareResponseState.PROMISED_NONE_ACCEPTED) {
@@ -125,7 +149,7 @@ public class Protocol {
 			}
 		}
 
-		public int getLastAcceptedProposal() {
+		public long getLastAcceptedProposal() {
 			if (state == PrepareResponseState.ACCEPTED) {
 				return lastAcceptedProposal;
 			} else {
@@ -133,7 +157,7 @@ public class Protocol {
 			}
 		}
 
-		public void setLastAcceptedProposal(int lastAcceptedProposal) {
+		public void setLastAcceptedProposal(long lastAcceptedProposal) {
 			if (state == PrepareResponseState.PROMISED_NONE_ACCEPTED || state == PrepareResponseState.ACCEPTED) {
 				this.lastAcceptedProposal = lastAcceptedProposal;
 				this.state = PrepareResponseState.ACCEPTED;
@@ -162,7 +186,7 @@ public class Protocol {
 
 		public String toString() {
 			StringBuffer sb = new StringBuffer();
-			sb.append("{PrepareResponse " + state);
+			sb.append("{PrepareResponse " + state + " Acceptor=" + acceptorId);
 			switch (this.state) {
 			
 			case REJECTED:
@@ -173,11 +197,11 @@ public class Protocol {
 				break;
 				
 			case PROMISED_NONE_ACCEPTED:
-				sb.append(" Last responded prepared request proposal number: " + lastPreparedRequestProposalNo);
+				sb.append(" Last responded prepared request proposal number: " + Ballot.toString(lastPreparedRequestProposalNo));
 				break;
 				
 			case ACCEPTED:
-				sb.append(" Last accepted proposal no.: " + lastAcceptedProposal + " Last accepted proposal value: " + lastAcceptedProposalValue);
+				sb.append(" Last accepted proposal no.: " + Ballot.toString(lastAcceptedProposal) + " Last accepted proposal value: " + lastAcceptedProposalValue);
 				break;
 			}
 			sb.append("}");
@@ -196,11 +220,13 @@ public class Protocol {
 	}
 	
 	public static class AcceptRequest extends Request {
+
+		private static final long serialVersionUID = 1L;
 		
 		public final int proposalValue;
 		
-		public AcceptRequest(int pn, int val) {
-			super(pn);
+		public AcceptRequest(long b, int val) {
+			super(b);
 			proposalValue = val;
 		}
 		
@@ -210,16 +236,544 @@ public class Protocol {
 		
 	}
 	
-	public static class AcceptResponse {
-		
-		public AcceptResponse() {
+	/**
+	 * Streamed by an acceptor to the learner of a ballot, i.e. its proposer,
+	 * for every accept request it accepts.
+	 */
+	public static class Accepted implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long ballot;
+		public final int value;
+		public final int acceptorId;
+
+		public Accepted(long b, int v, int a) {
 			// basically consent for the accept request
+			ballot = b;
+			value = v;
+			acceptorId = a;
 		}
-		
+
 		public String toString() {
-			return "AcceptResponse";
+			return "Accepted B=" + Ballot.toString(this.ballot) + " Value=" + this.value + " Acceptor="
+					+ this.acceptorId;
 		}
-		
+
+	}
+
+	/**
+	 * Broadcast by the learner which has seen a quorum of acceptors accept
+	 * the value.
+	 */
+	public static class Decided extends Request {
+
+		private static final long serialVersionUID = 1L;
+
+		public final int value;
+
+		public Decided(long b, int v) {
+			super(b);
+			value = v;
+		}
+
+		public String toString() {
+			return "Decided B=" + Ballot.toString(this.ballot) + " Value=" + this.value;
+		}
+
+	}
+
+	/**
+	 * Phase 2 of a Fast Paxos round, sent instead of an AcceptRequest when
+	 * phase 1 left the proposer free to pick any value: each acceptor accepts
+	 * the first value a client sends it (Propose) under this ballot and
+	 * streams Accepted to the proposer, see Config.fastPaxos.
+	 */
+	public static class AcceptAny extends Request {
+
+		private static final long serialVersionUID = 1L;
+
+		public AcceptAny(long b) {
+			super(b);
+		}
+
+		public String toString() {
+			return "AcceptAny" + super.toString();
+		}
+
+	}
+
+	/**
+	 * Sent instead of staying silent when a participant rejects a prepare or
+	 * accept request, single decree or Multi-Paxos alike, because it has
+	 * promised a higher ballot. The proposer can give up on the rejected round
+	 * right away and retry with a ballot above the competing one.
+	 */
+	public static class Nack implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long rejectedBallot;
+		public final long competingBallot;
+		// true when a replicated log request got rejected
+		public final boolean replicatedLog;
+
+		public Nack(long rejected, long competing, boolean rl) {
+			rejectedBallot = rejected;
+			competingBallot = competing;
+			replicatedLog = rl;
+		}
+
+		public String toString() {
+			return "Nack B=" + Ballot.toString(this.rejectedBallot) + " Competing="
+					+ Ballot.toString(this.competingBallot) + (this.replicatedLog ? " (log)" : "");
+		}
+
+	}
+
+	/**
+	 * Broadcast periodically by the distinguished proposer; it renews the
+	 * leader's lease with every receiver.
+	 */
+	public static class Heartbeat implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final int term;
+		public final int leaderId;
+
+		public Heartbeat(int t, int l) {
+			term = t;
+			leaderId = l;
+		}
+
+		public String toString() {
+			return "Heartbeat Term=" + this.term + " Leader=" + this.leaderId;
+		}
+
+	}
+
+	// *************************************************************************
+	// Multi-Paxos replicated log messages
+	// *************************************************************************
+
+	/**
+	 * Value submitted by a client to be appended to the replicated log. Clients
+	 * can send it to any participant, non leaders forward it to the leader.
+	 * 
+	 * With Config.clientValues or Config.fastPaxos it is the value a client
+	 * wants chosen by single decree consensus instead, sent to every
+	 * participant.
+	 */
+	public static class Propose implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long value;
+
+		public Propose(long v) {
+			value = v;
+		}
+
+		public String toString() {
+			return "Propose V=" + this.value;
+		}
+
+	}
+
+	/**
+	 * Sender of this message will receive CommitIndex notifications from the
+	 * leader whenever more of the log gets decided.
+	 */
+	public static class SubscribeCommits implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public String toString() {
+			return "SubscribeCommits";
+		}
+
+	}
+
+	/**
+	 * All slots up to and including the index are decided. Since every slot
+	 * holds a batch, the total number of client commands decided so far is
+	 * given as well.
+	 */
+	public static class CommitIndex implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long index;
+		public final long commandsCommitted;
+
+		public CommitIndex(long idx, long cc) {
+			index = idx;
+			commandsCommitted = cc;
+		}
+
+		public String toString() {
+			return "CommitIndex " + this.index + " Commands=" + this.commandsCommitted;
+		}
+
+	}
+
+	/**
+	 * Command for the replicated StateMachine. Like Propose it goes to the log
+	 * leader; once the command is applied the leader answers with a Reply
+	 * carrying the same request id, chosen by the client.
+	 */
+	public static class Submit implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long requestId;
+		public final long command;
+
+		public Submit(long id, long c) {
+			requestId = id;
+			command = c;
+		}
+
+		public String toString() {
+			return "Submit Id=" + this.requestId + " Command=" + this.command;
+		}
+
+	}
+
+	/**
+	 * Query of the replicated StateMachine. It does not go through the log:
+	 * the leader answers from its own copy once it has made sure it still
+	 * leads, see ReplicatedStateMachine.
+	 */
+	public static class Read implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long requestId;
+		public final long query;
+
+		public Read(long id, long q) {
+			requestId = id;
+			query = q;
+		}
+
+		public String toString() {
+			return "Read Id=" + this.requestId + " Query=" + this.query;
+		}
+
+	}
+
+	/**
+	 * Answer to a Submit or Read. If 'ok' is false the leader lost its
+	 * leadership first: the read can be retried, the command may or may not
+	 * get applied.
+	 */
+	public static class Reply implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long requestId;
+		public final long result;
+		public final boolean ok;
+
+		public Reply(long id, long r, boolean o) {
+			requestId = id;
+			result = r;
+			ok = o;
+		}
+
+		public String toString() {
+			return "Reply Id=" + this.requestId + " Result=" + this.result + (this.ok ? "" : " Failed");
+		}
+
+	}
+
+	/**
+	 * Phase 1 of Multi-Paxos. Unlike the single decree PrepareRequest, it covers
+	 * all slots from the given slot onwards so that a stable leader can issue
+	 * it only once and then skip straight to accept requests for later slots.
+	 */
+	public static class SlotPrepareRequest extends Request {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long fromSlot;
+
+		public SlotPrepareRequest(long b, long from) {
+			super(b);
+			fromSlot = from;
+		}
+
+		public String toString() {
+			return "SlotPrepareRequest " + super.toString() + " FromSlot=" + this.fromSlot;
+		}
+
+	}
+
+	/**
+	 * Promise for a SlotPrepareRequest. It carries back every slot, at or
+	 * beyond the requested slot, which the participant has accepted so far
+	 * along with the ballot under which it was accepted; the new leader has to
+	 * re-propose those batches. Slots up to snapshotSlot are compacted on the
+	 * participant, they are decided and only in its state machine snapshot;
+	 * a leader which does not know them yet has to fetch the snapshot first.
+	 */
+	public static class SlotPrepareResponse implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long ballot;
+		public final int acceptorId;
+		public final long snapshotSlot;
+		public final long[] acceptedSlots;
+		public final long[] acceptedBallots;
+		public final long[][] acceptedBatches;
+
+		public SlotPrepareResponse(long b, int a, long snapshot, long[] slots, long[] ballots, long[][] batches) {
+			ballot = b;
+			acceptorId = a;
+			snapshotSlot = snapshot;
+			acceptedSlots = slots;
+			acceptedBallots = ballots;
+			acceptedBatches = batches;
+		}
+
+		public String toString() {
+			return "SlotPrepareResponse B=" + Ballot.toString(this.ballot) + " Acceptor=" + this.acceptorId
+					+ " Snapshot=" + this.snapshotSlot + " Accepted slots: " + this.acceptedSlots.length;
+		}
+
+	}
+
+	/**
+	 * Phase 2 of Multi-Paxos for a single slot. The value of a slot is a batch
+	 * of client commands, so one fan-out to all participants carries many
+	 * commands. The leader piggybacks its commit index so that followers learn
+	 * decisions without extra messages.
+	 */
+	public static class BatchAcceptRequest extends Request {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long slot;
+		public final long[] commands;
+		public final long commitIndex;
+
+		public BatchAcceptRequest(long b, long s, long[] cmds, long ci) {
+			super(b);
+			slot = s;
+			commands = cmds;
+			commitIndex = ci;
+		}
+
+		public String toString() {
+			return "BatchAcceptRequest " + super.toString() + " Slot=" + this.slot + " Commands="
+					+ this.commands.length + " CI=" + this.commitIndex;
+		}
+
+	}
+
+	public static class SlotAcceptResponse implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long ballot;
+		public final long slot;
+		public final int acceptorId;
+
+		public SlotAcceptResponse(long b, long s, int a) {
+			ballot = b;
+			slot = s;
+			acceptorId = a;
+		}
+
+		public String toString() {
+			return "SlotAcceptResponse B=" + Ballot.toString(this.ballot) + " Slot=" + this.slot + " Acceptor="
+					+ this.acceptorId;
+		}
+
+	}
+
+	/**
+	 * The SlotAcceptResponses of a subtree of a RelayTree in one message,
+	 * which goes up the tree towards the leader instead of one from each
+	 * acceptor: acceptors holds the ids of those which accepted, as the
+	 * words of a BitSet. 'from' is the participant which sent it.
+	 */
+	public static class SlotAcceptResponses implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long ballot;
+		public final long slot;
+		public final int from;
+		public final long[] acceptors;
+
+		public SlotAcceptResponses(long b, long s, int f, long[] a) {
+			ballot = b;
+			slot = s;
+			from = f;
+			acceptors = a;
+		}
+
+		public String toString() {
+			return "SlotAcceptResponses B=" + Ballot.toString(this.ballot) + " Slot=" + this.slot + " From="
+					+ this.from + " Acceptors=" + BitSet.valueOf(this.acceptors);
+		}
+
+	}
+
+	/**
+	 * Asks a participant for a snapshot of its state machine, sent by one which
+	 * fell behind so far that the log can not catch it up. The transfer id,
+	 * picked by the requester, tells the chunks of this transfer apart from
+	 * those of an earlier one.
+	 */
+	public static class SnapshotRequest implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long transferId;
+
+		public SnapshotRequest(long id) {
+			transferId = id;
+		}
+
+		public String toString() {
+			return "SnapshotRequest Transfer=" + this.transferId;
+		}
+
+	}
+
+	/**
+	 * Part of a snapshot: the state machine after applying every slot up to
+	 * 'slot', holding 'commands' client commands, starts with 'length' longs of
+	 * which this chunk carries those from 'offset' on.
+	 */
+	public static class SnapshotChunk implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long transferId;
+		public final long slot;
+		public final long commands;
+		public final int length;
+		public final int offset;
+		public final long[] data;
+
+		public SnapshotChunk(long id, long s, long c, int len, int off, long[] d) {
+			transferId = id;
+			slot = s;
+			commands = c;
+			length = len;
+			offset = off;
+			data = d;
+		}
+
+		public boolean isLast() {
+			return offset + data.length >= length;
+		}
+
+		public String toString() {
+			return "SnapshotChunk Transfer=" + this.transferId + " Slot=" + this.slot + " Offset=" + this.offset + "/"
+					+ this.length;
+		}
+
+	}
+
+	/**
+	 * The receiver of a snapshot has loaded everything before 'offset'. Only a
+	 * window of chunks beyond the acknowledged offset is in flight, so a slow
+	 * receiver slows the sender down instead of piling up chunks in its
+	 * mailbox.
+	 */
+	public static class SnapshotAck implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long transferId;
+		public final int offset;
+
+		public SnapshotAck(long id, int off) {
+			transferId = id;
+			offset = off;
+		}
+
+		public String toString() {
+			return "SnapshotAck Transfer=" + this.transferId + " Offset=" + this.offset;
+		}
+
+	}
+
+	/**
+	 * A broadcast on its way through the RelayTree of its root, the
+	 * participant which sent it. Whoever gets it passes it on to its children
+	 * in the tree and handles the message as if it came from the root.
+	 */
+	public static class Relay implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final int root;
+		public final int rotation;
+		public final Object message;
+
+		public Relay(int r, int rot, Object m) {
+			root = r;
+			rotation = rot;
+			message = m;
+		}
+
+		public String toString() {
+			return "Relay Root=" + this.root + " Rotation=" + this.rotation + " " + this.message;
+		}
+
+	}
+
+	/**
+	 * A message for one of the Paxos groups of a GroupHost. Clients wrap
+	 * their requests to a group in it, and so does a group which forwards a
+	 * message, so that the sender stays the original one.
+	 */
+	public static class GroupMessage implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final int group;
+		public final Object message;
+
+		public GroupMessage(int g, Object m) {
+			group = g;
+			message = m;
+		}
+
+		public String toString() {
+			return "GroupMessage Group=" + this.group + " " + this.message;
+		}
+
+	}
+
+	/**
+	 * Messages of many groups from one GroupHost to another, all with the
+	 * sending host as sender: message i is for group groups[i].
+	 */
+	public static class GroupBatch implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final int[] groups;
+		public final Object[] messages;
+
+		public GroupBatch(int[] g, Object[] m) {
+			groups = g;
+			messages = m;
+		}
+
+		public String toString() {
+			return "GroupBatch Messages=" + this.messages.length;
+		}
+
 	}
 
 }
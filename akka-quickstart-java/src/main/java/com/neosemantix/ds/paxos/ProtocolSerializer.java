@@ -0,0 +1,513 @@
+package com.neosemantix.ds.paxos;
+
+import java.io.NotSerializableException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import com.neosemantix.ds.paxos.Protocol.PrepareResponseState;
+
+import akka.serialization.ByteBufferSerializer;
+import akka.serialization.SerializerWithStringManifest;
+
+/**
+ * Binary serializer of the messages participants exchange, used when they
+ * live in different JVMs. Every message is written as its fields in a fixed
+ * order, the message type goes in the manifest; there is no class name or
+ * field meta data on the wire as with Java serialization.
+ *
+ * Numbers are written as varints, 7 bits per byte with the high bit telling
+ * whether another byte follows. Ballots are round << 16 | id and slots count
+ * up from 0, so most of them take 2 to 4 bytes instead of 8. Fields that may
+ * be negative, Ballot.NONE for instance, are zigzag encoded first so that
+ * small negative numbers stay short too. Slots of a SlotPrepareResponse are
+ * ascending and written as the difference to the previous one. Commands
+ * use their high bits (see KeyValueStore), so they go as 8 plain bytes, in
+ * Submit and Read as well as in the batches of BatchAcceptRequest and
+ * SlotPrepareResponse; so does the data of a SnapshotChunk.
+ *
+ * GroupMessage and GroupBatch carry other messages: the group, the manifest
+ * of the message as two bytes and the message itself, which knows where it
+ * ends. Relay carries one the same way, after its root and rotation.
+ *
+ * Artery hands its own buffers to toBinary(Object, ByteBuffer) and
+ * fromBinary(ByteBuffer, String), so nothing but the message itself is
+ * allocated on that path. The byte array variants go through a per thread
+ * scratch buffer of SCRATCH_SIZE bytes. A message which does not fit gets a
+ * buffer of its own, so a thread does not hold on to the memory of the
+ * largest message it ever wrote.
+ *
+ * Registered for Protocol messages in application.conf.
+ */
+public class ProtocolSerializer extends SerializerWithStringManifest implements ByteBufferSerializer {
+
+	static final String PREPARE_REQUEST = "PQ";
+	static final String PREPARE_RESPONSE = "PR";
+	static final String ACCEPT_REQUEST = "AQ";
+	static final String ACCEPTED = "AC";
+	static final String DECIDED = "DC";
+	static final String ACCEPT_ANY = "AY";
+	static final String NACK = "NK";
+	static final String HEARTBEAT = "HB";
+	static final String PROPOSE = "PP";
+	static final String SUBSCRIBE_COMMITS = "SC";
+	static final String COMMIT_INDEX = "CI";
+	static final String SUBMIT = "SU";
+	static final String READ = "RD";
+	static final String REPLY = "RP";
+	static final String SLOT_PREPARE_REQUEST = "SQ";
+	static final String SLOT_PREPARE_RESPONSE = "SR";
+	static final String BATCH_ACCEPT_REQUEST = "BA";
+	static final String SLOT_ACCEPT_RESPONSE = "SA";
+	static final String SLOT_ACCEPT_RESPONSES = "SS";
+	static final String SNAPSHOT_REQUEST = "NQ";
+	static final String SNAPSHOT_CHUNK = "NC";
+	static final String SNAPSHOT_ACK = "NA";
+	static final String GROUP_MESSAGE = "GM";
+	static final String GROUP_BATCH = "GB";
+	static final String RELAY = "RL";
+
+	private static final String[] MANIFESTS = { PREPARE_REQUEST, PREPARE_RESPONSE, ACCEPT_REQUEST, ACCEPTED,
+			DECIDED, ACCEPT_ANY, NACK, HEARTBEAT, PROPOSE, SUBSCRIBE_COMMITS, COMMIT_INDEX, SUBMIT, READ, REPLY,
+			SLOT_PREPARE_REQUEST, SLOT_PREPARE_RESPONSE, BATCH_ACCEPT_REQUEST, SLOT_ACCEPT_RESPONSE,
+			SLOT_ACCEPT_RESPONSES, SNAPSHOT_REQUEST, SNAPSHOT_CHUNK, SNAPSHOT_ACK, GROUP_MESSAGE, GROUP_BATCH, RELAY };
+
+	private static final PrepareResponseState[] STATES = PrepareResponseState.values();
+
+	private static final int SCRATCH_SIZE = 4096;
+
+	private final ThreadLocal<ByteBuffer> scratch = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocate(SCRATCH_SIZE));
+
+	@Override
+	public int identifier() {
+		return 7101;
+	}
+
+	@Override
+	public String manifest(Object o) {
+		if (o instanceof Protocol.PrepareRequest) {
+			return PREPARE_REQUEST;
+		} else if (o instanceof Protocol.PrepareResponse) {
+			return PREPARE_RESPONSE;
+		} else if (o instanceof Protocol.AcceptRequest) {
+			return ACCEPT_REQUEST;
+		} else if (o instanceof Protocol.Accepted) {
+			return ACCEPTED;
+		} else if (o instanceof Protocol.Decided) {
+			return DECIDED;
+		} else if (o instanceof Protocol.AcceptAny) {
+			return ACCEPT_ANY;
+		} else if (o instanceof Protocol.Nack) {
+			return NACK;
+		} else if (o instanceof Protocol.Heartbeat) {
+			return HEARTBEAT;
+		} else if (o instanceof Protocol.Propose) {
+			return PROPOSE;
+		} else if (o instanceof Protocol.SubscribeCommits) {
+			return SUBSCRIBE_COMMITS;
+		} else if (o instanceof Protocol.CommitIndex) {
+			return COMMIT_INDEX;
+		} else if (o instanceof Protocol.Submit) {
+			return SUBMIT;
+		} else if (o instanceof Protocol.Read) {
+			return READ;
+		} else if (o instanceof Protocol.Reply) {
+			return REPLY;
+		} else if (o instanceof Protocol.SlotPrepareRequest) {
+			return SLOT_PREPARE_REQUEST;
+		} else if (o instanceof Protocol.SlotPrepareResponse) {
+			return SLOT_PREPARE_RESPONSE;
+		} else if (o instanceof Protocol.BatchAcceptRequest) {
+			return BATCH_ACCEPT_REQUEST;
+		} else if (o instanceof Protocol.SlotAcceptResponse) {
+			return SLOT_ACCEPT_RESPONSE;
+		} else if (o instanceof Protocol.SlotAcceptResponses) {
+			return SLOT_ACCEPT_RESPONSES;
+		} else if (o instanceof Protocol.SnapshotRequest) {
+			return SNAPSHOT_REQUEST;
+		} else if (o instanceof Protocol.SnapshotChunk) {
+			return SNAPSHOT_CHUNK;
+		} else if (o instanceof Protocol.SnapshotAck) {
+			return SNAPSHOT_ACK;
+		} else if (o instanceof Protocol.GroupMessage) {
+			return GROUP_MESSAGE;
+		} else if (o instanceof Protocol.GroupBatch) {
+			return GROUP_BATCH;
+		} else if (o instanceof Protocol.Relay) {
+			return RELAY;
+		}
+		throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+	}
+
+	@Override
+	public byte[] toBinary(Object o) {
+		ByteBuffer buf = scratch.get();
+		while (true) {
+			buf.clear();
+			try {
+				toBinary(o, buf);
+				break;
+			} catch (BufferOverflowException e) {
+				// a large SlotPrepareResponse or batch, just for this one
+				buf = ByteBuffer.allocate(buf.capacity() * 2);
+			}
+		}
+		byte[] bytes = new byte[buf.position()];
+		System.arraycopy(buf.array(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	@Override
+	public void toBinary(Object o, ByteBuffer buf) {
+		if (o instanceof Protocol.PrepareRequest) {
+			putSigned(buf, ((Protocol.PrepareRequest) o).ballot);
+		} else if (o instanceof Protocol.PrepareResponse) {
+			Protocol.PrepareResponse pr = (Protocol.PrepareResponse) o;
+			buf.put((byte) pr.getState().ordinal());
+			putUnsigned(buf, pr.getAcceptorId());
+			switch (pr.getState()) {
+			case PROMISED_NONE_ACCEPTED:
+				putSigned(buf, pr.getLastPreparedRequestProposalNo());
+				break;
+			case ACCEPTED:
+				putSigned(buf, pr.getLastPreparedRequestProposalNo());
+				putSigned(buf, pr.getLastAcceptedProposal());
+				putSigned(buf, pr.getLastAcceptedProposalValue());
+				break;
+			default:
+				// nothing but the state
+			}
+		} else if (o instanceof Protocol.AcceptRequest) {
+			Protocol.AcceptRequest ar = (Protocol.AcceptRequest) o;
+			putSigned(buf, ar.ballot);
+			putSigned(buf, ar.proposalValue);
+		} else if (o instanceof Protocol.Accepted) {
+			Protocol.Accepted acc = (Protocol.Accepted) o;
+			putSigned(buf, acc.ballot);
+			putSigned(buf, acc.value);
+			putUnsigned(buf, acc.acceptorId);
+		} else if (o instanceof Protocol.Decided) {
+			Protocol.Decided dec = (Protocol.Decided) o;
+			putSigned(buf, dec.ballot);
+			putSigned(buf, dec.value);
+		} else if (o instanceof Protocol.AcceptAny) {
+			putSigned(buf, ((Protocol.AcceptAny) o).ballot);
+		} else if (o instanceof Protocol.Nack) {
+			Protocol.Nack nack = (Protocol.Nack) o;
+			putSigned(buf, nack.rejectedBallot);
+			putSigned(buf, nack.competingBallot);
+			buf.put((byte) (nack.replicatedLog ? 1 : 0));
+		} else if (o instanceof Protocol.Heartbeat) {
+			Protocol.Heartbeat hb = (Protocol.Heartbeat) o;
+			putUnsigned(buf, hb.term);
+			putUnsigned(buf, hb.leaderId);
+		} else if (o instanceof Protocol.Propose) {
+			putSigned(buf, ((Protocol.Propose) o).value);
+		} else if (o instanceof Protocol.SubscribeCommits) {
+			// no fields
+		} else if (o instanceof Protocol.CommitIndex) {
+			Protocol.CommitIndex ci = (Protocol.CommitIndex) o;
+			putSigned(buf, ci.index);
+			putUnsigned(buf, ci.commandsCommitted);
+		} else if (o instanceof Protocol.Submit) {
+			Protocol.Submit sub = (Protocol.Submit) o;
+			putSigned(buf, sub.requestId);
+			buf.putLong(sub.command);
+		} else if (o instanceof Protocol.Read) {
+			Protocol.Read read = (Protocol.Read) o;
+			putSigned(buf, read.requestId);
+			buf.putLong(read.query);
+		} else if (o instanceof Protocol.Reply) {
+			Protocol.Reply reply = (Protocol.Reply) o;
+			putSigned(buf, reply.requestId);
+			putSigned(buf, reply.result);
+			buf.put((byte) (reply.ok ? 1 : 0));
+		} else if (o instanceof Protocol.SlotPrepareRequest) {
+			Protocol.SlotPrepareRequest spr = (Protocol.SlotPrepareRequest) o;
+			putSigned(buf, spr.ballot);
+			putUnsigned(buf, spr.fromSlot);
+		} else if (o instanceof Protocol.SlotPrepareResponse) {
+			Protocol.SlotPrepareResponse spr = (Protocol.SlotPrepareResponse) o;
+			putSigned(buf, spr.ballot);
+			putUnsigned(buf, spr.acceptorId);
+			putSigned(buf, spr.snapshotSlot);
+			putUnsigned(buf, spr.acceptedSlots.length);
+			long previous = 0;
+			for (int i = 0; i < spr.acceptedSlots.length; i++) {
+				putSigned(buf, spr.acceptedSlots[i] - previous);
+				previous = spr.acceptedSlots[i];
+				putSigned(buf, spr.acceptedBallots[i]);
+				putCommands(buf, spr.acceptedBatches[i]);
+			}
+		} else if (o instanceof Protocol.BatchAcceptRequest) {
+			Protocol.BatchAcceptRequest bar = (Protocol.BatchAcceptRequest) o;
+			putSigned(buf, bar.ballot);
+			putUnsigned(buf, bar.slot);
+			putSigned(buf, bar.commitIndex);
+			putCommands(buf, bar.commands);
+		} else if (o instanceof Protocol.SlotAcceptResponse) {
+			Protocol.SlotAcceptResponse sar = (Protocol.SlotAcceptResponse) o;
+			putSigned(buf, sar.ballot);
+			putUnsigned(buf, sar.slot);
+			putUnsigned(buf, sar.acceptorId);
+		} else if (o instanceof Protocol.SlotAcceptResponses) {
+			Protocol.SlotAcceptResponses sas = (Protocol.SlotAcceptResponses) o;
+			putSigned(buf, sas.ballot);
+			putUnsigned(buf, sas.slot);
+			putUnsigned(buf, sas.from);
+			putLongs(buf, sas.acceptors);
+		} else if (o instanceof Protocol.SnapshotRequest) {
+			putSigned(buf, ((Protocol.SnapshotRequest) o).transferId);
+		} else if (o instanceof Protocol.SnapshotChunk) {
+			Protocol.SnapshotChunk sc = (Protocol.SnapshotChunk) o;
+			putSigned(buf, sc.transferId);
+			putSigned(buf, sc.slot);
+			putUnsigned(buf, sc.commands);
+			putUnsigned(buf, sc.length);
+			putUnsigned(buf, sc.offset);
+			putUnsigned(buf, sc.data.length);
+			for (long v : sc.data) {
+				buf.putLong(v);
+			}
+		} else if (o instanceof Protocol.SnapshotAck) {
+			Protocol.SnapshotAck sa = (Protocol.SnapshotAck) o;
+			putSigned(buf, sa.transferId);
+			putUnsigned(buf, sa.offset);
+		} else if (o instanceof Protocol.GroupMessage) {
+			Protocol.GroupMessage gm = (Protocol.GroupMessage) o;
+			putGroupMessage(buf, gm.group, gm.message);
+		} else if (o instanceof Protocol.GroupBatch) {
+			Protocol.GroupBatch gb = (Protocol.GroupBatch) o;
+			putUnsigned(buf, gb.messages.length);
+			for (int i = 0; i < gb.messages.length; i++) {
+				putGroupMessage(buf, gb.groups[i], gb.messages[i]);
+			}
+		} else if (o instanceof Protocol.Relay) {
+			Protocol.Relay r = (Protocol.Relay) o;
+			putUnsigned(buf, r.root);
+			putUnsigned(buf, r.rotation);
+			putMessage(buf, r.message);
+		} else {
+			throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+		}
+	}
+
+	@Override
+	public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+		return fromBinary(ByteBuffer.wrap(bytes), manifest);
+	}
+
+	@Override
+	public Object fromBinary(ByteBuffer buf, String manifest) throws NotSerializableException {
+		switch (manifest) {
+		case PREPARE_REQUEST:
+			return new Protocol.PrepareRequest(getSigned(buf));
+		case PREPARE_RESPONSE:
+			Protocol.PrepareResponse pr = new Protocol.PrepareResponse();
+			PrepareResponseState state = STATES[buf.get()];
+			pr.setAcceptorId((int) getUnsigned(buf));
+			switch (state) {
+			case NONE_PROMISED_OR_ACCEPTED:
+				pr.setState(state);
+				break;
+			case PROMISED_NONE_ACCEPTED:
+				pr.setLastPreparedRequestProposalNo(getSigned(buf));
+				break;
+			case ACCEPTED:
+				pr.setLastPreparedRequestProposalNo(getSigned(buf));
+				pr.setLastAcceptedProposal(getSigned(buf));
+				pr.setLastAcceptedProposalValue((int) getSigned(buf));
+				break;
+			default:
+				// REJECTED is the initial state
+			}
+			return pr;
+		case ACCEPT_REQUEST:
+			return new Protocol.AcceptRequest(getSigned(buf), (int) getSigned(buf));
+		case ACCEPTED:
+			return new Protocol.Accepted(getSigned(buf), (int) getSigned(buf), (int) getUnsigned(buf));
+		case DECIDED:
+			return new Protocol.Decided(getSigned(buf), (int) getSigned(buf));
+		case ACCEPT_ANY:
+			return new Protocol.AcceptAny(getSigned(buf));
+		case NACK:
+			return new Protocol.Nack(getSigned(buf), getSigned(buf), buf.get() != 0);
+		case HEARTBEAT:
+			return new Protocol.Heartbeat((int) getUnsigned(buf), (int) getUnsigned(buf));
+		case PROPOSE:
+			return new Protocol.Propose(getSigned(buf));
+		case SUBSCRIBE_COMMITS:
+			return new Protocol.SubscribeCommits();
+		case COMMIT_INDEX:
+			return new Protocol.CommitIndex(getSigned(buf), getUnsigned(buf));
+		case SUBMIT:
+			return new Protocol.Submit(getSigned(buf), buf.getLong());
+		case READ:
+			return new Protocol.Read(getSigned(buf), buf.getLong());
+		case REPLY:
+			return new Protocol.Reply(getSigned(buf), getSigned(buf), buf.get() != 0);
+		case SLOT_PREPARE_REQUEST:
+			return new Protocol.SlotPrepareRequest(getSigned(buf), getUnsigned(buf));
+		case SLOT_PREPARE_RESPONSE:
+			long ballot = getSigned(buf);
+			int acceptorId = (int) getUnsigned(buf);
+			long snapshotSlot = getSigned(buf);
+			int count = (int) getUnsigned(buf);
+			long[] slots = new long[count];
+			long[] ballots = new long[count];
+			long[][] batches = new long[count][];
+			long previous = 0;
+			for (int i = 0; i < count; i++) {
+				slots[i] = previous + getSigned(buf);
+				previous = slots[i];
+				ballots[i] = getSigned(buf);
+				batches[i] = getCommands(buf);
+			}
+			return new Protocol.SlotPrepareResponse(ballot, acceptorId, snapshotSlot, slots, ballots, batches);
+		case BATCH_ACCEPT_REQUEST:
+			long b = getSigned(buf);
+			long slot = getUnsigned(buf);
+			long commitIndex = getSigned(buf);
+			return new Protocol.BatchAcceptRequest(b, slot, getCommands(buf), commitIndex);
+		case SLOT_ACCEPT_RESPONSE:
+			return new Protocol.SlotAcceptResponse(getSigned(buf), getUnsigned(buf), (int) getUnsigned(buf));
+		case SLOT_ACCEPT_RESPONSES:
+			long sb = getSigned(buf);
+			long ss = getUnsigned(buf);
+			int from = (int) getUnsigned(buf);
+			return new Protocol.SlotAcceptResponses(sb, ss, from, getLongs(buf));
+		case SNAPSHOT_REQUEST:
+			return new Protocol.SnapshotRequest(getSigned(buf));
+		case SNAPSHOT_CHUNK:
+			long transferId = getSigned(buf);
+			long snapshot = getSigned(buf);
+			long commands = getUnsigned(buf);
+			int length = (int) getUnsigned(buf);
+			int offset = (int) getUnsigned(buf);
+			long[] data = new long[(int) getUnsigned(buf)];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = buf.getLong();
+			}
+			return new Protocol.SnapshotChunk(transferId, snapshot, commands, length, offset, data);
+		case SNAPSHOT_ACK:
+			return new Protocol.SnapshotAck(getSigned(buf), (int) getUnsigned(buf));
+		case GROUP_MESSAGE:
+			int group = (int) getUnsigned(buf);
+			return new Protocol.GroupMessage(group, fromBinary(buf, getManifest(buf)));
+		case GROUP_BATCH:
+			int messages = (int) getUnsigned(buf);
+			int[] groups = new int[messages];
+			Object[] batched = new Object[messages];
+			for (int i = 0; i < messages; i++) {
+				groups[i] = (int) getUnsigned(buf);
+				batched[i] = fromBinary(buf, getManifest(buf));
+			}
+			return new Protocol.GroupBatch(groups, batched);
+		case RELAY:
+			int root = (int) getUnsigned(buf);
+			int rotation = (int) getUnsigned(buf);
+			return new Protocol.Relay(root, rotation, fromBinary(buf, getManifest(buf)));
+		default:
+			throw new NotSerializableException("Unknown manifest " + manifest);
+		}
+	}
+
+	/**
+	 * Writes v as a varint, at most 10 bytes. Negative values take all 10, use
+	 * putSigned for fields which may be negative.
+	 */
+	static void putUnsigned(ByteBuffer buf, long v) {
+		while ((v & ~0x7FL) != 0) {
+			buf.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+
+	static long getUnsigned(ByteBuffer buf) {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return v;
+	}
+
+	/**
+	 * Zigzag encodes v, mapping 0, -1, 1, -2... to 0, 1, 2, 3..., then writes it
+	 * as a varint.
+	 */
+	static void putSigned(ByteBuffer buf, long v) {
+		putUnsigned(buf, (v << 1) ^ (v >> 63));
+	}
+
+	static long getSigned(ByteBuffer buf) {
+		long v = getUnsigned(buf);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private void putGroupMessage(ByteBuffer buf, int group, Object message) {
+		putUnsigned(buf, group);
+		putMessage(buf, message);
+	}
+
+	private void putMessage(ByteBuffer buf, Object message) {
+		String manifest = manifest(message);
+		buf.put((byte) manifest.charAt(0)).put((byte) manifest.charAt(1));
+		toBinary(message, buf);
+	}
+
+	private static String getManifest(ByteBuffer buf) {
+		char first = (char) buf.get();
+		char second = (char) buf.get();
+		// one of the constants, not a new string for every message
+		for (String m : MANIFESTS) {
+			if (m.charAt(0) == first && m.charAt(1) == second) {
+				return m;
+			}
+		}
+		return new String(new char[] { first, second });
+	}
+
+	private static void putLongs(ByteBuffer buf, long[] values) {
+		putUnsigned(buf, values.length);
+		for (long v : values) {
+			putSigned(buf, v);
+		}
+	}
+
+	private static long[] getLongs(ByteBuffer buf) {
+		int length = (int) getUnsigned(buf);
+		if (length == 0) {
+			return CommandBatcher.EMPTY_BATCH;
+		}
+		long[] values = new long[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = getSigned(buf);
+		}
+		return values;
+	}
+
+	private static void putCommands(ByteBuffer buf, long[] commands) {
+		putUnsigned(buf, commands.length);
+		for (long c : commands) {
+			buf.putLong(c);
+		}
+	}
+
+	private static long[] getCommands(ByteBuffer buf) {
+		int length = (int) getUnsigned(buf);
+		if (length == 0) {
+			return CommandBatcher.EMPTY_BATCH;
+		}
+		long[] commands = new long[length];
+		for (int i = 0; i < length; i++) {
+			commands[i] = buf.getLong();
+		}
+		return commands;
+	}
+
+}
@@ -0,0 +1,544 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Decides which sets of acceptors are enough to complete phase 1 (prepare,
+ * promises) and phase 2 (accept) of a round. Paxos is safe as long as every
+ * phase 1 quorum intersects every phase 2 quorum (Flexible Paxos); two phase 1
+ * quorums, or two phase 2 quorums, need not intersect. So phase 2, which runs
+ * for every value in a stable Multi-Paxos leader, may wait for fewer acceptors
+ * than a majority, at the price of a larger phase 1 quorum and less tolerance
+ * to failures while electing a leader.
+ *
+ * Acceptors are given by their participant ids; the proposer's own acceptor is
+ * in the set just like the others. Quorums are monotone: a superset of a
+ * quorum is a quorum too.
+ *
+ * Implementations check intersection when they are created and hold no
+ * mutable state, the same instance may be shared by all participants of a
+ * JVM.
+ */
+public interface QuorumSystem {
+
+	/**
+	 * Up to this many participants parse double checks an implementation's
+	 * intersection by going through every subset of acceptors.
+	 */
+	int EXHAUSTIVE_CHECK_LIMIT = 16;
+
+	int participantCount();
+
+	boolean isPhase1Quorum(BitSet acceptors);
+
+	boolean isPhase2Quorum(BitSet acceptors);
+
+	/**
+	 * @return int Acceptors in the smallest phase 1 quorum
+	 */
+	int smallestPhase1Quorum();
+
+	/**
+	 * @return int Acceptors in the smallest phase 2 quorum, the fewest a
+	 *         leader ever waits for
+	 */
+	int smallestPhase2Quorum();
+
+	/**
+	 * @return int Acceptors which may fail, whichever they are, while a phase
+	 *         1 quorum is still left
+	 */
+	int phase1FailuresTolerated();
+
+	/**
+	 * @return int Acceptors which may fail, whichever they are, while a phase
+	 *         2 quorum is still left
+	 */
+	int phase2FailuresTolerated();
+
+	/**
+	 * Parses specifications like:
+	 * - majority: more than half of the acceptors, in both phases
+	 * - flexible:7:3 (phase 1 size, phase 2 size): any 7 acceptors for phase 1
+	 *   and any 3 for phase 2; the two sizes have to add up to more than the
+	 *   participant count
+	 * - weighted:3.1.1.1.1 (weight of each participant) or
+	 *   weighted:3.1.1.1.1:4:4 (and the weights phase 1 and phase 2 need):
+	 *   acceptors whose weights add up to the threshold; without thresholds
+	 *   both are more than half of the total weight
+	 * - grid:2:5 (rows, columns): participants fill the rows in order of their
+	 *   id; phase 1 needs a complete row, phase 2 a complete column. With
+	 *   fewer rows than columns phase 2 is the small one.
+	 *
+	 * @param spec
+	 * @param participantCount
+	 * @return QuorumSystem
+	 * @throws IllegalArgumentException
+	 *             when the spec is malformed or its quorums do not intersect
+	 */
+	static QuorumSystem parse(String spec, int participantCount) {
+		String[] parts = spec.trim().split(":");
+		String kind = parts[0].toLowerCase();
+		QuorumSystem q;
+		try {
+			switch (kind) {
+			case "majority":
+				q = new Majority(participantCount);
+				break;
+			case "flexible":
+				q = new Flexible(participantCount, Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+				break;
+			case "weighted":
+				int[] weights = Arrays.stream(parts[1].split("\\.")).mapToInt(Integer::parseInt).toArray();
+				if (weights.length != participantCount) {
+					throw new IllegalArgumentException(
+							weights.length + " weights for " + participantCount + " participants: " + spec);
+				}
+				q = parts.length > 2
+						? new Weighted(weights, Integer.parseInt(parts[2]), Integer.parseInt(parts[3]))
+						: new Weighted(weights);
+				break;
+			case "grid":
+				int rows = Integer.parseInt(parts[1]);
+				int columns = Integer.parseInt(parts[2]);
+				if (rows * columns != participantCount) {
+					throw new IllegalArgumentException(
+							"Grid of " + rows + "x" + columns + " for " + participantCount + " participants: " + spec);
+				}
+				q = new Grid(rows, columns);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown quorum system: " + spec);
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed quorum system: " + spec, e);
+		}
+		if (participantCount <= EXHAUSTIVE_CHECK_LIMIT) {
+			validate(q);
+		}
+		return q;
+	}
+
+	/**
+	 * Acceptors which have to accept the same value in a Fast Paxos round for
+	 * it to be chosen. After a collision the next classic round takes, among
+	 * the values its phase 1 quorum reports for the fast round, the one most
+	 * of them accepted. That is safe as long as every phase 1 quorum and any
+	 * two fast quorums share an acceptor, q1 + 2 * fast > 2 * n with q1 the
+	 * smallest phase 1 quorum; for majorities that is about three quarters of
+	 * the acceptors.
+	 *
+	 * @param q
+	 * @param size
+	 *            Requested size, 0 for the smallest safe one
+	 * @return int
+	 * @throws IllegalArgumentException
+	 *             when the requested size is not safe
+	 */
+	static int fastQuorumSize(QuorumSystem q, int size) {
+		int n = q.participantCount();
+		int smallest = (2 * n - q.smallestPhase1Quorum()) / 2 + 1;
+		if (size == 0) {
+			size = smallest;
+		}
+		if (size < smallest || size > n) {
+			throw new IllegalArgumentException("Fast quorum of " + size + " is not safe with " + q + " among " + n
+					+ " participants, it needs at least " + smallest);
+		}
+		return size;
+	}
+
+	/**
+	 * Goes through every set of acceptors: if one is a phase 2 quorum and the
+	 * acceptors outside of it are a phase 1 quorum, the two do not intersect
+	 * and two leaders could each get a different value chosen. Takes 2^n
+	 * steps, so it is meant for small participant counts and tests.
+	 *
+	 * @param q
+	 * @throws IllegalArgumentException
+	 *             with the two quorums which do not intersect
+	 */
+	static void validate(QuorumSystem q) {
+		int n = q.participantCount();
+		if (n > 30) {
+			throw new IllegalArgumentException("Too many participants to go through every subset: " + n);
+		}
+		BitSet phase2 = new BitSet(n);
+		BitSet rest = new BitSet(n);
+		for (int mask = 0; mask < 1 << n; mask++) {
+			phase2.clear();
+			rest.clear();
+			for (int i = 0; i < n; i++) {
+				if ((mask & 1 << i) != 0) {
+					phase2.set(i);
+				} else {
+					rest.set(i);
+				}
+			}
+			if (q.isPhase2Quorum(phase2) && q.isPhase1Quorum(rest)) {
+				throw new IllegalArgumentException(
+						q + ": phase 2 quorum " + phase2 + " does not intersect phase 1 quorum " + rest);
+			}
+		}
+	}
+
+	/**
+	 * More than half of the acceptors in both phases. For 2 participants that
+	 * is both of them, for 1 the proposer itself.
+	 */
+	public static class Majority implements QuorumSystem {
+
+		private final int participantCount;
+
+		public Majority(int pc) {
+			participantCount = pc;
+		}
+
+		public int participantCount() {
+			return participantCount;
+		}
+
+		public boolean isPhase1Quorum(BitSet acceptors) {
+			return 2 * acceptors.cardinality() > participantCount;
+		}
+
+		public boolean isPhase2Quorum(BitSet acceptors) {
+			return 2 * acceptors.cardinality() > participantCount;
+		}
+
+		public int smallestPhase1Quorum() {
+			return participantCount / 2 + 1;
+		}
+
+		public int smallestPhase2Quorum() {
+			return participantCount / 2 + 1;
+		}
+
+		public int phase1FailuresTolerated() {
+			return (participantCount - 1) / 2;
+		}
+
+		public int phase2FailuresTolerated() {
+			return (participantCount - 1) / 2;
+		}
+
+		public String toString() {
+			return "majority";
+		}
+
+	}
+
+	/**
+	 * Any phase1Size acceptors for phase 1 and any phase2Size for phase 2.
+	 */
+	public static class Flexible implements QuorumSystem {
+
+		private final int participantCount;
+		private final int phase1Size;
+		private final int phase2Size;
+
+		public Flexible(int pc, int q1, int q2) {
+			if (q1 < 1 || q2 < 1 || q1 > pc || q2 > pc) {
+				throw new IllegalArgumentException(
+						"Quorum sizes " + q1 + " and " + q2 + " out of range for " + pc + " participants");
+			}
+			if (q1 + q2 <= pc) {
+				throw new IllegalArgumentException("Quorum sizes " + q1 + " and " + q2 + " do not intersect among "
+						+ pc + " participants, they have to add up to more than that");
+			}
+			participantCount = pc;
+			phase1Size = q1;
+			phase2Size = q2;
+		}
+
+		public int participantCount() {
+			return participantCount;
+		}
+
+		public boolean isPhase1Quorum(BitSet acceptors) {
+			return acceptors.cardinality() >= phase1Size;
+		}
+
+		public boolean isPhase2Quorum(BitSet acceptors) {
+			return acceptors.cardinality() >= phase2Size;
+		}
+
+		public int smallestPhase1Quorum() {
+			return phase1Size;
+		}
+
+		public int smallestPhase2Quorum() {
+			return phase2Size;
+		}
+
+		public int phase1FailuresTolerated() {
+			return participantCount - phase1Size;
+		}
+
+		public int phase2FailuresTolerated() {
+			return participantCount - phase2Size;
+		}
+
+		public String toString() {
+			return "flexible:" + phase1Size + ":" + phase2Size;
+		}
+
+	}
+
+	/**
+	 * Acceptors carry weights, e.g. more for those on reliable machines or
+	 * close to the leader; a set is a quorum when its weights add up to the
+	 * phase's threshold.
+	 */
+	public static class Weighted implements QuorumSystem {
+
+		private final int[] weights;
+		private final int totalWeight;
+		private final int phase1Weight;
+		private final int phase2Weight;
+
+		// weights from the heaviest down, for the smallest quorums and the
+		// failures tolerated
+		private final int[] descending;
+
+		public Weighted(int[] w) {
+			this(w, Arrays.stream(w).sum() / 2 + 1, Arrays.stream(w).sum() / 2 + 1);
+		}
+
+		public Weighted(int[] w, int q1, int q2) {
+			int total = 0;
+			for (int weight : w) {
+				if (weight < 0) {
+					throw new IllegalArgumentException("Negative weight in " + Arrays.toString(w));
+				}
+				total += weight;
+			}
+			if (q1 < 1 || q2 < 1 || q1 > total || q2 > total) {
+				throw new IllegalArgumentException(
+						"Quorum weights " + q1 + " and " + q2 + " out of range for total weight " + total);
+			}
+			if (q1 + q2 <= total) {
+				throw new IllegalArgumentException("Quorum weights " + q1 + " and " + q2
+						+ " do not intersect, they have to add up to more than the total weight " + total);
+			}
+			weights = w.clone();
+			totalWeight = total;
+			phase1Weight = q1;
+			phase2Weight = q2;
+			int[] sorted = w.clone();
+			Arrays.sort(sorted);
+			descending = new int[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				descending[i] = sorted[sorted.length - 1 - i];
+			}
+		}
+
+		public int participantCount() {
+			return weights.length;
+		}
+
+		private int weightOf(BitSet acceptors) {
+			int sum = 0;
+			for (int i = acceptors.nextSetBit(0); i >= 0 && i < weights.length; i = acceptors.nextSetBit(i + 1)) {
+				sum += weights[i];
+			}
+			return sum;
+		}
+
+		public boolean isPhase1Quorum(BitSet acceptors) {
+			return weightOf(acceptors) >= phase1Weight;
+		}
+
+		public boolean isPhase2Quorum(BitSet acceptors) {
+			return weightOf(acceptors) >= phase2Weight;
+		}
+
+		private int smallest(int threshold) {
+			int sum = 0;
+			int count = 0;
+			while (sum < threshold) {
+				sum += descending[count++];
+			}
+			return count;
+		}
+
+		private int tolerated(int threshold) {
+			// the heaviest fail first
+			int left = totalWeight;
+			int failed = 0;
+			while (left >= threshold) {
+				left -= descending[failed++];
+			}
+			return failed - 1;
+		}
+
+		public int smallestPhase1Quorum() {
+			return smallest(phase1Weight);
+		}
+
+		public int smallestPhase2Quorum() {
+			return smallest(phase2Weight);
+		}
+
+		public int phase1FailuresTolerated() {
+			return tolerated(phase1Weight);
+		}
+
+		public int phase2FailuresTolerated() {
+			return tolerated(phase2Weight);
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder("weighted:");
+			for (int i = 0; i < weights.length; i++) {
+				sb.append(i > 0 ? "." : "").append(weights[i]);
+			}
+			return sb.append(':').append(phase1Weight).append(':').append(phase2Weight).toString();
+		}
+
+	}
+
+	/**
+	 * Participants arranged in rows and columns, participant id = row *
+	 * columns + column. Phase 1 needs every acceptor of some row, phase 2
+	 * every acceptor of some column; a row and a column always share an
+	 * acceptor.
+	 */
+	public static class Grid implements QuorumSystem {
+
+		private final int rows;
+		private final int columns;
+
+		public Grid(int r, int c) {
+			if (r < 1 || c < 1) {
+				throw new IllegalArgumentException("Invalid grid of " + r + "x" + c);
+			}
+			rows = r;
+			columns = c;
+		}
+
+		public int participantCount() {
+			return rows * columns;
+		}
+
+		public boolean isPhase1Quorum(BitSet acceptors) {
+			for (int r = 0; r < rows; r++) {
+				int c = 0;
+				while (c < columns && acceptors.get(r * columns + c)) {
+					c++;
+				}
+				if (c == columns) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public boolean isPhase2Quorum(BitSet acceptors) {
+			for (int c = 0; c < columns; c++) {
+				int r = 0;
+				while (r < rows && acceptors.get(r * columns + c)) {
+					r++;
+				}
+				if (r == rows) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public int smallestPhase1Quorum() {
+			return columns;
+		}
+
+		public int smallestPhase2Quorum() {
+			return rows;
+		}
+
+		public int phase1FailuresTolerated() {
+			// one failure in every row
+			return rows - 1;
+		}
+
+		public int phase2FailuresTolerated() {
+			return columns - 1;
+		}
+
+		public String toString() {
+			return "grid:" + rows + ":" + columns;
+		}
+
+	}
+
+	/**
+	 * A quorum system over some of the participants only, the members of a
+	 * configuration, see Membership. The member with the lowest id is the
+	 * first acceptor of the underlying system, and so on; acceptors which are
+	 * not members count for nothing.
+	 */
+	public static class Members implements QuorumSystem {
+
+		private final QuorumSystem quorums;
+		private final int[] ids;
+
+		/**
+		 * @param q
+		 *            Over as many participants as there are members
+		 * @param members
+		 *            Participant ids of the members
+		 */
+		public Members(QuorumSystem q, BitSet members) {
+			if (q.participantCount() != members.cardinality()) {
+				throw new IllegalArgumentException(
+						q + " over " + q.participantCount() + " participants for members " + members);
+			}
+			quorums = q;
+			ids = members.stream().toArray();
+		}
+
+		public int participantCount() {
+			return quorums.participantCount();
+		}
+
+		private BitSet members(BitSet acceptors) {
+			BitSet m = new BitSet(ids.length);
+			for (int i = 0; i < ids.length; i++) {
+				if (acceptors.get(ids[i])) {
+					m.set(i);
+				}
+			}
+			return m;
+		}
+
+		public boolean isPhase1Quorum(BitSet acceptors) {
+			return quorums.isPhase1Quorum(members(acceptors));
+		}
+
+		public boolean isPhase2Quorum(BitSet acceptors) {
+			return quorums.isPhase2Quorum(members(acceptors));
+		}
+
+		public int smallestPhase1Quorum() {
+			return quorums.smallestPhase1Quorum();
+		}
+
+		public int smallestPhase2Quorum() {
+			return quorums.smallestPhase2Quorum();
+		}
+
+		public int phase1FailuresTolerated() {
+			return quorums.phase1FailuresTolerated();
+		}
+
+		public int phase2FailuresTolerated() {
+			return quorums.phase2FailuresTolerated();
+		}
+
+		public String toString() {
+			return quorums + " of " + Arrays.toString(ids);
+		}
+
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Layout of a broadcast relayed through the participants, see
+ * Config.broadcastFanout. The participants make a complete tree with the
+ * given fan-out: the broadcasting one, the root, is at position 0 and the
+ * children of position p are at p * fanout + 1 to p * fanout + fanout. The
+ * root then sends fanout messages instead of one to every other participant,
+ * and every participant reaches its subtree within log(participants) hops.
+ *
+ * The others take the positions after the root in the order of their ids,
+ * starting rotation places after it. Each broadcast takes another rotation,
+ * and the root avoids those which put a participant it has not heard from
+ * for suspectMillis in a position with children: one which is down or cut
+ * off then ends up a leaf instead of withholding broadcasts from its subtree.
+ * Responses to the root's requests count as hearing from their acceptor,
+ * whether they come straight or aggregated, see AcceptAggregation; if the
+ * root did not broadcast for a while, silence means nothing and nobody is
+ * suspected.
+ */
+final class RelayTree {
+
+	private final int participants;
+	private final int fanout;
+	private final long suspectMillis;
+
+	// positions 1 to lastInner have children
+	private final int lastInner;
+
+	private final long[] heardAt;
+	// since the rotations were last worked out, a bit per participant
+	private final BitSet heard;
+	private long broadcastingSince;
+	private long lastBroadcastAt;
+
+	// rotations which keep the suspects leaves, all of them if there are no
+	// suspects or no such rotation; worked out every suspectMillis / 4
+	private int[] rotations;
+	private int next;
+	private long rotationsAt;
+
+	RelayTree(int participantCount, int f, long suspect, long now) {
+		participants = participantCount;
+		fanout = f;
+		suspectMillis = suspect;
+		lastInner = participants >= 2 ? (participants - 2) / fanout : 0;
+		heardAt = new long[participants];
+		Arrays.fill(heardAt, now);
+		heard = new BitSet(participants);
+		broadcastingSince = now;
+		lastBroadcastAt = now;
+		rotationsAt = now - suspectMillis;
+	}
+
+	/**
+	 * @return int Id of the participant at the position
+	 */
+	static int idAt(int position, int root, int rotation, int participants) {
+		if (position == 0) {
+			return root;
+		}
+		int others = participants - 1;
+		return (root + 1 + (position - 1 + rotation % others) % others) % participants;
+	}
+
+	/**
+	 * @return int Position of the participant, 0 for the root
+	 */
+	static int positionOf(int id, int root, int rotation, int participants) {
+		if (id == root) {
+			return 0;
+		}
+		int others = participants - 1;
+		int after = (id - root - 1 + participants) % participants;
+		return (after - rotation % others + others) % others + 1;
+	}
+
+	/**
+	 * @return int Position of the first child, at or past 'participants' for
+	 *         a leaf
+	 */
+	static int firstChild(int position, int fanout) {
+		return position * fanout + 1;
+	}
+
+	/**
+	 * @return int Levels of the subtree below the position, 0 for a leaf
+	 */
+	static int levelsBelow(int position, int fanout, int participants) {
+		int levels = 0;
+		// the leftmost path is the longest
+		for (int p = firstChild(position, fanout); p < participants; p = firstChild(p, fanout)) {
+			levels++;
+		}
+		return levels;
+	}
+
+	void heardFrom(int id) {
+		if (id >= 0 && id < participants) {
+			heard.set(id);
+		}
+	}
+
+	/**
+	 * @param ids
+	 *            Words of a BitSet of participant ids
+	 */
+	void heardFrom(long[] ids) {
+		heard.or(BitSet.valueOf(ids));
+	}
+
+	/**
+	 * @return int Rotation of the next broadcast of the given root
+	 */
+	int nextRotation(int root, long now) {
+		if (now - lastBroadcastAt > suspectMillis) {
+			broadcastingSince = now;
+			rotationsAt = now - suspectMillis;
+		}
+		lastBroadcastAt = now;
+		if (now - rotationsAt >= suspectMillis / 4) {
+			rotationsAt = now;
+			rotations = safeRotations(root, now);
+			next = 0;
+		}
+		if (rotations == null) {
+			int r = next;
+			next = (r + 1) % (participants - 1);
+			return r;
+		}
+		int r = rotations[next];
+		next = (next + 1) % rotations.length;
+		return r;
+	}
+
+	/**
+	 * @return int[] null for all rotations
+	 */
+	private int[] safeRotations(int root, long now) {
+		for (int id = heard.nextSetBit(0); id >= 0 && id < participants; id = heard.nextSetBit(id + 1)) {
+			heardAt[id] = now;
+		}
+		heard.clear();
+		int suspects = 0;
+		int[] suspected = new int[participants];
+		for (int id = 0; id < participants; id++) {
+			if (id != root && now - Math.max(heardAt[id], broadcastingSince) > suspectMillis) {
+				suspected[suspects++] = id;
+			}
+		}
+		if (suspects == 0) {
+			return null;
+		}
+		int[] safe = new int[participants - 1];
+		int count = 0;
+		for (int r = 0; r < participants - 1; r++) {
+			boolean leaves = true;
+			for (int s = 0; s < suspects && leaves; s++) {
+				leaves = positionOf(suspected[s], root, r, participants) > lastInner;
+			}
+			if (leaves) {
+				safe[count++] = r;
+			}
+		}
+		return count == 0 ? null : Arrays.copyOf(safe, count);
+	}
+
+}
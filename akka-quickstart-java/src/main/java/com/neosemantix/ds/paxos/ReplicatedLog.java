@@ -0,0 +1,204 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.Arrays;
+
+/**
+ * Slot indexed log kept by every participant in Multi-Paxos mode. For each
+ * slot it remembers the batch of client commands accepted by this participant
+ * and the ballot under which it was accepted. Slots up to the commit
+ * index are decided and will never change.
+ *
+ * Entries are kept in arrays which grow as slots get accepted, so accepting a
+ * slot does not allocate anything beyond the batch itself in the steady state.
+ *
+ * Decided slots whose commands are in a snapshot of the state machine can be
+ * compacted: the arrays then start at the first slot after the snapshot and
+ * the log no longer knows what was accepted before it. Slots up to the
+ * snapshot slot count as decided.
+ */
+class ReplicatedLog {
+
+	static final long NO_SLOT = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] acceptedBallots;
+	private long[][] batches;
+
+	// slot of the first array element, all slots before it are compacted
+	private long base;
+
+	// highest slot for which there is an accepted entry
+	private long highestSlot;
+
+	// all slots up to and including this one are decided
+	private long commitIndex;
+
+	// number of client commands in the decided slots
+	private long commandsCommitted;
+
+	ReplicatedLog() {
+		acceptedBallots = new long[INITIAL_CAPACITY];
+		Arrays.fill(acceptedBallots, Ballot.NONE);
+		batches = new long[INITIAL_CAPACITY][];
+		highestSlot = NO_SLOT;
+		commitIndex = NO_SLOT;
+	}
+
+	/**
+	 * Slots up to the snapshot slot are ignored, they are decided already.
+	 */
+	void accept(long slot, long ballot, long[] batch) {
+		if (slot < base) {
+			return;
+		}
+		ensureCapacity(slot);
+		int i = (int) (slot - base);
+		acceptedBallots[i] = ballot;
+		batches[i] = batch;
+		if (slot > highestSlot) {
+			highestSlot = slot;
+		}
+	}
+
+	/**
+	 * @return long Ballot.NONE for compacted slots as well
+	 */
+	long acceptedBallot(long slot) {
+		if (slot > highestSlot || slot < base) {
+			return Ballot.NONE;
+		}
+		return acceptedBallots[(int) (slot - base)];
+	}
+
+	long[] batch(long slot) {
+		if (acceptedBallot(slot) == Ballot.NONE) {
+			throw new IllegalStateException("Nothing accepted for slot " + slot);
+		}
+		return batches[(int) (slot - base)];
+	}
+
+	long highestSlot() {
+		return highestSlot;
+	}
+
+	long commitIndex() {
+		return commitIndex;
+	}
+
+	long commandsCommitted() {
+		return commandsCommitted;
+	}
+
+	boolean isCommitted(long slot) {
+		return slot <= commitIndex;
+	}
+
+	/**
+	 * @return long Last compacted slot, NO_SLOT if nothing was compacted
+	 */
+	long snapshotSlot() {
+		return base - 1;
+	}
+
+	/**
+	 * @return int Slots held in memory, compacted ones excluded
+	 */
+	int retainedSlots() {
+		return (int) (highestSlot - base + 1);
+	}
+
+	/**
+	 * Drops the decided slots up to and including the given one, their
+	 * commands are in a snapshot of the state machine.
+	 */
+	void compactUpTo(long slot) {
+		if (slot > commitIndex) {
+			throw new IllegalStateException("Can not compact slot " + slot + " beyond commit index " + commitIndex);
+		}
+		if (slot < base) {
+			return;
+		}
+		int dropped = (int) (slot - base + 1);
+		int kept = (int) (highestSlot - slot);
+		// the arrays keep their capacity, the remainder moves to the front
+		System.arraycopy(acceptedBallots, dropped, acceptedBallots, 0, kept);
+		System.arraycopy(batches, dropped, batches, 0, kept);
+		Arrays.fill(acceptedBallots, kept, kept + dropped, Ballot.NONE);
+		Arrays.fill(batches, kept, kept + dropped, null);
+		base = slot + 1;
+	}
+
+	/**
+	 * A snapshot taken after applying all slots up to the given one replaces
+	 * them. Accepted slots after it are kept, they may still get decided.
+	 *
+	 * @param commands
+	 *            Client commands in the slots up to the snapshot slot
+	 */
+	void installSnapshot(long slot, long commands) {
+		if (slot <= snapshotSlot()) {
+			return;
+		}
+		if (slot > commitIndex) {
+			// decided, whatever was accepted here
+			commitIndex = slot;
+			commandsCommitted = commands;
+		}
+		if (slot < highestSlot) {
+			compactUpTo(slot);
+		} else {
+			Arrays.fill(acceptedBallots, Ballot.NONE);
+			Arrays.fill(batches, null);
+			base = slot + 1;
+			highestSlot = slot;
+		}
+	}
+
+	/**
+	 * Used by the leader which knows which slots have been accepted by a
+	 * quorum.
+	 */
+	void commitUpTo(long slot) {
+		if (slot > highestSlot) {
+			throw new IllegalStateException("Can not commit slot " + slot + " beyond highest accepted " + highestSlot);
+		}
+		while (commitIndex < slot) {
+			commitIndex++;
+			commandsCommitted += batches[(int) (commitIndex - base)].length;
+		}
+	}
+
+	/**
+	 * Used by followers: the leader has decided all slots up to leaderCommit
+	 * under the given ballot. A slot accepted here under the same ballot holds
+	 * exactly the value the leader proposed, so it is decided too. We stop at
+	 * the first slot which was not accepted under that ballot since it is not
+	 * known what got decided there.
+	 *
+	 * @return long The new commit index
+	 */
+	long learnCommit(long leaderCommit, long ballot) {
+		long limit = Math.min(leaderCommit, highestSlot);
+		while (commitIndex < limit && acceptedBallots[(int) (commitIndex + 1 - base)] == ballot) {
+			commitIndex++;
+			commandsCommitted += batches[(int) (commitIndex - base)].length;
+		}
+		return commitIndex;
+	}
+
+	private void ensureCapacity(long slot) {
+		if (slot < 0 || slot - base >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Slot out of range: " + slot);
+		}
+		int needed = (int) (slot - base) + 1;
+		if (needed > batches.length) {
+			int newCapacity = Math.max(needed, batches.length * 2);
+			int oldCapacity = batches.length;
+			batches = Arrays.copyOf(batches, newCapacity);
+			acceptedBallots = Arrays.copyOf(acceptedBallots, newCapacity);
+			Arrays.fill(acceptedBallots, oldCapacity, newCapacity, Ballot.NONE);
+		}
+	}
+
+}
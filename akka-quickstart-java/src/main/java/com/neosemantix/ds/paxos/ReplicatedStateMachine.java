@@ -0,0 +1,328 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Applies the decided part of the replicated log to this participant's copy
+ * of the StateMachine, one slot after the other, and answers clients on the
+ * log leader.
+ *
+ * Commands: the leader remembers who submitted each command it hands to the
+ * proposer. Batches are cut from the front of the CommandBatcher, so once the
+ * proposer reports that a batch of n commands went out in a slot, the n oldest
+ * clients are the ones waiting for that slot. When it gets applied, each of
+ * them gets the result of its command. Batches an earlier leader left behind
+ * and the leader re-proposes have nobody waiting here.
+ *
+ * Reads (ReadIndex): a query does not go through the log, but the leader may
+ * only answer it from its copy once it knows it still was the leader when the
+ * query arrived; another one may have taken over and decided more commands
+ * already. So the query waits for the next slot the leader proposes, whose
+ * decision confirms the leadership. By then every command decided before the
+ * query arrived is applied. Queries share that slot with commands and with
+ * each other; if none is coming, the proposer sends an empty batch. Only one
+ * slot is forced at a time: queries arriving while it is under way wait for
+ * the one after it, as with heartbeat rounds in Raft.
+ *
+ * When the leader gets preempted, every client still waiting for a slot or a
+ * confirmation gets a failed Reply.
+ *
+ * Compaction: every compactionInterval applied slots, the log drops those it
+ * applied. The state machine is then all there is of them; a participant
+ * which missed them gets a snapshot of it, see SnapshotTransfer, and
+ * installs it in place of its own copy.
+ *
+ * Membership changes go through the log as commands too, but they are
+ * applied to the Membership instead of the state machine; snapshots carry the
+ * membership in front of the state machine's state, see Loader.
+ */
+class ReplicatedStateMachine {
+
+	// placeholder for commands nobody waits for, Propose
+	private static final Object NOBODY = new Object();
+
+	private static final long UNCONFIRMED = -1;
+
+	private final Participant participant;
+	private final ReplicatedLog log;
+	private final long compactionInterval;
+	private final Membership membership;
+	private StateMachine machine;
+
+	// snapshot being recovered from the store
+	private Loader restoring;
+
+	// every slot up to this one has been applied, they held appliedCommands
+	private long applied;
+	private long appliedCommands;
+
+	// leader only: clients of the commands in the batcher, oldest first
+	private final ArrayDeque<Object> waitingClients;
+	private final LongQueue waitingIds;
+
+	// leader only: slots with commands somebody waits for, in slot order
+	private final ArrayDeque<ProposedSlot> proposed;
+
+	// leader only: queries in the order their confirming slots get decided
+	private final ArrayDeque<PendingRead> reads;
+	private MultiPaxosProposer proposer;
+
+	private static final class ProposedSlot {
+
+		private final long slot;
+		private final Object[] clients;
+		private final long[] requestIds;
+
+		private ProposedSlot(long s, int commands) {
+			slot = s;
+			clients = new Object[commands];
+			requestIds = new long[commands];
+		}
+
+	}
+
+	private static final class PendingRead {
+
+		private final Object client;
+		private final long requestId;
+		private final long query;
+		private long confirmingSlot;
+
+		private PendingRead(Object c, long id, long q, long slot) {
+			client = c;
+			requestId = id;
+			query = q;
+			confirmingSlot = slot;
+		}
+
+	}
+
+	/**
+	 * Takes a snapshot apart as its parts come in: the membership header
+	 * first, then the state machine's longs, which go into the given state
+	 * machine.
+	 */
+	static final class Loader {
+
+		private final StateMachine machine;
+		private long[] header;
+		private int headerLoaded;
+
+		Loader(StateMachine sm) {
+			machine = sm;
+		}
+
+		/**
+		 * @return boolean True when this part completed the header
+		 */
+		boolean load(long[] part) {
+			if (part.length == 0) {
+				return false;
+			}
+			if (header == null) {
+				header = new long[Membership.headerLength(part[0])];
+			}
+			boolean complete = headerLoaded == header.length;
+			int i = 0;
+			while (headerLoaded < header.length && i < part.length) {
+				header[headerLoaded++] = part[i++];
+			}
+			if (i < part.length) {
+				machine.load(i == 0 ? part : Arrays.copyOfRange(part, i, part.length));
+			}
+			return !complete && headerLoaded == header.length;
+		}
+
+	}
+
+	/**
+	 * @param interval
+	 *            Applied slots between compactions of the log, 0 for never
+	 */
+	ReplicatedStateMachine(Participant p, ReplicatedLog rl, StateMachine sm, Membership m, long interval) {
+		participant = p;
+		log = rl;
+		machine = sm;
+		membership = m;
+		compactionInterval = interval;
+		applied = ReplicatedLog.NO_SLOT;
+		waitingClients = new ArrayDeque<Object>();
+		waitingIds = new LongQueue();
+		proposed = new ArrayDeque<ProposedSlot>();
+		reads = new ArrayDeque<PendingRead>();
+	}
+
+	long applied() {
+		return applied;
+	}
+
+	long appliedCommands() {
+		return appliedCommands;
+	}
+
+	/**
+	 * @return long[] The membership and the state after the applied slots,
+	 *         see StateMachine.snapshot
+	 */
+	long[] snapshot() {
+		long[] header = membership.snapshot();
+		long[] state = machine.snapshot();
+		long[] snapshot = Arrays.copyOf(header, header.length + state.length);
+		System.arraycopy(state, 0, snapshot, header.length, state.length);
+		return snapshot;
+	}
+
+	/**
+	 * Recovery found a snapshot taken after applying every slot up to 'slot';
+	 * its state follows in restoreData calls.
+	 */
+	void restore(long slot, long commands) {
+		machine.reset();
+		restoring = new Loader(machine);
+		applied = slot;
+		appliedCommands = commands;
+	}
+
+	void restoreData(long[] part) {
+		if (restoring.load(part)) {
+			membership.restore(restoring.header);
+		}
+	}
+
+	/**
+	 * A snapshot of another participant replaces our state machine, the log
+	 * has already dropped the slots it covers.
+	 */
+	void install(Loader loaded, long slot, long commands) {
+		machine = loaded.machine;
+		membership.restore(loaded.header);
+		applied = slot;
+		appliedCommands = commands;
+		while (!proposed.isEmpty() && proposed.peek().slot <= slot) {
+			// applied by someone else, the results are gone
+			ProposedSlot ps = proposed.poll();
+			for (int i = 0; i < ps.clients.length; i++) {
+				if (ps.clients[i] != null) {
+					participant.send(ps.clients[i], new Protocol.Reply(ps.requestIds[i], 0, false));
+				}
+			}
+		}
+		applyCommitted();
+	}
+
+	/**
+	 * A command is about to be handed to the proposer.
+	 *
+	 * @param client
+	 *            Who gets the Reply, null if nobody
+	 */
+	void submitted(Object client, long requestId) {
+		waitingClients.add(client != null ? client : NOBODY);
+		waitingIds.add(requestId);
+	}
+
+	/**
+	 * The proposer cut the oldest 'commands' commands into a batch for the
+	 * slot.
+	 */
+	void batchProposed(long slot, int commands) {
+		ProposedSlot ps = null;
+		for (int i = 0; i < commands; i++) {
+			Object client = waitingClients.poll();
+			long id = waitingIds.poll();
+			if (client != NOBODY) {
+				if (ps == null) {
+					ps = new ProposedSlot(slot, commands);
+					proposed.add(ps);
+				}
+				ps.clients[i] = client;
+				ps.requestIds[i] = id;
+			}
+		}
+	}
+
+	/**
+	 * A query arrived at the log leader.
+	 */
+	void read(Object client, long requestId, long query, MultiPaxosProposer p) {
+		proposer = p;
+		boolean idle = reads.isEmpty();
+		reads.add(new PendingRead(client, requestId, query, p.isLeading() ? p.nextSlot() : UNCONFIRMED));
+		if (idle) {
+			// may decide the slot right away
+			p.confirmLeadership();
+		}
+		// else the slot of the earlier queries is under way, ours follows
+	}
+
+	/**
+	 * Phase 1 is over, queries which arrived before wait for the first slot
+	 * of the new ballot.
+	 */
+	void leaderElected(long firstSlot) {
+		for (PendingRead r : reads) {
+			if (r.confirmingSlot == UNCONFIRMED) {
+				r.confirmingSlot = firstSlot;
+			}
+		}
+	}
+
+	void leadershipLost() {
+		for (ProposedSlot ps : proposed) {
+			for (int i = 0; i < ps.clients.length; i++) {
+				if (ps.clients[i] != null) {
+					participant.send(ps.clients[i], new Protocol.Reply(ps.requestIds[i], 0, false));
+				}
+			}
+		}
+		proposed.clear();
+		for (PendingRead r : reads) {
+			participant.send(r.client, new Protocol.Reply(r.requestId, 0, false));
+		}
+		reads.clear();
+	}
+
+	/**
+	 * Applies what got decided since the last call and answers whoever waits
+	 * for it.
+	 */
+	void applyCommitted() {
+		while (applied < log.commitIndex()) {
+			long slot = ++applied;
+			long[] batch = log.batch(slot);
+			ProposedSlot ps = proposed.peek();
+			if (ps != null && ps.slot == slot) {
+				proposed.poll();
+			} else {
+				ps = null;
+			}
+			appliedCommands += batch.length;
+			for (int i = 0; i < batch.length; i++) {
+				long result;
+				if (Membership.isChange(batch[i])) {
+					result = membership.decided(slot, batch[i]);
+					participant.membershipChanged(result);
+				} else {
+					result = machine.apply(batch[i]);
+				}
+				if (ps != null && ps.clients[i] != null) {
+					participant.send(ps.clients[i], new Protocol.Reply(ps.requestIds[i], result, true));
+				}
+			}
+		}
+		while (!reads.isEmpty() && reads.peek().confirmingSlot != UNCONFIRMED
+				&& reads.peek().confirmingSlot <= applied) {
+			PendingRead r = reads.poll();
+			participant.send(r.client, new Protocol.Reply(r.requestId, machine.query(r.query), true));
+		}
+		if (!reads.isEmpty() && reads.peekLast().confirmingSlot >= proposer.nextSlot()) {
+			// the proposer pumps once the commit index has moved
+			proposer.requestConfirmation();
+		}
+		if (compactionInterval > 0 && applied - log.snapshotSlot() >= compactionInterval) {
+			log.compactUpTo(applied);
+		}
+	}
+
+}
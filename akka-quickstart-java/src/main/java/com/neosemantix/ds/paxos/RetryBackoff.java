@@ -0,0 +1,55 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff for proposers whose round got rejected. With
+ * ceiling = min(max, base * 2^n), the n-th consecutive retry waits a random
+ * time between ceiling / 2 and ceiling milliseconds. The base is at least two
+ * round trips of the rejected round: a retry which comes earlier would only
+ * preempt the competing round before its accept phase is through. Competing
+ * proposers so spread out instead of preempting each other in lock step,
+ * while on a fast network a retry still goes out within milliseconds.
+ */
+class RetryBackoff {
+
+	private final long baseMillis;
+	private final long maxMillis;
+	private final Random random;
+
+	private int attempts;
+
+	RetryBackoff(long base, long max, Random r) {
+		baseMillis = base;
+		maxMillis = max;
+		random = r;
+	}
+
+	/**
+	 * @param roundTripMillis
+	 *            How long the rejected round had been running
+	 * @return long Milliseconds to wait before the next retry
+	 */
+	long nextDelayMillis(long roundTripMillis) {
+		long base = Math.max(baseMillis, 2 * roundTripMillis);
+		long ceiling = maxMillis;
+		if (attempts < 62 && base <= (maxMillis >> attempts)) {
+			ceiling = base << attempts;
+		}
+		attempts++;
+		long half = ceiling / 2;
+		return half + (long) (random.nextDouble() * (ceiling - half + 1));
+	}
+
+	/**
+	 * A round went through, next contention starts from the base delay again.
+	 */
+	void reset() {
+		attempts = 0;
+	}
+
+	int attempts() {
+		return attempts;
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.neosemantix.ds.paxos;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs many single decree consensus scenarios in a DiscreteEventSimulation,
+ * one seed each, and reports virtual time-to-consensus, messages per decision
+ * and the seeds of scenarios which broke agreement or did not decide within
+ * the time limit. Any of those can be replayed event by event with --replay.
+ *
+ * Usage: SimulationMain [settings] [scenarios] [participants] [first seed] [time limit seconds]
+ *        SimulationMain [settings] --replay <seed> [participants] [time limit seconds]
+ *
+ * Defaults are 10,000 scenarios of 5 participants from seed 1 on, each given
+ * 60 seconds of virtual time. Delays come from Config, as under Akka, plus
+ * Config.simulatedLinkDelay for every message. Settings such as
+ * --prepare-response-delay=fixed:50 override Config, see Config.applyArgs.
+ * Without --client-values=true every proposer proposes the same value and
+ * agreement can not break; with it each participant gets a value of its own
+ * at the start of the scenario.
+ */
+public class SimulationMain {
+
+	private static long percentile(long[] sorted, int count, double p) {
+		if (count == 0) {
+			return -1;
+		}
+		return sorted[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+	}
+
+	private static DiscreteEventSimulation scenario(long seed, int participants, PrintStream trace) {
+		DiscreteEventSimulation sim = new DiscreteEventSimulation(seed, participants, trace);
+		Config cfg = Config.getInstance();
+		if (cfg.clientValues || cfg.fastPaxos) {
+			sim.proposeDistinctValues(0);
+		}
+		return sim;
+	}
+
+	public static void main(String[] args) {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.acceptorStore = "memory";
+		args = Config.applyArgs(args);
+
+		if (args.length > 1 && args[0].equals("--replay")) {
+			long seed = Long.parseLong(args[1]);
+			int participants = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+			long limitMillis = (args.length > 3 ? Long.parseLong(args[3]) : 60) * 1000;
+			DiscreteEventSimulation.Outcome o = scenario(seed, participants, System.out).run(limitMillis);
+			System.out.println(String.format(
+					"Seed %d: decided at %d ms, all learned at %d ms, value %d, %d messages, %d events, trace %016x%s",
+					seed, o.decidedAtMillis, o.allLearnedAtMillis, o.value, o.messages, o.events, o.traceHash,
+					o.violation != null ? ", VIOLATION: " + o.violation : ""));
+			return;
+		}
+
+		int scenarios = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int participants = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		long firstSeed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+		long limitMillis = (args.length > 3 ? Long.parseLong(args[3]) : 60) * 1000;
+
+		long[] decidedAt = new long[scenarios];
+		long[] messages = new long[scenarios];
+		int decided = 0;
+		List<Long> undecided = new ArrayList<Long>();
+		List<DiscreteEventSimulation.Outcome> violations = new ArrayList<DiscreteEventSimulation.Outcome>();
+		long events = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < scenarios; i++) {
+			DiscreteEventSimulation.Outcome o = scenario(firstSeed + i, participants, null).run(limitMillis);
+			events += o.events;
+			if (o.violation != null) {
+				violations.add(o);
+			} else if (o.isDecided()) {
+				decidedAt[decided] = o.decidedAtMillis;
+				messages[decided] = o.messagesToDecide;
+				decided++;
+			} else {
+				undecided.add(o.seed);
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		Arrays.sort(decidedAt, 0, decided);
+		Arrays.sort(messages, 0, decided);
+		System.out.println(String.format("%d scenarios of %d participants in %.2f s: %.0f scenarios/min, %.0f events/s",
+				scenarios, participants, seconds, scenarios / seconds * 60, events / seconds));
+		System.out.println(String.format(
+				"Virtual time-to-consensus p50 %d ms, p99 %d ms, max %d ms; messages per decision p50 %d, p99 %d",
+				percentile(decidedAt, decided, 0.5), percentile(decidedAt, decided, 0.99),
+				percentile(decidedAt, decided, 1), percentile(messages, decided, 0.5),
+				percentile(messages, decided, 0.99)));
+		System.out.println(String.format("Undecided within %d s: %d %s", limitMillis / 1000, undecided.size(),
+				undecided.size() > 20 ? undecided.subList(0, 20) + "..." : undecided));
+		for (DiscreteEventSimulation.Outcome o : violations) {
+			System.out.println("VIOLATION with seed " + o.seed + ": " + o.violation);
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Brings a participant which fell behind the compacted log up to date with a
+ * snapshot of another participant's state machine, both sides of it.
+ *
+ * The receiver asks for a snapshot with SnapshotRequest. The sender takes a
+ * copy of its state as it is after its last applied slot and streams it in
+ * SnapshotChunks of chunkLongs longs. Only windowChunks chunks beyond what the
+ * receiver acknowledged are in flight, so a slow receiver holds back the
+ * sender instead of filling its own mailbox, and neither side has more than
+ * the snapshot itself and a window of chunks in memory however long the
+ * history behind it is.
+ *
+ * The receiver loads chunks into a fresh StateMachine as they arrive, in
+ * order, the membership in front of it aside. A chunk out of order is answered with the offset loaded so far, on
+ * which the sender goes back and resends from there. When the last chunk is
+ * in, the participant installs the new state machine. A transfer that stopped
+ * making progress, because the sender went away or chunks got lost, is
+ * started over with a new transfer id the next time the participant finds
+ * itself behind.
+ */
+class SnapshotTransfer {
+
+	private static final long STALLED_NANOS = 1_000_000_000L;
+
+	private final Participant participant;
+	private final String machineSpec;
+	private final int chunkLongs;
+	private final int windowChunks;
+
+	// sending side, one transfer per receiver; a new request replaces it
+	private final HashMap<Object, Outgoing> outgoing;
+
+	// receiving side, one transfer at a time
+	private Incoming incoming;
+	private long lastTransferId;
+
+	private static final class Outgoing {
+
+		private final long transferId;
+		private final long slot;
+		private final long commands;
+		private final long[] data;
+		private int acked;
+		private int sent;
+
+		private Outgoing(long id, long s, long c, long[] d) {
+			transferId = id;
+			slot = s;
+			commands = c;
+			data = d;
+		}
+
+	}
+
+	private static final class Incoming {
+
+		private final long transferId;
+		private ReplicatedStateMachine.Loader loader;
+		private int loaded;
+		private long lastProgress;
+
+		private Incoming(long id, long now) {
+			transferId = id;
+			lastProgress = now;
+		}
+
+	}
+
+	SnapshotTransfer(Participant p, String spec, int chunk, int window) {
+		participant = p;
+		machineSpec = spec;
+		chunkLongs = chunk;
+		windowChunks = window;
+		outgoing = new HashMap<Object, Outgoing>();
+	}
+
+	/**
+	 * @return boolean True while a snapshot is coming in
+	 */
+	boolean isReceiving() {
+		return incoming != null && participant.nanoTime() - incoming.lastProgress < STALLED_NANOS;
+	}
+
+	/**
+	 * Asks 'from' for its snapshot, unless one is coming in already.
+	 */
+	void request(Object from) {
+		if (isReceiving()) {
+			return;
+		}
+		incoming = new Incoming(++lastTransferId, participant.nanoTime());
+		participant.send(from, new Protocol.SnapshotRequest(incoming.transferId));
+	}
+
+	/**
+	 * @param slot
+	 *            Every slot up to this one is applied to the state
+	 * @param commands
+	 *            Client commands in those slots
+	 * @param data
+	 *            The state, a copy nobody changes
+	 */
+	void requested(Object to, long transferId, long slot, long commands, long[] data) {
+		Outgoing o = new Outgoing(transferId, slot, commands, data);
+		outgoing.put(to, o);
+		if (data.length == 0) {
+			participant.send(to, new Protocol.SnapshotChunk(transferId, slot, commands, 0, 0, data));
+		} else {
+			fill(to, o);
+		}
+	}
+
+	void acked(Object from, Protocol.SnapshotAck ack) {
+		Outgoing o = outgoing.get(from);
+		if (o == null || o.transferId != ack.transferId) {
+			return;
+		}
+		if (ack.offset >= o.data.length) {
+			outgoing.remove(from);
+		} else if (ack.offset == o.acked) {
+			// no progress, a chunk went missing: go back
+			o.sent = ack.offset;
+			fill(from, o);
+		} else if (ack.offset > o.acked) {
+			o.acked = ack.offset;
+			fill(from, o);
+		}
+		// else an older ack overtaken by a later one
+	}
+
+	private void fill(Object to, Outgoing o) {
+		long limit = o.acked + (long) windowChunks * chunkLongs;
+		while (o.sent < o.data.length && o.sent < limit) {
+			int end = Math.min(o.data.length, o.sent + chunkLongs);
+			participant.send(to, new Protocol.SnapshotChunk(o.transferId, o.slot, o.commands, o.data.length, o.sent,
+					Arrays.copyOfRange(o.data, o.sent, end)));
+			o.sent = end;
+		}
+	}
+
+	void received(Object from, Protocol.SnapshotChunk chunk) {
+		Incoming in = incoming;
+		if (in == null || in.transferId != chunk.transferId) {
+			return;
+		}
+		if (chunk.offset != in.loaded) {
+			if (chunk.offset > in.loaded) {
+				participant.send(from, new Protocol.SnapshotAck(in.transferId, in.loaded));
+			}
+			// else a chunk sent again which we have
+			return;
+		}
+		if (in.loader == null) {
+			in.loader = new ReplicatedStateMachine.Loader(StateMachine.parse(machineSpec));
+		}
+		in.loader.load(chunk.data);
+		in.loaded += chunk.data.length;
+		in.lastProgress = participant.nanoTime();
+		participant.send(from, new Protocol.SnapshotAck(in.transferId, in.loaded));
+		if (chunk.isLast()) {
+			incoming = null;
+			participant.snapshotReceived(chunk.slot, chunk.commands, in.loader);
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.neosemantix.ds.paxos;
+
+/**
+ * Deterministic state machine replicated through the Multi-Paxos log. Every
+ * participant applies the decided commands to its own copy, in log order, so
+ * all copies go through the same states. Commands and results are plain longs
+ * like the log's batches; how a command is encoded is up to the state
+ * machine. Commands with all of their top 16 bits set are taken: they change
+ * the membership of the log and never reach the state machine, see
+ * Membership.
+ *
+ * A snapshot is the state written as longs as well. Once the state is in a
+ * snapshot, the log slots applied to it can be dropped; a participant which
+ * missed them loads the snapshot instead, in parts as they arrive.
+ *
+ * Picked by Config.stateMachine, see parse.
+ */
+public interface StateMachine {
+
+	/**
+	 * Applies a decided command.
+	 *
+	 * @return long Result handed back to the client which submitted it
+	 */
+	long apply(long command);
+
+	/**
+	 * Answers a query from the current state, without changing it.
+	 */
+	long query(long query);
+
+	/**
+	 * @return long[] The current state, for load to rebuild it; a copy the
+	 *         state machine does not change afterwards
+	 */
+	long[] snapshot();
+
+	/**
+	 * Drops all state, a snapshot gets loaded next.
+	 */
+	void reset();
+
+	/**
+	 * Loads the next part of a snapshot; parts come in the order the snapshot
+	 * has them.
+	 */
+	void load(long[] part);
+
+	/**
+	 * Accepts "none", whose commands do nothing, and "kv" or
+	 * "kv:initial capacity" for a KeyValueStore.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the spec is none of these
+	 */
+	static StateMachine parse(String spec) {
+		String[] parts = spec.trim().split(":");
+		try {
+			switch (parts[0].toLowerCase()) {
+			case "none":
+				if (parts.length == 1) {
+					return new None();
+				}
+				break;
+			case "kv":
+				if (parts.length == 1) {
+					return new KeyValueStore();
+				} else if (parts.length == 2) {
+					return new KeyValueStore(Integer.parseInt(parts[1]));
+				}
+				break;
+			default:
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed state machine: " + spec, e);
+		}
+		throw new IllegalArgumentException("Unknown state machine: " + spec);
+	}
+
+	/**
+	 * Ignores commands, the log is all there is. Every result is 0.
+	 */
+	public static class None implements StateMachine {
+
+		public long apply(long command) {
+			return 0;
+		}
+
+		public long query(long query) {
+			return 0;
+		}
+
+		public long[] snapshot() {
+			return CommandBatcher.EMPTY_BATCH;
+		}
+
+		public void reset() {
+		}
+
+		public void load(long[] part) {
+		}
+
+		public String toString() {
+			return "none";
+		}
+
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.neosemantix.ds.paxos;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorRefFactory;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+
+/**
+ * Client of the replicated StateMachine for code outside of actors. Commands
+ * and queries go to one participant, which passes them on to the log leader,
+ * and each returns a future of its result. Replies come back to a small actor
+ * of the client which completes the futures; any thread may submit.
+ *
+ * A future fails with an IllegalStateException if the leader lost its
+ * leadership before answering. A failed query may simply be retried, a failed
+ * command may still get applied. There is no timeout, a request to a leader
+ * which crashed stays pending.
+ */
+public class StateMachineClient {
+
+	private final ActorRef participant;
+	private final ActorRef receiver;
+	private final AtomicLong requestIds;
+	private final ConcurrentHashMap<Long, CompletableFuture<Long>> pending;
+
+	private static class Receiver extends AbstractActor {
+
+		private final ConcurrentHashMap<Long, CompletableFuture<Long>> pending;
+
+		Receiver(ConcurrentHashMap<Long, CompletableFuture<Long>> p) {
+			pending = p;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder().match(Protocol.Reply.class, reply -> {
+				CompletableFuture<Long> f = pending.remove(reply.requestId);
+				if (f == null) {
+					return;
+				}
+				if (reply.ok) {
+					f.complete(reply.result);
+				} else {
+					f.completeExceptionally(new IllegalStateException("Leader changed before request "
+							+ reply.requestId + " was answered"));
+				}
+			}).build();
+		}
+
+	}
+
+	/**
+	 * @param f
+	 *            Where the client's actor lives, the ActorSystem usually
+	 * @param p
+	 *            Participant the requests go to
+	 */
+	public StateMachineClient(ActorRefFactory f, ActorRef p) {
+		participant = p;
+		requestIds = new AtomicLong();
+		pending = new ConcurrentHashMap<Long, CompletableFuture<Long>>();
+		ConcurrentHashMap<Long, CompletableFuture<Long>> map = pending;
+		receiver = f.actorOf(Props.create(Receiver.class, () -> new Receiver(map)));
+	}
+
+	/**
+	 * Appends the command to the replicated log.
+	 *
+	 * @return CompletableFuture Result of applying it, once it is decided
+	 */
+	public CompletableFuture<Long> submit(long command) {
+		long id = requestIds.incrementAndGet();
+		CompletableFuture<Long> f = register(id);
+		participant.tell(new Protocol.Submit(id, command), receiver);
+		return f;
+	}
+
+	/**
+	 * Makes the given participants the acceptors of the log, see Membership.
+	 * A change the leader can not apply fails right away.
+	 *
+	 * @return CompletableFuture Slot from which the new members decide, once
+	 *         the change is decided
+	 */
+	public CompletableFuture<Long> reconfigure(int... members) {
+		return submit(Membership.change(members));
+	}
+
+	/**
+	 * Runs the query on the leader's copy, linearizable without going through
+	 * the log.
+	 *
+	 * @return CompletableFuture Result of the query
+	 */
+	public CompletableFuture<Long> read(long query) {
+		long id = requestIds.incrementAndGet();
+		CompletableFuture<Long> f = register(id);
+		participant.tell(new Protocol.Read(id, query), receiver);
+		return f;
+	}
+
+	/**
+	 * Appends the command to the log of a Paxos group, see GroupHost; the
+	 * participant forwards it to the group's leader if need be.
+	 *
+	 * @return CompletableFuture Result of applying it, once it is decided
+	 */
+	public CompletableFuture<Long> submit(int group, long command) {
+		long id = requestIds.incrementAndGet();
+		CompletableFuture<Long> f = register(id);
+		participant.tell(new Protocol.GroupMessage(group, new Protocol.Submit(id, command)), receiver);
+		return f;
+	}
+
+	/**
+	 * Runs the query on the copy of the group's leader.
+	 *
+	 * @return CompletableFuture Result of the query
+	 */
+	public CompletableFuture<Long> read(int group, long query) {
+		long id = requestIds.incrementAndGet();
+		CompletableFuture<Long> f = register(id);
+		participant.tell(new Protocol.GroupMessage(group, new Protocol.Read(id, query)), receiver);
+		return f;
+	}
+
+	private CompletableFuture<Long> register(long id) {
+		CompletableFuture<Long> f = new CompletableFuture<Long>();
+		pending.put(id, f);
+		return f;
+	}
+
+	/**
+	 * @return int Requests which did not get a reply yet
+	 */
+	public int outstanding() {
+		return pending.size();
+	}
+
+	/**
+	 * Stops the client's actor; requests still pending fail.
+	 */
+	public void close() {
+		receiver.tell(PoisonPill.getInstance(), ActorRef.noSender());
+		for (Long id : pending.keySet()) {
+			CompletableFuture<Long> f = pending.remove(id);
+			if (f != null) {
+				f.completeExceptionally(new IllegalStateException("Client closed"));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,672 @@
+package com.neosemantix.ds.paxos;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Acceptor store backed by an append-only write-ahead log of memory-mapped
+ * segment files, plus periodic snapshots, in its own directory.
+ *
+ * Every state change is appended as a record to the current segment; that is
+ * only a memory copy. sync() forces the dirty segments to disk, so all records
+ * appended since the previous sync share a single force() (group commit).
+ * When a segment is full the next one is started.
+ *
+ * Record layout: [int payload length][int CRC32 of payload][payload], payload
+ * being [byte type][fields]. The length is written last, and segments are
+ * zero filled when created, so a record torn by a crash reads either as the end
+ * of the log (length 0) or fails its checksum. Both end the replay.
+ *
+ * A snapshot holds the complete state as of the start of a segment. It is
+ * written to a temporary file, forced and then atomically renamed; after that
+ * older segments and snapshots are deleted. Recovery loads the latest complete
+ * snapshot and replays only the segments written after it.
+ *
+ * Several Paxos groups of a GroupHost can share one store, see group(int), so
+ * a single sync makes the writes of all of them durable. A GROUP record says
+ * to which group the records after it belong, it is written whenever another
+ * group writes, and the snapshot holds the state of every group.
+ */
+class WalAcceptorStore implements AcceptorStore {
+
+	private static final byte PROMISED = 1;
+	private static final byte ACCEPTED = 2;
+	private static final byte LOG_PROMISED = 3;
+	private static final byte LOG_ACCEPTED = 4;
+	private static final byte SNAPSHOT_END = 5;
+	private static final byte LOG_SNAPSHOT = 6;
+	private static final byte LOG_SNAPSHOT_DATA = 7;
+	private static final byte GROUP = 8;
+
+	private static final int HEADER_BYTES = 8;
+
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final long snapshotInterval;
+
+	private SegmentSink wal;
+	private long segmentSeq;
+	private MappedByteBuffer segment;
+	private final List<MappedByteBuffer> unsyncedSegments;
+	private boolean dirty;
+	private long recordsSinceSnapshot;
+
+	// shared by groups: the group records written last are about, and where
+	// the state of each group comes from for a snapshot
+	private int writingGroup = -1;
+	private List<Consumer<StateVisitor>> groupSources;
+
+	WalAcceptorStore(Path dir, int segBytes, long snapInterval) {
+		directory = dir;
+		segmentBytes = segBytes;
+		snapshotInterval = snapInterval;
+		unsyncedSegments = new ArrayList<MappedByteBuffer>();
+	}
+
+	// *************************************************************************
+	// Groups
+	// *************************************************************************
+
+	/**
+	 * @param source
+	 *            Writes the complete current state of the group, for
+	 *            snapshots
+	 * @return AcceptorStore The share of the next group, groups are numbered
+	 *         from 0 in the order they get their share
+	 */
+	AcceptorStore group(Consumer<StateVisitor> source) {
+		if (groupSources == null) {
+			groupSources = new ArrayList<Consumer<StateVisitor>>();
+		}
+		groupSources.add(source);
+		return new GroupStore(groupSources.size() - 1);
+	}
+
+	/**
+	 * Replays a store shared by groups, the state of group g into
+	 * visitors[g]. The groups' own recover calls do nothing after it.
+	 */
+	void recover(StateVisitor[] visitors) {
+		recover(new StateVisitor() {
+
+			private StateVisitor visitor = NO_OP_VISITOR;
+
+			public void group(int g) {
+				// a group which is gone, fewer than there used to be
+				visitor = g < visitors.length ? visitors[g] : NO_OP_VISITOR;
+			}
+
+			public void promised(long pn) {
+				visitor.promised(pn);
+			}
+
+			public void accepted(long pn, long value) {
+				visitor.accepted(pn, value);
+			}
+
+			public void logPromised(long pn) {
+				visitor.logPromised(pn);
+			}
+
+			public void logAccepted(long slot, long pn, long[] batch) {
+				visitor.logAccepted(slot, pn, batch);
+			}
+
+			public void logSnapshot(long slot, long commands) {
+				visitor.logSnapshot(slot, commands);
+			}
+
+			public void logSnapshotData(long[] part) {
+				visitor.logSnapshotData(part);
+			}
+
+		});
+	}
+
+	/**
+	 * One group's share of the store. Writes go to the shared WAL after a
+	 * GROUP record if the last one was of another group, sync and snapshots
+	 * are those of the whole store.
+	 */
+	private final class GroupStore implements AcceptorStore {
+
+		private final int group;
+
+		private GroupStore(int g) {
+			group = g;
+		}
+
+		private SegmentSink wal() {
+			SegmentSink sink = WalAcceptorStore.this.wal();
+			if (writingGroup != group) {
+				sink.group(group);
+				writingGroup = group;
+			}
+			return sink;
+		}
+
+		public void promised(long pn) {
+			wal().promised(pn);
+		}
+
+		public void accepted(long pn, long value) {
+			wal().accepted(pn, value);
+		}
+
+		public void logPromised(long pn) {
+			wal().logPromised(pn);
+		}
+
+		public void logAccepted(long slot, long pn, long[] batch) {
+			wal().logAccepted(slot, pn, batch);
+		}
+
+		public boolean needsSync() {
+			return WalAcceptorStore.this.needsSync();
+		}
+
+		public void sync() {
+			WalAcceptorStore.this.sync();
+		}
+
+		public void recover(StateVisitor visitor) {
+			if (wal == null) {
+				throw new IllegalStateException("WAL in " + directory + " is shared, recover all groups first");
+			}
+		}
+
+		public boolean snapshotDue() {
+			return WalAcceptorStore.this.snapshotDue();
+		}
+
+		public void snapshot(Consumer<StateVisitor> source) {
+			WalAcceptorStore.this.snapshot(visitor -> {
+				for (int g = 0; g < groupSources.size(); g++) {
+					visitor.group(g);
+					groupSources.get(g).accept(visitor);
+				}
+			});
+		}
+
+		public void close() {
+			WalAcceptorStore.this.close();
+		}
+
+	}
+
+	// *************************************************************************
+	// Writes
+	// *************************************************************************
+
+	public void promised(long pn) {
+		wal().promised(pn);
+	}
+
+	public void accepted(long pn, long value) {
+		wal().accepted(pn, value);
+	}
+
+	public void logPromised(long pn) {
+		wal().logPromised(pn);
+	}
+
+	public void logAccepted(long slot, long pn, long[] batch) {
+		wal().logAccepted(slot, pn, batch);
+	}
+
+	private SegmentSink wal() {
+		if (wal == null) {
+			throw new IllegalStateException("WAL in " + directory + " is not open, recover it first");
+		}
+		return wal;
+	}
+
+	public boolean needsSync() {
+		return dirty;
+	}
+
+	public void sync() {
+		if (!dirty) {
+			return;
+		}
+		for (MappedByteBuffer full : unsyncedSegments) {
+			full.force();
+		}
+		unsyncedSegments.clear();
+		segment.force();
+		dirty = false;
+	}
+
+	public boolean snapshotDue() {
+		return recordsSinceSnapshot >= snapshotInterval;
+	}
+
+	public void snapshot(Consumer<StateVisitor> source) {
+		try {
+			sync();
+			// the snapshot covers everything before the new segment, which
+			// starts with the group of its first record
+			openSegment(segmentSeq + 1);
+			writingGroup = -1;
+			long seq = segmentSeq;
+			Path tmp = directory.resolve(SNAPSHOT_PREFIX + "tmp");
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				SnapshotSink sink = new SnapshotSink(ch);
+				source.accept(sink);
+				sink.finish();
+				ch.force(true);
+			}
+			Files.move(tmp, snapshotPath(seq), StandardCopyOption.ATOMIC_MOVE);
+			syncDirectory();
+			for (long old : sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+				if (old < seq) {
+					Files.deleteIfExists(segmentPath(old));
+				}
+			}
+			for (long old : sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+				if (old < seq) {
+					Files.deleteIfExists(snapshotPath(old));
+				}
+			}
+			recordsSinceSnapshot = 0;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not snapshot acceptor state in " + directory, e);
+		}
+	}
+
+	public void close() {
+		if (wal != null) {
+			sync();
+			wal = null;
+			segment = null;
+		}
+	}
+
+	// *************************************************************************
+	// Recovery
+	// *************************************************************************
+
+	public void recover(StateVisitor visitor) {
+		try {
+			Files.createDirectories(directory);
+			long snapshotSeq = loadLatestSnapshot(visitor);
+			List<Long> segments = new ArrayList<Long>();
+			for (long seq : sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+				if (seq >= snapshotSeq) {
+					segments.add(seq);
+				} else {
+					// crashed after the snapshot was complete but before cleanup
+					Files.deleteIfExists(segmentPath(seq));
+				}
+			}
+			if (segments.isEmpty()) {
+				openSegment(snapshotSeq);
+			} else {
+				for (int i = 0; i < segments.size(); i++) {
+					boolean last = i == segments.size() - 1;
+					MappedByteBuffer mb = map(segments.get(i));
+					int end = replay(mb, visitor, last);
+					if (last) {
+						// anything beyond the last good record is a torn write, clear it
+						for (int p = end; p < mb.limit(); p++) {
+							mb.put(p, (byte) 0);
+						}
+						mb.force();
+						mb.position(end);
+						segmentSeq = segments.get(i);
+						segment = mb;
+					}
+				}
+			}
+			wal = new SegmentSink();
+			writingGroup = -1;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not recover acceptor state from " + directory, e);
+		}
+	}
+
+	/**
+	 * @return long Sequence of the first segment not covered by the snapshot
+	 *         loaded, 0 if there is no usable snapshot.
+	 */
+	private long loadLatestSnapshot(StateVisitor visitor) throws IOException {
+		List<Long> snapshots = sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		for (int i = snapshots.size() - 1; i >= 0; i--) {
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(snapshotPath(snapshots.get(i))));
+			if (isCompleteSnapshot(buf.duplicate())) {
+				replay(buf, visitor, false);
+				return snapshots.get(i);
+			}
+		}
+		return 0;
+	}
+
+	private boolean isCompleteSnapshot(ByteBuffer buf) {
+		final boolean[] complete = new boolean[1];
+		try {
+			replayRecords(buf, NO_OP_VISITOR, false, () -> complete[0] = true);
+		} catch (IllegalStateException e) {
+			return false;
+		}
+		return complete[0];
+	}
+
+	private int replay(ByteBuffer buf, StateVisitor visitor, boolean tail) {
+		return replayRecords(buf, visitor, tail, () -> {
+		});
+	}
+
+	/**
+	 * @param tail
+	 *            True for the last segment, where a bad record is the expected
+	 *            result of a crash; anywhere else it means corruption.
+	 * @return int Position after the last good record
+	 */
+	private int replayRecords(ByteBuffer buf, StateVisitor visitor, boolean tail, Runnable onSnapshotEnd) {
+		CRC32 crc = new CRC32();
+		int records = 0;
+		while (buf.remaining() >= HEADER_BYTES) {
+			int start = buf.position();
+			int len = buf.getInt(start);
+			if (len == 0) {
+				break;
+			}
+			int expectedCrc = buf.getInt(start + 4);
+			if (len < 0 || len > buf.remaining() - HEADER_BYTES) {
+				if (tail) {
+					break;
+				}
+				throw new IllegalStateException("Corrupt record length at " + start + " in " + directory);
+			}
+			ByteBuffer payload = buf.duplicate();
+			payload.position(start + HEADER_BYTES);
+			payload.limit(start + HEADER_BYTES + len);
+			crc.reset();
+			crc.update(payload.duplicate());
+			if ((int) crc.getValue() != expectedCrc) {
+				if (tail) {
+					break;
+				}
+				throw new IllegalStateException("Checksum mismatch at " + start + " in " + directory);
+			}
+			byte type = payload.get();
+			switch (type) {
+			case PROMISED:
+				visitor.promised(payload.getLong());
+				break;
+			case ACCEPTED:
+				visitor.accepted(payload.getLong(), payload.getLong());
+				break;
+			case LOG_PROMISED:
+				visitor.logPromised(payload.getLong());
+				break;
+			case LOG_ACCEPTED:
+				long slot = payload.getLong();
+				long pn = payload.getLong();
+				long[] batch = new long[payload.getInt()];
+				for (int i = 0; i < batch.length; i++) {
+					batch[i] = payload.getLong();
+				}
+				visitor.logAccepted(slot, pn, batch);
+				break;
+			case LOG_SNAPSHOT:
+				visitor.logSnapshot(payload.getLong(), payload.getLong());
+				break;
+			case LOG_SNAPSHOT_DATA:
+				long[] part = new long[payload.getInt()];
+				for (int i = 0; i < part.length; i++) {
+					part[i] = payload.getLong();
+				}
+				visitor.logSnapshotData(part);
+				break;
+			case GROUP:
+				visitor.group(payload.getInt());
+				break;
+			case SNAPSHOT_END:
+				if (payload.getLong() != records) {
+					throw new IllegalStateException("Snapshot record count mismatch in " + directory);
+				}
+				onSnapshotEnd.run();
+				break;
+			default:
+				throw new IllegalStateException("Unknown record type " + type + " in " + directory);
+			}
+			records++;
+			buf.position(start + HEADER_BYTES + len);
+		}
+		return buf.position();
+	}
+
+	private static final StateVisitor NO_OP_VISITOR = new StateVisitor() {
+
+		public void promised(long pn) {
+		}
+
+		public void accepted(long pn, long value) {
+		}
+
+		public void logPromised(long pn) {
+		}
+
+		public void logAccepted(long slot, long pn, long[] batch) {
+		}
+
+		public void logSnapshot(long slot, long commands) {
+		}
+
+		public void logSnapshotData(long[] part) {
+		}
+
+	};
+
+	// *************************************************************************
+	// Files
+	// *************************************************************************
+
+	private void openSegment(long seq) throws IOException {
+		if (segment != null) {
+			unsyncedSegments.add(segment);
+		}
+		segment = map(seq);
+		segmentSeq = seq;
+	}
+
+	private MappedByteBuffer map(long seq) throws IOException {
+		try (FileChannel ch = FileChannel.open(segmentPath(seq), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			// the mapping stays valid after the channel is closed
+			return ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		}
+	}
+
+	private void syncDirectory() {
+		try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+			dir.force(true);
+		} catch (IOException e) {
+			// not supported on every platform, the rename itself is atomic
+		}
+	}
+
+	private Path segmentPath(long seq) {
+		return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+	}
+
+	private Path snapshotPath(long seq) {
+		return directory.resolve(String.format("%s%016d%s", SNAPSHOT_PREFIX, seq, SNAPSHOT_SUFFIX));
+	}
+
+	private List<Long> sequences(String prefix, String suffix) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(f -> f.getFileName().toString())
+					.filter(n -> n.startsWith(prefix) && n.endsWith(suffix) && n.length() > prefix.length() + suffix.length())
+					.map(n -> Long.parseLong(n.substring(prefix.length(), n.length() - suffix.length()))).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	// *************************************************************************
+	// Record encoding
+	// *************************************************************************
+
+	/**
+	 * Encodes acceptor state changes as records into some buffer.
+	 */
+	private abstract static class RecordSink implements StateVisitor {
+
+		private final CRC32 crc = new CRC32();
+		private int recordStart;
+		protected long records;
+
+		/**
+		 * @return ByteBuffer positioned where the record starts with at least
+		 *         recordBytes remaining.
+		 */
+		abstract ByteBuffer reserve(int recordBytes);
+
+		abstract void written();
+
+		public void promised(long pn) {
+			end(begin(PROMISED, 8).putLong(pn));
+		}
+
+		public void accepted(long pn, long value) {
+			end(begin(ACCEPTED, 16).putLong(pn).putLong(value));
+		}
+
+		public void logPromised(long pn) {
+			end(begin(LOG_PROMISED, 8).putLong(pn));
+		}
+
+		public void logAccepted(long slot, long pn, long[] batch) {
+			ByteBuffer b = begin(LOG_ACCEPTED, 20 + 8 * batch.length).putLong(slot).putLong(pn).putInt(batch.length);
+			for (long c : batch) {
+				b.putLong(c);
+			}
+			end(b);
+		}
+
+		public void logSnapshot(long slot, long commands) {
+			end(begin(LOG_SNAPSHOT, 16).putLong(slot).putLong(commands));
+		}
+
+		public void logSnapshotData(long[] part) {
+			ByteBuffer b = begin(LOG_SNAPSHOT_DATA, 4 + 8 * part.length).putInt(part.length);
+			for (long v : part) {
+				b.putLong(v);
+			}
+			end(b);
+		}
+
+		public void group(int g) {
+			end(begin(GROUP, 4).putInt(g));
+		}
+
+		protected ByteBuffer begin(byte type, int bodyBytes) {
+			ByteBuffer b = reserve(HEADER_BYTES + 1 + bodyBytes);
+			recordStart = b.position();
+			b.position(recordStart + HEADER_BYTES);
+			return b.put(type);
+		}
+
+		protected void end(ByteBuffer b) {
+			int payloadStart = recordStart + HEADER_BYTES;
+			ByteBuffer payload = b.duplicate();
+			payload.position(payloadStart);
+			payload.limit(b.position());
+			crc.reset();
+			crc.update(payload);
+			b.putInt(recordStart + 4, (int) crc.getValue());
+			// length goes in last, until then the record reads as end of log
+			b.putInt(recordStart, b.position() - payloadStart);
+			records++;
+			written();
+		}
+
+	}
+
+	private class SegmentSink extends RecordSink {
+
+		ByteBuffer reserve(int recordBytes) {
+			if (recordBytes > segmentBytes) {
+				throw new IllegalArgumentException(
+						"Record of " + recordBytes + " bytes does not fit in a segment of " + segmentBytes);
+			}
+			if (segment.remaining() < recordBytes) {
+				try {
+					openSegment(segmentSeq + 1);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Can not start a new WAL segment in " + directory, e);
+				}
+			}
+			return segment;
+		}
+
+		void written() {
+			dirty = true;
+			recordsSinceSnapshot++;
+		}
+
+	}
+
+	private static class SnapshotSink extends RecordSink {
+
+		private final FileChannel channel;
+		private ByteBuffer buffer;
+
+		private SnapshotSink(FileChannel ch) {
+			channel = ch;
+			buffer = ByteBuffer.allocate(1 << 20);
+		}
+
+		ByteBuffer reserve(int recordBytes) {
+			if (buffer.remaining() < recordBytes) {
+				flush();
+				if (buffer.capacity() < recordBytes) {
+					buffer = ByteBuffer.allocate(recordBytes);
+				}
+			}
+			return buffer;
+		}
+
+		void written() {
+		}
+
+		private void finish() {
+			end(begin(SNAPSHOT_END, 8).putLong(records));
+			flush();
+		}
+
+		private void flush() {
+			buffer.flip();
+			try {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Can not write snapshot", e);
+			}
+			buffer.clear();
+		}
+
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import akka.event.LoggingAdapter;
+import akka.event.NoLogging;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+/**
+ * An acceptor never takes a value below a ballot it has promised or
+ * accepted, neither in classic nor in fast rounds.
+ */
+public class AcceptorTest {
+
+	private static final Integer ACCEPTOR = 0;
+	private static final Integer PROPOSER = 1;
+	private static final Integer LATE_PROPOSER = 2;
+
+	private final Config cfg = Config.getInstance();
+
+	/**
+	 * Participant 0 of three, fed messages by hand; whatever it sends is
+	 * recorded and timers never fire.
+	 */
+	private static final class Acceptor implements Environment {
+
+		private final List<Integer> participants = Arrays.asList(ACCEPTOR, PROPOSER, LATE_PROPOSER);
+		private final PartialFunction<Object, BoxedUnit> behavior;
+		private final List<Object> sent = new ArrayList<Object>();
+		private Object sender;
+
+		Acceptor() {
+			Participant p = new Participant(participants.size(), ACCEPTOR, "Participant_0", this, new Random(1));
+			behavior = p.createReceive().onMessage();
+			p.preStart();
+		}
+
+		/**
+		 * @return Object What the acceptor sent in response, null if nothing
+		 */
+		Object deliver(Integer from, Object msg) {
+			sent.clear();
+			sender = from;
+			behavior.apply(msg);
+			sender = null;
+			return sent.isEmpty() ? null : sent.get(sent.size() - 1);
+		}
+
+		/**
+		 * @return Protocol.PrepareResponse What a new, higher ballot learns
+		 */
+		Protocol.PrepareResponse prepare(long ballot) {
+			return (Protocol.PrepareResponse) deliver(LATE_PROPOSER, new Protocol.PrepareRequest(ballot));
+		}
+
+		public long currentTimeMillis() {
+			return 0;
+		}
+
+		public long nanoTime() {
+			return 0;
+		}
+
+		public Object self() {
+			return ACCEPTOR;
+		}
+
+		public Object sender() {
+			return sender;
+		}
+
+		public List<?> participants() {
+			return participants;
+		}
+
+		public Object participant(int id) {
+			return id >= 0 && id < participants.size() ? participants.get(id) : null;
+		}
+
+		public void send(Object to, Object msg) {
+			sent.add(msg);
+		}
+
+		public void sendLater(Object to, Object msg, long delayMillis) {
+			sent.add(msg);
+		}
+
+		public void forward(Object to, Object msg) {
+			sent.add(msg);
+		}
+
+		public void tellSelf(Object msg) {
+		}
+
+		public void startSingleTimer(Object key, Object msg, Duration delay) {
+		}
+
+		public void startPeriodicTimer(Object key, Object msg, Duration interval) {
+		}
+
+		public boolean isTimerActive(Object key) {
+			return false;
+		}
+
+		public String nameOf(Object endpoint) {
+			return "Participant_" + endpoint;
+		}
+
+		public LoggingAdapter log() {
+			return NoLogging.getInstance();
+		}
+
+		public void consensusReached(long ballot, int value, String report) {
+		}
+
+	}
+
+	@Before
+	public void setup() {
+		cfg.multiPaxos = false;
+		cfg.acceptorStore = "memory";
+	}
+
+	@After
+	public void restore() {
+		cfg.fastPaxos = false;
+	}
+
+	@Test
+	public void lowerAcceptRequestAfterHigherAcceptIsRefused() {
+		Acceptor a = new Acceptor();
+		long higher = Ballot.of(10, PROPOSER);
+		long lower = Ballot.of(5, LATE_PROPOSER);
+		assertTrue(a.deliver(PROPOSER, new Protocol.AcceptRequest(higher, 7)) instanceof Protocol.Accepted);
+
+		Object resp = a.deliver(LATE_PROPOSER, new Protocol.AcceptRequest(lower, 9));
+		assertTrue(resp instanceof Protocol.Nack);
+		assertEquals(lower, ((Protocol.Nack) resp).rejectedBallot);
+		assertEquals(higher, ((Protocol.Nack) resp).competingBallot);
+
+		// accepting promised the ballot too
+		Object prepResp = a.deliver(LATE_PROPOSER, new Protocol.PrepareRequest(Ballot.of(7, LATE_PROPOSER)));
+		assertTrue(prepResp instanceof Protocol.Nack);
+		Protocol.PrepareResponse pr = a.prepare(Ballot.of(20, LATE_PROPOSER));
+		assertEquals(higher, pr.getLastAcceptedProposal());
+		assertEquals(7, pr.getLastAcceptedProposalValue());
+	}
+
+	@Test
+	public void fastRoundBelowAcceptedBallotIsRefused() {
+		cfg.fastPaxos = true;
+		Acceptor a = new Acceptor();
+		long classic = Ballot.of(10, PROPOSER);
+		assertTrue(a.deliver(PROPOSER, new Protocol.AcceptRequest(classic, 7)) instanceof Protocol.Accepted);
+
+		Object resp = a.deliver(LATE_PROPOSER, new Protocol.AcceptAny(Ballot.of(5, LATE_PROPOSER)));
+		assertTrue(resp instanceof Protocol.Nack);
+		a.deliver(null, new Protocol.Propose(9));
+		Protocol.PrepareResponse pr = a.prepare(Ballot.of(20, LATE_PROPOSER));
+		assertEquals(classic, pr.getLastAcceptedProposal());
+		assertEquals(7, pr.getLastAcceptedProposalValue());
+	}
+
+	@Test
+	public void clientValueBelowAcceptedClassicBallotIsRefused() {
+		cfg.fastPaxos = true;
+		Acceptor a = new Acceptor();
+		long fast = Ballot.of(12, LATE_PROPOSER);
+		long classic = Ballot.of(15, PROPOSER);
+		// the fast round opens before any client value is there
+		assertEquals(null, a.deliver(LATE_PROPOSER, new Protocol.AcceptAny(fast)));
+		assertTrue(a.deliver(PROPOSER, new Protocol.AcceptRequest(classic, 7)) instanceof Protocol.Accepted);
+
+		a.deliver(null, new Protocol.Propose(9));
+		Protocol.PrepareResponse pr = a.prepare(Ballot.of(20, LATE_PROPOSER));
+		assertEquals(classic, pr.getLastAcceptedProposal());
+		assertEquals(7, pr.getLastAcceptedProposalValue());
+	}
+
+}
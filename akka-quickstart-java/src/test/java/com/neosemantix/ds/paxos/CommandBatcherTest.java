@@ -0,0 +1,116 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CommandBatcherTest {
+
+	private static final long MS = 1000000L;
+
+	@Test
+	public void targetGrowsUpToTheMaximumUnderLoad() {
+		CommandBatcher b = new CommandBatcher(16, 5);
+		for (long c = 0; c < 100; c++) {
+			b.add(c, 0);
+		}
+		assertTrue(b.ready(0));
+		long next = 0;
+		int[] targets = { 2, 4, 8, 16, 16, 16 };
+		for (int target : targets) {
+			long[] batch = b.nextBatch();
+			assertEquals(target, b.targetBatchSize());
+			assertEquals(16, batch.length);
+			for (long c : batch) {
+				assertEquals(next++, c);
+			}
+		}
+		assertEquals(4, b.pendingCount());
+	}
+
+	@Test
+	public void targetShrinksBackToOneWhenLoadDrops() {
+		CommandBatcher b = new CommandBatcher(16, 5);
+		// twice the target piles up between cuts
+		while (b.targetBatchSize() < 16) {
+			for (int c = 2 * b.targetBatchSize(); c > 0; c--) {
+				b.add(c, 0);
+			}
+			b.nextBatch();
+		}
+		assertTrue(b.isEmpty());
+		// one command at a time, each cut by the linger time
+		long now = 10 * MS;
+		int[] targets = { 8, 4, 2, 1, 1 };
+		for (int target : targets) {
+			b.add(now, now);
+			if (b.targetBatchSize() > 1) {
+				assertFalse(b.ready(now));
+				now += 5 * MS;
+			}
+			assertTrue(b.ready(now));
+			assertEquals(1, b.nextBatch().length);
+			assertEquals(target, b.targetBatchSize());
+			now += MS;
+		}
+	}
+
+	@Test
+	public void lingerCutsBatchesShortOfTheTarget() {
+		CommandBatcher b = new CommandBatcher(4, 5);
+		for (long c = 0; c < 8; c++) {
+			b.add(c, 0);
+		}
+		b.nextBatch();
+		b.nextBatch();
+		assertEquals(4, b.targetBatchSize());
+		assertTrue(b.isEmpty());
+		assertEquals(0, b.remainingLinger(0));
+
+		b.add(100, 10 * MS);
+		b.add(101, 12 * MS);
+		assertEquals(10 * MS, b.oldestPendingSince());
+		assertFalse(b.ready(12 * MS));
+		assertEquals(3 * MS, b.remainingLinger(12 * MS));
+		assertFalse(b.ready(15 * MS - 1));
+		assertTrue(b.ready(15 * MS));
+		assertEquals(0, b.remainingLinger(20 * MS));
+		assertArrayEquals(new long[] { 100, 101 }, b.nextBatch());
+		assertEquals(2, b.targetBatchSize());
+	}
+
+	@Test
+	public void leftoverCommandsKeepTheirArrivalTime() {
+		CommandBatcher b = new CommandBatcher(2, 5);
+		b.add(1, 0);
+		b.add(2, MS);
+		b.add(3, 2 * MS);
+		assertArrayEquals(new long[] { 1, 2 }, b.nextBatch());
+		assertEquals(2, b.targetBatchSize());
+		// command 3 lingers from its own arrival, not from that of command 1
+		assertEquals(2 * MS, b.oldestPendingSince());
+		assertEquals(3 * MS, b.remainingLinger(4 * MS));
+		assertFalse(b.ready(6 * MS));
+		assertTrue(b.ready(7 * MS));
+		b.add(4, 8 * MS);
+		assertEquals(2 * MS, b.oldestPendingSince());
+	}
+
+	@Test
+	public void emptyBatcherCutsNothing() {
+		CommandBatcher b = new CommandBatcher(8, 5);
+		assertFalse(b.ready(100 * MS));
+		assertSame(CommandBatcher.EMPTY_BATCH, b.nextBatch());
+		assertEquals(1, b.targetBatchSize());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void batchSizeBelowOneIsRejected() {
+		new CommandBatcher(0, 5);
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DiscreteEventSimulationTest {
+
+	@After
+	public void restore() {
+		Config cfg = Config.getInstance();
+		cfg.fastPaxos = false;
+		cfg.multiPaxos = false;
+		cfg.faults = FaultProfile.NONE;
+		cfg.compactionIntervalSlots = 10000;
+		cfg.catchUpLagSlots = 1000;
+		cfg.snapshotChunkLongs = 8192;
+		cfg.initialMembers = 0;
+		cfg.broadcastFanout = 0;
+		cfg.clientValues = false;
+		cfg.leaderElection = false;
+		cfg.nackRetry = false;
+		cfg.simulatedLinkDelay = new LatencyDistribution.Uniform(1, 10);
+	}
+
+	@Test
+	public void sameSeedReplaysSameSchedule() {
+		Config.getInstance().multiPaxos = false;
+		for (long seed = 1; seed <= 20; seed++) {
+			DiscreteEventSimulation.Outcome first = new DiscreteEventSimulation(seed, 5, null).run(60000);
+			DiscreteEventSimulation.Outcome again = new DiscreteEventSimulation(seed, 5, null).run(60000);
+			assertNull(first.violation);
+			assertTrue(first.isDecided());
+			assertTrue(first.allLearnedAtMillis >= first.decidedAtMillis);
+			assertEquals(first.traceHash, again.traceHash);
+			assertEquals(first.events, again.events);
+			assertEquals(first.messages, again.messages);
+			assertEquals(first.decidedAtMillis, again.decidedAtMillis);
+		}
+	}
+
+	private static int decidedWithDistinctValues(int participants, long seeds) {
+		int decided = 0;
+		for (long seed = 1; seed <= seeds; seed++) {
+			DiscreteEventSimulation sim = new DiscreteEventSimulation(seed, participants, null);
+			sim.proposeDistinctValues(0);
+			DiscreteEventSimulation.Outcome o = sim.run(60000);
+			assertNull("seed " + seed, o.violation);
+			if (o.isDecided()) {
+				decided++;
+				assertTrue("seed " + seed, o.value >= 10 && o.value < 10 + participants);
+			}
+		}
+		return decided;
+	}
+
+	@Test
+	public void competingProposersAgreeDespiteLossAndLongTails() {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.clientValues = true;
+		cfg.simulatedLinkDelay = LatencyDistribution.parse("pareto:10:1.1");
+		cfg.faults = FaultProfile.parse("drop=0.5");
+		// every participant proposes and rounds overtake each other
+		cfg.leaderElection = false;
+		cfg.nackRetry = false;
+		assertTrue(decidedWithDistinctValues(3, 10000) > 9000);
+		// a distinguished proposer, preempted ones retry after a Nack
+		cfg.leaderElection = true;
+		cfg.nackRetry = true;
+		cfg.faults = FaultProfile.parse("drop=0.3");
+		assertTrue(decidedWithDistinctValues(5, 2000) > 1800);
+	}
+
+	@Test
+	public void fastPaxosRecoversFromCollidingClients() {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.fastPaxos = true;
+		cfg.faults = FaultProfile.parse("latency=exponential:20");
+		for (long seed = 1; seed <= 50; seed++) {
+			DiscreteEventSimulation sim = new DiscreteEventSimulation(seed, 5, null);
+			// two clients at the same time, each reaches the acceptors in a
+			// different order
+			sim.propose(3000, 7, -1);
+			sim.propose(3000, 8, -1);
+			DiscreteEventSimulation.Outcome o = sim.run(60000);
+			assertNull("seed " + seed, o.violation);
+			assertTrue("seed " + seed, o.isDecided());
+			assertTrue("seed " + seed, o.value == 7 || o.value == 8);
+		}
+	}
+
+	@Test
+	public void laggingParticipantCatchesUpFromSnapshot() {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.compactionIntervalSlots = 100;
+		cfg.catchUpLagSlots = 50;
+		cfg.snapshotChunkLongs = 16;
+		// participant 4 misses the first two seconds
+		cfg.faults = FaultProfile.parse("partition=0-2000/4");
+		DiscreteEventSimulation sim = new DiscreteEventSimulation(1, 5, null);
+		for (int i = 0; i < 3000; i++) {
+			sim.propose(i, KeyValueStore.put(i % 500, i), cfg.multiPaxosLeader);
+		}
+		assertNull(sim.run(1900).violation);
+		assertTrue(sim.commitIndex(0) > 500);
+		assertTrue(sim.retainedSlots(0) < 200);
+		assertEquals(ReplicatedLog.NO_SLOT, sim.commitIndex(4));
+
+		assertNull(sim.run(5000).violation);
+		// as far as the followers which never missed anything
+		assertEquals(sim.commitIndex(1), sim.commitIndex(4));
+		assertTrue(sim.retainedSlots(4) < 200);
+	}
+
+	private static long reconfigureAndCutOffOldMembers(boolean reconfigure) {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = true;
+		cfg.initialMembers = 3;
+		// the old members other than the leader are gone after 1.5 seconds
+		cfg.faults = FaultProfile.parse("partition=1500-10000/1.2");
+		DiscreteEventSimulation sim = new DiscreteEventSimulation(1, 5, null);
+		if (reconfigure) {
+			sim.propose(100, Membership.change(0, 3, 4), cfg.multiPaxosLeader);
+		}
+		for (int i = 0; i < 3000; i++) {
+			sim.propose(i, KeyValueStore.put(i % 500, i), cfg.multiPaxosLeader);
+		}
+		assertNull(sim.run(1600).violation);
+		long before = sim.commitIndex(0);
+		assertTrue(before > 200);
+		assertNull(sim.run(5000).violation);
+		// a new member learns what it helped to decide
+		assertTrue(sim.commitIndex(3) >= sim.commitIndex(0) - cfg.pipelineWindow);
+		return sim.commitIndex(0) - before;
+	}
+
+	@Test
+	public void newMembersDecideOnceReconfigured() {
+		assertTrue(reconfigureAndCutOffOldMembers(true) > 200);
+		// without the change the leader is left alone with no quorum
+		assertEquals(0, reconfigureAndCutOffOldMembers(false));
+	}
+
+	@Test
+	public void broadcastsThroughRelayTree() {
+		Config cfg = Config.getInstance();
+		cfg.broadcastFanout = 3;
+		cfg.multiPaxos = false;
+		// 31 competing proposers would mostly preempt each other
+		cfg.leaderElection = true;
+		cfg.nackRetry = true;
+		for (long seed = 1; seed <= 10; seed++) {
+			DiscreteEventSimulation.Outcome o = new DiscreteEventSimulation(seed, 31, null).run(60000);
+			assertNull("seed " + seed, o.violation);
+			assertTrue("seed " + seed, o.isDecided());
+			assertTrue("seed " + seed, o.allLearnedAtMillis >= o.decidedAtMillis);
+		}
+
+		// a participant which never relays only withholds some of the
+		// broadcasts from its subtree
+		cfg.multiPaxos = true;
+		cfg.faults = FaultProfile.parse("partition=0-10000/5");
+		DiscreteEventSimulation sim = new DiscreteEventSimulation(1, 31, null);
+		for (int i = 0; i < 2000; i++) {
+			sim.propose(i, KeyValueStore.put(i % 500, i), cfg.multiPaxosLeader);
+		}
+		assertNull(sim.run(5000).violation);
+		assertTrue(sim.commitIndex(0) > 1000);
+		for (int p = 1; p < 31; p++) {
+			if (p != 5) {
+				assertTrue("participant " + p, sim.commitIndex(p) >= sim.commitIndex(0) - cfg.pipelineWindow);
+			}
+		}
+
+		// a lost relay or aggregated response costs a whole subtree, the
+		// leader sends its accept requests again; relays reorder the
+		// leader's requests more often
+		for (String faults : new String[] { "drop=0.05", "latency=exponential:20" }) {
+			cfg.faults = FaultProfile.parse(faults);
+			sim = new DiscreteEventSimulation(1, 31, null);
+			for (int i = 0; i < 2000; i++) {
+				sim.propose(i, KeyValueStore.put(i % 500, i), cfg.multiPaxosLeader);
+			}
+			assertNull(faults, sim.run(5000).violation);
+			assertEquals(faults, 2000, sim.commandsCommitted(0));
+		}
+	}
+
+}
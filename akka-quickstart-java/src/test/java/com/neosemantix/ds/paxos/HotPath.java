@@ -0,0 +1,174 @@
+package com.neosemantix.ds.paxos;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import akka.event.LoggingAdapter;
+import akka.event.NoLogging;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+/**
+ * A single Participant, number 0, fed steady state messages by hand: no Akka,
+ * no other participants, whatever it sends is counted and dropped and its
+ * timers never fire. Debug logging is off. HotPathTest and HotPathBenchmark
+ * under src/jmh use it to tell what handling a message costs the participant
+ * itself, in time and in allocated bytes.
+ *
+ * Each scenario is a message the participant gets over and over in a long
+ * running cluster: heartbeats of the leader, retransmitted accept requests,
+ * prepare requests of a proposer behind the times and late responses to
+ * rounds which are over.
+ *
+ * Needs the single decree configuration and acceptor state in memory, see
+ * Config.multiPaxos and Config.acceptorStore.
+ */
+public final class HotPath implements Environment {
+
+	private static final Integer SELF = 0;
+	private static final Integer PEER = 1;
+
+	private final List<Integer> participants;
+	private final Participant participant;
+	private final PartialFunction<Object, BoxedUnit> behavior;
+	private Object sender;
+	private long sent;
+
+	private final Protocol.Heartbeat heartbeat;
+	private final Protocol.AcceptRequest acceptRequest;
+	private final Protocol.PrepareRequest outdatedPrepareRequest;
+	private final Protocol.Accepted lateAccepted;
+	private final Protocol.Nack lateNack;
+	private final Protocol.Decided decided;
+
+	public HotPath(int participantCount) {
+		List<Integer> ps = new ArrayList<Integer>(participantCount);
+		for (int i = 0; i < participantCount; i++) {
+			ps.add(i);
+		}
+		participants = Collections.unmodifiableList(ps);
+		participant = new Participant(participantCount, SELF, "Participant_0", this, new Random(1));
+		behavior = participant.createReceive().onMessage();
+		participant.preStart();
+
+		long ballot = Ballot.of(10, PEER);
+		heartbeat = new Protocol.Heartbeat(1, PEER);
+		acceptRequest = new Protocol.AcceptRequest(ballot, 5);
+		outdatedPrepareRequest = new Protocol.PrepareRequest(Ballot.of(3, 2));
+		lateAccepted = new Protocol.Accepted(Ballot.of(2, SELF), 5, PEER);
+		lateNack = new Protocol.Nack(Ballot.of(2, SELF), ballot, false);
+		decided = new Protocol.Decided(ballot, 5);
+		deliver(new Protocol.PrepareRequest(ballot));
+		deliver(acceptRequest);
+		deliver(decided);
+	}
+
+	private void deliver(Object msg) {
+		sender = PEER;
+		behavior.apply(msg);
+		sender = null;
+	}
+
+	/**
+	 * Leader's heartbeat for the current term.
+	 */
+	public void heartbeat() {
+		deliver(heartbeat);
+	}
+
+	/**
+	 * Accept request for the ballot accepted already, answered with Accepted
+	 * again.
+	 */
+	public void retransmittedAccept() {
+		deliver(acceptRequest);
+	}
+
+	/**
+	 * Prepare request for a ballot lower than the one promised, answered with
+	 * a Nack after the configured response delay.
+	 */
+	public void outdatedPrepare() {
+		deliver(outdatedPrepareRequest);
+	}
+
+	/**
+	 * Accepted, Nack and Decided for rounds which are over, all ignored.
+	 */
+	public void lateResponses() {
+		deliver(lateAccepted);
+		deliver(lateNack);
+		deliver(decided);
+	}
+
+	/**
+	 * @return long Messages the participant sent so far
+	 */
+	public long sent() {
+		return sent;
+	}
+
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+	public Object self() {
+		return SELF;
+	}
+
+	public Object sender() {
+		return sender;
+	}
+
+	public List<?> participants() {
+		return participants;
+	}
+
+	public Object participant(int id) {
+		return id >= 0 && id < participants.size() ? participants.get(id) : null;
+	}
+
+	public void send(Object to, Object msg) {
+		sent++;
+	}
+
+	public void sendLater(Object to, Object msg, long delayMillis) {
+		sent++;
+	}
+
+	public void forward(Object to, Object msg) {
+		sent++;
+	}
+
+	public void tellSelf(Object msg) {
+	}
+
+	public void startSingleTimer(Object key, Object msg, Duration delay) {
+	}
+
+	public void startPeriodicTimer(Object key, Object msg, Duration interval) {
+	}
+
+	public boolean isTimerActive(Object key) {
+		return false;
+	}
+
+	public String nameOf(Object endpoint) {
+		return "Participant_" + endpoint;
+	}
+
+	public LoggingAdapter log() {
+		return NoLogging.getInstance();
+	}
+
+	public void consensusReached(long ballot, int value, String report) {
+	}
+
+}
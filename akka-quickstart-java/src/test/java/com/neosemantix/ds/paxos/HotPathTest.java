@@ -0,0 +1,55 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Steady state message handling of a participant allocates nothing, see
+ * HotPathBenchmark for the same with JMH.
+ */
+public class HotPathTest {
+
+	private static final int OPS = 100000;
+
+	private com.sun.management.ThreadMXBean threads;
+
+	@Before
+	public void setup() {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.acceptorStore = "memory";
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+	}
+
+	private double bytesPerOp(Runnable op) {
+		for (int i = 0; i < OPS; i++) {
+			op.run();
+		}
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < OPS; i++) {
+			op.run();
+		}
+		return (double) (threads.getThreadAllocatedBytes(id) - before) / OPS;
+	}
+
+	@Test
+	public void noGarbage() {
+		HotPath path = new HotPath(5);
+		assertTrue("heartbeat", bytesPerOp(path::heartbeat) < 1);
+		long sent = path.sent();
+		assertTrue("retransmittedAccept", bytesPerOp(path::retransmittedAccept) < 1);
+		assertEquals("every retransmission is answered", sent + 2 * OPS, path.sent());
+		assertTrue("outdatedPrepare", bytesPerOp(path::outdatedPrepare) < 1);
+		assertTrue("lateResponses", bytesPerOp(path::lateResponses) < 1);
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KeyValueStoreTest {
+
+	private static long expected(Integer value) {
+		return value != null ? value : KeyValueStore.NOT_FOUND;
+	}
+
+	@Test
+	public void commands() {
+		KeyValueStore kv = new KeyValueStore();
+		assertEquals(KeyValueStore.NOT_FOUND, kv.apply(KeyValueStore.get(7)));
+		assertEquals(KeyValueStore.NOT_FOUND, kv.apply(KeyValueStore.put(7, -1)));
+		assertEquals(-1, kv.apply(KeyValueStore.put(7, Integer.MAX_VALUE)));
+		assertEquals(Integer.MAX_VALUE, kv.query(KeyValueStore.get(7)));
+		assertEquals(Integer.MAX_VALUE, kv.apply(KeyValueStore.delete(7)));
+		assertEquals(KeyValueStore.NOT_FOUND, kv.apply(KeyValueStore.delete(7)));
+		assertEquals(KeyValueStore.NOT_FOUND, kv.apply(KeyValueStore.put(KeyValueStore.MAX_KEY, 1)));
+		assertEquals(1, kv.apply(KeyValueStore.get(KeyValueStore.MAX_KEY)));
+		assertTrue(KeyValueStore.isRead(KeyValueStore.get(3)));
+		assertFalse(KeyValueStore.isRead(KeyValueStore.put(3, 0)));
+		// queries do not change anything
+		assertEquals(KeyValueStore.NOT_FOUND, kv.query(KeyValueStore.delete(KeyValueStore.MAX_KEY)));
+		assertEquals(1, kv.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void keyOutOfRange() {
+		KeyValueStore.put(KeyValueStore.MAX_KEY + 1, 0);
+	}
+
+	@Test
+	public void sameAsHashMap() {
+		// few keys and a small table, so probe sequences collide, wrap around
+		// and the table grows
+		KeyValueStore kv = new KeyValueStore(4);
+		Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+		Random random = new Random(1);
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(3000);
+			switch (random.nextInt(3)) {
+			case 0:
+				assertEquals(expected(map.get(key)), kv.apply(KeyValueStore.get(key)));
+				break;
+			case 1:
+				assertEquals(expected(map.put(key, i)), kv.apply(KeyValueStore.put(key, i)));
+				break;
+			default:
+				assertEquals(expected(map.remove(key)), kv.apply(KeyValueStore.delete(key)));
+			}
+			assertEquals(map.size(), kv.size());
+		}
+		for (int key = 0; key < 3000; key++) {
+			assertEquals(expected(map.get(key)), kv.query(KeyValueStore.get(key)));
+		}
+	}
+
+	@Test
+	public void snapshotLoadsInParts() {
+		KeyValueStore kv = new KeyValueStore();
+		for (int key = 0; key < 1000; key++) {
+			kv.apply(KeyValueStore.put(key, -key));
+		}
+		kv.apply(KeyValueStore.delete(500));
+		long[] snapshot = kv.snapshot();
+		assertEquals(999, snapshot.length);
+
+		KeyValueStore copy = new KeyValueStore(4);
+		copy.apply(KeyValueStore.put(2000, 1));
+		copy.reset();
+		for (int from = 0; from < snapshot.length; from += 100) {
+			copy.load(Arrays.copyOfRange(snapshot, from, Math.min(snapshot.length, from + 100)));
+		}
+		assertEquals(999, copy.size());
+		for (int key = 0; key <= 2000; key++) {
+			assertEquals(kv.query(KeyValueStore.get(key)), copy.query(KeyValueStore.get(key)));
+		}
+	}
+
+	@Test
+	public void parse() {
+		assertTrue(StateMachine.parse("kv:100") instanceof KeyValueStore);
+		assertTrue(StateMachine.parse("none") instanceof StateMachine.None);
+	}
+
+}
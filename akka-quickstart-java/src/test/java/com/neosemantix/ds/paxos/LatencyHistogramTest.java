@@ -0,0 +1,43 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsCoverEveryValue() {
+		int previous = -1;
+		for (long v : new long[] { 0, 1, 127, 128, 129, 255, 256, 1000, 1000000, 1L << 40, Long.MAX_VALUE }) {
+			int i = LatencyHistogram.indexOf(v);
+			assertTrue(i >= previous);
+			long highest = LatencyHistogram.highestValueOf(i);
+			assertTrue(v + " in bucket up to " + highest, highest >= v);
+			assertTrue(v + " in bucket up to " + highest, highest - v <= v / 64);
+			previous = i;
+		}
+		for (long v = 0; v < 100000; v++) {
+			int i = LatencyHistogram.indexOf(v);
+			assertTrue(LatencyHistogram.highestValueOf(i) >= v);
+			assertTrue(i == 0 || LatencyHistogram.highestValueOf(i - 1) < v);
+		}
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(-1, h.percentile(50));
+		for (long v = 1; v <= 10000; v++) {
+			h.record(v * 1000);
+		}
+		assertEquals(10000, h.count());
+		assertEquals(5000000, h.percentile(50), 5000000 / 64);
+		assertEquals(9900000, h.percentile(99), 9900000 / 64);
+		assertEquals(10000000, h.max(), 10000000 / 64);
+		h.reset();
+		assertEquals(0, h.count());
+	}
+
+}
@@ -0,0 +1,206 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import com.neosemantix.ds.paxos.Protocol.PrepareResponseState;
+
+public class ProtocolSerializerTest {
+
+	private final ProtocolSerializer serializer = new ProtocolSerializer();
+
+	@SuppressWarnings("unchecked")
+	private <T> T roundTrip(T msg) throws Exception {
+		return (T) serializer.fromBinary(serializer.toBinary(msg), serializer.manifest(msg));
+	}
+
+	@Test
+	public void singleDecreeMessages() throws Exception {
+		long ballot = Ballot.of(42, 7);
+		assertEquals(ballot, roundTrip(new Protocol.PrepareRequest(ballot)).ballot);
+		assertEquals(ballot, roundTrip(new Protocol.AcceptAny(ballot)).ballot);
+
+		Protocol.AcceptRequest ar = roundTrip(new Protocol.AcceptRequest(ballot, 5));
+		assertEquals(ballot, ar.ballot);
+		assertEquals(5, ar.proposalValue);
+
+		Protocol.Accepted acc = roundTrip(new Protocol.Accepted(ballot, 5, 3));
+		assertEquals(ballot, acc.ballot);
+		assertEquals(5, acc.value);
+		assertEquals(3, acc.acceptorId);
+
+		Protocol.Nack nack = roundTrip(new Protocol.Nack(ballot, Ballot.of(43, 1), true));
+		assertEquals(ballot, nack.rejectedBallot);
+		assertEquals(Ballot.of(43, 1), nack.competingBallot);
+		assertEquals(true, nack.replicatedLog);
+	}
+
+	@Test
+	public void prepareResponseStates() throws Exception {
+		assertEquals(PrepareResponseState.REJECTED, roundTrip(new Protocol.PrepareResponse()).getState());
+
+		Protocol.PrepareResponse pr = new Protocol.PrepareResponse();
+		pr.setAcceptorId(6);
+		pr.setLastPreparedRequestProposalNo(Ballot.of(3, 2));
+		pr.setLastAcceptedProposal(Ballot.of(2, 4));
+		pr.setLastAcceptedProposalValue(10);
+		Protocol.PrepareResponse copy = roundTrip(pr);
+		assertEquals(PrepareResponseState.ACCEPTED, copy.getState());
+		assertEquals(6, copy.getAcceptorId());
+		assertEquals(Ballot.of(3, 2), copy.getLastPreparedRequestProposalNo());
+		assertEquals(Ballot.of(2, 4), copy.getLastAcceptedProposal());
+		assertEquals(10, copy.getLastAcceptedProposalValue());
+	}
+
+	@Test
+	public void replicatedLogMessages() throws Exception {
+		Protocol.BatchAcceptRequest bar = roundTrip(
+				new Protocol.BatchAcceptRequest(Ballot.of(1, 0), 17, new long[] { 1, -2, Long.MAX_VALUE }, 16));
+		assertEquals(17, bar.slot);
+		assertEquals(16, bar.commitIndex);
+		assertArrayEquals(new long[] { 1, -2, Long.MAX_VALUE }, bar.commands);
+
+		Protocol.SlotPrepareResponse spr = roundTrip(new Protocol.SlotPrepareResponse(Ballot.of(2, 1), 4, 2,
+				new long[] { 3, 5 }, new long[] { Ballot.of(1, 0), Ballot.of(1, 2) },
+				new long[][] { { 7 }, CommandBatcher.EMPTY_BATCH }));
+		assertEquals(4, spr.acceptorId);
+		assertEquals(2, spr.snapshotSlot);
+		assertArrayEquals(new long[] { 3, 5 }, spr.acceptedSlots);
+		assertArrayEquals(new long[] { Ballot.of(1, 0), Ballot.of(1, 2) }, spr.acceptedBallots);
+		assertArrayEquals(new long[] { 7 }, spr.acceptedBatches[0]);
+		assertEquals(0, spr.acceptedBatches[1].length);
+
+		Protocol.SlotAcceptResponse sar = roundTrip(new Protocol.SlotAcceptResponse(Ballot.of(2, 1), 17, 3));
+		assertEquals(17, sar.slot);
+		assertEquals(3, sar.acceptorId);
+
+		BitSet acceptors = new BitSet();
+		acceptors.set(3);
+		acceptors.set(64);
+		acceptors.set(500);
+		Protocol.SlotAcceptResponses sars = roundTrip(
+				new Protocol.SlotAcceptResponses(Ballot.of(2, 1), 17, 3, acceptors.toLongArray()));
+		assertEquals(Ballot.of(2, 1), sars.ballot);
+		assertEquals(17, sars.slot);
+		assertEquals(3, sars.from);
+		assertEquals(acceptors, BitSet.valueOf(sars.acceptors));
+	}
+
+	@Test
+	public void stateMachineMessages() throws Exception {
+		Protocol.Submit sub = roundTrip(new Protocol.Submit(12, KeyValueStore.put(3, -4)));
+		assertEquals(12, sub.requestId);
+		assertEquals(KeyValueStore.put(3, -4), sub.command);
+		assertEquals(KeyValueStore.get(9), roundTrip(new Protocol.Read(13, KeyValueStore.get(9))).query);
+
+		Protocol.Reply reply = roundTrip(new Protocol.Reply(14, KeyValueStore.NOT_FOUND, false));
+		assertEquals(14, reply.requestId);
+		assertEquals(KeyValueStore.NOT_FOUND, reply.result);
+		assertEquals(false, reply.ok);
+	}
+
+	@Test
+	public void snapshotMessages() throws Exception {
+		assertEquals(5, roundTrip(new Protocol.SnapshotRequest(5)).transferId);
+
+		long[] data = { KeyValueStore.put(1, -1), Long.MIN_VALUE, 0 };
+		Protocol.SnapshotChunk chunk = roundTrip(new Protocol.SnapshotChunk(5, 1000, 25000, 9, 6, data));
+		assertEquals(5, chunk.transferId);
+		assertEquals(1000, chunk.slot);
+		assertEquals(25000, chunk.commands);
+		assertEquals(9, chunk.length);
+		assertEquals(6, chunk.offset);
+		assertArrayEquals(data, chunk.data);
+		assertTrue(chunk.isLast());
+
+		Protocol.SnapshotAck ack = roundTrip(new Protocol.SnapshotAck(5, 6));
+		assertEquals(5, ack.transferId);
+		assertEquals(6, ack.offset);
+	}
+
+	@Test
+	public void varints() throws Exception {
+		long[] values = { 0, 1, -1, 63, 64, -64, -65, Ballot.NONE, Ballot.of(1, 0), Ballot.of(65535, 65535),
+				Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+		ByteBuffer buf = ByteBuffer.allocate(16 * values.length);
+		for (long v : values) {
+			ProtocolSerializer.putSigned(buf, v);
+		}
+		buf.flip();
+		for (long v : values) {
+			assertEquals(v, ProtocolSerializer.getSigned(buf));
+		}
+		assertEquals(0, buf.remaining());
+
+		// small ballots and the NONE marker take a fraction of 8 bytes
+		assertTrue(serializer.toBinary(new Protocol.PrepareRequest(Ballot.of(42, 7))).length <= 4);
+		assertEquals(1, serializer.toBinary(new Protocol.PrepareRequest(Ballot.NONE)).length);
+	}
+
+	@Test
+	public void byteBuffersAndLargeBatches() throws Exception {
+		Protocol.Accepted acc = new Protocol.Accepted(Ballot.of(9, 2), -3, 4);
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		serializer.toBinary(acc, buf);
+		buf.flip();
+		Protocol.Accepted copy = (Protocol.Accepted) serializer.fromBinary(buf, serializer.manifest(acc));
+		assertEquals(acc.ballot, copy.ballot);
+		assertEquals(-3, copy.value);
+		assertEquals(4, copy.acceptorId);
+
+		// larger than the initial scratch buffer
+		long[] commands = new long[10000];
+		for (int i = 0; i < commands.length; i++) {
+			commands[i] = Long.MAX_VALUE - i;
+		}
+		assertArrayEquals(commands, roundTrip(new Protocol.BatchAcceptRequest(Ballot.of(1, 0), 3, commands, 2)).commands);
+	}
+
+	@Test
+	public void batchedKeyValueCommandsTakeEightBytes() throws Exception {
+		long[] commands = new long[100];
+		for (int i = 0; i < commands.length; i++) {
+			commands[i] = i % 2 == 0 ? KeyValueStore.put(i, -i) : KeyValueStore.delete(i);
+		}
+		long ballot = Ballot.of(1, 0);
+		int empty = serializer.toBinary(new Protocol.BatchAcceptRequest(ballot, 3, CommandBatcher.EMPTY_BATCH, 2)).length;
+		// 8 bytes each, where zigzag varints would take 10
+		assertEquals(empty + 8 * commands.length,
+				serializer.toBinary(new Protocol.BatchAcceptRequest(ballot, 3, commands, 2)).length);
+
+		empty = serializer.toBinary(new Protocol.SlotPrepareResponse(ballot, 1, 0, new long[] { 3 },
+				new long[] { ballot }, new long[][] { CommandBatcher.EMPTY_BATCH })).length;
+		Protocol.SlotPrepareResponse spr = new Protocol.SlotPrepareResponse(ballot, 1, 0, new long[] { 3 },
+				new long[] { ballot }, new long[][] { commands });
+		assertEquals(empty + 8 * commands.length, serializer.toBinary(spr).length);
+		assertArrayEquals(commands, roundTrip(spr).acceptedBatches[0]);
+	}
+
+	@Test
+	public void messagesCarryingOthers() throws Exception {
+		Protocol.GroupMessage gm = roundTrip(new Protocol.GroupMessage(9999, new Protocol.Submit(5, -1)));
+		assertEquals(9999, gm.group);
+		assertEquals(5, ((Protocol.Submit) gm.message).requestId);
+		assertEquals(-1, ((Protocol.Submit) gm.message).command);
+
+		Protocol.GroupBatch batch = roundTrip(new Protocol.GroupBatch(new int[] { 0, 7, 7 },
+				new Object[] { new Protocol.PrepareRequest(Ballot.of(1, 2)), new Protocol.Accepted(Ballot.of(3, 1), 4, 1),
+						new Protocol.BatchAcceptRequest(Ballot.of(3, 1), 10, new long[] { 1, 2 }, 9) }));
+		assertArrayEquals(new int[] { 0, 7, 7 }, batch.groups);
+		assertEquals(Ballot.of(1, 2), ((Protocol.PrepareRequest) batch.messages[0]).ballot);
+		assertEquals(4, ((Protocol.Accepted) batch.messages[1]).value);
+		assertArrayEquals(new long[] { 1, 2 }, ((Protocol.BatchAcceptRequest) batch.messages[2]).commands);
+
+		Protocol.Relay relay = roundTrip(new Protocol.Relay(500, 77, new Protocol.Heartbeat(3, 500)));
+		assertEquals(500, relay.root);
+		assertEquals(77, relay.rotation);
+		assertEquals(3, ((Protocol.Heartbeat) relay.message).term);
+	}
+
+}
@@ -0,0 +1,155 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.BitSet;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class QuorumSystemTest {
+
+	private static BitSet of(int... ids) {
+		BitSet s = new BitSet();
+		for (int id : ids) {
+			s.set(id);
+		}
+		return s;
+	}
+
+	private static void rejected(String spec, int participants) {
+		try {
+			QuorumSystem.parse(spec, participants);
+			fail(spec + " accepted for " + participants + " participants");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@After
+	public void restore() {
+		Config cfg = Config.getInstance();
+		cfg.quorum = "majority";
+		cfg.leaderElection = false;
+		cfg.nackRetry = false;
+	}
+
+	@Test
+	public void majority() {
+		QuorumSystem q = QuorumSystem.parse("majority", 5);
+		assertFalse(q.isPhase1Quorum(of(0, 4)));
+		assertTrue(q.isPhase1Quorum(of(0, 2, 4)));
+		assertTrue(q.isPhase2Quorum(of(1, 2, 3)));
+		assertEquals(3, q.smallestPhase2Quorum());
+		assertEquals(2, q.phase2FailuresTolerated());
+		// both of two, and the proposer alone
+		assertFalse(QuorumSystem.parse("majority", 2).isPhase2Quorum(of(0)));
+		assertTrue(QuorumSystem.parse("majority", 1).isPhase2Quorum(of(0)));
+	}
+
+	@Test
+	public void flexible() {
+		QuorumSystem q = QuorumSystem.parse("flexible:4:2", 5);
+		assertFalse(q.isPhase1Quorum(of(0, 1, 2)));
+		assertTrue(q.isPhase1Quorum(of(0, 1, 2, 3)));
+		assertTrue(q.isPhase2Quorum(of(3, 4)));
+		assertEquals(1, q.phase1FailuresTolerated());
+		assertEquals(3, q.phase2FailuresTolerated());
+		rejected("flexible:3:2", 5);
+		rejected("flexible:6:1", 5);
+		rejected("flexible:4", 5);
+	}
+
+	@Test
+	public void weighted() {
+		QuorumSystem q = QuorumSystem.parse("weighted:3.1.1.1.1", 5);
+		// total 7, both phases need 4
+		assertTrue(q.isPhase2Quorum(of(0, 4)));
+		assertFalse(q.isPhase2Quorum(of(1, 2, 3)));
+		assertEquals(2, q.smallestPhase1Quorum());
+		// losing the heavy one and one more leaves 3
+		assertEquals(1, q.phase1FailuresTolerated());
+		QuorumSystem thrifty = QuorumSystem.parse("weighted:3.1.1.1.1:5:3", 5);
+		assertTrue(thrifty.isPhase2Quorum(of(0)));
+		assertFalse(thrifty.isPhase1Quorum(of(0, 1)));
+		rejected("weighted:3.1.1.1.1:4:3", 5);
+		rejected("weighted:1.1.1", 5);
+	}
+
+	@Test
+	public void grid() {
+		// 0 1 2 3 4
+		// 5 6 7 8 9
+		QuorumSystem q = QuorumSystem.parse("grid:2:5", 10);
+		assertTrue(q.isPhase1Quorum(of(5, 6, 7, 8, 9)));
+		assertFalse(q.isPhase1Quorum(of(0, 1, 2, 3, 9)));
+		assertTrue(q.isPhase2Quorum(of(3, 8)));
+		assertFalse(q.isPhase2Quorum(of(3, 9)));
+		assertEquals(2, q.smallestPhase2Quorum());
+		assertEquals(4, q.phase2FailuresTolerated());
+		rejected("grid:3:3", 10);
+	}
+
+	@Test
+	public void members() {
+		QuorumSystem q = new QuorumSystem.Members(QuorumSystem.parse("grid:1:3", 3), of(0, 3, 4));
+		// a row is all three members, a column any one of them
+		assertTrue(q.isPhase1Quorum(of(0, 1, 2, 3, 4)));
+		assertFalse(q.isPhase1Quorum(of(0, 1, 2, 3)));
+		assertTrue(q.isPhase2Quorum(of(4)));
+		assertFalse(q.isPhase2Quorum(of(1, 2)));
+
+		Membership m = new Membership("majority", 5, 3, 10);
+		assertTrue(m.at(0).isPhase2Quorum(of(1, 2)));
+		assertEquals(25, m.decided(15, Membership.change(0, 3, 4)));
+		assertTrue(m.at(24).isPhase2Quorum(of(1, 2)));
+		assertFalse(m.at(25).isPhase2Quorum(of(1, 2)));
+		assertTrue(m.at(25).isPhase2Quorum(of(3, 4)));
+		// phase 1 from before the change covers slots on both sides of it
+		assertFalse(m.isPhase1Quorum(of(3, 4), 16));
+		assertFalse(m.isPhase1Quorum(of(1, 2), 16));
+		assertTrue(m.isPhase1Quorum(of(1, 2, 3, 4), 16));
+		assertTrue(m.isPhase1Quorum(of(3, 4), 25));
+	}
+
+	@Test
+	public void validatorFindsDisjointQuorums() {
+		QuorumSystem.validate(new QuorumSystem.Grid(3, 4));
+		QuorumSystem.validate(new QuorumSystem.Weighted(new int[] { 2, 2, 1, 1, 1, 0 }, 4, 4));
+		QuorumSystem.validate(new QuorumSystem.Majority(12));
+		try {
+			// phase 2 of a column, phase 1 of a column as well
+			QuorumSystem.validate(new QuorumSystem.Grid(2, 3) {
+
+				public boolean isPhase1Quorum(BitSet acceptors) {
+					return isPhase2Quorum(acceptors);
+				}
+
+			});
+			fail("disjoint columns accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void singleDecreeAgreesUnderFlexibleQuorums() {
+		Config cfg = Config.getInstance();
+		cfg.multiPaxos = false;
+		cfg.leaderElection = true;
+		cfg.nackRetry = true;
+		for (String spec : new String[] { "flexible:4:2", "weighted:3.1.1.1.1", "flexible:5:1" }) {
+			cfg.quorum = spec;
+			for (long seed = 1; seed <= 20; seed++) {
+				DiscreteEventSimulation.Outcome o = new DiscreteEventSimulation(seed, 5, null).run(60000);
+				assertNull(spec + " seed " + seed, o.violation);
+				assertTrue(spec + " seed " + seed, o.isDecided());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RelayTreeTest {
+
+	@Test
+	public void everybodyButTheRootGetsItOnce() {
+		for (int n = 2; n <= 40; n++) {
+			for (int fanout = 1; fanout <= 4; fanout++) {
+				for (int root = 0; root < n; root++) {
+					for (int rotation = 0; rotation < n + 3; rotation++) {
+						int[] received = new int[n];
+						for (int p = 0; p < n; p++) {
+							int id = RelayTree.idAt(p, root, rotation, n);
+							assertEquals(p, RelayTree.positionOf(id, root, rotation, n));
+							for (int c = RelayTree.firstChild(p, fanout); c < RelayTree.firstChild(p, fanout) + fanout
+									&& c < n; c++) {
+								received[RelayTree.idAt(c, root, rotation, n)]++;
+							}
+						}
+						for (int id = 0; id < n; id++) {
+							assertEquals(id == root ? 0 : 1, received[id]);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void rotationMovesTheInnerNodes() {
+		// with 501 participants and fan-out 8 the first 62 positions relay
+		boolean[] relayed = new boolean[501];
+		for (int rotation = 0; rotation < 8; rotation++) {
+			for (int p = 1; RelayTree.firstChild(p, 8) < 501; p++) {
+				relayed[RelayTree.idAt(p, 0, rotation * 62, 501)] = true;
+			}
+		}
+		int count = 0;
+		for (boolean r : relayed) {
+			count += r ? 1 : 0;
+		}
+		assertTrue(count > 400);
+	}
+
+	@Test
+	public void silentParticipantsBecomeLeaves() {
+		RelayTree tree = new RelayTree(31, 3, 200, 0);
+		for (long now = 0; now <= 1000; now += 10) {
+			for (int id = 1; id < 31; id++) {
+				if (id != 5) {
+					tree.heardFrom(id);
+				}
+			}
+			int rotation = tree.nextRotation(0, now);
+			if (now > 300) {
+				// no children at 10 and beyond
+				assertTrue(RelayTree.positionOf(5, 0, rotation, 31) >= 10);
+			}
+		}
+		// after a pause nobody is suspected, every rotation comes up again
+		boolean[] seen = new boolean[30];
+		for (int i = 0; i < 30; i++) {
+			seen[tree.nextRotation(0, 5000)] = true;
+		}
+		for (boolean s : seen) {
+			assertTrue(s);
+		}
+	}
+
+}
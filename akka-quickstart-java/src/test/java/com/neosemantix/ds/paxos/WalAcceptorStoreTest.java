@@ -0,0 +1,254 @@
+package com.neosemantix.ds.paxos;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WalAcceptorStoreTest {
+
+	private Path dir;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("wal-test");
+	}
+
+	@After
+	public void teardown() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path p : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	/**
+	 * Collects replayed records as strings, easy to compare.
+	 */
+	static class Recorder implements AcceptorStore.StateVisitor {
+
+		final List<String> records = new ArrayList<String>();
+		final List<long[]> batches = new ArrayList<long[]>();
+
+		public void promised(long pn) {
+			records.add("promised " + pn);
+		}
+
+		public void accepted(long pn, long value) {
+			records.add("accepted " + pn + " " + value);
+		}
+
+		public void logPromised(long pn) {
+			records.add("logPromised " + pn);
+		}
+
+		public void logAccepted(long slot, long pn, long[] batch) {
+			records.add("logAccepted " + slot + " " + pn);
+			batches.add(batch);
+		}
+
+		public void logSnapshot(long slot, long commands) {
+			records.add("logSnapshot " + slot + " " + commands);
+		}
+
+		public void logSnapshotData(long[] part) {
+			records.add("logSnapshotData " + part.length);
+			batches.add(part);
+		}
+
+	}
+
+	@Test
+	public void testRecoversSyncedRecords() {
+		WalAcceptorStore store = new WalAcceptorStore(dir, 4096, 1000);
+		store.recover(new Recorder());
+		store.promised(3);
+		store.accepted(3, 15);
+		store.logPromised(7);
+		store.logAccepted(0, 7, new long[] { 1, 2, 3 });
+		assertTrue(store.needsSync());
+		store.sync();
+		store.close();
+
+		Recorder r = new Recorder();
+		WalAcceptorStore reopened = new WalAcceptorStore(dir, 4096, 1000);
+		reopened.recover(r);
+		assertEquals(4, r.records.size());
+		assertEquals("promised 3", r.records.get(0));
+		assertEquals("accepted 3 15", r.records.get(1));
+		assertEquals("logPromised 7", r.records.get(2));
+		assertEquals("logAccepted 0 7", r.records.get(3));
+		assertArrayEquals(new long[] { 1, 2, 3 }, r.batches.get(0));
+
+		// appending continues after the recovered records
+		reopened.promised(9);
+		reopened.close();
+		Recorder again = new Recorder();
+		new WalAcceptorStore(dir, 4096, 1000).recover(again);
+		assertEquals(5, again.records.size());
+		assertEquals("promised 9", again.records.get(4));
+	}
+
+	@Test
+	public void testRollsOverSegments() {
+		WalAcceptorStore store = new WalAcceptorStore(dir, 256, 100000);
+		store.recover(new Recorder());
+		for (int i = 0; i < 100; i++) {
+			store.logAccepted(i, 1, new long[] { i });
+		}
+		store.close();
+		Recorder r = new Recorder();
+		new WalAcceptorStore(dir, 256, 100000).recover(r);
+		assertEquals(100, r.records.size());
+		assertEquals("logAccepted 99 1", r.records.get(99));
+	}
+
+	@Test
+	public void testTornTailIsDropped() throws IOException {
+		WalAcceptorStore store = new WalAcceptorStore(dir, 4096, 1000);
+		store.recover(new Recorder());
+		store.promised(1);
+		store.promised(2);
+		store.close();
+		// first record is 8 header + 9 payload bytes; flip a byte in the second one
+		Path segment = Files.list(dir).filter(p -> p.toString().endsWith(".log")).findFirst().get();
+		try (RandomAccessFile raf = new RandomAccessFile(segment.toFile(), "rw")) {
+			raf.seek(17 + 8 + 3);
+			raf.write(0x7f);
+		}
+		Recorder r = new Recorder();
+		WalAcceptorStore reopened = new WalAcceptorStore(dir, 4096, 1000);
+		reopened.recover(r);
+		assertEquals(1, r.records.size());
+		assertEquals("promised 1", r.records.get(0));
+		reopened.promised(5);
+		reopened.close();
+		Recorder again = new Recorder();
+		new WalAcceptorStore(dir, 4096, 1000).recover(again);
+		assertEquals(2, again.records.size());
+		assertEquals("promised 5", again.records.get(1));
+	}
+
+	@Test
+	public void testSnapshotReplacesOlderSegments() throws IOException {
+		WalAcceptorStore store = new WalAcceptorStore(dir, 256, 10);
+		store.recover(new Recorder());
+		for (int i = 0; i < 20; i++) {
+			store.logPromised(i);
+		}
+		store.sync();
+		assertTrue(store.snapshotDue());
+		store.snapshot(v -> {
+			v.logPromised(19);
+			v.logAccepted(0, 19, new long[] { 42 });
+		});
+		store.logPromised(20);
+		store.close();
+
+		try (Stream<Path> files = Files.list(dir)) {
+			assertEquals(2, files.count()); // one snapshot and the segment after it
+		}
+		Recorder r = new Recorder();
+		new WalAcceptorStore(dir, 256, 10).recover(r);
+		assertEquals(3, r.records.size());
+		assertEquals("logPromised 19", r.records.get(0));
+		assertEquals("logAccepted 0 19", r.records.get(1));
+		assertEquals("logPromised 20", r.records.get(2));
+	}
+
+	@Test
+	public void testSnapshotHoldsStateMachine() {
+		WalAcceptorStore store = new WalAcceptorStore(dir, 256, 10);
+		store.recover(new Recorder());
+		store.logAccepted(0, 7, new long[] { 1 });
+		store.snapshot(v -> {
+			v.logPromised(7);
+			// larger than a segment, snapshots are not bound to its size
+			v.logSnapshot(40, 90);
+			v.logSnapshotData(new long[100]);
+			v.logSnapshotData(new long[] { 5, 6 });
+			v.logAccepted(41, 7, new long[] { 2 });
+		});
+		store.close();
+
+		Recorder r = new Recorder();
+		new WalAcceptorStore(dir, 256, 10).recover(r);
+		assertEquals(5, r.records.size());
+		assertEquals("logSnapshot 40 90", r.records.get(1));
+		assertEquals("logSnapshotData 100", r.records.get(2));
+		assertEquals("logSnapshotData 2", r.records.get(3));
+		assertEquals("logAccepted 41 7", r.records.get(4));
+		assertArrayEquals(new long[] { 5, 6 }, r.batches.get(1));
+	}
+
+	@Test
+	public void testGroupsShareOneLog() throws IOException {
+		WalAcceptorStore store = new WalAcceptorStore(dir, 4096, 10);
+		AcceptorStore a = store.group(v -> v.logPromised(30));
+		AcceptorStore b = store.group(v -> {
+			v.logPromised(40);
+			v.logAccepted(0, 40, new long[] { 4 });
+		});
+		store.recover(new AcceptorStore.StateVisitor[] { new Recorder(), new Recorder() });
+		a.logPromised(1);
+		b.logPromised(2);
+		b.logAccepted(0, 2, new long[] { 7 });
+		a.logAccepted(0, 1, new long[] { 8 });
+		a.sync();
+		assertTrue(!b.needsSync());
+		store.close();
+
+		WalAcceptorStore reopened = new WalAcceptorStore(dir, 4096, 10);
+		AcceptorStore ra = reopened.group(v -> v.logPromised(30));
+		AcceptorStore rb = reopened.group(v -> {
+			v.logPromised(40);
+			v.logAccepted(0, 40, new long[] { 4 });
+		});
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		reopened.recover(new AcceptorStore.StateVisitor[] { first, second });
+		assertEquals("logPromised 1", first.records.get(0));
+		assertEquals("logAccepted 0 1", first.records.get(1));
+		assertArrayEquals(new long[] { 8 }, first.batches.get(0));
+		assertEquals("logPromised 2", second.records.get(0));
+		assertEquals("logAccepted 0 2", second.records.get(1));
+		assertArrayEquals(new long[] { 7 }, second.batches.get(0));
+
+		// a snapshot taken through any group holds every group
+		rb.snapshot(null);
+		ra.logPromised(31);
+		reopened.close();
+		try (Stream<Path> files = Files.list(dir)) {
+			assertEquals(2, files.count());
+		}
+		first = new Recorder();
+		second = new Recorder();
+		WalAcceptorStore last = new WalAcceptorStore(dir, 4096, 10);
+		last.group(v -> {
+		});
+		last.group(v -> {
+		});
+		last.recover(new AcceptorStore.StateVisitor[] { first, second });
+		assertEquals(2, first.records.size());
+		assertEquals("logPromised 30", first.records.get(0));
+		assertEquals("logPromised 31", first.records.get(1));
+		assertEquals(2, second.records.size());
+		assertEquals("logAccepted 0 40", second.records.get(1));
+		last.close();
+	}
+
+}